@@ -0,0 +1,82 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.utils.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link ByteUtils} conversions used by the binary codec for ASCII and non-ASCII strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ByteUtilsBenchmark {
+
+    @Param({"ascii", "non-ascii"})
+    public String strings;
+
+    private String string;
+    private byte[] stringBytes;
+    private long number = 1466598744000L;
+    private byte[] longBytes;
+    private byte[] intBytes;
+    private ByteBuf out;
+
+    @Setup
+    public void setUp() {
+        string = "ascii".equals(strings) ? "sensor/temperature/plant-7/line-3"
+                : "\u0434\u0430\u0442\u0447\u0438\u043a/\u00b0C/\u6e29\u5ea6/plant-7";
+        stringBytes = ByteUtils.stringToBytes(string);
+        longBytes = ByteUtils.longToBytes(number);
+        intBytes = ByteUtils.integerToBytes((int) number);
+        out = Unpooled.buffer(256);
+    }
+
+    @Benchmark
+    public byte[] longToBytes() {
+        return ByteUtils.longToBytes(number);
+    }
+
+    @Benchmark
+    public long bytesToLong() {
+        return ByteUtils.bytesToLong(longBytes);
+    }
+
+    @Benchmark
+    public byte[] integerToBytes() {
+        return ByteUtils.integerToBytes((int) number);
+    }
+
+    @Benchmark
+    public int bytesToInteger() {
+        return ByteUtils.bytesToInteger(intBytes);
+    }
+
+    @Benchmark
+    public byte[] stringToBytes() {
+        return ByteUtils.stringToBytes(string);
+    }
+
+    @Benchmark
+    public String bytesToString() {
+        return ByteUtils.bytesToString(stringBytes);
+    }
+
+    @Benchmark
+    public int utf8Length() {
+        return ByteUtils.utf8Length(string);
+    }
+
+    @Benchmark
+    public ByteBuf writeUtf8() {
+        out.clear();
+        ByteUtils.writeUtf8(out, string);
+        return out;
+    }
+}
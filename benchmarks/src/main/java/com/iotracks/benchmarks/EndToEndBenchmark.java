@@ -0,0 +1,479 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.api.IOFogClient;
+import com.iotracks.api.client.IOFogOutboundQueue;
+import com.iotracks.api.client.IOFogTransport;
+import com.iotracks.api.listener.IOFogAPIListener;
+import com.iotracks.elements.IOMessage;
+import com.iotracks.server.IOFogStandInServer;
+import com.iotracks.utils.ByteUtils;
+import com.iotracks.ws.manager.WebSocketFlushConsolidationHandler;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end latency and throughput of publishing messages with the real {@link IOFogClient}
+ * against in-process {@link IOFogStandInServer} on loopback, via Message WebSocket
+ * ({@link IOFogClient#sendMessageToWebSocket(IOMessage, long, TimeUnit)}), blocking REST ({@link IOFogClient#pushNewMessage(IOMessage, IOFogAPIListener)})
+ * asynchronous REST ({@link IOFogClient#pushNewMessageAsync(IOMessage)}) or pipelined bulk REST
+ * ({@link IOFogClient#pushMessagesAsync(java.util.Collection)}, --batch messages per call).
+ *
+ * Two latencies are recorded for every message: publish to ACK (server accepted the message and passed it
+ * to its listener) and publish to receipt (client's listener got the receipt with assigned id and timestamp).
+ * In open-loop mode messages are published at a fixed rate regardless of responses and latency is measured
+ * from the intended publish time, so stalls are not hidden (coordinated omission). In closed-loop mode
+ * a fixed number of messages is in flight (WebSocket, asynchronous REST) or of threads publish one after another (REST).
+ * CPU per message is CPU time of the whole process (client and server) divided by received receipts, so are write syscalls
+ * per message (counted by /proc/self/io on Linux).
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.iotracks.benchmarks.EndToEndBenchmark --transport ws --mode open --rate 5000
+ * </pre>
+ * Options: --transport ws|rest|rest-async|rest-bulk, --channel nio|epoll|unix (TCP via NIO, TCP via epoll, Unix domain socket;
+ * native channels fall back to NIO where epoll isn't available, the channel actually used is reported), --mode open|closed, --rate messages per second (open loop),
+ * --concurrency in-flight messages, bulk calls or publishing threads, --batch messages per bulk call, --payload content size in bytes,
+ * --flush off|latency|throughput|adaptive consolidation of WebSocket flushes on both sides, --flush-delay its max delay in microseconds,
+ * --window depth of WebSocket in-flight window (messages awaiting receipts),
+ * --warmup and --duration in seconds, --json file to save results.
+ */
+public final class EndToEndBenchmark {
+
+    private static final String CONTAINER_ID = "e2e-benchmark";
+    private static final int RING_SIZE = 1 << 20;
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final String transport;
+    private final String channel;
+    private final boolean openLoop;
+    private final int rate;
+    private final int concurrency;
+    private final int payloadSize;
+    private final int batch;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final WebSocketFlushConsolidationHandler.Mode flushMode;
+    private final long flushDelayMicros;
+    private final int windowDepth;
+
+    private final AtomicLongArray startTimes = new AtomicLongArray(RING_SIZE);
+    private final LatencyHistogram ackLatency = new LatencyHistogram();
+    private final LatencyHistogram receiptLatency = new LatencyHistogram();
+    private final AtomicLong wsReceipts = new AtomicLong();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final byte[] payload;
+    private volatile long firstMeasured = Long.MAX_VALUE;
+    private volatile long lastReceiptTime;
+    private Semaphore window;
+    private IOFogClient client;
+
+    private EndToEndBenchmark(Map<String, String> options) {
+        transport = options.getOrDefault("transport", "ws");
+        channel = options.getOrDefault("channel", "nio");
+        openLoop = "open".equals(options.getOrDefault("mode", "closed"));
+        rate = Integer.parseInt(options.getOrDefault("rate", "1000"));
+        concurrency = Integer.parseInt(options.getOrDefault("concurrency", "1"));
+        payloadSize = Integer.parseInt(options.getOrDefault("payload", "256"));
+        batch = Integer.parseInt(options.getOrDefault("batch", "100"));
+        warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        durationSeconds = Integer.parseInt(options.getOrDefault("duration", "20"));
+        String flush = options.getOrDefault("flush", "adaptive");
+        flushMode = "off".equals(flush) ? null : WebSocketFlushConsolidationHandler.Mode.valueOf(flush.toUpperCase());
+        flushDelayMicros = Long.parseLong(options.getOrDefault("flush-delay",
+                String.valueOf(WebSocketFlushConsolidationHandler.DEFAULT_MAX_DELAY_MICROS)));
+        windowDepth = Integer.parseInt(options.getOrDefault("window",
+                String.valueOf(IOFogOutboundQueue.DEFAULT_WINDOW_DEPTH)));
+        if (!"ws".equals(transport) && !"rest".equals(transport) && !"rest-async".equals(transport)
+                && !"rest-bulk".equals(transport)) {
+            throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+        if (!"nio".equals(channel) && !"epoll".equals(channel) && !"unix".equals(channel)) {
+            throw new IllegalArgumentException("Unknown channel: " + channel);
+        }
+        if (rate <= 0 || concurrency <= 0 || batch <= 0 || windowDepth <= 0) {
+            throw new IllegalArgumentException("Rate, concurrency, batch and window have to be positive.");
+        }
+        payload = Messages.payload(payloadSize);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        JsonObject result = new EndToEndBenchmark(options).run();
+        String file = options.get("json");
+        if (file != null) {
+            try (Writer writer = new FileWriter(file)) {
+                writer.write(result.toString());
+            }
+        }
+        System.exit(0);
+    }
+
+    private JsonObject run() throws InterruptedException {
+        IOFogStandInServer server = new IOFogStandInServer(this::onServerMessages);
+        server.setFlushConsolidation(flushMode, flushDelayMicros);
+        IOFogTransport serverTransport;
+        if ("unix".equals(channel)) {
+            serverTransport = IOFogTransport.domainSocket(new File(System.getProperty("java.io.tmpdir"),
+                    "iofog-e2e-" + System.nanoTime() + ".sock").getPath(), "127.0.0.1", 0);
+        } else {
+            serverTransport = "epoll".equals(channel) ? IOFogTransport.epoll("127.0.0.1", 0) : IOFogTransport.nio("127.0.0.1", 0);
+        }
+        int port = server.start(serverTransport);
+        client = new IOFogClient("127.0.0.1", port, CONTAINER_ID);
+        client.setFlushConsolidation(flushMode, flushDelayMicros);
+        client.getOutboundQueue().setInFlightWindow(windowDepth, IOFogOutboundQueue.DEFAULT_RECEIPT_TIMEOUT_MILLIS,
+                IOFogOutboundQueue.DEFAULT_MAX_SENDS);
+        if (serverTransport.getType() == IOFogTransport.Type.DOMAIN_SOCKET) {
+            client.setTransport(serverTransport);
+        } else if (serverTransport.getType() == IOFogTransport.Type.EPOLL) {
+            client.setTransport(IOFogTransport.epoll("127.0.0.1", port));
+        } else {
+            client.setTransport(IOFogTransport.nio("127.0.0.1", port));
+        }
+        if ("ws".equals(transport)) {
+            client.openMessageWebSocket(new ReceiptListener() {
+                @Override
+                public void onMessageReceipt(String messageId, long timestamp) {
+                    onReceipt(wsReceipts.getAndIncrement());
+                    if (window != null) {
+                        window.release();
+                    }
+                }
+            });
+        }
+        window = !openLoop && !"rest".equals(transport) ? new Semaphore(concurrency) : null;
+        ExecutorService publishers = openLoop && "rest".equals(transport) ? Executors.newFixedThreadPool(concurrency) : null;
+        long sent;
+        long cpuStart = 0;
+        long writesStart = 0;
+        long measureStart = 0;
+        try {
+            Sender sender = new Sender(publishers);
+            sender.publish(TimeUnit.SECONDS.toNanos(warmupSeconds));
+            awaitCompletion(sender.seq);
+            ackLatency.reset();
+            receiptLatency.reset();
+            completed.reset();
+            errors.reset();
+            firstMeasured = sender.seq;
+            cpuStart = getProcessCpuTime();
+            writesStart = getWriteSyscalls();
+            measureStart = System.nanoTime();
+            sender.publish(TimeUnit.SECONDS.toNanos(durationSeconds));
+            sent = sender.seq - firstMeasured;
+            awaitCompletion(sent);
+        } finally {
+            if (publishers != null) {
+                publishers.shutdownNow();
+            }
+            server.stop();
+        }
+        return report(sent, getProcessCpuTime() - cpuStart, getWriteSyscalls() - writesStart,
+                Math.max(1, lastReceiptTime - measureStart));
+    }
+
+    /**
+     * Publishes messages in open or closed loop, messages are numbered by seq across phases.
+     */
+    private final class Sender {
+        private final ExecutorService publishers;
+        private long seq;
+
+        Sender(ExecutorService publishers) {
+            this.publishers = publishers;
+        }
+
+        void publish(long durationNanos) throws InterruptedException {
+            long start = System.nanoTime();
+            long end = start + durationNanos;
+            int step = "rest-bulk".equals(transport) ? batch : 1;
+            long interval = TimeUnit.SECONDS.toNanos(1) * step / rate;
+            if (!openLoop && "rest".equals(transport)) {
+                publishClosedRest(end);
+                return;
+            }
+            for (long i = 0; ; ) {
+                long intended;
+                if (openLoop) {
+                    intended = start + i * interval;
+                    if (intended >= end) {
+                        return;
+                    }
+                    awaitTime(intended);
+                } else if (window.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                    intended = System.nanoTime();
+                } else if (System.nanoTime() < end) {
+                    continue;
+                } else {
+                    return;
+                }
+                if (intended >= end) {
+                    window.release();
+                    return;
+                }
+                while ("ws".equals(transport) && seq - wsReceipts.get() >= RING_SIZE) {
+                    Thread.yield();
+                }
+                for (int j = 0; j < step; j++) {
+                    startTimes.set(index(seq + j), intended);
+                }
+                if ("ws".equals(transport)) {
+                    client.sendMessageToWebSocket(newMessage(seq), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } else if ("rest-async".equals(transport)) {
+                    pushMessageAsync(seq);
+                } else if ("rest-bulk".equals(transport)) {
+                    pushMessagesAsync(seq, step);
+                } else {
+                    long current = seq;
+                    publishers.execute(() -> pushMessage(current));
+                }
+                i++;
+                seq += step;
+            }
+        }
+
+        private void publishClosedRest(long end) throws InterruptedException {
+            AtomicLong next = new AtomicLong(seq);
+            Runnable loop = () -> {
+                while (System.nanoTime() < end) {
+                    long current = next.getAndIncrement();
+                    startTimes.set(index(current), System.nanoTime());
+                    pushMessage(current);
+                }
+            };
+            Thread[] threads = new Thread[concurrency];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(loop, "e2e-publisher-" + i);
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            seq = next.get();
+        }
+    }
+
+    private static void awaitTime(long time) {
+        long remaining;
+        while ((remaining = time - System.nanoTime()) > 0) {
+            if (remaining > 50_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            }
+        }
+    }
+
+    private IOMessage newMessage(long seq) {
+        IOMessage message = new IOMessage();
+        message.setInfoType("benchmark/e2e");
+        message.setInfoFormat("application/octet-stream");
+        message.setContextData(ByteUtils.longToBytes(seq));
+        message.setContentData(payload);
+        return message;
+    }
+
+    private void pushMessage(long seq) {
+        client.pushNewMessage(newMessage(seq), new ReceiptListener() {
+            @Override
+            public void onMessageReceipt(String messageId, long timestamp) {
+                onReceipt(seq);
+            }
+        });
+    }
+
+    private void pushMessageAsync(long seq) {
+        client.pushNewMessageAsync(newMessage(seq)).whenComplete((receipt, cause) -> {
+            if (cause != null) {
+                errors.increment();
+            } else {
+                onReceipt(seq);
+            }
+            if (window != null) {
+                window.release();
+            }
+        });
+    }
+
+    private void pushMessagesAsync(long firstSeq, int count) {
+        List<IOMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(newMessage(firstSeq + i));
+        }
+        client.pushMessagesAsync(messages).whenComplete((receipts, cause) -> {
+            for (int i = 0; i < count; i++) {
+                if (cause != null || receipts.get(i) == null) {
+                    errors.increment();
+                } else {
+                    onReceipt(firstSeq + i);
+                }
+            }
+            if (window != null) {
+                window.release();
+            }
+        });
+    }
+
+    private void onServerMessages(List<IOMessage> messages) {
+        long now = System.nanoTime();
+        for (IOMessage message : messages) {
+            long seq = ByteUtils.bytesToLong(message.getContextData());
+            if (seq >= firstMeasured) {
+                ackLatency.record(now - startTimes.get(index(seq)));
+            }
+        }
+    }
+
+    private void onReceipt(long seq) {
+        long now = System.nanoTime();
+        if (seq >= firstMeasured) {
+            receiptLatency.record(now - startTimes.get(index(seq)));
+            lastReceiptTime = now;
+        }
+        completed.increment();
+    }
+
+    /**
+     * Waits until receipts (or errors) for all messages published since the last reset are received.
+     */
+    private void awaitCompletion(long expected) {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        while (completed.sum() + errors.sum() < expected && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+    }
+
+    private static int index(long seq) {
+        return (int) (seq & (RING_SIZE - 1));
+    }
+
+    private static long getProcessCpuTime() {
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) bean).getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    /**
+     * Counts write syscalls (write, writev, sendmsg) of the process, client and server together.
+     *
+     * @return number of write syscalls, -1 where /proc/self/io isn't available
+     */
+    private static long getWriteSyscalls() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/io"))) {
+                if (line.startsWith("syscw:")) {
+                    return Long.parseLong(line.substring("syscw:".length()).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    private JsonObject report(long sent, long cpuNanos, long writeSyscalls, long elapsedNanos) {
+        long received = receiptLatency.getTotalCount();
+        double throughput = received * 1e9 / elapsedNanos;
+        double cpuPerMessage = received == 0 ? 0 : cpuNanos / 1e3 / received;
+        double writesPerMessage = received == 0 || writeSyscalls < 0 ? 0 : (double) writeSyscalls / received;
+        System.out.printf("transport=%s channel=%s mode=%s rate=%d concurrency=%d payload=%d duration=%ds flush=%s window=%d%n",
+                transport, client.getTransport().getType(), openLoop ? "open" : "closed", rate, concurrency, payloadSize, durationSeconds,
+                flushMode == null ? "off" : flushMode.toString().toLowerCase() + "/" + flushDelayMicros + "us", windowDepth);
+        System.out.printf("sent %d, receipts %d, errors %d, throughput %.1f msg/s, cpu %.1f us/msg, write syscalls %.2f/msg%n",
+                sent, received, errors.sum(), throughput, cpuPerMessage, writesPerMessage);
+        JsonObjectBuilder result = Json.createObjectBuilder()
+                .add("transport", transport)
+                .add("channel", client.getTransport().getType().toString())
+                .add("mode", openLoop ? "open" : "closed")
+                .add("rate", rate)
+                .add("concurrency", concurrency)
+                .add("payload", payloadSize)
+                .add("duration", durationSeconds)
+                .add("sent", sent)
+                .add("receipts", received)
+                .add("errors", errors.sum())
+                .add("throughput", throughput)
+                .add("cpuMicrosPerMessage", cpuPerMessage)
+                .add("flush", flushMode == null ? "off" : flushMode.toString().toLowerCase())
+                .add("flushDelayMicros", flushDelayMicros)
+                .add("window", windowDepth)
+                .add("retransmitted", client.getOutboundQueue().getRetransmittedCount())
+                .add("writeSyscallsPerMessage", writesPerMessage)
+                .add("ack", latency("ack", ackLatency))
+                .add("receipt", latency("receipt", receiptLatency));
+        return result.build();
+    }
+
+    private static JsonObjectBuilder latency(String name, LatencyHistogram histogram) {
+        JsonObjectBuilder json = Json.createObjectBuilder()
+                .add("count", histogram.getTotalCount())
+                .add("mean", histogram.getMean() / 1e3)
+                .add("max", histogram.getMax() / 1e3);
+        StringBuilder line = new StringBuilder(String.format("%-8s mean %9.1f", name, histogram.getMean() / 1e3));
+        for (double percentile : PERCENTILES) {
+            double value = histogram.getValueAtPercentile(percentile) / 1e3;
+            String label = "p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile).replace(".", ""));
+            json.add(label, value);
+            line.append(String.format("  %s %9.1f", label, value));
+        }
+        line.append(String.format("  max %9.1f us", histogram.getMax() / 1e3));
+        System.out.println(line);
+        return json;
+    }
+
+    /**
+     * Listener that counts failed requests, subclasses record receipts.
+     */
+    private abstract class ReceiptListener implements IOFogAPIListener {
+
+        @Override
+        public void onMessages(List<IOMessage> messages) { }
+
+        @Override
+        public void onMessagesQuery(long timeframestart, long timeframeend, List<IOMessage> messages) { }
+
+        @Override
+        public void onError(Throwable cause) {
+            errors.increment();
+        }
+
+        @Override
+        public void onBadRequest(String error) {
+            errors.increment();
+        }
+
+        @Override
+        public void onNewConfig(JsonObject config) { }
+
+        @Override
+        public void onNewConfigSignal() { }
+    }
+}
@@ -0,0 +1,70 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.api.client.IOFogSpool;
+import com.iotracks.elements.IOMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of spooling a published message compared to encoding it into memory, which every publish does anyway:
+ * append to memory-mapped segment, and the whole life of a spooled message (append, read for delivery, ack),
+ * including creating and deleting segment files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IOFogSpoolBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int contentSize;
+
+    private IOMessage message;
+    private ByteBuf out;
+    private File directory;
+    private IOFogSpool spool;
+
+    @Setup
+    public void setUp() throws IOException {
+        message = Messages.sensorReading(contentSize);
+        out = Unpooled.directBuffer(message.getEncodedLength());
+        directory = Files.createTempDirectory("iofog-spool-benchmark").toFile();
+        spool = new IOFogSpool(directory, IOFogSpool.DEFAULT_SEGMENT_SIZE, IOFogSpool.DEFAULT_MAX_BYTES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        spool.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+        out.release();
+    }
+
+    @Benchmark
+    public ByteBuf encode() {
+        out.clear();
+        message.encodeTo(out);
+        return out;
+    }
+
+    @Benchmark
+    public long appendReadAck() throws IOException {
+        long id = spool.append(message);
+        IOFogSpool.Record record = spool.next();
+        spool.ack(record);
+        return id;
+    }
+}
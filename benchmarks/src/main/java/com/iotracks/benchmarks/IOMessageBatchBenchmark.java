@@ -0,0 +1,167 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageBatch;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.utils.ByteBufJsonReader;
+import com.iotracks.ws.manager.WebSocketManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding of a batch of messages into {@link IOMessage} objects transposed into arrays afterwards
+ * (what analytics consumers do today) with decoding straight into columnar {@link IOMessageBatch},
+ * on WebSocket (binary batch frame) and REST (JSON array) paths. Every operation decodes the batch
+ * and scans it: sums content lengths of messages of one publisher with priority above zero.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IOMessageBatchBenchmark {
+
+    private static final int PUBLISHERS = 8;
+    private static final String TARGET_PUBLISHER = "publisher-3";
+
+    @Param({"1000"})
+    public int messages;
+
+    @Param({"64"})
+    public int contentSize;
+
+    private ByteBuf frame;
+    private ByteBuf json;
+
+    @Setup
+    public void setUp() {
+        frame = Unpooled.buffer();
+        frame.writeByte(WebSocketManager.OPCODE_MSG_BATCH);
+        frame.writeInt(messages);
+        json = Unpooled.buffer();
+        json.writeByte('[');
+        for (int i = 0; i < messages; i++) {
+            IOMessage message = Messages.sensorReading(contentSize);
+            message.setPublisher("publisher-" + i % PUBLISHERS);
+            message.setPriority((byte) (i % 3));
+            message.setTimestamp(1466598744000L + i);
+            byte[] bytes = message.getBytes();
+            frame.writeInt(bytes.length);
+            frame.writeBytes(bytes);
+            if (i > 0) {
+                json.writeByte(',');
+            }
+            IOMessageJsonCodec.encode(message, json);
+        }
+        json.writeByte(']');
+    }
+
+    @Benchmark
+    public long wsObjects() {
+        List<IOMessage> list = WebSocketManager.readBatch(frame, false);
+        try {
+            return scan(transpose(list));
+        } finally {
+            list.forEach(IOMessage::release);
+        }
+    }
+
+    @Benchmark
+    public long wsColumnar() {
+        IOMessageBatch batch = WebSocketManager.readBatch(frame, null, null);
+        try {
+            return scan(batch);
+        } finally {
+            batch.release();
+        }
+    }
+
+    @Benchmark
+    public long restObjects() {
+        List<IOMessage> list = new ArrayList<>(messages);
+        ByteBufJsonReader reader = new ByteBufJsonReader(json);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(IOMessageJsonCodec.decode(reader, new IOMessage()));
+        }
+        reader.endArray();
+        return scan(transpose(list));
+    }
+
+    @Benchmark
+    public long restColumnar() {
+        IOMessageBatch batch = new IOMessageBatch(messages, messages * contentSize);
+        try {
+            ByteBufJsonReader reader = new ByteBufJsonReader(json);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                IOMessageJsonCodec.decode(reader, batch, null);
+            }
+            reader.endArray();
+            return scan(batch);
+        } finally {
+            batch.release();
+        }
+    }
+
+    private static Columns transpose(List<IOMessage> list) {
+        Columns columns = new Columns(list.size());
+        Map<String, Integer> codes = new HashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            IOMessage message = list.get(i);
+            columns.timestamps[i] = message.getTimestamp();
+            columns.priorities[i] = message.getPriority();
+            columns.publishers[i] = codes.computeIfAbsent(message.getPublisher(), key -> codes.size());
+            columns.contents[i] = message.getContentData();
+        }
+        columns.target = codes.getOrDefault(TARGET_PUBLISHER, -1);
+        return columns;
+    }
+
+    private static long scan(Columns columns) {
+        long sum = 0;
+        for (int i = 0; i < columns.priorities.length; i++) {
+            if (columns.publishers[i] == columns.target && columns.priorities[i] > 0) {
+                sum += columns.contents[i].length;
+            }
+        }
+        return sum;
+    }
+
+    private static long scan(IOMessageBatch batch) {
+        int target = batch.getPublisherCode(TARGET_PUBLISHER);
+        int[] publishers = batch.getPublisherCodes();
+        byte[] priorities = batch.getPriorities();
+        int[] offsets = batch.getContentOffsets();
+        long sum = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (publishers[i] == target && priorities[i] > 0) {
+                sum += offsets[i + 1] - offsets[i];
+            }
+        }
+        return sum;
+    }
+
+    private static final class Columns {
+        final long[] timestamps;
+        final byte[] priorities;
+        final int[] publishers;
+        final byte[][] contents;
+        int target;
+
+        Columns(int size) {
+            timestamps = new long[size];
+            priorities = new byte[size];
+            publishers = new int[size];
+            contents = new byte[size][];
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageChain;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures hash rate of {@link IOMessageChain} nonce search and chain verification
+ * depending on number of threads of the fork-join pool.
+ * Nonce search uses unreachable target, so every operation tries exactly {@link #NONCES} nonces.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IOMessageChainBenchmark {
+
+    private static final int NONCES = 1 << 16;
+    private static final int CHAIN_LENGTH = 1024;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private IOMessageChain chain;
+    private byte[] bodyDigest;
+    private List<IOMessage> messages;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool(threads);
+        chain = new IOMessageChain(pool);
+        bodyDigest = IOMessageChain.bodyDigest(Messages.sensorReading(1024));
+        messages = new ArrayList<>(CHAIN_LENGTH);
+        IOMessageChain producer = new IOMessageChain(pool);
+        for (int i = 0; i < CHAIN_LENGTH; i++) {
+            IOMessage message = Messages.sensorReading(1024);
+            message.setDifficultyTarget(4);
+            messages.add(producer.link(message));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NONCES)
+    public long nonceSearch() {
+        return chain.findNonce(bodyDigest, 256, 0, NONCES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHAIN_LENGTH)
+    public int verify() {
+        return chain.verify(messages, "");
+    }
+}
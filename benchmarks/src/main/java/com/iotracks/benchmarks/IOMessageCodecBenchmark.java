@@ -0,0 +1,118 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.utils.ByteBufJsonReader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.json.JsonObject;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode throughput of {@link IOMessage} in binary (WebSocket) and JSON (REST) formats
+ * across payload sizes, ASCII and non-ASCII header strings and sparse and fully populated headers.
+ * JSON is measured both with javax.json ({@link IOMessage#getJson(boolean)} and the JSON constructor)
+ * and with the streaming {@link IOMessageJsonCodec}. Decoders read every field, as consumers converting
+ * the whole message do.
+ *
+ * Run with "-prof gc -rf json -rff codec.json" to get allocation rate per operation in machine-readable form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IOMessageCodecBenchmark {
+
+    @Param({"16", "1024", "65536", "4194304"})
+    public int payloadSize;
+
+    @Param({"ascii", "non-ascii"})
+    public String strings;
+
+    @Param({"sparse", "full"})
+    public String header;
+
+    private IOMessage message;
+    private byte[] bytes;
+    private JsonObject jsonObject;
+    private ByteBuf json;
+    private ByteBuf out;
+
+    @Setup
+    public void setUp() {
+        message = Messages.codecMessage(payloadSize, "ascii".equals(strings), "full".equals(header));
+        bytes = message.getBytes();
+        jsonObject = message.getJson(true);
+        json = Unpooled.buffer(IOMessageJsonCodec.estimateLength(message));
+        IOMessageJsonCodec.encode(message, json);
+        out = Unpooled.buffer(Math.max(bytes.length, json.readableBytes()));
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return message.getBytes();
+    }
+
+    @Benchmark
+    public ByteBuf binaryEncodeTo() {
+        out.clear();
+        message.encodeTo(out);
+        return out;
+    }
+
+    @Benchmark
+    public void binaryDecode(Blackhole bh) {
+        IOMessage decoded = new IOMessage(bytes);
+        consume(decoded, bh);
+        decoded.release();
+    }
+
+    @Benchmark
+    public JsonObject jsonEncode() {
+        return message.getJson(true);
+    }
+
+    @Benchmark
+    public void jsonDecode(Blackhole bh) {
+        consume(new IOMessage(jsonObject, true), bh);
+    }
+
+    @Benchmark
+    public ByteBuf jsonCodecEncode() {
+        out.clear();
+        IOMessageJsonCodec.encode(message, out);
+        return out;
+    }
+
+    @Benchmark
+    public void jsonCodecDecode(Blackhole bh) {
+        consume(IOMessageJsonCodec.decode(new ByteBufJsonReader(json), new IOMessage()), bh);
+    }
+
+    private static void consume(IOMessage message, Blackhole bh) {
+        bh.consume(message.getId());
+        bh.consume(message.getTag());
+        bh.consume(message.getGroupId());
+        bh.consume(message.getSequenceNumber());
+        bh.consume(message.getSequenceTotal());
+        bh.consume(message.getPriority());
+        bh.consume(message.getTimestamp());
+        bh.consume(message.getPublisher());
+        bh.consume(message.getAuthId());
+        bh.consume(message.getAuthGroup());
+        bh.consume(message.getChainPosition());
+        bh.consume(message.getHash());
+        bh.consume(message.getPreviousHash());
+        bh.consume(message.getNonce());
+        bh.consume(message.getDifficultyTarget());
+        bh.consume(message.getInfoType());
+        bh.consume(message.getInfoFormat());
+        bh.consume(message.getContextData());
+        bh.consume(message.getContentData());
+    }
+}
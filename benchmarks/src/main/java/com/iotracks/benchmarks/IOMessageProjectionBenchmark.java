@@ -0,0 +1,93 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageField;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.utils.ByteBufJsonReader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares full and projected decoding of a message with all header fields set
+ * (consumer reads publisher, timestamp, infoType and content) on WebSocket (binary) and REST (JSON) paths.
+ * Full binary decode reads every field, as consumers converting the whole message do.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IOMessageProjectionBenchmark {
+
+    private static final Set<IOMessageField> FIELDS = EnumSet.of(IOMessageField.PUBLISHER,
+            IOMessageField.TIMESTAMP, IOMessageField.INFO_TYPE, IOMessageField.CONTENT_DATA);
+
+    @Param({"64", "1024"})
+    public int contentSize;
+
+    private ByteBuf frame;
+    private ByteBuf json;
+
+    @Setup
+    public void setUp() {
+        IOMessage message = Messages.signedReading(contentSize);
+        frame = Unpooled.wrappedBuffer(message.getBytes());
+        json = Unpooled.buffer();
+        IOMessageJsonCodec.encode(message, json);
+    }
+
+    @Benchmark
+    public void wsDecodeFull(Blackhole bh) {
+        IOMessage message = new IOMessage(frame);
+        bh.consume(message.getId());
+        bh.consume(message.getTag());
+        bh.consume(message.getGroupId());
+        bh.consume(message.getSequenceNumber());
+        bh.consume(message.getSequenceTotal());
+        bh.consume(message.getPriority());
+        bh.consume(message.getAuthId());
+        bh.consume(message.getAuthGroup());
+        bh.consume(message.getChainPosition());
+        bh.consume(message.getHash());
+        bh.consume(message.getPreviousHash());
+        bh.consume(message.getNonce());
+        bh.consume(message.getDifficultyTarget());
+        bh.consume(message.getInfoFormat());
+        bh.consume(message.getContextData());
+        consume(message, bh);
+        message.release();
+    }
+
+    @Benchmark
+    public void wsDecodeProjected(Blackhole bh) {
+        IOMessage message = new IOMessage(frame).project(FIELDS);
+        consume(message, bh);
+        message.release();
+    }
+
+    @Benchmark
+    public void restDecodeFull(Blackhole bh) {
+        IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(json), new IOMessage());
+        consume(message, bh);
+    }
+
+    @Benchmark
+    public void restDecodeProjected(Blackhole bh) {
+        IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(json), new IOMessage(), FIELDS);
+        consume(message, bh);
+    }
+
+    private static void consume(IOMessage message, Blackhole bh) {
+        bh.consume(message.getPublisher());
+        bh.consume(message.getTimestamp());
+        bh.consume(message.getInfoType());
+        bh.consume(message.getContentData());
+    }
+}
@@ -0,0 +1,96 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.utils.ByteBufJsonReader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares per-message allocation of fresh and pooled {@link IOMessage} instances
+ * on inbound paths (WebSocket frame view and REST JSON) and on outbound encoding.
+ * Run with "-prof gc" to see allocation rate per operation (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IOMessageRecyclerBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int contentSize;
+
+    private ByteBuf frame;
+    private ByteBuf json;
+    private ByteBuf out;
+    private ByteBuf content;
+
+    @Setup
+    public void setUp() {
+        IOMessage message = Messages.sensorReading(contentSize);
+        frame = Unpooled.wrappedBuffer(message.getBytes());
+        json = Unpooled.buffer();
+        IOMessageJsonCodec.encode(message, json);
+        out = Unpooled.buffer(message.getEncodedLength());
+        content = Unpooled.wrappedBuffer(message.getContentData());
+    }
+
+    @Benchmark
+    public void wsDecodeNew(Blackhole bh) {
+        IOMessage message = new IOMessage(frame);
+        consume(message, bh);
+        message.release();
+    }
+
+    @Benchmark
+    public void wsDecodePooled(Blackhole bh) {
+        IOMessage message = IOMessage.obtain(frame);
+        consume(message, bh);
+        message.release();
+    }
+
+    @Benchmark
+    public void restDecodeNew(Blackhole bh) {
+        IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(json), new IOMessage());
+        consume(message, bh);
+        message.release();
+    }
+
+    @Benchmark
+    public void restDecodePooled(Blackhole bh) {
+        IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(json), IOMessage.obtain());
+        consume(message, bh);
+        message.release();
+    }
+
+    @Benchmark
+    public void encodeNew(Blackhole bh) {
+        IOMessage message = new IOMessage();
+        Messages.fill(message, content);
+        out.clear();
+        message.encodeTo(out);
+        bh.consume(out);
+    }
+
+    @Benchmark
+    public void encodePooled(Blackhole bh) {
+        IOMessage message = IOMessage.obtain();
+        Messages.fill(message, content);
+        out.clear();
+        message.encodeTo(out);
+        bh.consume(out);
+        message.recycle();
+    }
+
+    private static void consume(IOMessage message, Blackhole bh) {
+        bh.consume(message.getTimestamp());
+        bh.consume(message.getPublisher());
+        bh.consume(message.getContentDataAsByteBuf());
+    }
+}
@@ -0,0 +1,91 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.elements.IOMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Realistic message shapes used by benchmarks.
+ */
+final class Messages {
+
+    private Messages(){ }
+
+    static byte[] payload(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * @return message like the ones sensors publish: a handful of short header strings and a payload
+     */
+    static IOMessage sensorReading(int contentSize) {
+        IOMessage message = new IOMessage();
+        fill(message, Unpooled.wrappedBuffer(payload(contentSize)));
+        return message;
+    }
+
+    /**
+     * @return sensor reading with authentication, hash chain fields and context data set
+     */
+    static IOMessage signedReading(int contentSize) {
+        IOMessage message = sensorReading(contentSize);
+        message.setAuthId("c2Vuc29yLWdhdGV3YXktMDE");
+        message.setAuthGroup("gateways");
+        message.setChainPosition(1024);
+        message.setHash("000f3a9c1be5d0c67f2a41e8b95d7c3e06f18a2b4c9d7e5f3a1b0c8d6e4f2a19");
+        message.setPreviousHash("0007b1c4e9f2a6d3580c7e1b4a9f6d2c85e3b0a7f4c1d8e6b3a9f7c5e2d0b4a6");
+        message.setNonce("1f3c");
+        message.setDifficultyTarget(12);
+        message.setContextData("{\"site\":\"plant-7\",\"line\":3}".getBytes());
+        return message;
+    }
+
+    /**
+     * @param ascii - if header strings are ASCII only, otherwise they contain multi-byte UTF-8 characters
+     * @param full - if all header fields are set, otherwise only publisher, infoType and infoFormat are
+     *
+     * @return message with payload of given size
+     */
+    static IOMessage codecMessage(int contentSize, boolean ascii, boolean full) {
+        String suffix = ascii ? "" : "-\u0434\u0430\u0442\u0447\u0438\u043a-\u00b0C-\u6e29\u5ea6";
+        IOMessage message = new IOMessage();
+        message.setPublisher("wF8VmXj7tdZkX3pQvYNcBqyRLg2Hs9Ah");
+        message.setInfoType("sensor/temperature" + suffix);
+        message.setInfoFormat("application/json");
+        message.setContentData(payload(contentSize));
+        if (full) {
+            message.setId("6Lz4mK2nQbDx9wPf3HtGy7cJ1aVrE0sU");
+            message.setTag("temperature" + suffix);
+            message.setGroupId("group-7" + suffix);
+            message.setSequenceNumber(3);
+            message.setSequenceTotal(12);
+            message.setPriority((byte) 1);
+            message.setTimestamp(1466598744000L);
+            message.setAuthId("c2Vuc29yLWdhdGV3YXktMDE");
+            message.setAuthGroup("gateways" + suffix);
+            message.setChainPosition(1024);
+            message.setHash("000f3a9c1be5d0c67f2a41e8b95d7c3e06f18a2b4c9d7e5f3a1b0c8d6e4f2a19");
+            message.setPreviousHash("0007b1c4e9f2a6d3580c7e1b4a9f6d2c85e3b0a7f4c1d8e6b3a9f7c5e2d0b4a6");
+            message.setNonce("1f3c");
+            message.setDifficultyTarget(12);
+            message.setContextData(("{\"site\":\"plant-7" + suffix + "\",\"line\":3}").getBytes(StandardCharsets.UTF_8));
+        }
+        return message;
+    }
+
+    static void fill(IOMessage message, ByteBuf content) {
+        message.setId("6Lz4mK2nQbDx9wPf3HtGy7cJ1aVrE0sU");
+        message.setTag("temperature");
+        message.setPriority((byte) 1);
+        message.setTimestamp(1466598744000L);
+        message.setPublisher("wF8VmXj7tdZkX3pQvYNcBqyRLg2Hs9Ah");
+        message.setInfoType("sensor/temperature");
+        message.setInfoFormat("application/json");
+        message.setContentData(content);
+    }
+}
@@ -0,0 +1,241 @@
+package com.iotracks.benchmarks;
+
+import com.iotracks.api.client.IOFogConnectionPool;
+import com.iotracks.api.client.IOFogSslConfig;
+import com.iotracks.api.client.IOFogTransport;
+import com.iotracks.server.IOFogStandInServer;
+import com.iotracks.utils.IOFogLocalAPIURL;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.concurrent.Future;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.net.ssl.KeyManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TLS handshakes and per-request latency of REST calls against in-process {@link IOFogStandInServer} with TLS enabled,
+ * for three ways of connecting:
+ * <ul>
+ *     <li>fresh - new SslContext and new connection for every request, as every call did before contexts were cached,
+ *     so each request pays the full handshake</li>
+ *     <li>resumed - cached {@link IOFogSslConfig} context and new connection for every request,
+ *     so each reconnect resumes the previous session (abbreviated handshake)</li>
+ *     <li>pooled - cached context and keep-alive connection of {@link IOFogConnectionPool}, a single handshake</li>
+ * </ul>
+ * Connections are closed by idle timeout between requests, waiting for it isn't measured.
+ * Latency is measured from sending the request to handling the whole response and includes connecting and handshake.
+ * Server's key is a self-signed RSA key generated with keytool of the running JDK.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.iotracks.benchmarks.TlsBenchmark --requests 500
+ * </pre>
+ * Options: --mode fresh|resumed|pooled|all, --requests measured requests per mode, --warmup requests per mode before measuring,
+ * --protocol enabled protocol (e.g. TLSv1.2, provider's defaults otherwise), --json file to save results.
+ */
+public final class TlsBenchmark {
+
+    private static final String CONTAINER_ID = "tls-benchmark";
+    private static final String[] MODES = { "fresh", "resumed", "pooled" };
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+    private static final long IDLE_TIMEOUT_MILLIS = 20;
+    private static final char[] PASSWORD = "iofog-benchmark".toCharArray();
+
+    private final String mode;
+    private final int requests;
+    private final int warmup;
+    private final String protocol;
+
+    private TlsBenchmark(Map<String, String> options) {
+        mode = options.getOrDefault("mode", "all");
+        requests = Integer.parseInt(options.getOrDefault("requests", "500"));
+        warmup = Integer.parseInt(options.getOrDefault("warmup", "50"));
+        protocol = options.get("protocol");
+        if (!"all".equals(mode) && !"fresh".equals(mode) && !"resumed".equals(mode) && !"pooled".equals(mode)) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        if (requests <= 0 || warmup < 0) {
+            throw new IllegalArgumentException("Requests have to be positive.");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        JsonObject result = new TlsBenchmark(options).run();
+        String file = options.get("json");
+        if (file != null) {
+            try (Writer writer = new FileWriter(file)) {
+                writer.write(result.toString());
+            }
+        }
+        System.exit(0);
+    }
+
+    private JsonObject run() throws Exception {
+        IOFogStandInServer server = new IOFogStandInServer(messages -> { });
+        server.setSslContext(buildServerContext());
+        server.setConfig(CONTAINER_ID, Json.createObjectBuilder().add("benchmark", true).build());
+        int port = server.start(0);
+        JsonArrayBuilder results = Json.createArrayBuilder();
+        try {
+            for (String current : MODES) {
+                if ("all".equals(mode) || current.equals(mode)) {
+                    results.add(run(current, server, IOFogTransport.nio("127.0.0.1", port)));
+                }
+            }
+        } finally {
+            server.stop();
+        }
+        return Json.createObjectBuilder().add("results", results).build();
+    }
+
+    private JsonObjectBuilder run(String current, IOFogStandInServer server, IOFogTransport transport) throws Exception {
+        IOFogSslConfig sslConfig = new IOFogSslConfig();
+        if (protocol != null) {
+            sslConfig.protocols(protocol);
+        }
+        boolean reconnect = !"pooled".equals(current);
+        IOFogConnectionPool pool = new IOFogConnectionPool(transport, sslConfig, 1,
+                reconnect ? IDLE_TIMEOUT_MILLIS : TimeUnit.MINUTES.toMillis(1));
+        LatencyHistogram latency = new LatencyHistogram();
+        long handshakes = 0;
+        long resumed = 0;
+        try {
+            for (int i = -warmup; i < requests; i++) {
+                if (i == 0) {
+                    handshakes = server.getHandshakeCount();
+                    resumed = server.getResumedSessionCount();
+                }
+                if ("fresh".equals(current)) {
+                    // any change of configuration drops the cached context
+                    sslConfig.sessionCache(0, 0);
+                }
+                if (reconnect) {
+                    awaitIdleConnectionsClosed(pool);
+                }
+                long start = System.nanoTime();
+                Future<Void> response = pool.send(newRequest(), new ResponseHandler(), true);
+                if (!response.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("Request timed out.");
+                }
+                if (!response.isSuccess()) {
+                    throw new IOException("Request failed.", response.cause());
+                }
+                if (i >= 0) {
+                    latency.record(System.nanoTime() - start);
+                }
+            }
+            handshakes = server.getHandshakeCount() - handshakes;
+            resumed = server.getResumedSessionCount() - resumed;
+        } finally {
+            pool.close();
+        }
+        return report(current, sslConfig, handshakes, resumed, latency);
+    }
+
+    private static void awaitIdleConnectionsClosed(IOFogConnectionPool pool) throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pool.getOpenConnections() > 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IOException("Idle connection wasn't closed.");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static FullHttpRequest newRequest() {
+        ByteBuf content = Unpooled.copiedBuffer(Json.createObjectBuilder().add("id", CONTAINER_ID).build().toString(),
+                StandardCharsets.UTF_8);
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+                IOFogLocalAPIURL.GET_CONFIG_REST_LOCAL_API.getURL(), content);
+        request.headers().set(HttpHeaders.Names.CONTENT_LENGTH, content.readableBytes());
+        request.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+        request.headers().set(HttpHeaders.Names.HOST, "127.0.0.1");
+        return request;
+    }
+
+    private JsonObjectBuilder report(String current, IOFogSslConfig sslConfig, long handshakes, long resumed,
+                                     LatencyHistogram latency) {
+        System.out.printf("mode=%s provider=%s requests=%d handshakes=%d resumed=%d%n",
+                current, sslConfig.getProvider(), requests, handshakes, resumed);
+        JsonObjectBuilder json = Json.createObjectBuilder()
+                .add("mode", current)
+                .add("provider", sslConfig.getProvider().toString())
+                .add("requests", requests)
+                .add("handshakes", handshakes)
+                .add("resumed", resumed)
+                .add("mean", latency.getMean() / 1e3)
+                .add("max", latency.getMax() / 1e3);
+        StringBuilder line = new StringBuilder(String.format("latency  mean %9.1f", latency.getMean() / 1e3));
+        for (double percentile : PERCENTILES) {
+            double value = latency.getValueAtPercentile(percentile) / 1e3;
+            String label = "p" + (long) percentile;
+            json.add(label, value);
+            line.append(String.format("  %s %9.1f", label, value));
+        }
+        line.append(String.format("  max %9.1f us", latency.getMax() / 1e3));
+        System.out.println(line);
+        return json;
+    }
+
+    private static SslContext buildServerContext() throws IOException, GeneralSecurityException, InterruptedException {
+        File keyStoreFile = File.createTempFile("iofog-tls-benchmark", ".p12");
+        keyStoreFile.delete();
+        keyStoreFile.deleteOnExit();
+        String keytool = new File(System.getProperty("java.home"), "bin" + File.separator + "keytool").getPath();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "iofog", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", keyStoreFile.getPath(), "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .inheritIO()
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed with exit code " + process.exitValue());
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keyStoreFile)) {
+            keyStore.load(in, PASSWORD);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, PASSWORD);
+        return SslContextBuilder.forServer(keyManagerFactory).build();
+    }
+
+    /**
+     * Discards responses, only their arrival is measured.
+     */
+    private static final class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) { }
+    }
+}
@@ -0,0 +1,67 @@
+package com.iotracks.api;
+
+import com.iotracks.api.listener.IOFogAPIListener;
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageReceipt;
+
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Result of an asynchronous REST call: listener of the call that completes the future with whatever
+ * the response carries. Type of result is determined by the called URL, so only one of the methods fires.
+ *
+ * @param <T> - type of result
+ */
+@SuppressWarnings("unchecked")
+class IOFogAPIFuture<T> extends CompletableFuture<T> implements IOFogAPIListener {
+
+    @Override
+    public void onMessages(List<IOMessage> messages) {
+        complete((T) messages);
+    }
+
+    @Override
+    public void onMessagesQuery(long timeframestart, long timeframeend, List<IOMessage> messages) {
+        complete((T) messages);
+    }
+
+    @Override
+    public void onError(Throwable cause) {
+        completeExceptionally(cause);
+    }
+
+    @Override
+    public void onBadRequest(String error) {
+        completeExceptionally(new IOFogBadRequestException(error));
+    }
+
+    @Override
+    public void onMessageReceipt(String messageId, long timestamp) {
+        complete((T) new IOMessageReceipt(messageId, timestamp));
+    }
+
+    @Override
+    public void onNewConfig(JsonObject config) {
+        complete((T) config);
+    }
+
+    @Override
+    public void onNewConfigSignal() {
+    }
+
+    /**
+     * Method is triggered when the call is over, it fails the future if response had no result.
+     *
+     * @param cause - cause of failed call, null if response was handled
+     */
+    void onCallComplete(Throwable cause) {
+        if (cause != null) {
+            completeExceptionally(cause);
+        } else if (!isDone()) {
+            completeExceptionally(new IOException("Response of ioFog has no result."));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.iotracks.api;
+
+/**
+ * Exception asynchronous REST calls complete with when ioFog responds with BAD_REQUEST.
+ */
+public class IOFogBadRequestException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param error - error message of the response
+     */
+    public IOFogBadRequestException(String error) {
+        super(error);
+    }
+}
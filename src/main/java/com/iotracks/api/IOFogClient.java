@@ -4,12 +4,23 @@ import com.iotracks.api.client.*;
 import com.iotracks.api.listener.*;
 import com.iotracks.utils.IOFogLocalAPIURL;
 import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageCompressor;
+import com.iotracks.elements.IOMessageField;
+import com.iotracks.elements.IOMessageFilter;
+import com.iotracks.elements.IOMessageFragmenter;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.elements.IOMessageReassembler;
+import com.iotracks.elements.IOMessageReceipt;
 import com.iotracks.api.handler.*;
+import com.iotracks.ws.manager.WebSocketFlushConsolidationHandler;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
-import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
 import io.netty.handler.codec.http.*;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
 import io.netty.util.internal.StringUtil;
 
 import javax.json.Json;
@@ -18,10 +29,21 @@ import javax.json.JsonObject;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -33,6 +55,8 @@ public class IOFogClient {
 
     private static final Logger log = Logger.getLogger(IOFogClient.class.getName());
 
+    private static final int DEFAULT_PIPELINE_DEPTH = 16;
+
     private final String ID_PARAM_NAME = "id";
     private final String TIMEFRAME_START_PARAM_NAME = "timeframestart";
     private final String TIMEFRAME_END_PARAM_NAME = "timeframeend";
@@ -40,7 +64,8 @@ public class IOFogClient {
 
     private String server;
     private int port;
-    private boolean ssl;
+    private volatile boolean ssl;
+    private volatile IOFogSslConfig sslConfig;
     private String elementID = "NOT_DEFINED";
     private IOContainerWSAPIHandler wsMessageHandler = null;
     private IOContainerWSAPIHandler wsControlHandler = null;
@@ -53,6 +78,29 @@ public class IOFogClient {
     public int wsReconnectControlSocketAttempts = 0;
     private final int wsConnectAttemptDelay = 1000;
     private Timer timer;
+    private boolean pooledMessages = false;
+    private int maxFragmentSize = 0;
+    private IOMessageReassembler reassembler = null;
+    private IOMessageCompressor compressor = null;
+    private Set<IOMessageField> wsMessageFields = null;
+    private IOMessageFilter messageFilter = null;
+    private IOFogMessageBatchListener wsBatchListener = null;
+    private IOFogConnectionPool connectionPool = null;
+    private volatile IOFogTransport transport;
+    private int maxConnections = IOFogConnectionPool.DEFAULT_MAX_CONNECTIONS;
+    private long idleTimeoutMillis = IOFogConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private volatile int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+    private final IOFogOutboundQueue outboundQueue = new IOFogOutboundQueue();
+    private volatile WebSocketFlushConsolidationHandler.Mode flushMode = WebSocketFlushConsolidationHandler.Mode.ADAPTIVE;
+    private volatile long flushMaxDelayMicros = WebSocketFlushConsolidationHandler.DEFAULT_MAX_DELAY_MICROS;
+    private volatile IOFogSpool spool = null;
+    private final Object spoolLock = new Object();
+    private final Map<Long, IOFogAPIListener> spoolListeners = new ConcurrentHashMap<>();
+    private int spoolInFlight = 0;
+    private boolean spoolWebSocket = false;
+    private boolean spoolDraining = false;
+    private boolean spoolDrainAgain = false;
+    private boolean spoolRetryScheduled = false;
 
     /**
      * @param host - the server name or ip address (by default "router")
@@ -71,12 +119,14 @@ public class IOFogClient {
         }
         this.port = port != 0 ? port : 54321;
         this.ssl = System.getProperty("ssl") != null;
+        this.sslConfig = ssl ? new IOFogSslConfig() : null;
         String selfname = System.getProperty("SELFNAME");
         if(!StringUtil.isNullOrEmpty(containerId)){
             this.elementID = containerId;
         } else if(!StringUtil.isNullOrEmpty(selfname)) {
             this.elementID = selfname;
         }
+        transport = IOFogTransport.tcp(server, this.port);
         timer = new Timer();
     }
 
@@ -89,19 +139,199 @@ public class IOFogClient {
      *
      */
     private void sendRequest(IOFogLocalAPIURL url, JsonObject content, IOFogAPIListener listener){
-        IOContainerRESTAPIHandler handler = new IOContainerRESTAPIHandler(listener);
-        IOFogAPIConnector localAPIConnector = new IOFogAPIConnector(handler, ssl);
-        Channel channel;
-        try {
-            channel = localAPIConnector.initConnection(server, port);
-            if(channel != null) {
-                channel.writeAndFlush(getRequest(url, HttpMethod.POST, content.toString().getBytes()));
-                channel.closeFuture().sync();
-            }
-        } catch (ConnectException e) {
+        sendRequest(url, content, listener, null);
+    }
+
+    /**
+     * Method sends REST request to ioFog based on parameters.
+     *
+     * @param url - request url
+     * @param content - json representation of request's content
+     * @param listener - listener for REST communication with ioFog
+     * @param fields - fields of received messages to decode, null to decode all of them
+     *
+     */
+    private void sendRequest(IOFogLocalAPIURL url, JsonObject content, IOFogAPIListener listener, Set<IOMessageField> fields){
+        IOContainerRESTAPIHandler handler = new IOContainerRESTAPIHandler(wrapListener(listener), pooledMessages, withRequiredFields(fields));
+        handler.setMessageFilter(messageFilter);
+        sendRequest(url, Unpooled.copiedBuffer(content.toString(), CharsetUtil.UTF_8), handler, true);
+    }
+
+    /**
+     * Method sends REST request to ioFog based on parameters.
+     *
+     * @param url - request url
+     * @param content - request's content (JSON), released after it's sent
+     * @param listener - listener for REST communication with ioFog
+     *
+     */
+    private void sendRequest(IOFogLocalAPIURL url, ByteBuf content, IOFogAPIListener listener){
+        IOContainerRESTAPIHandler handler = new IOContainerRESTAPIHandler(wrapListener(listener), pooledMessages);
+        handler.setMessageFilter(messageFilter);
+        sendRequest(url, content, handler, true);
+    }
+
+    /**
+     * Method sends REST request to ioFog and passes messages from response to listener while it's received.
+     *
+     * @param url - request url
+     * @param content - json representation of request's content
+     * @param listener - listener for streamed messages
+     * @param batchSize - max number of messages passed to listener at once
+     *
+     */
+    private void sendStreamingRequest(IOFogLocalAPIURL url, JsonObject content, IOFogMessageStreamListener listener, int batchSize){
+        IOContainerStreamingRESTAPIHandler handler = new IOContainerStreamingRESTAPIHandler(listener, batchSize, pooledMessages);
+        handler.setMessageFilter(messageFilter);
+        handler.setReassembler(reassembler);
+        sendRequest(url, Unpooled.copiedBuffer(content.toString(), CharsetUtil.UTF_8), handler, false);
+    }
+
+    /**
+     * Method sends REST request to ioFog and decodes messages from response into columnar batches while it's received.
+     *
+     * @param url - request url
+     * @param content - json representation of request's content
+     * @param listener - listener for columnar batches
+     * @param batchSize - max number of messages in a batch
+     *
+     */
+    private void sendBatchRequest(IOFogLocalAPIURL url, JsonObject content, IOFogMessageBatchListener listener, int batchSize){
+        IOContainerStreamingRESTAPIHandler handler = new IOContainerStreamingRESTAPIHandler(listener, batchSize, reassembler);
+        handler.setMessageFilter(messageFilter);
+        sendRequest(url, Unpooled.copiedBuffer(content.toString(), CharsetUtil.UTF_8), handler, false);
+    }
+
+    /**
+     * Method sends REST request over a pooled keep-alive connection and waits until response is handled.
+     * If it's called from a thread of the pool's event loop (e.g. from listener of another REST call),
+     * it doesn't wait, as waiting would block the response.
+     *
+     * @param url - request url
+     * @param content - request's content, released after it's sent
+     * @param handler - handler of response
+     * @param aggregate - if response should be aggregated before it's passed to handler
+     */
+    private void sendRequest(IOFogLocalAPIURL url, ByteBuf content, ChannelHandler handler, boolean aggregate){
+        IOFogConnectionPool pool = getConnectionPool();
+        Future<Void> future = pool.send(getRequest(url, HttpMethod.POST, content), handler, aggregate);
+        if (pool.inEventLoop()) {
+            future.addListener(result -> logRequestFailure(result.cause()));
+            return;
+        }
+        future.awaitUninterruptibly();
+        logRequestFailure(future.cause());
+    }
+
+    /**
+     * Method sends REST request over a pooled keep-alive connection without waiting for response.
+     * Returned future is completed on the pool's event loop once response is handled.
+     * Received messages are not taken from the pool of {@link IOMessage}, as they outlive the response.
+     *
+     * @param url - request url
+     * @param content - request's content (JSON), released after it's sent
+     * @param fields - fields of received messages to decode, null to decode all of them
+     *
+     * @return future of the call's result
+     */
+    private <T> CompletableFuture<T> sendAsyncRequest(IOFogLocalAPIURL url, ByteBuf content, Set<IOMessageField> fields){
+        IOFogAPIFuture<T> future = new IOFogAPIFuture<>();
+        IOContainerRESTAPIHandler handler = new IOContainerRESTAPIHandler(wrapListener(future), false, withRequiredFields(fields));
+        handler.setMessageFilter(messageFilter);
+        getConnectionPool().send(getRequest(url, HttpMethod.POST, content), handler, true)
+                .addListener(result -> future.onCallComplete(result.cause()));
+        return future;
+    }
+
+    private <T> CompletableFuture<T> sendAsyncRequest(IOFogLocalAPIURL url, JsonObject content, Set<IOMessageField> fields){
+        return sendAsyncRequest(url, Unpooled.copiedBuffer(content.toString(), CharsetUtil.UTF_8), fields);
+    }
+
+    private void logRequestFailure(Throwable cause){
+        if (cause instanceof ConnectException) {
             log.warning("Connection exception. Probably ioFog is not reachable.");
-        } catch (InterruptedException e) {
-            log.warning("Error closing and synchronizing request channel.");
+        } else if (cause != null) {
+            log.warning("Error sending request to ioFog: " + cause);
+        }
+    }
+
+    /**
+     * Method returns pool of connections for REST calls, it's created on first call.
+     *
+     * @return IOFogConnectionPool
+     */
+    private synchronized IOFogConnectionPool getConnectionPool(){
+        if (connectionPool == null) {
+            connectionPool = new IOFogConnectionPool(transport, sslConfig, maxConnections, idleTimeoutMillis);
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Sets limits of the pool of keep-alive connections used for REST calls, current pool is closed.
+     *
+     * @param maxConnections - max number of open connections (4 by default)
+     * @param idleTimeoutMillis - time after which unused connection is closed (30 seconds by default)
+     */
+    public synchronized void setConnectionPool(int maxConnections, long idleTimeoutMillis){
+        if (maxConnections < 1 || idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Max connections and idle timeout should be positive.");
+        }
+        this.maxConnections = maxConnections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
+
+    /**
+     * Sets transport of connections to ioFog, e.g. Unix domain socket of co-located ioFog agent:
+     * <pre>
+     *     client.setTransport(IOFogTransport.domainSocket("/var/run/iofog/iofog.sock", "iofog", 54321));
+     * </pre>
+     * By default connections are made over TCP via NIO, {@link IOFogTransport#epoll(String, int)} opts in to epoll on Linux.
+     * Current REST connections are closed, WebSocket connections use new transport when they are opened next time.
+     *
+     * @param transport - transport of connections
+     */
+    public synchronized void setTransport(IOFogTransport transport){
+        this.transport = transport;
+        close();
+    }
+
+    /**
+     * Sets TLS configuration of connections to ioFog (by default TLS is enabled with "ssl" system property),
+     * its context is shared by all connections and sessions are resumed on reconnects:
+     * <pre>
+     *     client.setSslConfig(new IOFogSslConfig().protocols("TLSv1.2").trustManager(new File("iofog.pem")));
+     * </pre>
+     * Current REST connections are closed, WebSocket connections use new configuration when they are opened next time.
+     *
+     * @param sslConfig - TLS configuration, null for plain connections
+     */
+    public synchronized void setSslConfig(IOFogSslConfig sslConfig){
+        this.sslConfig = sslConfig;
+        this.ssl = sslConfig != null;
+        close();
+    }
+
+    public IOFogSslConfig getSslConfig(){
+        return sslConfig;
+    }
+
+    public IOFogTransport getTransport(){
+        return transport;
+    }
+
+    /**
+     * Method closes connections used for REST calls and stops their event loop.
+     * Pool is created again on the next REST call.
+     */
+    public synchronized void close(){
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
         }
     }
 
@@ -110,11 +340,11 @@ public class IOFogClient {
      *
      * @param url - request url
      * @param httpMethod - HTTP method type for request
+     * @param contentBuf - request's content
      *
      * @return HttpRequest
      */
-    private FullHttpRequest getRequest(IOFogLocalAPIURL url, HttpMethod httpMethod, byte[] content){
-        ByteBuf contentBuf = Unpooled.copiedBuffer(content);
+    private FullHttpRequest getRequest(IOFogLocalAPIURL url, HttpMethod httpMethod, ByteBuf contentBuf){
         FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, httpMethod, getURI(url, false).getRawPath(), contentBuf);
         request.headers().set(HttpHeaders.Names.CONTENT_LENGTH, contentBuf.readableBytes());
         request.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json");
@@ -130,8 +360,15 @@ public class IOFogClient {
      *
      */
     private void openWebSocketConnection(IOFogLocalAPIURL wsType, IOFogAPIListener listener){
-        IOContainerWSAPIHandler handler = new IOContainerWSAPIHandler(listener, getURI(wsType, true), elementID, wsType, this);
-        IOWebSocketConnector wsConnector = new IOWebSocketConnector(handler, ssl, server, port);
+        IOFogAPIListener wsListener = wsType == IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API ? wrapListener(listener) : listener;
+        Set<IOMessageField> fields = wsType == IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API ? withRequiredFields(wsMessageFields) : null;
+        IOContainerWSAPIHandler handler = new IOContainerWSAPIHandler(wsListener, getURI(wsType, true), elementID, wsType, this, fields);
+        handler.setFlushConsolidation(flushMode, flushMaxDelayMicros);
+        if (wsType == IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API) {
+            handler.setBatchListener(wsBatchListener, reassembler);
+            handler.setOutboundQueue(outboundQueue);
+        }
+        IOWebSocketConnector wsConnector = new IOWebSocketConnector(handler, sslConfig, transport);
         Thread thread = new Thread(wsConnector);
         thread.start();
         if (wsType == IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API) {
@@ -147,7 +384,9 @@ public class IOFogClient {
         }
         synchronized (wsConnector.lock) {
             try {
-                wsConnector.lock.wait();
+                while (!wsConnector.isFinished()) {
+                    wsConnector.lock.wait();
+                }
                 if (wsConnector.isCaughtException()) {
                     reconnect(wsType, listener);
                 }
@@ -157,21 +396,443 @@ public class IOFogClient {
         }
     }
 
+    private IOMessage compress(IOMessage message){
+        IOMessageCompressor messageCompressor = compressor;
+        return messageCompressor == null ? message : messageCompressor.compress(message);
+    }
+
+    /**
+     * Method adds fields that SDK needs to process received messages (compression and fragmentation markers)
+     * to the fields requested by listener.
+     *
+     * @param fields - fields requested by listener, null for all fields
+     *
+     * @return fields to decode
+     */
+    private Set<IOMessageField> withRequiredFields(Set<IOMessageField> fields){
+        if (fields == null) {
+            return null;
+        }
+        Set<IOMessageField> required = EnumSet.noneOf(IOMessageField.class);
+        required.addAll(fields);
+        required.add(IOMessageField.INFO_FORMAT);
+        if (messageFilter != null) {
+            Collections.addAll(required, IOMessageField.PUBLISHER, IOMessageField.TAG, IOMessageField.INFO_TYPE,
+                    IOMessageField.PRIORITY, IOMessageField.TIMESTAMP);
+        }
+        if (reassembler != null) {
+            required.add(IOMessageField.GROUP_ID);
+            required.add(IOMessageField.SEQUENCE_NUMBER);
+            required.add(IOMessageField.SEQUENCE_TOTAL);
+        }
+        return required;
+    }
+
+    /**
+     * Method wraps listener to join fragmented messages if fragmentation is enabled.
+     *
+     * @param listener - listener for communication with ioFog
+     *
+     * @return IOFogAPIListener
+     */
+    private IOFogAPIListener wrapListener(IOFogAPIListener listener){
+        IOMessageReassembler messageReassembler = reassembler;
+        if (messageReassembler == null || listener instanceof IOFogReassemblingListener) {
+            return listener;
+        }
+        return new IOFogReassemblingListener(listener, messageReassembler);
+    }
+
     /**
      * Method sends IOMessage to ioFog in case Message WebSocket connection is open.
+     * If fragmentation is enabled, message with content bigger than max fragment size is sent in parts
+     * (receipt is received for each part).
+     * If compression is enabled, compressed copy of message is sent.
+     * Method doesn't wait: message is queued while WebSocket can't take it or is being reopened (see {@link #getOutboundQueue()}),
+     * and dropped with a warning if outbound queue is full, like {@link #offerMessageToWebSocket(IOMessage)}.
+     * Use {@link #sendMessageToWebSocket(IOMessage, long, TimeUnit)} to wait for space in the queue.
+     * If spool is set (see {@link #setSpool(IOFogSpool)}), message is appended to it instead and sent from there,
+     * also when WebSocket isn't open.
      *
      * @param message - IOMessage to send
      *
      */
     public void sendMessageToWebSocket(IOMessage message){
-        if(message != null) {
+        List<IOMessage> parts = prepareForWebSocket(message);
+        if (parts != null && !sendToWebSocket(parts, false, 0, TimeUnit.NANOSECONDS)) {
+            log.warning("Message wasn't sent, " + (spool != null ? "spool" : "outbound queue") + " is full.");
+        }
+    }
+
+    /**
+     * Method sends IOMessage to ioFog like {@link #sendMessageToWebSocket(IOMessage)},
+     * waiting for space in outbound queue up to timeout.
+     * Called on a Netty event loop thread (e.g. from listeners) it doesn't wait, as the queue may be drained by that thread.
+     *
+     * @param message - IOMessage to send
+     * @param timeout - max time to wait, Long.MAX_VALUE to wait until there's space
+     * @param unit - unit of timeout
+     *
+     * @return true if message was sent or queued, false if it was rejected
+     */
+    public boolean sendMessageToWebSocket(IOMessage message, long timeout, TimeUnit unit){
+        List<IOMessage> parts = prepareForWebSocket(message);
+        return parts != null && sendToWebSocket(parts, false, timeout, unit);
+    }
+
+    /**
+     * Method sends IOMessage to ioFog like {@link #sendMessageToWebSocket(IOMessage)} if there's space in outbound queue,
+     * so producers can shed load instead of waiting.
+     *
+     * @param message - IOMessage to send
+     *
+     * @return true if message was sent or queued, false if it was rejected
+     */
+    public boolean offerMessageToWebSocket(IOMessage message){
+        return sendMessageToWebSocket(message, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Method sends IOMessage to ioFog like {@link #sendMessageToWebSocket(IOMessage)} without waiting.
+     *
+     * @param message - IOMessage to send
+     *
+     * @return future completed once ioFog sent receipt for message (all its parts), failed with
+     *         {@link RejectedExecutionException} if outbound queue is full or with
+     *         {@link java.io.IOException} if it was dropped without receipt after max sends;
+     *         if spool is set, it's completed once message is spooled or failed if the spool is full
+     */
+    public CompletableFuture<Void> sendMessageToWebSocketAsync(IOMessage message){
+        if (message == null) {
+            throw new IllegalArgumentException("Message can't be null.");
+        }
+        List<IOMessage> parts = prepareForWebSocket(message);
+        if (parts == null) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Message WebSocket isn't open."));
+            return future;
+        }
+        IOFogSpool current = spool;
+        if (current != null) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            if (spool(current, parts, null)) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(new RejectedExecutionException("Spool is full."));
+            }
+            return future;
+        }
+        return outboundQueue.sendAsync(parts, false);
+    }
+
+    /**
+     * Method sends IOMessages to ioFog in a single WebSocket frame in case Message WebSocket connection is open.
+     * Batch is acknowledged once, so it's much cheaper than sending small messages one by one.
+     * If fragmentation is enabled, messages bigger than max fragment size are sent in separate frames.
+     * Method doesn't wait and drops messages with a warning if outbound queue is full, like {@link #sendMessageToWebSocket(IOMessage)}.
+     *
+     * @param messages - IOMessages to send
+     *
+     */
+    public void sendMessagesToWebSocket(List<IOMessage> messages){
+        if (!sendMessagesToWebSocket(messages, 0, TimeUnit.NANOSECONDS) && (wsMessageHandler != null || spool != null)) {
+            log.warning("Messages weren't sent, " + (spool != null ? "spool" : "outbound queue") + " is full.");
+        }
+    }
+
+    /**
+     * Method sends IOMessages to ioFog in a single WebSocket frame like {@link #sendMessagesToWebSocket(List)},
+     * waiting for space in outbound queue up to timeout (not on a Netty event loop thread).
+     *
+     * @param messages - IOMessages to send
+     * @param timeout - max time to wait for all of them, Long.MAX_VALUE to wait until there's space
+     * @param unit - unit of timeout
+     *
+     * @return true if messages were sent or queued, false if some of them were rejected
+     */
+    public boolean sendMessagesToWebSocket(List<IOMessage> messages, long timeout, TimeUnit unit){
+        if(messages == null || messages.isEmpty()) {
+            return true;
+        }
+        if(wsMessageHandler == null && spool == null) {
+            log.warning("Message can be sent to ioFog only if MessageWebSocket connection is established.");
+            return false;
+        }
+        long deadline = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + unit.toNanos(timeout);
+        int fragmentSize = maxFragmentSize;
+        List<IOMessage> batch = new ArrayList<>(messages.size());
+        boolean sent = true;
+        for (IOMessage message : messages) {
             message.setPublisher(elementID);
-            if(wsMessageHandler != null) {
-                wsMessageHandler.sendMessage(elementID, message);
+            message = compress(message);
+            if (fragmentSize > 0 && message.getContentDataLength() > fragmentSize) {
+                sent &= sendToWebSocket(IOMessageFragmenter.split(message, fragmentSize), false, remaining(deadline), TimeUnit.NANOSECONDS);
             } else {
-                log.warning("Message can be sent to ioFog only if MessageWebSocket connection is established.");
+                batch.add(message);
+            }
+        }
+        if (!batch.isEmpty()) {
+            sent &= sendToWebSocket(batch, batch.size() > 1, remaining(deadline), TimeUnit.NANOSECONDS);
+        }
+        return sent;
+    }
+
+    private static long remaining(long deadline){
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Sets how flushes of WebSocket connections are consolidated, so frames written close together
+     * (messages, ACKs, receipts) reach the socket in one syscall (by default ADAPTIVE with max delay of 50 microseconds).
+     * Applies to WebSockets opened afterwards.
+     *
+     * @param mode - how long flushes can wait for more frames (see {@link WebSocketFlushConsolidationHandler}),
+     *             null to flush every frame right away
+     * @param maxDelayMicros - max time flush is delayed by in THROUGHPUT and ADAPTIVE modes
+     */
+    public void setFlushConsolidation(WebSocketFlushConsolidationHandler.Mode mode, long maxDelayMicros){
+        if (maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Max delay can't be negative.");
+        }
+        this.flushMode = mode;
+        this.flushMaxDelayMicros = maxDelayMicros;
+    }
+
+    /**
+     * Sets durable spool of published messages (see {@link IOFogSpool}), so they survive ioFog's restarts
+     * and crashes of the container. Messages sent to Message WebSocket and {@link #pushNewMessage(IOMessage, IOFogAPIListener)}
+     * are appended to the spool and delivered from there in order: via Message WebSocket if it's open (pipelined,
+     * see {@link IOFogOutboundQueue}), via REST one by one otherwise. Spooled message is done once ioFog confirms it.
+     * Delivery is retried every second while ioFog isn't reachable, also for messages the outbound queue gave up on
+     * after max sends, so only messages rejected by ioFog are ever dropped. Messages recovered from the spool are delivered
+     * once it's set.
+     * <pre>
+     *     client.setSpool(new IOFogSpool(new File("/var/spool/sensor"), 16 << 20, 1L << 30));
+     * </pre>
+     *
+     * @param spool - spool of published messages, null to send messages right away
+     */
+    public void setSpool(IOFogSpool spool){
+        synchronized (spoolLock) {
+            this.spool = spool;
+            spoolInFlight = 0;
+            spoolListeners.clear();
+        }
+        drainSpool();
+    }
+
+    public IOFogSpool getSpool(){
+        return spool;
+    }
+
+    /**
+     * Returns queue of messages sent via Message WebSocket with its depth, in-flight messages and number of rejected sends.
+     * Its water marks and in-flight window can be changed:
+     * <pre>
+     *     client.getOutboundQueue().setWaterMarks(32 << 20, 16 << 20);
+     *     client.getOutboundQueue().setInFlightWindow(256, 5000, 10);
+     * </pre>
+     *
+     * @return IOFogOutboundQueue
+     */
+    public IOFogOutboundQueue getOutboundQueue(){
+        return outboundQueue;
+    }
+
+    /**
+     * Method prepares IOMessage to be sent via Message WebSocket: sets publisher, compresses and splits it if enabled.
+     *
+     * @param message - IOMessage to send
+     *
+     * @return messages to send, null if there's nothing to send
+     */
+    private List<IOMessage> prepareForWebSocket(IOMessage message){
+        if(message == null) {
+            return null;
+        }
+        message.setPublisher(elementID);
+        if(wsMessageHandler == null && spool == null) {
+            log.warning("Message can be sent to ioFog only if MessageWebSocket connection is established.");
+            return null;
+        }
+        message = compress(message);
+        int fragmentSize = maxFragmentSize;
+        return fragmentSize > 0 ? IOMessageFragmenter.split(message, fragmentSize) : Collections.singletonList(message);
+    }
+
+    /**
+     * Method appends messages prepared for WebSocket to spool if it's set, queues them otherwise.
+     *
+     * @param messages - messages to send
+     * @param batch - if messages should be sent in a single batch frame
+     * @param timeout - max time to wait for space in outbound queue
+     * @param unit - unit of timeout
+     *
+     * @return true if messages were spooled or queued
+     */
+    private boolean sendToWebSocket(List<IOMessage> messages, boolean batch, long timeout, TimeUnit unit){
+        IOFogSpool current = spool;
+        if (current != null) {
+            return spool(current, messages, null);
+        }
+        return outboundQueue.send(messages, batch, timeout, unit);
+    }
+
+    /**
+     * Method appends messages to spool and starts their delivery.
+     *
+     * @param current - spool
+     * @param messages - messages to append, all or none of them are appended
+     * @param listener - listener for receipt of a single message, null if there's none
+     *
+     * @return true if messages were appended
+     */
+    private boolean spool(IOFogSpool current, List<IOMessage> messages, IOFogAPIListener listener){
+        try {
+            // records can't be read for delivery before their listener is registered
+            synchronized (spoolLock) {
+                if (listener == null) {
+                    if (!current.append(messages)) {
+                        return false;
+                    }
+                } else {
+                    long id = current.append(messages.get(0));
+                    if (id < 0) {
+                        return false;
+                    }
+                    spoolListeners.put(id, listener);
+                }
             }
+        } catch (IOException e) {
+            log.warning("Error appending message to spool: " + e.getMessage());
+            return false;
         }
+        drainSpool();
+        return true;
+    }
+
+    /**
+     * Method sends spooled messages in order: via Message WebSocket while it's open (up to its in-flight window),
+     * via REST one by one otherwise.
+     */
+    private void drainSpool(){
+        synchronized (spoolLock) {
+            if (spoolDraining) {
+                // messages are sent by one thread at a time, so they're queued in the order they're read
+                spoolDrainAgain = true;
+                return;
+            }
+            spoolDraining = true;
+        }
+        try {
+            while (true) {
+                while (sendNextSpooled()) { }
+                synchronized (spoolLock) {
+                    if (!spoolDrainAgain) {
+                        spoolDraining = false;
+                        return;
+                    }
+                    spoolDrainAgain = false;
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (spoolLock) {
+                spoolDraining = false;
+            }
+            throw e;
+        }
+    }
+
+    private boolean sendNextSpooled(){
+        IOFogSpool current = spool;
+        if (current == null) {
+            return false;
+        }
+        IOFogSpool.Record record;
+        // queue's lock isn't taken under spool's lock, receipts complete deliveries under queue's lock
+        boolean webSocket = wsMessageHandler != null && outboundQueue.isAttached();
+        int maxInFlight = webSocket ? outboundQueue.getWindowDepth() : 1;
+        synchronized (spoolLock) {
+            if (spool != current || spoolRetryScheduled || spoolInFlight >= maxInFlight) {
+                return false;
+            }
+            if (spoolInFlight > 0 && spoolWebSocket != webSocket) {
+                // switching between WebSocket and REST waits for sent messages, so they aren't reordered
+                return false;
+            }
+            record = current.next();
+            if (record == null) {
+                return false;
+            }
+            spoolWebSocket = webSocket;
+            spoolInFlight++;
+        }
+        IOMessage message = record.getMessage();
+        CompletableFuture<?> sent;
+        try {
+            sent = webSocket ? outboundQueue.sendAsync(Collections.singletonList(message), false)
+                    : pushNewMessageAsync(message);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            sent = failed;
+        }
+        sent.whenComplete((result, cause) -> onSpoolSent(current, record, message, webSocket, result, cause));
+        return true;
+    }
+
+    private void onSpoolSent(IOFogSpool current, IOFogSpool.Record record, IOMessage message, boolean webSocket,
+                             Object result, Throwable cause){
+        Throwable failure = cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+        try {
+            if (failure == null) {
+                IOFogAPIListener listener = spoolListeners.remove(record.getId());
+                current.ack(record);
+                if (listener != null) {
+                    IOMessageReceipt receipt = webSocket ? new IOMessageReceipt(message.getId(), message.getTimestamp())
+                            : (IOMessageReceipt) result;
+                    listener.onMessageReceipt(receipt.getMessageId(), receipt.getTimestamp());
+                }
+            } else if (failure instanceof IOFogBadRequestException) {
+                // rejected by ioFog, sending it again wouldn't help
+                log.warning("Spooled message wasn't delivered: " + failure.getMessage());
+                IOFogAPIListener listener = spoolListeners.remove(record.getId());
+                current.ack(record);
+                if (listener != null) {
+                    listener.onError(failure);
+                }
+            } else {
+                // not delivered (also dropped by outbound queue after max sends), it stays in the spool
+                current.rewind(record);
+                scheduleSpoolRetry(current);
+            }
+        } finally {
+            message.release();
+            synchronized (spoolLock) {
+                if (spool == current) {
+                    spoolInFlight--;
+                }
+            }
+        }
+        drainSpool();
+    }
+
+    private void scheduleSpoolRetry(IOFogSpool current){
+        synchronized (spoolLock) {
+            if (spool != current || spoolRetryScheduled) {
+                return;
+            }
+            spoolRetryScheduled = true;
+        }
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (spoolLock) {
+                    spoolRetryScheduled = false;
+                }
+                drainSpool();
+            }
+        }, wsConnectAttemptDelay);
     }
 
     /**
@@ -184,6 +845,15 @@ public class IOFogClient {
         sendRequest(IOFogLocalAPIURL.GET_CONFIG_REST_LOCAL_API, Json.createObjectBuilder().add(ID_PARAM_NAME, elementID).build(), listener);
     }
 
+    /**
+     * Method sends request for current Container's configurations without waiting for response.
+     *
+     * @return future of configuration, completed on the event loop of REST connections
+     */
+    public CompletableFuture<JsonObject> fetchContainerConfigAsync(){
+        return sendAsyncRequest(IOFogLocalAPIURL.GET_CONFIG_REST_LOCAL_API, Json.createObjectBuilder().add(ID_PARAM_NAME, elementID).build(), null);
+    }
+
     /**
      * Method sends request for all Container's unread messages.
      *
@@ -194,8 +864,67 @@ public class IOFogClient {
         sendRequest(IOFogLocalAPIURL.GET_NEXT_MSG_REST_LOCAL_API, Json.createObjectBuilder().add(ID_PARAM_NAME, elementID).build(), listener);
     }
 
+    /**
+     * Method sends request for all Container's unread messages, only given fields of messages are decoded.
+     *
+     * @param listener - listener for communication with ioFog
+     * @param fields - fields of messages to decode, other fields have default values
+     *
+     */
+    public void fetchNextMessage(IOFogAPIListener listener, Set<IOMessageField> fields){
+        sendRequest(IOFogLocalAPIURL.GET_NEXT_MSG_REST_LOCAL_API, Json.createObjectBuilder().add(ID_PARAM_NAME, elementID).build(), listener, fields);
+    }
+
+    /**
+     * Method sends request for all Container's unread messages without waiting for response.
+     *
+     * @return future of messages, completed on the event loop of REST connections
+     */
+    public CompletableFuture<List<IOMessage>> fetchNextMessageAsync(){
+        return fetchNextMessageAsync(null);
+    }
+
+    /**
+     * Method sends request for all Container's unread messages without waiting for response,
+     * only given fields of messages are decoded.
+     *
+     * @param fields - fields of messages to decode, other fields have default values, null to decode all of them
+     *
+     * @return future of messages, completed on the event loop of REST connections
+     */
+    public CompletableFuture<List<IOMessage>> fetchNextMessageAsync(Set<IOMessageField> fields){
+        return sendAsyncRequest(IOFogLocalAPIURL.GET_NEXT_MSG_REST_LOCAL_API, Json.createObjectBuilder().add(ID_PARAM_NAME, elementID).build(), fields);
+    }
+
+    /**
+     * Method sends request for all Container's unread messages.
+     * Messages are parsed while response is received and passed to listener in batches,
+     * so memory usage doesn't depend on number of messages.
+     *
+     * @param listener - listener for streamed messages
+     * @param batchSize - max number of messages passed to listener at once
+     *
+     */
+    public void fetchNextMessage(IOFogMessageStreamListener listener, int batchSize){
+        sendStreamingRequest(IOFogLocalAPIURL.GET_NEXT_MSG_REST_LOCAL_API, Json.createObjectBuilder().add(ID_PARAM_NAME, elementID).build(), listener, batchSize);
+    }
+
+    /**
+     * Method sends request for all Container's unread messages.
+     * Messages are decoded straight into columnar batches while response is received, no {@link IOMessage} is built.
+     *
+     * @param listener - listener for columnar batches
+     * @param batchSize - max number of messages in a batch
+     *
+     */
+    public void fetchNextMessage(IOFogMessageBatchListener listener, int batchSize){
+        sendBatchRequest(IOFogLocalAPIURL.GET_NEXT_MSG_REST_LOCAL_API, Json.createObjectBuilder().add(ID_PARAM_NAME, elementID).build(), listener, batchSize);
+    }
+
     /**
      * Method sends request to post Container's new IOMessage to the system.
+     * If spool is set (see {@link #setSpool(IOFogSpool)}), message is appended to it instead and method returns
+     * right away, listener gets receipt once the message is delivered or error if the spool is full.
      *
      * @param message - new IOMessage
      * @param listener - listener for communication with ioFog
@@ -203,11 +932,142 @@ public class IOFogClient {
      */
     public void pushNewMessage(IOMessage message , IOFogAPIListener listener){
         if(message != null) {
-            message.setPublisher(elementID);
-            sendRequest(IOFogLocalAPIURL.POST_MSG_REST_LOCAL_API, message.getJson(true), listener);
+            IOFogSpool current = spool;
+            if (current != null) {
+                message.setPublisher(elementID);
+                if (!spool(current, Collections.singletonList(compress(message)), listener) && listener != null) {
+                    listener.onError(new RejectedExecutionException("Spool is full."));
+                }
+                return;
+            }
+            sendRequest(IOFogLocalAPIURL.POST_MSG_REST_LOCAL_API, encodeNewMessage(message), listener);
         }
     }
 
+    /**
+     * Method sends request to post Container's new IOMessage to the system without waiting for response.
+     * Returned future is completed on the event loop of REST connections, so dependent actions
+     * that take long should be run on another executor (e.g. {@link CompletableFuture#thenAcceptAsync}).
+     *
+     * @param message - new IOMessage
+     *
+     * @return future of message's receipt, it fails with {@link IOFogBadRequestException} on BAD_REQUEST response
+     */
+    public CompletableFuture<IOMessageReceipt> pushNewMessageAsync(IOMessage message){
+        if (message == null) {
+            throw new IllegalArgumentException("Message can't be null.");
+        }
+        return sendAsyncRequest(IOFogLocalAPIURL.POST_MSG_REST_LOCAL_API, encodeNewMessage(message), null);
+    }
+
+    /**
+     * Method posts Container's new IOMessages to the system pipelining requests over pooled keep-alive connections:
+     * up to pipeline depth requests are in flight on every connection without waiting for responses.
+     * Messages are encoded on event loops of connections right before they are sent.
+     * Method waits until every message has a response, then listener gets receipts (onMessageReceipt),
+     * rejections (onBadRequest) and failures (onError) in order of messages.
+     * If it's called from a thread of the REST event loop, it doesn't wait and listener is called when responses arrive.
+     *
+     * @param messages - new IOMessages, they shouldn't be modified until method returns
+     * @param listener - listener for communication with ioFog
+     */
+    public void pushMessages(Collection<IOMessage> messages, IOFogAPIListener listener){
+        List<IOFogAPIFuture<IOMessageReceipt>> receipts = new ArrayList<>(messages.size());
+        IOFogConnectionPool pool = getConnectionPool();
+        Future<Void> future = pushPipelined(pool, new ArrayList<>(messages), receipts);
+        if (pool.inEventLoop()) {
+            future.addListener(result -> deliverReceipts(receipts, result.cause(), listener));
+            return;
+        }
+        future.awaitUninterruptibly();
+        deliverReceipts(receipts, future.cause(), listener);
+    }
+
+    /**
+     * Method posts Container's new IOMessages to the system pipelining requests over pooled keep-alive connections
+     * without waiting for responses (see {@link #pushMessages(Collection, IOFogAPIListener)}).
+     *
+     * @param messages - new IOMessages, they shouldn't be modified until returned future is completed
+     *
+     * @return future of receipts in order of messages, completed when every message has a response;
+     * receipt is null for a message that ioFog rejected or that couldn't be sent
+     */
+    public CompletableFuture<List<IOMessageReceipt>> pushMessagesAsync(Collection<IOMessage> messages){
+        List<IOFogAPIFuture<IOMessageReceipt>> receipts = new ArrayList<>(messages.size());
+        CompletableFuture<List<IOMessageReceipt>> result = new CompletableFuture<>();
+        pushPipelined(getConnectionPool(), new ArrayList<>(messages), receipts).addListener(done -> {
+            List<IOMessageReceipt> list = new ArrayList<>(receipts.size());
+            for (IOFogAPIFuture<IOMessageReceipt> receipt : receipts) {
+                receipt.onCallComplete(done.cause());
+                list.add(receipt.isCompletedExceptionally() ? null : receipt.getNow(null));
+            }
+            result.complete(list);
+        });
+        return result;
+    }
+
+    /**
+     * Sets max number of pipelined requests in flight on a connection for {@link #pushMessages(Collection, IOFogAPIListener)}.
+     *
+     * @param pipelineDepth - max number of requests in flight on a connection (16 by default)
+     */
+    public void setPipelineDepth(int pipelineDepth){
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("Pipeline depth should be positive: " + pipelineDepth);
+        }
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    private Future<Void> pushPipelined(IOFogConnectionPool pool, List<IOMessage> messages,
+                                       List<IOFogAPIFuture<IOMessageReceipt>> receipts){
+        for (int i = 0; i < messages.size(); i++) {
+            receipts.add(new IOFogAPIFuture<>());
+        }
+        return pool.sendPipelined(messages.size(),
+                index -> getRequest(IOFogLocalAPIURL.POST_MSG_REST_LOCAL_API, HttpMethod.POST, encodeNewMessage(messages.get(index))),
+                pipelineDepth,
+                new IOFogConnectionPool.PipelineCallback() {
+                    @Override
+                    public void onResponse(int index, FullHttpResponse response) {
+                        new IOContainerRESTAPIHandler(receipts.get(index)).handleResponse(response);
+                    }
+
+                    @Override
+                    public void onFailure(int index, Throwable cause) {
+                        receipts.get(index).completeExceptionally(cause);
+                    }
+                });
+    }
+
+    private void deliverReceipts(List<IOFogAPIFuture<IOMessageReceipt>> receipts, Throwable cause, IOFogAPIListener listener){
+        for (IOFogAPIFuture<IOMessageReceipt> receipt : receipts) {
+            receipt.onCallComplete(cause);
+            try {
+                IOMessageReceipt result = receipt.join();
+                listener.onMessageReceipt(result.getMessageId(), result.getTimestamp());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOFogBadRequestException) {
+                    listener.onBadRequest(e.getCause().getMessage());
+                } else {
+                    listener.onError(e.getCause());
+                }
+            }
+        }
+    }
+
+    private ByteBuf encodeNewMessage(IOMessage message){
+        message.setPublisher(elementID);
+        message = compress(message);
+        ByteBuf content = ByteBufAllocator.DEFAULT.buffer(IOMessageJsonCodec.estimateLength(message));
+        try {
+            IOMessageJsonCodec.encode(message, content);
+        } catch (RuntimeException e) {
+            content.release();
+            throw e;
+        }
+        return content;
+    }
+
     /**
      * Method sends request for all Container's messages for specified publishers and period.
      *
@@ -219,12 +1079,93 @@ public class IOFogClient {
      */
     public void fetchMessagesByQuery(Date startDate, Date endDate,
                                                 Set<String> publishers, IOFogAPIListener listener){
-        JsonObject json = Json.createObjectBuilder().add(ID_PARAM_NAME, elementID)
+        sendRequest(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API, getQueryJson(startDate, endDate, publishers), listener);
+    }
+
+    /**
+     * Method sends request for all Container's messages for specified publishers and period,
+     * only given fields of messages are decoded.
+     *
+     * @param startDate - start date of period
+     * @param endDate - end date of period
+     * @param publishers - set of publisher's IDs
+     * @param listener - listener for communication with ioFog
+     * @param fields - fields of messages to decode, other fields have default values
+     *
+     */
+    public void fetchMessagesByQuery(Date startDate, Date endDate, Set<String> publishers,
+                                     IOFogAPIListener listener, Set<IOMessageField> fields){
+        sendRequest(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API, getQueryJson(startDate, endDate, publishers), listener, fields);
+    }
+
+    /**
+     * Method sends request for all Container's messages for specified publishers and period without waiting for response.
+     *
+     * @param startDate - start date of period
+     * @param endDate - end date of period
+     * @param publishers - set of publisher's IDs
+     *
+     * @return future of messages, completed on the event loop of REST connections
+     */
+    public CompletableFuture<List<IOMessage>> fetchMessagesByQueryAsync(Date startDate, Date endDate, Set<String> publishers){
+        return fetchMessagesByQueryAsync(startDate, endDate, publishers, null);
+    }
+
+    /**
+     * Method sends request for all Container's messages for specified publishers and period without waiting for response,
+     * only given fields of messages are decoded.
+     *
+     * @param startDate - start date of period
+     * @param endDate - end date of period
+     * @param publishers - set of publisher's IDs
+     * @param fields - fields of messages to decode, other fields have default values, null to decode all of them
+     *
+     * @return future of messages, completed on the event loop of REST connections
+     */
+    public CompletableFuture<List<IOMessage>> fetchMessagesByQueryAsync(Date startDate, Date endDate, Set<String> publishers,
+                                                                        Set<IOMessageField> fields){
+        return sendAsyncRequest(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API, getQueryJson(startDate, endDate, publishers), fields);
+    }
+
+    /**
+     * Method sends request for all Container's messages for specified publishers and period.
+     * Messages are parsed while response is received and passed to listener in batches,
+     * so memory usage doesn't depend on number of messages.
+     *
+     * @param startDate - start date of period
+     * @param endDate - end date of period
+     * @param publishers - set of publisher's IDs
+     * @param listener - listener for streamed messages
+     * @param batchSize - max number of messages passed to listener at once
+     *
+     */
+    public void fetchMessagesByQuery(Date startDate, Date endDate, Set<String> publishers,
+                                     IOFogMessageStreamListener listener, int batchSize){
+        sendStreamingRequest(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API, getQueryJson(startDate, endDate, publishers), listener, batchSize);
+    }
+
+    /**
+     * Method sends request for all Container's messages for specified publishers and period.
+     * Messages are decoded straight into columnar batches while response is received, no {@link IOMessage} is built.
+     *
+     * @param startDate - start date of period
+     * @param endDate - end date of period
+     * @param publishers - set of publisher's IDs
+     * @param listener - listener for columnar batches
+     * @param batchSize - max number of messages in a batch
+     *
+     */
+    public void fetchMessagesByQuery(Date startDate, Date endDate, Set<String> publishers,
+                                     IOFogMessageBatchListener listener, int batchSize){
+        sendBatchRequest(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API, getQueryJson(startDate, endDate, publishers), listener, batchSize);
+    }
+
+    private JsonObject getQueryJson(Date startDate, Date endDate, Set<String> publishers){
+        return Json.createObjectBuilder().add(ID_PARAM_NAME, elementID)
                 .add(TIMEFRAME_START_PARAM_NAME, startDate.getTime())
                 .add(TIMEFRAME_END_PARAM_NAME, endDate.getTime())
                 .add(PUBLISHERS_PARAM_NAME, publishers.toString())
                 .build();
-        sendRequest(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API, json, listener);
     }
 
     /**
@@ -244,9 +1185,113 @@ public class IOFogClient {
      *
      */
     public void openMessageWebSocket(IOFogAPIListener listener){
+        openMessageWebSocket(listener, (Set<IOMessageField>) null);
+    }
+
+    /**
+     * Method opens a Message WebSocket connection to ioFog in a separate thread,
+     * only given fields of received messages are decoded.
+     *
+     * @param listener - listener for communication with ioFog
+     * @param fields - fields of messages to decode (other fields have default values), null to decode all fields
+     *
+     */
+    public void openMessageWebSocket(IOFogAPIListener listener, Set<IOMessageField> fields){
+        wsMessageFields = fields;
+        wsBatchListener = null;
         openWebSocketConnection(IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API, listener);
     }
 
+    /**
+     * Method opens a Message WebSocket connection to ioFog in a separate thread,
+     * received messages are decoded straight into columnar batches (one batch per frame).
+     *
+     * @param listener - listener for communication with ioFog (receipts and errors)
+     * @param batchListener - listener for received messages
+     *
+     */
+    public void openMessageWebSocket(IOFogAPIListener listener, IOFogMessageBatchListener batchListener){
+        wsMessageFields = null;
+        wsBatchListener = batchListener;
+        openWebSocketConnection(IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API, listener);
+    }
+
+    /**
+     * Enables pooled mode for received messages (disabled by default).
+     * In pooled mode messages passed to listeners are taken from the thread-local pool of {@link IOMessage}
+     * and returned to it right after listener's method returns, so they are valid only during the call.
+     * Listener that needs a message longer should {@link IOMessage#retain()} it
+     * and {@link IOMessage#release()} it when it's done.
+     *
+     * @param pooledMessages - true to enable pooled mode
+     */
+    public void setPooledMessages(boolean pooledMessages){
+        this.pooledMessages = pooledMessages;
+    }
+
+    public boolean isPooledMessages(){
+        return pooledMessages;
+    }
+
+    /**
+     * Enables fragmentation of big messages with default reassembly limits
+     * (see {@link IOMessageReassembler#DEFAULT_MAX_BUFFERED_BYTES} and {@link IOMessageReassembler#DEFAULT_GROUP_TIMEOUT}).
+     *
+     * @param maxFragmentSize - max content size of message sent via WebSocket in one frame, 0 disables fragmentation
+     */
+    public void setFragmentation(int maxFragmentSize){
+        setFragmentation(maxFragmentSize, maxFragmentSize > 0 ? new IOMessageReassembler() : null);
+    }
+
+    /**
+     * Enables fragmentation of big messages (disabled by default).
+     * Content of message sent via Message WebSocket that is bigger than maxFragmentSize is split into parts
+     * with common generated groupId and sequenceNumber/sequenceTotal set, so smaller messages aren't waiting behind it.
+     * Received parts are joined by reassembler and listeners get complete messages only.
+     * Listeners should be registered after fragmentation is enabled.
+     *
+     * @param maxFragmentSize - max content size of message sent via WebSocket in one frame, 0 disables fragmentation
+     * @param reassembler - buffer for received parts, null disables reassembly
+     */
+    public void setFragmentation(int maxFragmentSize, IOMessageReassembler reassembler){
+        if (maxFragmentSize < 0) {
+            throw new IllegalArgumentException("Max fragment size should not be negative.");
+        }
+        this.maxFragmentSize = maxFragmentSize;
+        this.reassembler = reassembler;
+    }
+
+    public int getMaxFragmentSize(){
+        return maxFragmentSize;
+    }
+
+    /**
+     * Sets filter of received messages (applies to WebSockets opened and requests sent after the call).
+     * Via Message WebSocket filter is evaluated against encoded messages, rejected messages are acknowledged
+     * and dropped without decoding. Messages received via REST are filtered after JSON decode.
+     * Listeners get only accepted messages. Filter's hit and miss counters show how many messages were accepted and rejected.
+     *
+     * @param filter - filter of messages, null to accept all
+     */
+    public void setMessageFilter(IOMessageFilter filter){
+        this.messageFilter = filter;
+    }
+
+    public IOMessageFilter getMessageFilter(){
+        return messageFilter;
+    }
+
+    /**
+     * Enables compression of content and context data of sent messages (disabled by default).
+     * Messages smaller than compressor's threshold are sent as is.
+     * Received compressed messages are decompressed regardless of this setting.
+     *
+     * @param compressor - compressor of sent messages, null disables compression
+     */
+    public void setCompression(IOMessageCompressor compressor){
+        this.compressor = compressor;
+    }
+
     /**
      * Method constructs a URL for request.
      *
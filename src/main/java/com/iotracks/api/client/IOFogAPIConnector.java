@@ -1,21 +1,22 @@
 package com.iotracks.api.client;
 
-import com.iotracks.api.handler.*;
+import com.iotracks.api.handler.IOContainerRESTAPIHandler;
+import com.iotracks.api.handler.IOContainerWSAPIHandler;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
-import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import javax.net.ssl.SSLException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -29,9 +30,11 @@ public class IOFogAPIConnector {
 
     protected Bootstrap bootstrap;
     protected EventLoopGroup workerGroup;
+    private SocketAddress remoteAddress;
     private volatile Boolean connectionSuccess;
     private volatile Boolean operationComplete = false;
     private final Object lock = new Object();
+    private static final IOFogSslConfig DEFAULT_SSL_CONFIG = new IOFogSslConfig();
 
     private Bootstrap init(){
         workerGroup = new NioEventLoopGroup();
@@ -41,17 +44,27 @@ public class IOFogAPIConnector {
         return bootstrap;
     }
 
+    private Bootstrap init(IOFogTransport transport){
+        workerGroup = transport.newEventLoopGroup(0, new DefaultThreadFactory("iofog-api"));
+        remoteAddress = transport.getAddress();
+        bootstrap = transport.configure(new Bootstrap().group(workerGroup));
+        return bootstrap;
+    }
+
     /**
      * Creates a new IOFogAPIConnector for REST calls.
      * @param handler - instance of {@link IOContainerRESTAPIHandler}
-     * @param ssl
+     * @param ssl - indicates if connection should be established through secured protocol
+     *
+     * @deprecated REST calls should be sent via {@link IOFogConnectionPool#send}, which reuses keep-alive connections
      */
+    @Deprecated
     public IOFogAPIConnector(IOContainerRESTAPIHandler handler, boolean ssl){
         bootstrap = init();
-        bootstrap.handler(new ChannelInitializer() {
+        bootstrap.handler(new ChannelInitializer<Channel>() {
             @Override
             protected void initChannel(Channel channel){
-                addDefaultHandlers(ssl, channel);
+                addDefaultHandlers(ssl ? DEFAULT_SSL_CONFIG : null, null, channel);
                 channel.pipeline().addLast(handler);
             }
         });
@@ -63,11 +76,22 @@ public class IOFogAPIConnector {
      * @param ssl - indicates if connection should be established through secured protocol
      */
     public IOFogAPIConnector(IOContainerWSAPIHandler handler, boolean ssl){
-        bootstrap = init();
-        bootstrap.handler(new ChannelInitializer() {
+        this(handler, ssl ? DEFAULT_SSL_CONFIG : null, null);
+    }
+
+    /**
+     * Creates a new IOFogAPIConnector for WebSocket transmissions over given transport,
+     * connection is opened with {@link #initConnection()}.
+     * @param handler - instance of {@link IOContainerWSAPIHandler}
+     * @param sslConfig - TLS configuration of connection, null for plain connection
+     * @param transport - transport of connection, null for NIO over TCP
+     */
+    public IOFogAPIConnector(IOContainerWSAPIHandler handler, IOFogSslConfig sslConfig, IOFogTransport transport){
+        bootstrap = transport != null ? init(transport) : init();
+        bootstrap.handler(new ChannelInitializer<Channel>() {
             @Override
             protected void initChannel(Channel channel){
-                addDefaultHandlers(ssl, channel);
+                addDefaultHandlers(sslConfig, transport, channel);
                 channel.pipeline().addLast(handler);
             }
         });
@@ -82,7 +106,19 @@ public class IOFogAPIConnector {
      * @return a channel bound to the specified server
      */
     public Channel initConnection(String server, int port) throws ConnectException {
-        InetSocketAddress socketAddress = new InetSocketAddress(server, port);
+        return initConnection(new InetSocketAddress(server, port));
+    }
+
+    /**
+     * Returns a channel bound to the address of transport the connector was created with.
+     *
+     * @return a channel bound to ioFog
+     */
+    public Channel initConnection() throws ConnectException {
+        return initConnection(remoteAddress);
+    }
+
+    private Channel initConnection(SocketAddress socketAddress) throws ConnectException {
         try {
             final ChannelFuture channelFuture = bootstrap.connect(socketAddress);
             channelFuture.addListener(new GenericFutureListener<Future<Object>>() {
@@ -114,24 +150,25 @@ public class IOFogAPIConnector {
         }
     }
 
-    private void addDefaultHandlers(boolean ssl, Channel channel) {
-        if(ssl) {
+    private void addDefaultHandlers(IOFogSslConfig sslConfig, IOFogTransport transport, Channel channel) {
+        if(sslConfig != null) {
            try {
-               /* SelfSignedCertificate ssc = new SelfSignedCertificate();
-                SslContext sslCtx =  SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey()).build();*/
-                SslContext sslCtx = SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build();
-                channel.pipeline().addLast(sslCtx.newHandler(channel.alloc()));
+                channel.pipeline().addLast(transport != null
+                        ? sslConfig.newHandler(channel.alloc(), transport.getHost(), transport.getPort())
+                        : sslConfig.getContext().newHandler(channel.alloc()));
            } catch (SSLException e) {
                log.warning("Error building SSL context.");
+               channel.close();
            }
         }
-        channel.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(Integer.MAX_VALUE));
+        channel.pipeline().addLast(new HttpClientCodec());
+        channel.pipeline().addLast(new HttpObjectAggregator(Integer.MAX_VALUE));
     }
 
     /**
-     * Shuts down connection.
+     * Shuts down connection and its event loop right away (without quiet period).
      */
     public void destroyConnection(){
-        workerGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
     }
 }
@@ -0,0 +1,463 @@
+package com.iotracks.api.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import javax.net.ssl.SSLException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+
+/**
+ * Client-wide pool of HTTP/1.1 keep-alive connections to ioFog for REST calls.
+ * All connections share one event loop group. Connections are checked to be open before they are reused,
+ * connections closed by server are replaced and connections idle for longer than idle timeout are closed.
+ * Number of connections is bounded, calls wait for a free connection when all of them are busy.
+ *
+ * Request to a reused connection that server closed before responding is resent once over another connection.
+ */
+public class IOFogConnectionPool {
+
+    private static final Logger log = Logger.getLogger(IOFogConnectionPool.class.getName());
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 30000;
+    private static final int MAX_ATTEMPTS = 2;
+    private static final AttributeKey<Boolean> IN_USE = AttributeKey.valueOf("iofog.connection.inUse");
+    private static final AttributeKey<Boolean> REUSED = AttributeKey.valueOf("iofog.connection.reused");
+    private static final String TRACKER = "iofog-response-tracker";
+    private static final String AGGREGATOR = "iofog-aggregator";
+    private static final String HANDLER = "iofog-response-handler";
+
+    private final EventLoopGroup workerGroup;
+    private final FixedChannelPool pool;
+    private final int maxConnections;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger createdConnections = new AtomicInteger();
+
+    /**
+     * @param host - the server name or ip address
+     * @param port - the listening port
+     * @param ssl - indicates if connections should be established through secured protocol
+     */
+    public IOFogConnectionPool(String host, int port, boolean ssl) {
+        this(host, port, ssl, DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param host - the server name or ip address
+     * @param port - the listening port
+     * @param ssl - indicates if connections should be established through secured protocol
+     * @param maxConnections - max number of open connections
+     * @param idleTimeoutMillis - time after which unused connection is closed
+     */
+    public IOFogConnectionPool(String host, int port, boolean ssl, int maxConnections, long idleTimeoutMillis) {
+        this(IOFogTransport.tcp(host, port), ssl ? new IOFogSslConfig() : null, maxConnections, idleTimeoutMillis);
+    }
+
+    /**
+     * @param transport - transport of connections
+     * @param sslConfig - TLS configuration of connections, null for plain connections
+     * @param maxConnections - max number of open connections
+     * @param idleTimeoutMillis - time after which unused connection is closed
+     */
+    public IOFogConnectionPool(IOFogTransport transport, IOFogSslConfig sslConfig, int maxConnections, long idleTimeoutMillis) {
+        if (maxConnections < 1 || idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Max connections and idle timeout should be positive.");
+        }
+        this.maxConnections = maxConnections;
+        workerGroup = transport.newEventLoopGroup(0, "iofog-rest");
+        Bootstrap bootstrap = transport.configure(new Bootstrap().group(workerGroup));
+        pool = new FixedChannelPool(bootstrap, new AbstractChannelPoolHandler() {
+            @Override
+            public void channelCreated(Channel channel) {
+                createdConnections.incrementAndGet();
+                openConnections.incrementAndGet();
+                channel.closeFuture().addListener(future -> openConnections.decrementAndGet());
+                ChannelPipeline pipeline = channel.pipeline();
+                if (sslConfig != null) {
+                    try {
+                        pipeline.addLast(sslConfig.newHandler(channel.alloc(), transport.getHost(), transport.getPort()));
+                    } catch (SSLException e) {
+                        throw new IllegalStateException("Error building SSL context.", e);
+                    }
+                }
+                pipeline.addLast(new HttpClientCodec());
+                pipeline.addLast(new IdleStateHandler(0, 0, idleTimeoutMillis, TimeUnit.MILLISECONDS));
+                pipeline.addLast(new IdleConnectionEvictor());
+            }
+        }, ChannelHealthChecker.ACTIVE, FixedChannelPool.AcquireTimeoutAction.FAIL, ACQUIRE_TIMEOUT_MILLIS,
+                maxConnections, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Method sends request over a pooled connection and passes response to handler.
+     * Connection returns to the pool once the whole response is handled.
+     *
+     * @param request - request to send, released after it's sent
+     * @param handler - handler of response, it's removed from the connection afterwards
+     * @param aggregate - if response should be aggregated into {@link io.netty.handler.codec.http.FullHttpResponse}
+     *                  before it's passed to handler
+     *
+     * @return future completed when response is handled or connection failed
+     */
+    public Future<Void> send(FullHttpRequest request, ChannelHandler handler, boolean aggregate) {
+        Promise<Void> promise = GlobalEventExecutor.INSTANCE.newPromise();
+        send(request, handler, aggregate, 1, promise);
+        return promise;
+    }
+
+    private void send(FullHttpRequest request, ChannelHandler handler, boolean aggregate, int attempt, Promise<Void> promise) {
+        pool.acquire().addListener((Future<Channel> acquired) -> {
+            if (!acquired.isSuccess()) {
+                request.release();
+                promise.tryFailure(acquired.cause());
+                return;
+            }
+            Channel channel = acquired.getNow();
+            if (channel.eventLoop().inEventLoop()) {
+                send(channel, request, handler, aggregate, attempt, promise);
+            } else {
+                // pipeline of connection is changed from its own event loop only, otherwise event loops could wait for each other
+                channel.eventLoop().execute(() -> send(channel, request, handler, aggregate, attempt, promise));
+            }
+        });
+    }
+
+    private void send(Channel channel, FullHttpRequest request, ChannelHandler handler, boolean aggregate, int attempt,
+                      Promise<Void> promise) {
+        if (!channel.isActive()) {
+            // connection was closed (e.g. evicted as idle) before it was handed over, tracker wouldn't see it
+            release(channel, false);
+            if (attempt < MAX_ATTEMPTS) {
+                send(request, handler, aggregate, attempt + 1, promise);
+            } else {
+                request.release();
+                promise.tryFailure(new ClosedChannelException());
+            }
+            return;
+        }
+        boolean reused = channel.attr(REUSED).getAndSet(Boolean.TRUE) != null;
+        channel.attr(IN_USE).set(Boolean.TRUE);
+        try {
+            channel.pipeline().addLast(TRACKER, new IOFogResponseTracker(new IOFogResponseTracker.Callback() {
+                @Override
+                public void onResponse(Channel channel) {
+                    // handler is added only once response starts, so request can be resent if connection was stale
+                    if (aggregate) {
+                        channel.pipeline().addLast(AGGREGATOR, new HttpObjectAggregator(Integer.MAX_VALUE));
+                    }
+                    channel.pipeline().addLast(HANDLER, handler);
+                }
+
+                @Override
+                public void onComplete(Channel channel, boolean keepAlive) {
+                    request.release();
+                    release(channel, keepAlive);
+                    promise.trySuccess(null);
+                }
+
+                @Override
+                public void onClosed(Channel channel, boolean responseStarted) {
+                    release(channel, false);
+                    if (!responseStarted && reused && attempt < MAX_ATTEMPTS) {
+                        send(request, handler, aggregate, attempt + 1, promise);
+                    } else {
+                        request.release();
+                        promise.tryFailure(new ClosedChannelException());
+                    }
+                }
+            }));
+            channel.writeAndFlush(request.duplicate().retain()).addListener(written -> {
+                if (!written.isSuccess()) {
+                    channel.close();
+                }
+            });
+        } catch (RuntimeException e) {
+            release(channel, false);
+            request.release();
+            promise.tryFailure(e);
+        }
+    }
+
+    /**
+     * Method sends requests pipelined over pooled connections: every connection carries up to depth requests
+     * written back to back without waiting for responses, responses come in order of requests (HTTP/1.1).
+     * Up to max connections are used, each takes next request from the shared sequence when a response arrives.
+     * Requests are created on event loops of the connections right before they are written,
+     * so work of creating them is spread over event loop threads.
+     * Requests in flight on a connection that is closed fail, they aren't resent.
+     *
+     * @param count - number of requests
+     * @param requests - creates request of given index
+     * @param depth - max number of requests in flight on a connection
+     * @param callback - callback for responses and failures of requests
+     *
+     * @return future completed when every request has a response or failed
+     */
+    public Future<Void> sendPipelined(int count, IntFunction<FullHttpRequest> requests, int depth, PipelineCallback callback) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Pipeline depth should be positive: " + depth);
+        }
+        Promise<Void> promise = GlobalEventExecutor.INSTANCE.newPromise();
+        if (count == 0) {
+            return promise.setSuccess(null);
+        }
+        AtomicInteger next = new AtomicInteger();
+        int lanes = Math.min(maxConnections, (count + depth - 1) / depth);
+        AtomicInteger activeLanes = new AtomicInteger(lanes);
+        Runnable onLaneDone = () -> {
+            if (activeLanes.decrementAndGet() == 0) {
+                // the last lane is over, requests no lane took fail (e.g. when connections couldn't be opened)
+                for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement()) {
+                    callback.onFailure(index, new ClosedChannelException());
+                }
+                promise.trySuccess(null);
+            }
+        };
+        for (int i = 0; i < lanes; i++) {
+            pool.acquire().addListener((Future<Channel> acquired) -> {
+                if (!acquired.isSuccess()) {
+                    onLaneDone.run();
+                    return;
+                }
+                Channel channel = acquired.getNow();
+                PipelineLane lane = new PipelineLane(count, next, requests, depth, callback, onLaneDone);
+                if (channel.eventLoop().inEventLoop()) {
+                    lane.start(channel);
+                } else {
+                    channel.eventLoop().execute(() -> lane.start(channel));
+                }
+            });
+        }
+        return promise;
+    }
+
+    private void release(Channel channel, boolean keepAlive) {
+        ChannelPipeline pipeline = channel.pipeline();
+        for (String name : new String[] { HANDLER, AGGREGATOR, TRACKER }) {
+            if (pipeline.get(name) != null) {
+                pipeline.remove(name);
+            }
+        }
+        channel.attr(IN_USE).set(Boolean.FALSE);
+        if (!keepAlive) {
+            channel.close();
+        }
+        pool.release(channel);
+    }
+
+    /**
+     * Checks if current thread is one of the pool's event loop threads, calls from them must not block on responses.
+     *
+     * @return boolean
+     */
+    public boolean inEventLoop() {
+        for (EventExecutor executor : workerGroup) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of open connections
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return number of connections opened since pool was created
+     */
+    public int getCreatedConnections() {
+        return createdConnections.get();
+    }
+
+    /**
+     * Method closes all connections and stops event loop group.
+     */
+    public void close() {
+        pool.close();
+        workerGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Callback of pipelined requests, it's invoked on event loops of connections.
+     */
+    public interface PipelineCallback {
+
+        /**
+         * Method is triggered when response to a request is received.
+         *
+         * @param index - index of the request
+         * @param response - response, released after method returns
+         */
+        void onResponse(int index, FullHttpResponse response);
+
+        /**
+         * Method is triggered when request couldn't be created or sent, or connection was closed before response.
+         *
+         * @param index - index of the request
+         * @param cause - cause of failure
+         */
+        void onFailure(int index, Throwable cause);
+    }
+
+    /**
+     * Pipelined requests of one connection, it's used on the connection's event loop only.
+     */
+    private final class PipelineLane extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        private final int count;
+        private final AtomicInteger next;
+        private final IntFunction<FullHttpRequest> requests;
+        private final int depth;
+        private final PipelineCallback callback;
+        private final Runnable onDone;
+        private final ArrayDeque<Integer> inFlight = new ArrayDeque<>();
+        private Channel channel;
+        private boolean keepAlive = true;
+        private boolean done;
+
+        PipelineLane(int count, AtomicInteger next, IntFunction<FullHttpRequest> requests, int depth,
+                     PipelineCallback callback, Runnable onDone) {
+            this.count = count;
+            this.next = next;
+            this.requests = requests;
+            this.depth = depth;
+            this.callback = callback;
+            this.onDone = onDone;
+        }
+
+        void start(Channel channel) {
+            this.channel = channel;
+            channel.attr(REUSED).set(Boolean.TRUE);
+            channel.attr(IN_USE).set(Boolean.TRUE);
+            if (!channel.isActive()) {
+                finish();
+                return;
+            }
+            channel.pipeline().addLast(AGGREGATOR, new HttpObjectAggregator(Integer.MAX_VALUE));
+            channel.pipeline().addLast(HANDLER, this);
+            fill();
+        }
+
+        /**
+         * Writes next requests until depth is reached or there are no more of them, flushes them at once.
+         */
+        private void fill() {
+            boolean written = false;
+            while (keepAlive && inFlight.size() < depth) {
+                int index = next.getAndIncrement();
+                if (index >= count) {
+                    break;
+                }
+                FullHttpRequest request;
+                try {
+                    request = requests.apply(index);
+                } catch (RuntimeException e) {
+                    callback.onFailure(index, e);
+                    continue;
+                }
+                inFlight.add(index);
+                channel.write(request).addListener(result -> {
+                    if (!result.isSuccess()) {
+                        channel.close();
+                    }
+                });
+                written = true;
+            }
+            if (written) {
+                channel.flush();
+            }
+            if (inFlight.isEmpty()) {
+                finish();
+            }
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            Integer index = inFlight.poll();
+            if (index == null) {
+                return;
+            }
+            keepAlive = HttpHeaders.isKeepAlive(response);
+            try {
+                callback.onResponse(index, response);
+            } catch (RuntimeException e) {
+                log.warning("Error handling pipelined response: " + e.getMessage());
+            }
+            fill();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            for (Integer index = inFlight.poll(); index != null; index = inFlight.poll()) {
+                callback.onFailure(index, new ClosedChannelException());
+            }
+            keepAlive = false;
+            finish();
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            for (Integer index = inFlight.poll(); index != null; index = inFlight.poll()) {
+                callback.onFailure(index, cause);
+            }
+            ctx.close();
+        }
+
+        private void finish() {
+            if (done) {
+                return;
+            }
+            done = true;
+            release(channel, keepAlive && channel.isActive());
+            onDone.run();
+        }
+    }
+
+    /**
+     * Closes connections that weren't used for longer than idle timeout.
+     */
+    private static final class IdleConnectionEvictor extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && !Boolean.TRUE.equals(ctx.channel().attr(IN_USE).get())) {
+                ctx.close();
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package com.iotracks.api.client;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.ws.manager.WebSocketManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue of messages sent to ioFog via Message WebSocket. Frames are written to the connection by its event loop
+ * while it's writable (Netty's outbound buffer is under its water mark) and wait in the queue otherwise,
+ * or while the connection is being reopened. They are written in order as soon as the connection becomes writable again.
+ *
+ * The queue is bounded by encoded size of queued frames: once it reaches high water mark senders wait
+ * (or are rejected, depending on the variant) until the queue is drained down to low water mark,
+ * so a fast producer or a slow ioFog can't grow memory without bound. A single send bigger than high water mark
+ * is accepted when the queue is empty.
+ *
+ * Senders on Netty event loop threads (e.g. listeners publishing received messages) are never blocked,
+ * as the queue may be drained by that thread, their messages are rejected when the queue is full.
+ *
+ * Written messages stay in flight until ioFog sends their receipts. ioFog sends one receipt per message in order
+ * they were received, so receipts are matched to in-flight messages in order as well and set their IDs and timestamps.
+ * At most window depth messages are in flight, further ones are written as receipts arrive,
+ * so publishing is pipelined without sending more than ioFog confirms.
+ * Receipts carry no reference to the message, so a message is never repeated on the same connection:
+ * if the oldest in-flight message isn't confirmed within receipt timeout the connection is considered stalled and closed,
+ * and all unconfirmed messages are sent again, in order, once it's reopened (as after any other reconnect).
+ * Message sent max sends times without receipt is dropped. Delivery is at least once, ioFog can receive
+ * a message again if the connection was closed before its receipt arrived.
+ */
+public final class IOFogOutboundQueue {
+
+    private static final Logger log = Logger.getLogger(IOFogOutboundQueue.class.getName());
+
+    public static final long DEFAULT_HIGH_WATER_MARK = 8L << 20;
+    public static final long DEFAULT_LOW_WATER_MARK = 4L << 20;
+    public static final int DEFAULT_WINDOW_DEPTH = 1024;
+    public static final long DEFAULT_RECEIPT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_MAX_SENDS = 10;
+
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Deque<Entry> inFlight = new ArrayDeque<>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder retransmitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private long highWaterMark;
+    private long lowWaterMark;
+    private int windowDepth = DEFAULT_WINDOW_DEPTH;
+    private long receiptTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_RECEIPT_TIMEOUT_MILLIS);
+    private int maxSends = DEFAULT_MAX_SENDS;
+    private long queuedBytes;
+    private int queuedMessages;
+    private int inFlightMessages;
+    private boolean full;
+    private boolean drainScheduled;
+    private ChannelHandlerContext ctx;
+    private WebSocketManager wsManager;
+    private ScheduledFuture<?> receiptTimeoutCheck;
+
+    public IOFogOutboundQueue() {
+        this(DEFAULT_HIGH_WATER_MARK, DEFAULT_LOW_WATER_MARK);
+    }
+
+    /**
+     * @param highWaterMark - size of queued frames in bytes senders wait or are rejected at
+     * @param lowWaterMark - size of queued frames in bytes senders are resumed at
+     */
+    public IOFogOutboundQueue(long highWaterMark, long lowWaterMark) {
+        setWaterMarks(highWaterMark, lowWaterMark);
+    }
+
+    /**
+     * Method changes water marks, waiting senders are resumed if the queue is under the new low water mark.
+     *
+     * @param highWaterMark - size of queued frames in bytes senders wait or are rejected at
+     * @param lowWaterMark - size of queued frames in bytes senders are resumed at
+     */
+    public synchronized void setWaterMarks(long highWaterMark, long lowWaterMark) {
+        if (lowWaterMark <= 0 || highWaterMark < lowWaterMark) {
+            throw new IllegalArgumentException("Water marks should be positive and low water mark can't be above high one.");
+        }
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        resumeSendersIfDrained();
+    }
+
+    /**
+     * Method changes in-flight window, new depth applies to the next written messages, new timeout is checked
+     * against messages already in flight.
+     *
+     * @param depth - max number of messages awaiting receipts, single send bigger than that is written when none are
+     * @param receiptTimeoutMillis - max time to wait for receipt of the oldest in-flight message before reconnecting
+     * @param maxSends - max number of times message is sent before it's dropped
+     */
+    public synchronized void setInFlightWindow(int depth, long receiptTimeoutMillis, int maxSends) {
+        if (depth <= 0 || receiptTimeoutMillis <= 0 || maxSends <= 0) {
+            throw new IllegalArgumentException("Window depth, receipt timeout and max sends should be positive.");
+        }
+        this.windowDepth = depth;
+        this.receiptTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(receiptTimeoutMillis);
+        this.maxSends = maxSends;
+        if (ctx != null) {
+            scheduleReceiptTimeoutCheck();
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Method binds the queue to opened Message WebSocket and writes frames queued while it was closed,
+     * messages unconfirmed on the previous connection first.
+     * It's called on the connection's event loop.
+     *
+     * @param ctx - context of Message WebSocket handler
+     * @param wsManager - manager of the connection
+     */
+    public synchronized void attach(ChannelHandlerContext ctx, WebSocketManager wsManager) {
+        this.ctx = ctx;
+        this.wsManager = wsManager;
+        scheduleReceiptTimeoutCheck();
+        drain();
+    }
+
+    /**
+     * Method unbinds the queue from closed Message WebSocket, frames are kept until the next one is attached.
+     * In-flight messages are queued again in front of the others, or dropped if they were sent max sends times.
+     *
+     * @param ctx - context of Message WebSocket handler
+     */
+    public synchronized void detach(ChannelHandlerContext ctx) {
+        if (this.ctx != ctx) {
+            return;
+        }
+        this.ctx = null;
+        this.wsManager = null;
+        if (receiptTimeoutCheck != null) {
+            receiptTimeoutCheck.cancel(false);
+            receiptTimeoutCheck = null;
+        }
+        Entry entry;
+        while ((entry = inFlight.pollLast()) != null) {
+            inFlightMessages -= entry.messages.size();
+            if (entry.sends >= maxSends) {
+                drop(entry);
+                continue;
+            }
+            entry.receipts = 0;
+            entries.addFirst(entry);
+            queuedBytes += entry.bytes;
+            queuedMessages += entry.messages.size();
+        }
+    }
+
+    /**
+     * Method matches receipt to the oldest in-flight message, sets its ID and timestamp, and releases it once
+     * all messages of its send are confirmed. It's called on the connection's event loop.
+     *
+     * @param ctx - context of Message WebSocket handler
+     * @param messageId - ID ioFog assigned to the message
+     * @param timestamp - timestamp ioFog assigned to the message
+     *
+     * @return true if receipt matched in-flight message
+     */
+    public synchronized boolean onReceipt(ChannelHandlerContext ctx, String messageId, long timestamp) {
+        Entry entry = inFlight.peek();
+        if (this.ctx != ctx || entry == null) {
+            return false;
+        }
+        IOMessage message = entry.messages.get(entry.receipts++);
+        message.setId(messageId);
+        message.setTimestamp(timestamp);
+        if (entry.receipts == entry.messages.size()) {
+            inFlight.poll();
+            inFlightMessages -= entry.messages.size();
+            release(entry);
+            if (entry.future != null) {
+                entry.future.complete(null);
+            }
+            drain();
+        }
+        return true;
+    }
+
+    /**
+     * Method writes queued frames once connection's outbound buffer drops under its low water mark.
+     *
+     * @param ctx - context of Message WebSocket handler
+     */
+    public synchronized void onWritable(ChannelHandlerContext ctx) {
+        if (this.ctx == ctx) {
+            drain();
+        }
+    }
+
+    /**
+     * Method sends messages, waiting for space in the queue up to timeout. It doesn't wait on Netty event loop threads.
+     *
+     * @param messages - messages to send, they can be released once the method returns
+     * @param batch - if messages should be sent in a single batch frame, otherwise each of them in its own frame
+     * @param timeout - max time to wait, 0 to return at once, Long.MAX_VALUE to wait until there's space
+     * @param unit - unit of timeout
+     *
+     * @return true if messages were written or queued, false if they were rejected
+     */
+    public boolean send(List<IOMessage> messages, boolean batch, long timeout, TimeUnit unit) {
+        return send(newEntry(messages, batch, null), timeout == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(timeout));
+    }
+
+    /**
+     * Method sends messages without waiting for space in the queue.
+     *
+     * @param messages - messages to send, they can be released once the method returns
+     * @param batch - if messages should be sent in a single batch frame, otherwise each of them in its own frame
+     *
+     * @return future completed once ioFog sent receipts for all messages,
+     *         failed with {@link RejectedExecutionException} if the queue is full or with {@link IOException}
+     *         if messages were dropped after max sends
+     */
+    public CompletableFuture<Void> sendAsync(List<IOMessage> messages, boolean batch) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        send(newEntry(messages, batch, future), 0);
+        return future;
+    }
+
+    /**
+     * @return number of queued messages
+     */
+    public synchronized int getDepth() {
+        return queuedMessages;
+    }
+
+    /**
+     * @return size of queued frames in bytes
+     */
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * @return number of rejected sends
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return number of messages awaiting receipts
+     */
+    public synchronized int getInFlight() {
+        return inFlightMessages;
+    }
+
+    /**
+     * @return number of sends written again after reconnect
+     */
+    public long getRetransmittedCount() {
+        return retransmitted.sum();
+    }
+
+    /**
+     * @return number of sends dropped without receipt after max sends
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return true if the queue is bound to open Message WebSocket
+     */
+    public synchronized boolean isAttached() {
+        return ctx != null;
+    }
+
+    public synchronized int getWindowDepth() {
+        return windowDepth;
+    }
+
+    public synchronized long getReceiptTimeoutMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(receiptTimeoutNanos);
+    }
+
+    public synchronized int getMaxSends() {
+        return maxSends;
+    }
+
+    public synchronized long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public synchronized long getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    private Entry newEntry(List<IOMessage> messages, boolean batch, CompletableFuture<Void> future) {
+        // frames are encoded by the sender, so they don't depend on messages changed or released afterwards
+        List<ByteBuf> frames = new ArrayList<>(batch ? 1 : messages.size());
+        try {
+            if (batch) {
+                frames.add(WebSocketManager.encodeMessages(ByteBufAllocator.DEFAULT, messages));
+            } else {
+                for (IOMessage message : messages) {
+                    frames.add(WebSocketManager.encodeMessage(ByteBufAllocator.DEFAULT, message));
+                }
+            }
+        } catch (RuntimeException e) {
+            frames.forEach(ByteBuf::release);
+            throw e;
+        }
+        long bytes = 0;
+        for (ByteBuf frame : frames) {
+            bytes += frame.readableBytes();
+        }
+        List<IOMessage> retained = new ArrayList<>(messages.size());
+        for (IOMessage message : messages) {
+            retained.add(message.retain());
+        }
+        return new Entry(frames, retained, bytes, future);
+    }
+
+    private synchronized boolean send(Entry entry, long timeoutNanos) {
+        boolean mayWait = timeoutNanos > 0 && !(Thread.currentThread() instanceof FastThreadLocalThread)
+                && (ctx == null || !ctx.executor().inEventLoop());
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (full || (!entries.isEmpty() && queuedBytes + entry.bytes > highWaterMark)) {
+            full = true;
+            long remaining = timeoutNanos == Long.MAX_VALUE ? 0 : deadline - System.nanoTime();
+            if (!mayWait || (timeoutNanos != Long.MAX_VALUE && remaining <= 0)) {
+                reject(entry);
+                return false;
+            }
+            try {
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } else {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reject(entry);
+                return false;
+            }
+        }
+        entries.add(entry);
+        queuedBytes += entry.bytes;
+        queuedMessages += entry.messages.size();
+        if (ctx != null) {
+            if (ctx.executor().inEventLoop()) {
+                drain();
+            } else {
+                scheduleDrain();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Frames are written on the event loop only, so they can't overtake each other, and a drain flushes
+     * all frames queued by senders in the meantime at once.
+     */
+    private void scheduleDrain() {
+        if (drainScheduled) {
+            return;
+        }
+        ChannelHandlerContext current = ctx;
+        try {
+            current.executor().execute(() -> {
+                synchronized (this) {
+                    drainScheduled = false;
+                    if (ctx == current) {
+                        drain();
+                    }
+                }
+            });
+            drainScheduled = true;
+        } catch (RejectedExecutionException e) {
+            // connection is being closed, frames are written to the next one
+        }
+    }
+
+    private void drain() {
+        if (ctx == null) {
+            return;
+        }
+        Channel channel = ctx.channel();
+        boolean written = false;
+        while (!entries.isEmpty() && channel.isWritable() && fitsWindow(entries.peek())) {
+            Entry entry = entries.poll();
+            queuedBytes -= entry.bytes;
+            queuedMessages -= entry.messages.size();
+            write(entry);
+            written = true;
+        }
+        if (written) {
+            channel.flush();
+        }
+        resumeSendersIfDrained();
+    }
+
+    private void resumeSendersIfDrained() {
+        if (full && queuedBytes <= lowWaterMark) {
+            full = false;
+            notifyAll();
+        }
+    }
+
+    private boolean fitsWindow(Entry entry) {
+        return inFlightMessages == 0 || inFlightMessages + entry.messages.size() <= windowDepth;
+    }
+
+    private void write(Entry entry) {
+        if (entry.sends++ > 0) {
+            retransmitted.increment();
+        }
+        entry.sentAt = System.nanoTime();
+        for (ByteBuf frame : entry.frames) {
+            // frames are kept until receipt, so they can be written again after reconnect
+            wsManager.writeMessageFrame(ctx, frame.duplicate().retain());
+        }
+        inFlight.add(entry);
+        inFlightMessages += entry.messages.size();
+    }
+
+    private void scheduleReceiptTimeoutCheck() {
+        if (receiptTimeoutCheck != null) {
+            receiptTimeoutCheck.cancel(false);
+        }
+        ChannelHandlerContext current = ctx;
+        long period = Math.max(receiptTimeoutNanos / 4, TimeUnit.MILLISECONDS.toNanos(1));
+        try {
+            receiptTimeoutCheck = current.executor().scheduleAtFixedRate(() -> checkReceiptTimeout(current),
+                    period, period, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            receiptTimeoutCheck = null;
+        }
+    }
+
+    private synchronized void checkReceiptTimeout(ChannelHandlerContext current) {
+        Entry oldest = inFlight.peek();
+        if (ctx != current || oldest == null || System.nanoTime() - oldest.sentAt < receiptTimeoutNanos) {
+            return;
+        }
+        log.warning("No receipt from ioFog in " + TimeUnit.NANOSECONDS.toMillis(receiptTimeoutNanos)
+                + " ms, reopening Message WebSocket to send " + inFlightMessages + " unconfirmed messages again.");
+        // detached by the handler once the connection is closed
+        current.close();
+    }
+
+    private void drop(Entry entry) {
+        dropped.increment();
+        release(entry);
+        log.warning("Dropped " + entry.messages.size() + " messages without receipt after " + entry.sends + " sends.");
+        if (entry.future != null) {
+            entry.future.completeExceptionally(new IOException("Messages weren't confirmed after "
+                    + entry.sends + " sends."));
+        }
+    }
+
+    private void release(Entry entry) {
+        entry.frames.forEach(ByteBuf::release);
+        entry.messages.forEach(IOMessage::release);
+    }
+
+    private void reject(Entry entry) {
+        rejected.increment();
+        release(entry);
+        if (entry.future != null) {
+            entry.future.completeExceptionally(new RejectedExecutionException("Outbound queue is full."));
+        }
+    }
+
+    /**
+     * Frames of one send, written together, and messages awaiting receipts in order they were encoded.
+     */
+    private static final class Entry {
+        private final List<ByteBuf> frames;
+        private final List<IOMessage> messages;
+        private final long bytes;
+        private final CompletableFuture<Void> future;
+        private int sends;
+        private int receipts;
+        private long sentAt;
+
+        Entry(List<ByteBuf> frames, List<IOMessage> messages, long bytes, CompletableFuture<Void> future) {
+            this.frames = Collections.unmodifiableList(frames);
+            this.messages = Collections.unmodifiableList(messages);
+            this.bytes = bytes;
+            this.future = future;
+        }
+    }
+}
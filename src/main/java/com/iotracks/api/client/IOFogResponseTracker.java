@@ -0,0 +1,81 @@
+package com.iotracks.api.client;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+
+/**
+ * Tracks response of a REST call passing through the pipeline (it's placed right after HTTP codec)
+ * and calls back once the last part of response was handled by handlers behind the tracker,
+ * or when connection is closed before that. Callback is invoked once.
+ */
+class IOFogResponseTracker extends ChannelInboundHandlerAdapter {
+
+    interface Callback {
+
+        /**
+         * Method is triggered when response starts, before it's passed to handlers behind the tracker.
+         *
+         * @param channel - connection of the call
+         */
+        void onResponse(Channel channel);
+
+        /**
+         * Method is triggered when the whole response is handled.
+         *
+         * @param channel - connection of the call
+         * @param keepAlive - if server keeps connection open for further requests
+         */
+        void onComplete(Channel channel, boolean keepAlive);
+
+        /**
+         * Method is triggered when connection is closed before the whole response is handled.
+         *
+         * @param channel - connection of the call
+         * @param responseStarted - if any part of response was received
+         */
+        void onClosed(Channel channel, boolean responseStarted);
+    }
+
+    private final Callback callback;
+    private boolean responseStarted;
+    private boolean keepAlive;
+    private boolean done;
+
+    IOFogResponseTracker(Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof HttpResponse) {
+            responseStarted = true;
+            keepAlive = HttpHeaders.isKeepAlive((HttpResponse) msg);
+            callback.onResponse(ctx.channel());
+        }
+        boolean last = msg instanceof LastHttpContent;
+        ctx.fireChannelRead(msg);
+        if (last && responseStarted && !done) {
+            done = true;
+            callback.onComplete(ctx.channel(), keepAlive);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (!done) {
+            done = true;
+            callback.onClosed(ctx.channel(), responseStarted);
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.fireExceptionCaught(cause);
+        ctx.close();
+    }
+}
@@ -0,0 +1,489 @@
+package com.iotracks.api.client;
+
+import com.iotracks.elements.IOMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Durable journal of published messages, so messages aren't lost while ioFog is unreachable (e.g. during its upgrade)
+ * or when the container crashes before they're delivered.
+ *
+ * Messages are appended to memory-mapped segment files in the spool directory, encoded straight into the mapping,
+ * so append costs about as much as encoding the message into memory. Mapped pages belong to the OS page cache,
+ * so appended messages survive a crash or kill of the JVM; {@link #force()} writes them to the storage device
+ * to survive a crash of the OS as well. Segments are created as needed up to max bytes, appends are rejected beyond that.
+ *
+ * Every record has its length, CRC32 of the encoded message and a state. Length is written last, so a record torn
+ * by a crash is recognized on recovery and dropped with anything after it in its segment. State is set to done
+ * in place once ioFog confirms the message ({@link #ack(Record)}), a segment is deleted as soon as all its records are done.
+ * When the spool is opened again, records that aren't done are read again in order they were appended,
+ * delivery is at least once.
+ *
+ * Record layout: length (int, of encoded message), CRC32 (int), state (byte), encoded message.
+ */
+public final class IOFogSpool implements Closeable {
+
+    private static final Logger log = Logger.getLogger(IOFogSpool.class.getName());
+
+    public static final long DEFAULT_SEGMENT_SIZE = 16L << 20;
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final int CRC_OFFSET = 4;
+    private static final int STATE_OFFSET = 8;
+    private static final byte STATE_PENDING = 0;
+    private static final byte STATE_DONE = 1;
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final LongAdder rejected = new LongAdder();
+    private final CRC32 crc = new CRC32();
+    private long nextSegmentIndex;
+    private long spooledBytes;
+    private long pending;
+    private Segment readSegment;
+    private int readPosition;
+    private boolean closed;
+
+    /**
+     * Opens spool with default segment size (16 MB) and max size (256 MB).
+     *
+     * @param directory - spool directory, created if it doesn't exist
+     */
+    public IOFogSpool(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Opens spool and recovers records that weren't done when it was closed (or the process crashed).
+     *
+     * @param directory - spool directory, created if it doesn't exist
+     * @param segmentSize - size of segment file in bytes, a bigger segment is created for a bigger message
+     * @param maxBytes - max size of all segment files in bytes
+     */
+    public IOFogSpool(File directory, long segmentSize, long maxBytes) throws IOException {
+        if (segmentSize <= RECORD_HEADER_SIZE || segmentSize > Integer.MAX_VALUE || maxBytes < segmentSize) {
+            throw new IllegalArgumentException("Segment size should be positive and up to 2 GB, max bytes can't be below it.");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Spool directory can't be created: " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = (int) segmentSize;
+        this.maxBytes = maxBytes;
+        recover();
+    }
+
+    /**
+     * Method appends message to the spool.
+     *
+     * @param message - message to append, it isn't retained
+     *
+     * @return ID of the record, -1 if the spool is full
+     */
+    public synchronized long append(IOMessage message) throws IOException {
+        int length = message.getEncodedLength();
+        if (!fits(Collections.singletonList(length))) {
+            rejected.increment();
+            return -1;
+        }
+        return write(message, length);
+    }
+
+    /**
+     * Method appends messages to the spool, all of them or none.
+     *
+     * @param messages - messages to append, they aren't retained
+     *
+     * @return true if messages were appended, false if the spool is full
+     */
+    public synchronized boolean append(List<IOMessage> messages) throws IOException {
+        List<Integer> lengths = new ArrayList<>(messages.size());
+        for (IOMessage message : messages) {
+            lengths.add(message.getEncodedLength());
+        }
+        if (!fits(lengths)) {
+            rejected.increment();
+            return false;
+        }
+        for (int i = 0; i < messages.size(); i++) {
+            write(messages.get(i), lengths.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Method reads the next record that isn't done, in order records were appended.
+     * Record stays in the spool until it's done, it's read again after {@link #rewind(Record)} or reopening the spool.
+     *
+     * @return record, null if all records were read
+     */
+    public synchronized Record next() {
+        while (readSegment != null) {
+            MappedByteBuffer buffer = readSegment.buffer;
+            int length = readPosition + RECORD_HEADER_SIZE <= readSegment.writePosition ? buffer.getInt(readPosition) : 0;
+            if (length == 0) {
+                if (readSegment == segments.peekLast()) {
+                    return null;
+                }
+                readSegment = nextSegment(readSegment);
+                readPosition = 0;
+                continue;
+            }
+            int position = readPosition;
+            readPosition += RECORD_HEADER_SIZE + length;
+            if (buffer.get(position + STATE_OFFSET) == STATE_PENDING) {
+                byte[] encoded = new byte[length];
+                ByteBuffer content = buffer.duplicate();
+                content.position(position + RECORD_HEADER_SIZE);
+                content.get(encoded);
+                return new Record(readSegment, position, encoded);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method marks record as done, its segment is deleted once all its records are done.
+     *
+     * @param record - record read by {@link #next()}
+     */
+    public synchronized void ack(Record record) {
+        Segment segment = record.segment;
+        if (segment.deleted || segment.buffer.get(record.position + STATE_OFFSET) == STATE_DONE) {
+            return;
+        }
+        segment.buffer.put(record.position + STATE_OFFSET, STATE_DONE);
+        segment.done++;
+        pending--;
+        deleteDoneSegments();
+    }
+
+    /**
+     * Method moves reading back to record that wasn't delivered, so it's read again by {@link #next()}
+     * together with the following records that aren't done.
+     *
+     * @param record - record read by {@link #next()}
+     */
+    public synchronized void rewind(Record record) {
+        Segment segment = record.segment;
+        if (segment.deleted) {
+            return;
+        }
+        if (readSegment == null || segment.index < readSegment.index
+                || (segment == readSegment && record.position < readPosition)) {
+            readSegment = segment;
+            readPosition = record.position;
+        }
+    }
+
+    /**
+     * Method writes appended records and their states to the storage device.
+     */
+    public synchronized void force() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Method writes appended records to the storage device and closes the spool, records that aren't done
+     * are recovered when it's opened again.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        force();
+        closed = true;
+        segments.clear();
+        readSegment = null;
+    }
+
+    /**
+     * @return number of records that aren't done
+     */
+    public synchronized long getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * @return size of segment files in bytes
+     */
+    public synchronized long getSpooledBytes() {
+        return spooledBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return number of rejected appends
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private boolean fits(List<Integer> lengths) {
+        if (closed) {
+            throw new IllegalStateException("Spool is closed.");
+        }
+        Segment tail = segments.peekLast();
+        long free = tail == null ? 0 : tail.buffer.capacity() - tail.writePosition;
+        long bytes = spooledBytes;
+        for (int length : lengths) {
+            long size = (long) RECORD_HEADER_SIZE + length;
+            if (size <= free) {
+                free -= size;
+                continue;
+            }
+            long newSegmentSize = Math.max(segmentSize, size);
+            if (bytes + newSegmentSize > maxBytes || newSegmentSize > Integer.MAX_VALUE) {
+                return false;
+            }
+            bytes += newSegmentSize;
+            free = newSegmentSize - size;
+        }
+        return true;
+    }
+
+    private long write(IOMessage message, int length) throws IOException {
+        int size = RECORD_HEADER_SIZE + length;
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.buffer.capacity() - tail.writePosition < size) {
+            tail = createSegment(Math.max(segmentSize, size));
+        }
+        int position = tail.writePosition;
+        ByteBuffer content = tail.buffer.duplicate();
+        content.position(position + RECORD_HEADER_SIZE);
+        content.limit(position + size);
+        content = content.slice();
+        ByteBuf buf = Unpooled.wrappedBuffer(content);
+        try {
+            buf.writerIndex(0);
+            message.encodeTo(buf);
+        } finally {
+            buf.release();
+        }
+        content.clear();
+        crc.reset();
+        crc.update(content);
+        tail.buffer.put(position + STATE_OFFSET, STATE_PENDING);
+        tail.buffer.putInt(position + CRC_OFFSET, (int) crc.getValue());
+        // length is written last, record without it is ignored on recovery
+        tail.buffer.putInt(position, length);
+        tail.writePosition += size;
+        tail.records++;
+        pending++;
+        if (readSegment == null) {
+            readSegment = tail;
+            readPosition = position;
+        }
+        return tail.index << 32 | position;
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        File file = new File(directory, String.format("%020d%s", nextSegmentIndex, SEGMENT_SUFFIX));
+        Segment segment = new Segment(nextSegmentIndex++, file, map(file, size));
+        segments.add(segment);
+        spooledBytes += size;
+        // previous tail can be deleted now if all its records are done
+        deleteDoneSegments();
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            if (size < 0) {
+                size = channel.size();
+            } else {
+                raf.setLength(size);
+            }
+            // mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void deleteDoneSegments() {
+        Segment head;
+        while ((head = segments.peekFirst()) != null && head != segments.peekLast() && head.done == head.records) {
+            segments.pollFirst();
+            delete(head);
+            if (readSegment == head) {
+                readSegment = segments.peekFirst();
+                readPosition = 0;
+            }
+        }
+    }
+
+    private void delete(Segment segment) {
+        segment.deleted = true;
+        spooledBytes -= segment.buffer.capacity();
+        if (!segment.file.delete()) {
+            log.warning("Spool segment can't be deleted: " + segment.file);
+        }
+    }
+
+    private Segment nextSegment(Segment segment) {
+        boolean found = false;
+        for (Segment current : segments) {
+            if (found) {
+                return current;
+            }
+            found = current == segment;
+        }
+        return null;
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new IOException("Spool directory can't be read: " + directory);
+        }
+        List<Segment> recovered = new ArrayList<>(files.length);
+        for (File file : files) {
+            String name = file.getName();
+            long index;
+            try {
+                index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (file.length() < RECORD_HEADER_SIZE || file.length() > Integer.MAX_VALUE) {
+                log.warning("Invalid spool segment is deleted: " + file);
+                file.delete();
+                continue;
+            }
+            recovered.add(new Segment(index, file, map(file, -1)));
+        }
+        recovered.sort((a, b) -> Long.compare(a.index, b.index));
+        for (Segment segment : recovered) {
+            scan(segment);
+            segments.add(segment);
+            spooledBytes += segment.buffer.capacity();
+            pending += segment.records - segment.done;
+            nextSegmentIndex = segment.index + 1;
+        }
+        deleteDoneSegments();
+        Segment tail = segments.peekLast();
+        if (tail != null && tail.done == tail.records) {
+            // nothing to deliver, next appends go to a new segment
+            segments.pollLast();
+            delete(tail);
+        }
+        readSegment = segments.peekFirst();
+        readPosition = 0;
+        if (pending > 0) {
+            log.info("Recovered " + pending + " spooled messages from " + directory);
+        }
+    }
+
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int position = 0;
+        while (position + RECORD_HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > capacity - position - RECORD_HEADER_SIZE || !isIntact(buffer, position, length)) {
+                if (length != 0) {
+                    log.warning("Torn spool record is dropped from " + segment.file + " at " + position);
+                    // appends continue from here
+                    buffer.putInt(position, 0);
+                }
+                break;
+            }
+            segment.records++;
+            if (buffer.get(position + STATE_OFFSET) == STATE_DONE) {
+                segment.done++;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        segment.writePosition = position;
+    }
+
+    private boolean isIntact(MappedByteBuffer buffer, int position, int length) {
+        ByteBuffer content = buffer.duplicate();
+        content.position(position + RECORD_HEADER_SIZE);
+        content.limit(position + RECORD_HEADER_SIZE + length);
+        crc.reset();
+        crc.update(content);
+        return (int) crc.getValue() == buffer.getInt(position + CRC_OFFSET);
+    }
+
+    /**
+     * Spooled message read for delivery.
+     */
+    public static final class Record {
+        private final Segment segment;
+        private final int position;
+        private final byte[] encoded;
+
+        private Record(Segment segment, int position, byte[] encoded) {
+            this.segment = segment;
+            this.position = position;
+            this.encoded = encoded;
+        }
+
+        /**
+         * @return ID of the record, same as returned by {@link IOFogSpool#append(IOMessage)}
+         */
+        public long getId() {
+            return segment.index << 32 | position;
+        }
+
+        /**
+         * @return new message decoded from the record, it should be released
+         */
+        public IOMessage getMessage() {
+            return new IOMessage(encoded);
+        }
+    }
+
+    /**
+     * Segment file with its mapping, records are appended at write position.
+     */
+    private static final class Segment {
+        private final long index;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int records;
+        private int done;
+        private boolean deleted;
+
+        Segment(long index, File file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
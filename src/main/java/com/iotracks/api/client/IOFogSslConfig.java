@@ -0,0 +1,160 @@
+package com.iotracks.api.client;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TLS configuration of connections to ioFog. {@link SslContext} is built once on first connection and shared
+ * by all connections of the client, so key material, trust store and ciphers are processed once.
+ * OpenSSL (netty-tcnative, e.g. BoringSSL) is used when it's on the classpath, JDK provider otherwise.
+ *
+ * Handlers are created for ioFog's host and port, so sessions are cached per server and reconnects resume
+ * the previous session (session ID or ticket) instead of doing the full handshake.
+ *
+ * By default every server certificate is trusted, as ioFog uses a self-signed one; set trust manager
+ * or trusted certificates to verify it. Changes take effect on connections opened afterwards.
+ */
+public final class IOFogSslConfig {
+
+    private SslProvider provider;
+    private List<String> ciphers;
+    private String[] protocols;
+    private TrustManagerFactory trustManagerFactory = InsecureTrustManagerFactory.INSTANCE;
+    private File trustCertCollection;
+    private long sessionCacheSize;
+    private long sessionTimeoutSeconds;
+    private SslContext context;
+
+    /**
+     * @param provider - SSL provider, null to use OpenSSL when it's available and JDK otherwise
+     *
+     * @return this configuration
+     */
+    public synchronized IOFogSslConfig provider(SslProvider provider) {
+        this.provider = provider;
+        context = null;
+        return this;
+    }
+
+    /**
+     * @param ciphers - enabled cipher suites in order of preference, null for provider's defaults
+     *
+     * @return this configuration
+     */
+    public synchronized IOFogSslConfig ciphers(List<String> ciphers) {
+        this.ciphers = ciphers == null ? null : new ArrayList<>(ciphers);
+        context = null;
+        return this;
+    }
+
+    /**
+     * @param protocols - enabled protocols (e.g. "TLSv1.2"), none for provider's defaults
+     *
+     * @return this configuration
+     */
+    public synchronized IOFogSslConfig protocols(String... protocols) {
+        this.protocols = protocols.length == 0 ? null : protocols.clone();
+        return this;
+    }
+
+    /**
+     * @param trustManagerFactory - trust manager verifying ioFog's certificate
+     *
+     * @return this configuration
+     */
+    public synchronized IOFogSslConfig trustManager(TrustManagerFactory trustManagerFactory) {
+        this.trustManagerFactory = trustManagerFactory;
+        this.trustCertCollection = null;
+        context = null;
+        return this;
+    }
+
+    /**
+     * @param trustCertCollection - PEM file with certificates ioFog's certificate is verified against
+     *
+     * @return this configuration
+     */
+    public synchronized IOFogSslConfig trustManager(File trustCertCollection) {
+        this.trustCertCollection = trustCertCollection;
+        this.trustManagerFactory = null;
+        context = null;
+        return this;
+    }
+
+    /**
+     * @param size - max number of cached sessions, 0 for provider's default
+     * @param timeoutSeconds - time cached session can be resumed for, 0 for provider's default
+     *
+     * @return this configuration
+     */
+    public synchronized IOFogSslConfig sessionCache(long size, long timeoutSeconds) {
+        this.sessionCacheSize = size;
+        this.sessionTimeoutSeconds = timeoutSeconds;
+        context = null;
+        return this;
+    }
+
+    /**
+     * @return SSL provider connections use
+     */
+    public synchronized SslProvider getProvider() {
+        if (provider != null) {
+            return provider;
+        }
+        return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+    }
+
+    /**
+     * Method returns shared context, it's built on first call and after configuration changes.
+     *
+     * @return SslContext
+     */
+    public synchronized SslContext getContext() throws SSLException {
+        if (context == null) {
+            SslContextBuilder builder = SslContextBuilder.forClient()
+                    .sslProvider(getProvider())
+                    .ciphers(ciphers)
+                    .sessionCacheSize(sessionCacheSize)
+                    .sessionTimeout(sessionTimeoutSeconds);
+            if (trustCertCollection != null) {
+                builder.trustManager(trustCertCollection);
+            } else {
+                builder.trustManager(trustManagerFactory);
+            }
+            context = builder.build();
+        }
+        return context;
+    }
+
+    /**
+     * Method creates handler of TLS connection to ioFog.
+     *
+     * @param alloc - allocator of the connection
+     * @param host - ioFog's host, sessions are resumed per host and port
+     * @param port - ioFog's port
+     *
+     * @return SslHandler
+     */
+    public SslHandler newHandler(ByteBufAllocator alloc, String host, int port) throws SSLException {
+        SslHandler handler = getContext().newHandler(alloc, host, port);
+        String[] enabledProtocols;
+        synchronized (this) {
+            enabledProtocols = protocols;
+        }
+        if (enabledProtocols != null) {
+            handler.engine().setEnabledProtocols(enabledProtocols);
+        }
+        return handler;
+    }
+}
@@ -0,0 +1,235 @@
+package com.iotracks.api.client;
+
+import io.netty.bootstrap.AbstractBootstrap;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Transport of connections to ioFog: TCP via NIO (default), TCP via epoll on Linux (edge-triggered, without the JDK selector)
+ * or Unix domain socket when ioFog agent runs on the same host.
+ * Native transports are opt-in and used only when epoll library is available, otherwise transport falls back to NIO over TCP,
+ * so the same configuration works on every platform.
+ *
+ * Host and port are kept for domain socket transport too, as they are used in Host header, WebSocket URL,
+ * SSL and as the TCP fallback.
+ */
+public final class IOFogTransport {
+
+    private static final Logger log = Logger.getLogger(IOFogTransport.class.getName());
+
+    /**
+     * Kind of channels the transport opens.
+     */
+    public enum Type {
+        NIO,
+        EPOLL,
+        DOMAIN_SOCKET
+    }
+
+    private final Type type;
+    private final String host;
+    private final int port;
+    private final String socketPath;
+
+    private IOFogTransport(Type type, String host, int port, String socketPath) {
+        this.type = type;
+        this.host = host;
+        this.port = port;
+        this.socketPath = socketPath;
+    }
+
+    /**
+     * @param host - the server name or ip address
+     * @param port - the listening port
+     *
+     * @return default TCP transport (via NIO)
+     */
+    public static IOFogTransport tcp(String host, int port) {
+        return nio(host, port);
+    }
+
+    /**
+     * @param host - the server name or ip address
+     * @param port - the listening port
+     *
+     * @return TCP transport via NIO regardless of platform
+     */
+    public static IOFogTransport nio(String host, int port) {
+        return new IOFogTransport(Type.NIO, host, port, null);
+    }
+
+    /**
+     * @param host - the server name or ip address
+     * @param port - the listening port
+     *
+     * @return TCP transport via epoll if it's available, via NIO otherwise
+     */
+    public static IOFogTransport epoll(String host, int port) {
+        if (!isNativeAvailable()) {
+            log.warning("Native transport isn't available, connecting to " + host + ":" + port + " via NIO");
+            return nio(host, port);
+        }
+        return new IOFogTransport(Type.EPOLL, host, port, null);
+    }
+
+    /**
+     * @param socketPath - path of ioFog's Unix domain socket
+     * @param host - the server name or ip address
+     * @param port - the listening port, used when domain sockets aren't available
+     *
+     * @return domain socket transport if epoll is available, TCP transport via NIO otherwise
+     */
+    public static IOFogTransport domainSocket(String socketPath, String host, int port) {
+        if (!isNativeAvailable()) {
+            log.warning("Native transport isn't available, connecting to " + host + ":" + port + " instead of " + socketPath);
+            return nio(host, port);
+        }
+        return new IOFogTransport(Type.DOMAIN_SOCKET, host, port, socketPath);
+    }
+
+    /**
+     * Checks if epoll transport and domain sockets can be used on this platform.
+     *
+     * @return boolean
+     */
+    public static boolean isNativeAvailable() {
+        return Epoll.isAvailable();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getSocketPath() {
+        return socketPath;
+    }
+
+    /**
+     * @return address channels are connected to or server is bound to
+     */
+    public SocketAddress getAddress() {
+        return type == Type.DOMAIN_SOCKET ? new DomainSocketAddress(socketPath) : new InetSocketAddress(host, port);
+    }
+
+    /**
+     * Method creates event loop group matching channels of the transport.
+     *
+     * @param threads - number of threads, 0 for default
+     * @param name - prefix of threads' names
+     *
+     * @return EventLoopGroup with daemon threads
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, String name) {
+        return newEventLoopGroup(threads, new DefaultThreadFactory(name, true));
+    }
+
+    /**
+     * Method creates event loop group matching channels of the transport.
+     *
+     * @param threads - number of threads, 0 for default
+     * @param threadFactory - factory of event loop threads
+     *
+     * @return EventLoopGroup
+     */
+    public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+        return type == Type.NIO ? new NioEventLoopGroup(threads, threadFactory) : new EpollEventLoopGroup(threads, threadFactory);
+    }
+
+    /**
+     * Method sets channel class, options and remote address of client connections.
+     *
+     * @param bootstrap - bootstrap with event loop group created by {@link #newEventLoopGroup(int, String)}
+     *
+     * @return the bootstrap
+     */
+    public Bootstrap configure(Bootstrap bootstrap) {
+        switch (type) {
+            case EPOLL:
+                bootstrap.channel(EpollSocketChannel.class);
+                break;
+            case DOMAIN_SOCKET:
+                bootstrap.channel(EpollDomainSocketChannel.class);
+                break;
+            default:
+                bootstrap.channel(NioSocketChannel.class);
+        }
+        setOptions(bootstrap);
+        return bootstrap.remoteAddress(getAddress());
+    }
+
+    /**
+     * Method sets channel class and options of server accepting connections of the transport.
+     *
+     * @param bootstrap - bootstrap with event loop groups created by {@link #newEventLoopGroup(int, String)}
+     *
+     * @return the bootstrap
+     */
+    public ServerBootstrap configure(ServerBootstrap bootstrap) {
+        switch (type) {
+            case EPOLL:
+                bootstrap.channel(EpollServerSocketChannel.class);
+                break;
+            case DOMAIN_SOCKET:
+                bootstrap.channel(EpollServerDomainSocketChannel.class);
+                break;
+            default:
+                bootstrap.channel(NioServerSocketChannel.class);
+        }
+        if (type != Type.NIO) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        }
+        setOptions(bootstrap);
+        return bootstrap;
+    }
+
+    private void setOptions(AbstractBootstrap<?, ?> bootstrap) {
+        if (type != Type.NIO) {
+            childOrOwn(bootstrap, EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        }
+        if (type != Type.DOMAIN_SOCKET) {
+            childOrOwn(bootstrap, ChannelOption.TCP_NODELAY, true);
+            childOrOwn(bootstrap, ChannelOption.SO_KEEPALIVE, true);
+        }
+    }
+
+    private static <T> void childOrOwn(AbstractBootstrap<?, ?> bootstrap, ChannelOption<T> option, T value) {
+        if (bootstrap instanceof ServerBootstrap) {
+            ((ServerBootstrap) bootstrap).childOption(option, value);
+        } else {
+            bootstrap.option(option, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.DOMAIN_SOCKET ? type + " " + socketPath : type + " " + host + ":" + port;
+    }
+}
@@ -16,25 +16,33 @@ public class IOWebSocketConnector implements Runnable {
 
     private IOFogAPIConnector ioFogAPIConnector;
     private IOContainerWSAPIHandler handler;
-    private boolean ssl;
-    private String host;
-    private int port;
-    public final Boolean lock = true;
+    private IOFogSslConfig sslConfig;
+    private IOFogTransport transport;
+    public final Object lock = new Object();
     private static Boolean caughtException = false;
+    private boolean finished = false;
 
     public IOWebSocketConnector(IOContainerWSAPIHandler handler, boolean ssl, String host, int port) {
+        this(handler, ssl ? new IOFogSslConfig() : null, IOFogTransport.tcp(host, port));
+    }
+
+    /**
+     * @param handler - handler of WebSocket connection
+     * @param sslConfig - TLS configuration of connection, null for plain connection
+     * @param transport - transport of connection
+     */
+    public IOWebSocketConnector(IOContainerWSAPIHandler handler, IOFogSslConfig sslConfig, IOFogTransport transport) {
         this.handler = handler;
-        this.ssl = ssl;
-        this.host = host;
-        this.port = port;
+        this.sslConfig = sslConfig;
+        this.transport = transport;
     }
 
     @Override
     public void run() {
         synchronized (lock) {
-            ioFogAPIConnector = new IOFogAPIConnector(handler, ssl);
+            ioFogAPIConnector = new IOFogAPIConnector(handler, sslConfig, transport);
             try {
-                ioFogAPIConnector.initConnection(host, port);
+                ioFogAPIConnector.initConnection();
                 handler.handshakeFuture().sync();
             } catch (InterruptedException e) {
                 log.warning("Error synchronizing channel for WebSocket connection.");
@@ -43,6 +51,7 @@ public class IOWebSocketConnector implements Runnable {
                 log.warning("Socket Connection Error.");
                 caughtException = true;
             } finally {
+                finished = true;
                 lock.notifyAll();
             }
         }
@@ -55,6 +64,15 @@ public class IOWebSocketConnector implements Runnable {
         }
     }
 
+    /**
+     * Method checks if connection attempt is over, should be called holding {@link #lock}.
+     *
+     * @return true if connection is established or failed
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
     public Boolean isCaughtException() {
         return caughtException;
     }
@@ -2,6 +2,11 @@ package com.iotracks.api.handler;
 
 import com.iotracks.api.listener.IOFogAPIListener;
 import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageCompressor;
+import com.iotracks.elements.IOMessageField;
+import com.iotracks.elements.IOMessageFilter;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.utils.ByteBufJsonReader;
 import com.iotracks.utils.IOFogResponseUtils;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -9,11 +14,14 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
 
-import javax.json.*;
+import javax.json.Json;
+import javax.json.JsonReader;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -23,57 +31,144 @@ import java.util.List;
  */
 public class IOContainerRESTAPIHandler extends SimpleChannelInboundHandler<HttpObject> {
 
+    private static final int CONFIG = 0;
+    private static final int MESSAGES = 1;
+    private static final int TIMEFRAME_START = 2;
+    private static final int TIMEFRAME_END = 3;
+    private static final int ID = 4;
+    private static final int TIMESTAMP = 5;
+    private static final byte[][] RESPONSE_FIELD_NAMES = ByteBufJsonReader.names(
+            IOFogResponseUtils.CONFIG_FIELD_NAME,
+            IOFogResponseUtils.MESSAGES_FIELD_NAME,
+            IOFogResponseUtils.TIMEFRAME_START_FIELD_NAME,
+            IOFogResponseUtils.TIMEFRAME_END_FIELD_NAME,
+            IOFogResponseUtils.ID_FIELD_NAME,
+            IOFogResponseUtils.TIMESTAMP_FIELD_NAME);
+
     private IOFogAPIListener listener;
+    private boolean pooledMessages;
+    private Set<IOMessageField> fields;
+    private IOMessageFilter filter;
 
     public IOContainerRESTAPIHandler(IOFogAPIListener listener){
+        this(listener, false);
+    }
+
+    public IOContainerRESTAPIHandler(IOFogAPIListener listener, boolean pooledMessages){
+        this(listener, pooledMessages, null);
+    }
+
+    /**
+     * @param listener - listener for REST communication with ioFog
+     * @param pooledMessages - if received messages should be taken from the pool of {@link IOMessage}
+     *                       and released after listener returns
+     * @param fields - fields of received messages to decode, null to decode all of them
+     */
+    public IOContainerRESTAPIHandler(IOFogAPIListener listener, boolean pooledMessages, Set<IOMessageField> fields){
         this.listener = listener;
+        this.pooledMessages = pooledMessages;
+        this.fields = fields;
+    }
+
+    /**
+     * Sets filter of received messages. Messages are matched after JSON decode, rejected ones
+     * are not passed to listener.
+     *
+     * @param filter - filter of messages, null to accept all
+     */
+    public void setMessageFilter(IOMessageFilter filter){
+        this.filter = filter;
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext channelHandlerContext, HttpObject msg){
         if (msg instanceof FullHttpResponse) {
-            FullHttpResponse response = (FullHttpResponse) msg;
-            ByteBuf content = response.content();
-            String responseBody = content.toString(io.netty.util.CharsetUtil.US_ASCII);
-            JsonReader reader = Json.createReader(new StringReader(responseBody));
-            JsonObject json = reader.readObject();
-            if(response.getStatus() == HttpResponseStatus.BAD_REQUEST) {
-                listener.onBadRequest(json.toString());
-                channelHandlerContext.close();
-            } else {
-                if (json.containsKey(IOFogResponseUtils.CONFIG_FIELD_NAME)) {
-                    JsonString configString = json.getJsonString(IOFogResponseUtils.CONFIG_FIELD_NAME);
-                    JsonReader configReader = Json.createReader(new StringReader(configString.getString()));
-                    listener.onNewConfig(configReader.readObject());
-                    channelHandlerContext.close();
-                    return;
+            handleResponse((FullHttpResponse) msg);
+        }
+    }
+
+    /**
+     * Method parses response of ioFog and passes its result to listener.
+     * It's used for responses received outside of the handler's pipeline, e.g. pipelined ones.
+     *
+     * @param response - full response of REST call
+     */
+    public void handleResponse(FullHttpResponse response){
+        ByteBuf content = response.content();
+        if(response.getStatus() == HttpResponseStatus.BAD_REQUEST) {
+            JsonReader reader = Json.createReader(new StringReader(content.toString(CharsetUtil.UTF_8)));
+            listener.onBadRequest(reader.readObject().toString());
+            return;
+        }
+        String config = null;
+        List<IOMessage> messagesList = null;
+        Long timeFrameStart = null, timeFrameEnd = null, timestamp = null;
+        String id = null;
+        ByteBufJsonReader reader = new ByteBufJsonReader(content);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = reader.nextName(RESPONSE_FIELD_NAMES);
+            if (field < 0 || reader.nextNull()) {
+                if (field < 0) {
+                    reader.skipValue();
                 }
-                if (json.containsKey(IOFogResponseUtils.MESSAGES_FIELD_NAME)) {
-                    JsonArray messagesJSON = json.getJsonArray(IOFogResponseUtils.MESSAGES_FIELD_NAME);
-                    List<IOMessage> messagesList = new ArrayList<>(messagesJSON.size());
-                    messagesJSON.forEach(message -> {
-                        if (message instanceof JsonObject) {
-                            messagesList.add(new IOMessage((JsonObject) message, true));
-                        }
-                    });
-                    if(json.containsKey(IOFogResponseUtils.TIMEFRAME_START_FIELD_NAME) &&
-                            json.containsKey(IOFogResponseUtils.TIMEFRAME_END_FIELD_NAME)) {
-                        listener.onMessagesQuery(Long.valueOf(json.getJsonNumber(IOFogResponseUtils.TIMEFRAME_START_FIELD_NAME).toString()),
-                                Long.valueOf(json.getJsonNumber(IOFogResponseUtils.TIMEFRAME_END_FIELD_NAME).toString()),
-                                messagesList);
-                    } else {
-                        listener.onMessages(messagesList);
-                    }
-                    channelHandlerContext.close();
-                    return;
+                continue;
+            }
+            switch (field) {
+                case CONFIG: config = reader.nextString(); break;
+                case MESSAGES: messagesList = readMessages(reader); break;
+                case TIMEFRAME_START: timeFrameStart = reader.nextLong(); break;
+                case TIMEFRAME_END: timeFrameEnd = reader.nextLong(); break;
+                case ID: id = reader.nextString(); break;
+                case TIMESTAMP: timestamp = reader.nextLong(); break;
+            }
+        }
+        if (config != null) {
+            JsonReader configReader = Json.createReader(new StringReader(config));
+            listener.onNewConfig(configReader.readObject());
+            return;
+        }
+        if (messagesList != null) {
+            try {
+                if (timeFrameStart != null && timeFrameEnd != null) {
+                    listener.onMessagesQuery(timeFrameStart, timeFrameEnd, messagesList);
+                } else {
+                    listener.onMessages(messagesList);
+                }
+            } finally {
+                if (pooledMessages) {
+                    messagesList.forEach(IOMessage::release);
+                }
+            }
+            return;
+        }
+        if(id != null && timestamp != null) {
+            listener.onMessageReceipt(id, timestamp);
+        }
+    }
+
+    private List<IOMessage> readMessages(ByteBufJsonReader reader) {
+        List<IOMessage> messagesList = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.isObject()) {
+                IOMessage message = pooledMessages ? IOMessage.obtain() : new IOMessage();
+                if (fields != null) {
+                    IOMessageJsonCodec.decode(reader, message, fields);
+                } else {
+                    IOMessageJsonCodec.decode(reader, message);
                 }
-                if(json.containsKey(IOFogResponseUtils.ID_FIELD_NAME) && json.containsKey(IOFogResponseUtils.TIMESTAMP_FIELD_NAME)) {
-                    listener.onMessageReceipt(json.getString(IOFogResponseUtils.ID_FIELD_NAME), Long.valueOf(json.getString(IOFogResponseUtils.TIMESTAMP_FIELD_NAME)));
-                    channelHandlerContext.close();
-                    return;
+                if (filter == null || filter.matches(message)) {
+                    messagesList.add(IOMessageCompressor.decompressIfNeeded(message));
+                } else if (pooledMessages) {
+                    message.release();
                 }
+            } else {
+                reader.skipValue();
             }
         }
+        reader.endArray();
+        return messagesList;
     }
 
     @Override
@@ -0,0 +1,241 @@
+package com.iotracks.api.handler;
+
+import com.iotracks.api.listener.IOFogMessageBatchListener;
+import com.iotracks.api.listener.IOFogMessageStreamListener;
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageBatch;
+import com.iotracks.elements.IOMessageCompressor;
+import com.iotracks.elements.IOMessageFilter;
+import com.iotracks.elements.IOMessageFragmenter;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.elements.IOMessageReassembler;
+import com.iotracks.utils.ByteBufJsonReader;
+import com.iotracks.utils.ByteBufJsonArrayScanner;
+import com.iotracks.utils.IOFogResponseUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.CharsetUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Containers's Handler for REST responses with messages that are parsed while they are received.
+ * Response is not aggregated: every HttpContent chunk is scanned and messages are passed
+ * to the listener in batches as soon as they are complete.
+ */
+public class IOContainerStreamingRESTAPIHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+    private IOFogMessageStreamListener listener;
+    private int batchSize;
+    private boolean pooledMessages;
+    private boolean badRequest;
+    private ByteBuf errorBody;
+    private ByteBufJsonArrayScanner scanner;
+    private List<IOMessage> batch;
+    private IOMessageFilter filter;
+    private IOFogMessageBatchListener batchListener;
+    private IOMessageReassembler reassembler;
+    private IOMessageBatch messageBatch;
+
+    /**
+     * @param listener - listener for streamed messages
+     * @param batchSize - max number of messages passed to listener at once
+     */
+    public IOContainerStreamingRESTAPIHandler(IOFogMessageStreamListener listener, int batchSize){
+        this(listener, batchSize, false);
+    }
+
+    /**
+     * @param listener - listener for streamed messages
+     * @param batchSize - max number of messages passed to listener at once
+     * @param pooledMessages - if received messages should be taken from the pool of {@link IOMessage}
+     *                       and released after listener returns
+     */
+    public IOContainerStreamingRESTAPIHandler(IOFogMessageStreamListener listener, int batchSize, boolean pooledMessages){
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be positive.");
+        }
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.pooledMessages = pooledMessages;
+    }
+
+    /**
+     * Creates handler that passes messages to listener in columnar form without building {@link IOMessage} objects.
+     *
+     * @param listener - listener for columnar batches
+     * @param batchSize - max number of messages passed to listener at once
+     * @param reassembler - reassembler of fragments, null to pass fragments as they are
+     */
+    public IOContainerStreamingRESTAPIHandler(IOFogMessageBatchListener listener, int batchSize, IOMessageReassembler reassembler){
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be positive.");
+        }
+        this.batchListener = listener;
+        this.batchSize = batchSize;
+        this.reassembler = reassembler;
+    }
+
+    /**
+     * Sets filter of received messages. Messages are matched after JSON decode, rejected ones
+     * are not passed to listener.
+     *
+     * @param filter - filter of messages, null to accept all
+     */
+    public void setMessageFilter(IOMessageFilter filter){
+        this.filter = filter;
+    }
+
+    /**
+     * Sets reassembler of fragmented messages. Fragments are joined before they're passed to listener,
+     * so it gets complete messages only.
+     *
+     * @param reassembler - reassembler of fragments, null to pass fragments as they are
+     */
+    public void setReassembler(IOMessageReassembler reassembler){
+        this.reassembler = reassembler;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext channelHandlerContext, HttpObject msg){
+        if (msg instanceof HttpResponse) {
+            releaseBuffers();
+            badRequest = ((HttpResponse) msg).getStatus() == HttpResponseStatus.BAD_REQUEST;
+            if (badRequest) {
+                errorBody = channelHandlerContext.alloc().buffer();
+            } else {
+                scanner = new ByteBufJsonArrayScanner(IOFogResponseUtils.MESSAGES_FIELD_NAME, channelHandlerContext.alloc());
+                if (batchListener != null) {
+                    messageBatch = new IOMessageBatch(batchSize);
+                } else {
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+        }
+        if (msg instanceof HttpContent) {
+            ByteBuf content = ((HttpContent) msg).content();
+            if (badRequest) {
+                errorBody.writeBytes(content, content.readerIndex(), content.readableBytes());
+            } else if (scanner != null && batchListener != null) {
+                scanner.feed(content, this::readRow);
+            } else if (scanner != null) {
+                scanner.feed(content, reader -> {
+                    IOMessage message = IOMessageJsonCodec.decode(reader, pooledMessages ? IOMessage.obtain() : new IOMessage());
+                    if (filter != null && !filter.matches(message)) {
+                        if (pooledMessages) {
+                            message.release();
+                        }
+                        return;
+                    }
+                    if (reassembler != null && IOMessageFragmenter.isFragment(message)) {
+                        IOMessage joined = reassembler.add(message);
+                        if (pooledMessages) {
+                            message.release();
+                        }
+                        if (joined == null) {
+                            return;
+                        }
+                        message = joined;
+                    }
+                    batch.add(IOMessageCompressor.decompressIfNeeded(message));
+                    if (batch.size() >= batchSize) {
+                        flush();
+                    }
+                });
+            }
+            if (msg instanceof LastHttpContent) {
+                if (badRequest) {
+                    String error = errorBody.toString(CharsetUtil.UTF_8);
+                    if (batchListener != null) {
+                        batchListener.onBadRequest(error);
+                    } else {
+                        listener.onBadRequest(error);
+                    }
+                } else if (scanner != null && batchListener != null) {
+                    flushBatch();
+                    batchListener.onComplete();
+                } else if (scanner != null) {
+                    flush();
+                    listener.onComplete();
+                }
+                releaseBuffers();
+            }
+        }
+    }
+
+    private void flush() {
+        if (!batch.isEmpty()) {
+            List<IOMessage> messages = batch;
+            batch = new ArrayList<>(batchSize);
+            try {
+                listener.onMessages(messages);
+            } finally {
+                if (pooledMessages) {
+                    messages.forEach(IOMessage::release);
+                }
+            }
+        }
+    }
+
+    private void readRow(ByteBufJsonReader reader) {
+        if (!IOMessageJsonCodec.decode(reader, messageBatch, filter)) {
+            IOMessage message = IOMessageJsonCodec.decode(reader, new IOMessage());
+            if (filter == null || filter.matches(message)) {
+                messageBatch.add(message, reassembler);
+            }
+        }
+        if (messageBatch.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        if (!messageBatch.isEmpty()) {
+            IOMessageBatch messages = messageBatch;
+            messageBatch = new IOMessageBatch(batchSize);
+            try {
+                batchListener.onMessageBatch(messages);
+            } finally {
+                messages.release();
+            }
+        }
+    }
+
+    private void releaseBuffers() {
+        if (errorBody != null) {
+            errorBody.release();
+            errorBody = null;
+        }
+        if (scanner != null) {
+            scanner.release();
+            scanner = null;
+        }
+        if (messageBatch != null) {
+            messageBatch.release();
+            messageBatch = null;
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseBuffers();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (batchListener != null) {
+            batchListener.onError(cause);
+        } else {
+            listener.onError(cause);
+        }
+        releaseBuffers();
+        ctx.close();
+    }
+}
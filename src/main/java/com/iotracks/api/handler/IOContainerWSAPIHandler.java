@@ -1,10 +1,15 @@
 package com.iotracks.api.handler;
 
 import com.iotracks.api.IOFogClient;
+import com.iotracks.api.client.IOFogOutboundQueue;
 import com.iotracks.api.listener.IOFogAPIListener;
+import com.iotracks.api.listener.IOFogMessageBatchListener;
 import com.iotracks.utils.IOFogLocalAPIURL;
+import com.iotracks.ws.manager.WebSocketFlushConsolidationHandler;
 import com.iotracks.ws.manager.WebSocketManager;
 import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageField;
+import com.iotracks.elements.IOMessageReassembler;
 import com.iotracks.ws.manager.listener.ClientWSManagerListener;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
@@ -12,6 +17,8 @@ import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.websocketx.*;
 
 import java.net.URI;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -26,20 +33,71 @@ public class IOContainerWSAPIHandler extends SimpleChannelInboundHandler {
     private WebSocketClientHandshaker handshaker;
     private ChannelPromise handshakeFuture;
     private WebSocketManager wsManager;
+    private ClientWSManagerListener wsManagerListener;
     private String containerId;
     private IOFogLocalAPIURL wsType;
     private IOFogAPIListener wsListener;
     private IOFogClient ioFogClient;
+    private IOFogOutboundQueue outboundQueue;
+    private WebSocketFlushConsolidationHandler.Mode flushMode;
+    private long flushMaxDelayMicros;
 
     public IOContainerWSAPIHandler(IOFogAPIListener listener, URI uri, String containerId, IOFogLocalAPIURL wsType, IOFogClient ioFogClient){
+        this(listener, uri, containerId, wsType, ioFogClient, null);
+    }
+
+    /**
+     * @param listener - listener for communication with ioFog
+     * @param uri - WebSocket URI
+     * @param containerId - Container's ID
+     * @param wsType - type of WebSocket
+     * @param ioFogClient - client that opened WebSocket
+     * @param fields - fields of received messages to decode, null to decode all of them
+     */
+    public IOContainerWSAPIHandler(IOFogAPIListener listener, URI uri, String containerId, IOFogLocalAPIURL wsType,
+                                   IOFogClient ioFogClient, Set<IOMessageField> fields){
         this.handshaker = WebSocketClientHandshakerFactory.newHandshaker(uri, WebSocketVersion.V13, null, false, new DefaultHttpHeaders(), Integer.MAX_VALUE);
         this.containerId = containerId;
         this.wsType = wsType;
-        wsManager = new WebSocketManager(new ClientWSManagerListener(listener, wsType));
+        wsManagerListener = new ClientWSManagerListener(listener, wsType, ioFogClient.isPooledMessages(), fields);
+        wsManagerListener.setMessageFilter(ioFogClient.getMessageFilter());
+        wsManager = new WebSocketManager(wsManagerListener);
         wsListener = listener;
         this.ioFogClient = ioFogClient;
     }
 
+    /**
+     * Sets listener for received messages in columnar form (see {@link ClientWSManagerListener#setBatchListener}).
+     *
+     * @param batchListener - listener for columnar batches, null to receive {@link IOMessage} objects
+     * @param reassembler - reassembler of fragments, null to pass fragments as they are
+     */
+    public void setBatchListener(IOFogMessageBatchListener batchListener, IOMessageReassembler reassembler) {
+        wsManagerListener.setBatchListener(batchListener, reassembler);
+    }
+
+    /**
+     * Sets queue of sent messages, it's bound to the connection once WebSocket handshake is complete
+     * and receives receipts of its messages.
+     *
+     * @param outboundQueue - queue of Message WebSocket
+     */
+    public void setOutboundQueue(IOFogOutboundQueue outboundQueue) {
+        this.outboundQueue = outboundQueue;
+        wsManagerListener.setOutboundQueue(outboundQueue);
+    }
+
+    /**
+     * Sets consolidation of flushes (see {@link WebSocketFlushConsolidationHandler}), it's added to the pipeline with this handler.
+     *
+     * @param mode - how long flushes can wait for more frames, null to flush every frame right away
+     * @param maxDelayMicros - max time flush is delayed by
+     */
+    public void setFlushConsolidation(WebSocketFlushConsolidationHandler.Mode mode, long maxDelayMicros) {
+        this.flushMode = mode;
+        this.flushMaxDelayMicros = maxDelayMicros;
+    }
+
     public ChannelFuture handshakeFuture() {
         return handshakeFuture;
     }
@@ -47,6 +105,9 @@ public class IOContainerWSAPIHandler extends SimpleChannelInboundHandler {
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) {
         handshakeFuture = ctx.newPromise();
+        if (flushMode != null) {
+            ctx.pipeline().addBefore(ctx.name(), "flush-consolidation", new WebSocketFlushConsolidationHandler(flushMode, flushMaxDelayMicros));
+        }
     }
 
     @Override
@@ -56,6 +117,9 @@ public class IOContainerWSAPIHandler extends SimpleChannelInboundHandler {
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
+        if (outboundQueue != null) {
+            outboundQueue.detach(ctx);
+        }
         ioFogClient.reconnect(wsType, wsListener);
     }
 
@@ -64,7 +128,6 @@ public class IOContainerWSAPIHandler extends SimpleChannelInboundHandler {
         Channel ch = channelHandlerContext.channel();
         if (!handshaker.isHandshakeComplete()) {
             handshaker.finishHandshake(ch, (FullHttpResponse) o);
-            handshakeFuture.setSuccess();
             switch (wsType){
                 case GET_CONTROL_WEB_SOCKET_LOCAL_API:
                     ioFogClient.wsReconnectControlSocketAttempts = 0;
@@ -73,14 +136,27 @@ public class IOContainerWSAPIHandler extends SimpleChannelInboundHandler {
                 case GET_MSG_WEB_SOCKET_LOCAL_API:
                     ioFogClient.wsReconnectMessageSocketAttempts = 0;
                     wsManager.addMessageContext(channelHandlerContext, containerId);
+                    if (outboundQueue != null) {
+                        outboundQueue.attach(channelHandlerContext, wsManager);
+                    }
                     break;
             }
+            // context has to be registered before waiting senders are released
+            handshakeFuture.setSuccess();
         }
         if (o instanceof WebSocketFrame ){
             wsManager.eatFrame(channelHandlerContext, (WebSocketFrame) o);
         }
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (outboundQueue != null && ctx.channel().isWritable()) {
+            outboundQueue.onWritable(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         wsListener.onError(cause);
@@ -93,7 +169,11 @@ public class IOContainerWSAPIHandler extends SimpleChannelInboundHandler {
     }
 
     public void sendMessage(String containerId, IOMessage message){
-        wsManager.sendMessage(containerId, message.getBytes());
+        wsManager.sendMessage(containerId, message);
+    }
+
+    public void sendMessages(String containerId, List<IOMessage> messages){
+        wsManager.sendMessages(containerId, messages);
     }
 
 }
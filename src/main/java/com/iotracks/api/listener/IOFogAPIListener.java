@@ -14,6 +14,9 @@ public interface IOFogAPIListener {
 
     /**
      * Method is triggered when Container receives messages.
+     * Messages belong to the listener, unless pooled mode is enabled (see {@link com.iotracks.api.IOFogClient#setPooledMessages(boolean)}):
+     * then they are valid only during this call, call {@link IOMessage#retain()} to keep a message longer
+     * and {@link IOMessage#release()} when it's done.
      *
      * @param messages - list of received messages
      */
@@ -0,0 +1,37 @@
+package com.iotracks.api.listener;
+
+import com.iotracks.elements.IOMessageBatch;
+
+/**
+ * Listener's Interface for messages received in columnar form.
+ * Batches are valid only during the call, call {@link IOMessageBatch#retain()} to keep a batch longer
+ * and {@link IOMessageBatch#release()} when it's done.
+ */
+public interface IOFogMessageBatchListener {
+
+    /**
+     * Method is triggered every time a batch of messages is decoded.
+     *
+     * @param batch - received messages
+     */
+    void onMessageBatch(IOMessageBatch batch);
+
+    /**
+     * Method is triggered when the whole response is received and all messages are delivered.
+     */
+    void onComplete();
+
+    /**
+     * Method is triggered when Container catches an error.
+     *
+     * @param cause - cause of exception
+     */
+    void onError(Throwable cause);
+
+    /**
+     * Method is triggered when Container receives BAD_REQUEST response from ioFog.
+     *
+     * @param error - error messages
+     */
+    void onBadRequest(String error);
+}
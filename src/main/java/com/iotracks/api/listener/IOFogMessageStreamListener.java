@@ -0,0 +1,38 @@
+package com.iotracks.api.listener;
+
+import com.iotracks.elements.IOMessage;
+
+import java.util.List;
+
+/**
+ * Listener's Interface for streamed messages requests to ioFog.
+ * Messages are delivered in bounded batches while the response is still being received.
+ */
+public interface IOFogMessageStreamListener {
+
+    /**
+     * Method is triggered every time a batch of messages is decoded from the response.
+     *
+     * @param messages - batch of received messages, not larger than requested batch size
+     */
+    void onMessages(List<IOMessage> messages);
+
+    /**
+     * Method is triggered when the whole response is received and all messages are delivered.
+     */
+    void onComplete();
+
+    /**
+     * Method is triggered when Container catches an error.
+     *
+     * @param cause - cause of exception
+     */
+    void onError(Throwable cause);
+
+    /**
+     * Method is triggered when Container receives BAD_REQUEST response from ioFog.
+     *
+     * @param error - error messages
+     */
+    void onBadRequest(String error);
+}
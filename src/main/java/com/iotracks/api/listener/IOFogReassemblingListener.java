@@ -0,0 +1,85 @@
+package com.iotracks.api.listener;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageCompressor;
+import com.iotracks.elements.IOMessageFragmenter;
+import com.iotracks.elements.IOMessageReassembler;
+
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link IOFogAPIListener} that joins fragmented messages before passing them to the wrapped listener.
+ * Messages that aren't fragments are passed as they are, in the order they were received.
+ */
+public class IOFogReassemblingListener implements IOFogAPIListener {
+
+    private final IOFogAPIListener listener;
+    private final IOMessageReassembler reassembler;
+
+    /**
+     * @param listener - wrapped listener
+     * @param reassembler - buffer for parts of incomplete messages
+     */
+    public IOFogReassemblingListener(IOFogAPIListener listener, IOMessageReassembler reassembler) {
+        this.listener = listener;
+        this.reassembler = reassembler;
+    }
+
+    @Override
+    public void onMessages(List<IOMessage> messages) {
+        listener.onMessages(reassemble(messages));
+    }
+
+    @Override
+    public void onMessagesQuery(long timeframestart, long timeframeend, List<IOMessage> messages) {
+        listener.onMessagesQuery(timeframestart, timeframeend, reassemble(messages));
+    }
+
+    private List<IOMessage> reassemble(List<IOMessage> messages) {
+        List<IOMessage> complete = null;
+        for (int i = 0; i < messages.size(); i++) {
+            IOMessage message = messages.get(i);
+            if (!IOMessageFragmenter.isFragment(message)) {
+                if (complete != null) {
+                    complete.add(message);
+                }
+                continue;
+            }
+            if (complete == null) {
+                complete = new ArrayList<>(messages.subList(0, i));
+            }
+            IOMessage joined = reassembler.add(message);
+            if (joined != null) {
+                complete.add(IOMessageCompressor.decompressIfNeeded(joined));
+            }
+        }
+        return complete == null ? messages : complete;
+    }
+
+    @Override
+    public void onError(Throwable cause) {
+        listener.onError(cause);
+    }
+
+    @Override
+    public void onBadRequest(String error) {
+        listener.onBadRequest(error);
+    }
+
+    @Override
+    public void onMessageReceipt(String messageId, long timestamp) {
+        listener.onMessageReceipt(messageId, timestamp);
+    }
+
+    @Override
+    public void onNewConfig(JsonObject config) {
+        listener.onNewConfig(config);
+    }
+
+    @Override
+    public void onNewConfigSignal() {
+        listener.onNewConfigSignal();
+    }
+}
@@ -2,17 +2,43 @@ package com.iotracks.elements;
 
 import com.iotracks.utils.ByteUtils;
 import com.iotracks.utils.IOMessageUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.Recycler;
 
 import javax.json.Json;
 import javax.json.JsonObject;
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * IOMessage represent all message communication between ioFog and Containers.
+ *
+ * Message created from encoded bytes is a lazy view over them: header is parsed once
+ * and every field is decoded only when its getter is called for the first time.
+ * Message created from a {@link ByteBuf} retains the buffer until message is released.
+ *
+ * For allocation-free steady state messages can be taken from a thread-local pool with {@link #obtain()}.
+ * Pooled message is reset and returned to the pool when it's released (see {@link #recycle()}),
+ * its content buffer is kept and reused if it has enough capacity for the next content.
  */
-public class IOMessage {
+public class IOMessage extends AbstractReferenceCounted {
 
-    private final short VERSION = 4;
+    private static final Logger log = Logger.getLogger(IOMessage.class.getName());
+
+    private static final int MAX_POOLED_CONTENT_CAPACITY = 256 * 1024;
+
+    private static final Recycler<IOMessage> RECYCLER = new Recycler<IOMessage>() {
+        @Override
+        protected IOMessage newObject(Handle handle) {
+            return new IOMessage(handle);
+        }
+    };
+
+    static final short VERSION = 4;
 
     public static final String ID_FIELD_NAME = "id";
     public static final String TAG_FIELD_NAME = "tag";
@@ -56,14 +82,77 @@ public class IOMessage {
     private byte[] contextData;
     private byte[] contentData; // required
 
+    private IOMessageHeader header;
+    private ByteBuf buffer;
+    private boolean view;
+    private int decodedFields;
+    private ByteBuf contentBuffer;
+    private boolean contentInBuffer;
+    private Recycler.Handle recyclerHandle;
+
     public IOMessage(){ }
 
+    private IOMessage(Recycler.Handle recyclerHandle){
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    /**
+     * Takes an empty message from the thread-local pool.
+     * Message goes back to the pool when it's released.
+     *
+     * @return IOMessage
+     */
+    public static IOMessage obtain(){
+        IOMessage message = RECYCLER.get();
+        message.setRefCnt(1);
+        return message;
+    }
+
+    /**
+     * Takes a message from the thread-local pool and makes it a view over encoded message
+     * (see {@link #IOMessage(ByteBuf)}). Buffer is retained until message is released.
+     *
+     * @param buf - buffer with encoded message
+     *
+     * @return IOMessage
+     */
+    public static IOMessage obtain(ByteBuf buf){
+        IOMessage message = obtain();
+        try {
+            message.initView(buf, buf, buf.readerIndex() + IOMessageHeader.HEADER_SIZE, buf.retain());
+        } catch (RuntimeException e) {
+            message.release();
+            throw e;
+        }
+        return message;
+    }
+
+    /**
+     * @return true if message was taken from the pool
+     */
+    public boolean isPooled(){
+        return recyclerHandle != null;
+    }
+
     public IOMessage(byte[] rawBytes){
-        convertBytesToMessage(null,rawBytes, 33);
+        ByteBuf buf = Unpooled.wrappedBuffer(rawBytes);
+        initView(buf, buf, IOMessageHeader.HEADER_SIZE, buf);
     }
 
     public IOMessage(byte[] header, byte[] data) {
-        convertBytesToMessage(header, data, 0);
+        ByteBuf buf = Unpooled.wrappedBuffer(data);
+        initView(Unpooled.wrappedBuffer(header), buf, 0, buf);
+    }
+
+    /**
+     * Creates a message view over encoded message (header followed by data)
+     * starting at reader index of the buffer. Buffer is retained until message is released.
+     *
+     * @param buf - buffer with encoded message
+     */
+    public IOMessage(ByteBuf buf) {
+        int index = buf.readerIndex();
+        initView(buf, buf, index + IOMessageHeader.HEADER_SIZE, buf.retain());
     }
 
     public IOMessage(JsonObject json, boolean decode) {
@@ -101,84 +190,180 @@ public class IOMessage {
         }
     }
 
+    private void initView(ByteBuf headerBuf, ByteBuf dataBuf, int dataIndex, ByteBuf owned){
+        buffer = owned;
+        view = true;
+        if (header == null) {
+            header = new IOMessageHeader();
+        }
+        try {
+            if (header.parse(headerBuf, headerBuf.readerIndex(), dataBuf, dataIndex)) {
+                decodedFields = 0;
+            } else {
+                // fields of other versions aren't decoded, message keeps only its version
+                log.warning("Unsupported IOMessage version " + header.getVersion() + ", fields are left empty.");
+                decodedFields = ~0;
+            }
+            version = header.getVersion();
+        } catch (RuntimeException e) {
+            owned.release();
+            buffer = null;
+            view = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Limits decoding of message view to the given fields. Other fields are never read from the buffer
+     * and keep default values (empty strings, zeros and null data), so they are also skipped when message is encoded.
+     *
+     * @param fields - fields to decode
+     *
+     * @return message
+     */
+    public IOMessage project(Set<IOMessageField> fields) {
+        if (view) {
+            decodedFields |= ~IOMessageField.mask(fields);
+        }
+        return this;
+    }
+
+    private boolean isPending(IOMessageField field) {
+        return view && (decodedFields & (1 << field.ordinal())) == 0;
+    }
+
+    private void setDecoded(IOMessageField field) {
+        decodedFields |= 1 << field.ordinal();
+    }
+
     public String getId() {
+        if (isPending(IOMessageField.ID)) {
+            id = header.getString(IOMessageField.ID);
+            setDecoded(IOMessageField.ID);
+        }
         return id;
     }
 
     public void setId(String id) {
         this.id = id;
+        setDecoded(IOMessageField.ID);
     }
 
     public String getTag() {
+        if (isPending(IOMessageField.TAG)) {
+            tag = header.getString(IOMessageField.TAG);
+            setDecoded(IOMessageField.TAG);
+        }
         return tag;
     }
 
     public void setTag(String tag) {
         this.tag = tag;
+        setDecoded(IOMessageField.TAG);
     }
 
     public String getGroupId() {
+        if (isPending(IOMessageField.GROUP_ID)) {
+            groupId = header.getString(IOMessageField.GROUP_ID);
+            setDecoded(IOMessageField.GROUP_ID);
+        }
         return groupId;
     }
 
     public void setGroupId(String groupId) {
         this.groupId = groupId;
+        setDecoded(IOMessageField.GROUP_ID);
     }
 
     public Integer getSequenceNumber() {
+        if (isPending(IOMessageField.SEQUENCE_NUMBER)) {
+            sequenceNumber = (int) header.getNumber(IOMessageField.SEQUENCE_NUMBER);
+            setDecoded(IOMessageField.SEQUENCE_NUMBER);
+        }
         return sequenceNumber;
     }
 
     public void setSequenceNumber(Integer sequenceNumber) {
         this.sequenceNumber = sequenceNumber;
+        setDecoded(IOMessageField.SEQUENCE_NUMBER);
     }
 
     public Integer getSequenceTotal() {
+        if (isPending(IOMessageField.SEQUENCE_TOTAL)) {
+            sequenceTotal = (int) header.getNumber(IOMessageField.SEQUENCE_TOTAL);
+            setDecoded(IOMessageField.SEQUENCE_TOTAL);
+        }
         return sequenceTotal;
     }
 
     public void setSequenceTotal(Integer sequenceTotal) {
         this.sequenceTotal = sequenceTotal;
+        setDecoded(IOMessageField.SEQUENCE_TOTAL);
     }
 
     public byte getPriority() {
+        if (isPending(IOMessageField.PRIORITY)) {
+            priority = (byte) header.getNumber(IOMessageField.PRIORITY);
+            setDecoded(IOMessageField.PRIORITY);
+        }
         return priority;
     }
 
     public void setPriority(byte priority) {
         this.priority = priority;
+        setDecoded(IOMessageField.PRIORITY);
     }
 
     public long getTimestamp() {
+        if (isPending(IOMessageField.TIMESTAMP)) {
+            timestamp = header.getNumber(IOMessageField.TIMESTAMP);
+            setDecoded(IOMessageField.TIMESTAMP);
+        }
         return timestamp;
     }
 
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
+        setDecoded(IOMessageField.TIMESTAMP);
     }
 
     public String getPublisher() {
+        if (isPending(IOMessageField.PUBLISHER)) {
+            publisher = header.getString(IOMessageField.PUBLISHER);
+            setDecoded(IOMessageField.PUBLISHER);
+        }
         return publisher;
     }
 
     public void setPublisher(String publisher) {
         this.publisher = publisher;
+        setDecoded(IOMessageField.PUBLISHER);
     }
 
     public String getAuthId() {
+        if (isPending(IOMessageField.AUTH_ID)) {
+            authId = header.getString(IOMessageField.AUTH_ID);
+            setDecoded(IOMessageField.AUTH_ID);
+        }
         return authId;
     }
 
     public void setAuthId(String authId) {
         this.authId = authId;
+        setDecoded(IOMessageField.AUTH_ID);
     }
 
     public String getAuthGroup() {
+        if (isPending(IOMessageField.AUTH_GROUP)) {
+            authGroup = header.getString(IOMessageField.AUTH_GROUP);
+            setDecoded(IOMessageField.AUTH_GROUP);
+        }
         return authGroup;
     }
 
     public void setAuthGroup(String authGroup) {
         this.authGroup = authGroup;
+        setDecoded(IOMessageField.AUTH_GROUP);
     }
 
     public short getVersion() {
@@ -186,75 +371,198 @@ public class IOMessage {
     }
 
     public long getChainPosition() {
+        if (isPending(IOMessageField.CHAIN_POSITION)) {
+            chainPosition = header.getNumber(IOMessageField.CHAIN_POSITION);
+            setDecoded(IOMessageField.CHAIN_POSITION);
+        }
         return chainPosition;
     }
 
     public void setChainPosition(long chainPosition) {
         this.chainPosition = chainPosition;
+        setDecoded(IOMessageField.CHAIN_POSITION);
     }
 
     public String getHash() {
+        if (isPending(IOMessageField.HASH)) {
+            hash = header.getString(IOMessageField.HASH);
+            setDecoded(IOMessageField.HASH);
+        }
         return hash;
     }
 
     public void setHash(String hash) {
         this.hash = hash;
+        setDecoded(IOMessageField.HASH);
     }
 
     public String getPreviousHash() {
+        if (isPending(IOMessageField.PREVIOUS_HASH)) {
+            previousHash = header.getString(IOMessageField.PREVIOUS_HASH);
+            setDecoded(IOMessageField.PREVIOUS_HASH);
+        }
         return previousHash;
     }
 
     public void setPreviousHash(String previousHash) {
         this.previousHash = previousHash;
+        setDecoded(IOMessageField.PREVIOUS_HASH);
     }
 
     public String getNonce() {
+        if (isPending(IOMessageField.NONCE)) {
+            nonce = header.getString(IOMessageField.NONCE);
+            setDecoded(IOMessageField.NONCE);
+        }
         return nonce;
     }
 
     public void setNonce(String nonce) {
         this.nonce = nonce;
+        setDecoded(IOMessageField.NONCE);
     }
 
     public int getDifficultyTarget() {
+        if (isPending(IOMessageField.DIFFICULTY_TARGET)) {
+            difficultyTarget = (int) header.getNumber(IOMessageField.DIFFICULTY_TARGET);
+            setDecoded(IOMessageField.DIFFICULTY_TARGET);
+        }
         return difficultyTarget;
     }
 
     public void setDifficultyTarget(int difficultyTarget) {
         this.difficultyTarget = difficultyTarget;
+        setDecoded(IOMessageField.DIFFICULTY_TARGET);
     }
 
     public String getInfoType() {
+        if (isPending(IOMessageField.INFO_TYPE)) {
+            infoType = header.getString(IOMessageField.INFO_TYPE);
+            setDecoded(IOMessageField.INFO_TYPE);
+        }
         return infoType;
     }
 
     public void setInfoType(String infoType) {
         this.infoType = infoType;
+        setDecoded(IOMessageField.INFO_TYPE);
     }
 
     public String getInfoFormat() {
+        if (isPending(IOMessageField.INFO_FORMAT)) {
+            infoFormat = header.getString(IOMessageField.INFO_FORMAT);
+            setDecoded(IOMessageField.INFO_FORMAT);
+        }
         return infoFormat;
     }
 
     public void setInfoFormat(String infoFormat) {
         this.infoFormat = infoFormat;
+        setDecoded(IOMessageField.INFO_FORMAT);
     }
 
     public byte[] getContextData() {
+        if (isPending(IOMessageField.CONTEXT_DATA)) {
+            contextData = header.getBytes(IOMessageField.CONTEXT_DATA);
+            setDecoded(IOMessageField.CONTEXT_DATA);
+        }
         return contextData;
     }
 
     public void setContextData(byte[] contextData) {
         this.contextData = contextData;
+        setDecoded(IOMessageField.CONTEXT_DATA);
     }
 
     public byte[] getContentData() {
+        if (isPending(IOMessageField.CONTENT_DATA)) {
+            contentData = header.getBytes(IOMessageField.CONTENT_DATA);
+            setDecoded(IOMessageField.CONTENT_DATA);
+        } else if (contentInBuffer && contentData == null && contentBuffer.isReadable()) {
+            contentData = new byte[contentBuffer.readableBytes()];
+            contentBuffer.getBytes(contentBuffer.readerIndex(), contentData);
+        }
         return contentData;
     }
 
     public void setContentData(byte[] contentData) {
         this.contentData = contentData;
+        contentInBuffer = false;
+        setDecoded(IOMessageField.CONTENT_DATA);
+    }
+
+    /**
+     * Copies readable bytes of the buffer to message's own content buffer,
+     * which is reused if it has enough capacity.
+     *
+     * @param contentData - buffer with content, its reader index isn't changed
+     */
+    public void setContentData(ByteBuf contentData) {
+        int length = contentData.readableBytes();
+        ByteBuf target = resetContentBuffer();
+        target.ensureWritable(length);
+        target.writeBytes(contentData, contentData.readerIndex(), length);
+    }
+
+    /**
+     * Makes message's own (reusable) content buffer the source of content data.
+     *
+     * @return empty content buffer to write content to
+     */
+    ByteBuf resetContentBuffer() {
+        if (contentBuffer == null) {
+            contentBuffer = Unpooled.buffer(0);
+        }
+        contentBuffer.clear();
+        contentData = null;
+        contentInBuffer = true;
+        setDecoded(IOMessageField.CONTENT_DATA);
+        return contentBuffer;
+    }
+
+    /**
+     * Returns content data without copying it.
+     * For message backed by a buffer the result is a slice of it, valid until message is released.
+     *
+     * @return ByteBuf
+     */
+    public ByteBuf getContentDataAsByteBuf() {
+        if (isPending(IOMessageField.CONTENT_DATA)) {
+            return header.slice(IOMessageField.CONTENT_DATA);
+        }
+        if (contentInBuffer) {
+            return contentBuffer.slice();
+        }
+        return contentData == null ? Unpooled.EMPTY_BUFFER : Unpooled.wrappedBuffer(contentData);
+    }
+
+    /**
+     * Returns content data without copying it as read-only {@link ByteBuffer}.
+     * For message backed by a buffer the result is valid until message is released.
+     *
+     * @return ByteBuffer
+     */
+    public ByteBuffer getContentDataAsByteBuffer() {
+        if (isPending(IOMessageField.CONTENT_DATA)) {
+            return header.slice(IOMessageField.CONTENT_DATA).nioBuffer().asReadOnlyBuffer();
+        }
+        if (contentInBuffer) {
+            return contentBuffer.nioBuffer().asReadOnlyBuffer();
+        }
+        return contentData == null ? ByteBuffer.allocate(0) : ByteBuffer.wrap(contentData).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return length of content data in bytes
+     */
+    public int getContentDataLength() {
+        if (isPending(IOMessageField.CONTENT_DATA)) {
+            return header.getLength(IOMessageField.CONTENT_DATA);
+        }
+        if (contentInBuffer) {
+            return contentBuffer.readableBytes();
+        }
+        return contentData == null ? 0 : contentData.length;
     }
 
     public JsonObject getJson(boolean encoded){
@@ -297,283 +605,210 @@ public class IOMessage {
     }
 
     public byte[] getBytes(){
-        ByteArrayOutputStream headerBaos = new ByteArrayOutputStream();
-        ByteArrayOutputStream dataBaos = new ByteArrayOutputStream();
         try {
-            //version
-            headerBaos.write(ByteUtils.shortToBytes(VERSION));
-
-            // id
-            int len = ByteUtils.getLength(getId());
-            headerBaos.write((byte) (len & 0xff));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getId()));
-
-            // tag
-            len = ByteUtils.getLength(getTag());
-            headerBaos.write(ByteUtils.shortToBytes((short) (len & 0xffff)));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getTag()));
-
-            //groupid
-            len = ByteUtils.getLength(getGroupId());
-            headerBaos.write((byte) (len & 0xff));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getGroupId()));
-
-            // seq no
-            if (getSequenceNumber() == 0)
-                headerBaos.write(0);
-            else {
-                dataBaos.write(ByteUtils.integerToBytes(getSequenceNumber()));
-                headerBaos.write(4);
-            }
-
-            // seq total
-            if (getSequenceTotal() == 0)
-                headerBaos.write(0);
-            else {
-                dataBaos.write(ByteUtils.integerToBytes(getSequenceTotal()));
-                headerBaos.write(4);
-            }
-
-
-            // priority
-            if (getPriority() == 0)
-                headerBaos.write(0);
-            else {
-                headerBaos.write(1);
-                dataBaos.write(getPriority());
-            }
-
-            //timestamp
-            if (getTimestamp() == 0)
-                headerBaos.write(0);
-            else {
-                headerBaos.write(8);
-                dataBaos.write(ByteUtils.longToBytes(getTimestamp()));
-            }
-
-            // publisher
-            len = ByteUtils.getLength(getPublisher());
-            headerBaos.write((byte) (len & 0xff));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getPublisher()));
-
-            // authIdentifier
-            len = ByteUtils.getLength(getAuthId());
-            headerBaos.write(ByteUtils.shortToBytes((short) (len & 0xffff)));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getAuthId()));
-
-            // authGroup
-            len = ByteUtils.getLength(getAuthGroup());
-            headerBaos.write(ByteUtils.shortToBytes((short) (len & 0xffff)));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getAuthGroup()));
-
-            // chainPosition
-            if (getChainPosition() == 0)
-                headerBaos.write(0);
-            else {
-                headerBaos.write(8);
-                dataBaos.write(ByteUtils.longToBytes(getChainPosition()));
-            }
-
-            // hash
-            len = ByteUtils.getLength(getHash());
-            headerBaos.write(ByteUtils.shortToBytes((short) (len & 0xffff)));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getHash()));
-
-            // previousHash
-            len = ByteUtils.getLength(getPreviousHash());
-            headerBaos.write(ByteUtils.shortToBytes((short) (len & 0xffff)));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getPreviousHash()));
-
-            // nonce
-            len = ByteUtils.getLength(getNonce());
-            headerBaos.write(ByteUtils.shortToBytes((short) (len & 0xffff)));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getNonce()));
-
-            // difficultyTarget
-            if (getDifficultyTarget() == 0)
-                headerBaos.write(0);
-            else {
-                headerBaos.write(4);
-                dataBaos.write(ByteUtils.integerToBytes(getDifficultyTarget()));
-            }
-
-            // infoType
-            len = ByteUtils.getLength(getInfoType());
-            headerBaos.write((byte) (len & 0xff));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getInfoType()));
-
-            // infoFormat
-            len = ByteUtils.getLength(getInfoFormat());
-            headerBaos.write((byte) (len & 0xff));
-            if (len > 0)
-                dataBaos.write(ByteUtils.stringToBytes(getInfoFormat()));
-
-            // contextData
-            if (getContextData() == null)
-                headerBaos.write(ByteUtils.integerToBytes(0));
-            else {
-                headerBaos.write(ByteUtils.integerToBytes(getContextData().length));
-                dataBaos.write(getContextData());
-            }
-
-            // contentData
-            if (getContentData() == null)
-                headerBaos.write(ByteUtils.integerToBytes(0));
-            else {
-                headerBaos.write(ByteUtils.integerToBytes(getContentData().length));
-                dataBaos.write(getContentData());
-            }
-
-            ByteArrayOutputStream result = new ByteArrayOutputStream();
-            headerBaos.writeTo(result);
-            dataBaos.writeTo(result);
-            return result.toByteArray();
+            int length = getEncodedLength();
+            ByteBuf buf = Unpooled.buffer(length, length);
+            encodeTo(buf);
+            return buf.array();
         } catch (Exception e) {
-            //TODO: log
-        } finally {
-            try {
-                headerBaos.close();
-                dataBaos.close();
-            } catch (Exception e) {
-                // TODO: log("Error when closing byte arrays streams");
-            }
+            log.log(Level.WARNING, "Error encoding IOMessage: " + e.getMessage());
         }
         return new byte[] {};
     }
 
-    private void convertBytesToMessage(byte[] header, byte[] data, int pos){
-        if(header == null || header.length == 0) {
-            header = data;
-        }
-        version = ByteUtils.bytesToShort(ByteUtils.copyOfRange(header, 0, 2));
-
-        if (version != VERSION) {
-            // TODO: incompatible version
-            return;
-        }
-
-        int size = header[2];
-        if (size > 0) {
-            setId(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+    /**
+     * Computes exact size of message in binary format.
+     *
+     * @return number of bytes {@link #encodeTo(ByteBuf)} writes
+     */
+    public int getEncodedLength(){
+        int length = IOMessageHeader.HEADER_SIZE;
+        length += ByteUtils.getLength(getId());
+        length += ByteUtils.getLength(getTag());
+        length += ByteUtils.getLength(getGroupId());
+        length += getSequenceNumber() == 0 ? 0 : Integer.BYTES;
+        length += getSequenceTotal() == 0 ? 0 : Integer.BYTES;
+        length += getPriority() == 0 ? 0 : Byte.BYTES;
+        length += getTimestamp() == 0 ? 0 : Long.BYTES;
+        length += ByteUtils.getLength(getPublisher());
+        length += ByteUtils.getLength(getAuthId());
+        length += ByteUtils.getLength(getAuthGroup());
+        length += getChainPosition() == 0 ? 0 : Long.BYTES;
+        length += ByteUtils.getLength(getHash());
+        length += ByteUtils.getLength(getPreviousHash());
+        length += ByteUtils.getLength(getNonce());
+        length += getDifficultyTarget() == 0 ? 0 : Integer.BYTES;
+        length += ByteUtils.getLength(getInfoType());
+        length += ByteUtils.getLength(getInfoFormat());
+        length += getContextData() == null ? 0 : getContextData().length;
+        length += getContentDataLength();
+        return length;
+    }
+
+    /**
+     * Writes message in binary format (header followed by data) to the buffer in one pass.
+     * Header is reserved first and lengths are filled in as values are written.
+     *
+     * @param buf - destination buffer, should have {@link #getEncodedLength()} writable bytes
+     *
+     * @throws IllegalArgumentException if some field is too long for its length slot
+     */
+    public void encodeTo(ByteBuf buf){
+        encodeTo(buf, false);
+    }
+
+    /**
+     * Writes message in binary format, canonical form skips fields that are assigned
+     * after the message is sealed by {@link IOMessageChain} (id, timestamp, hash and nonce).
+     *
+     * @param buf - destination buffer
+     * @param canonical - if canonical form should be written
+     */
+    void encodeTo(ByteBuf buf, boolean canonical){
+        int headerIndex = buf.writerIndex();
+        buf.writeShort(VERSION);
+        buf.writeZero(IOMessageHeader.HEADER_SIZE - IOMessageHeader.VERSION_SIZE);
+
+        if (!canonical) {
+            writeString(buf, headerIndex, IOMessageField.ID, getId());
         }
-
-        size = ByteUtils.bytesToShort(ByteUtils.copyOfRange(header, 3, 5));
-        if (size > 0) {
-            setTag(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        writeString(buf, headerIndex, IOMessageField.TAG, getTag());
+        writeString(buf, headerIndex, IOMessageField.GROUP_ID, getGroupId());
+        if (getSequenceNumber() != 0) {
+            buf.writeInt(getSequenceNumber());
+            setLength(buf, headerIndex, IOMessageField.SEQUENCE_NUMBER, Integer.BYTES);
         }
-
-        size = header[5];
-        if (size > 0) {
-            setGroupId(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        if (getSequenceTotal() != 0) {
+            buf.writeInt(getSequenceTotal());
+            setLength(buf, headerIndex, IOMessageField.SEQUENCE_TOTAL, Integer.BYTES);
         }
-
-        size = header[6];
-        if (size > 0) {
-            setSequenceNumber(ByteUtils.bytesToInteger(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        if (getPriority() != 0) {
+            buf.writeByte(getPriority());
+            setLength(buf, headerIndex, IOMessageField.PRIORITY, Byte.BYTES);
         }
-
-        size = header[7];
-        if (size > 0) {
-            setSequenceTotal(ByteUtils.bytesToInteger(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        if (!canonical && getTimestamp() != 0) {
+            buf.writeLong(getTimestamp());
+            setLength(buf, headerIndex, IOMessageField.TIMESTAMP, Long.BYTES);
         }
-
-        size = header[8];
-        if (size > 0) {
-            setPriority(data[pos]);
-            pos += size;
+        writeString(buf, headerIndex, IOMessageField.PUBLISHER, getPublisher());
+        writeString(buf, headerIndex, IOMessageField.AUTH_ID, getAuthId());
+        writeString(buf, headerIndex, IOMessageField.AUTH_GROUP, getAuthGroup());
+        if (getChainPosition() != 0) {
+            buf.writeLong(getChainPosition());
+            setLength(buf, headerIndex, IOMessageField.CHAIN_POSITION, Long.BYTES);
         }
-
-        size = header[9];
-        if (size > 0) {
-            setTimestamp(ByteUtils.bytesToLong(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        if (!canonical) {
+            writeString(buf, headerIndex, IOMessageField.HASH, getHash());
         }
-
-        size = header[10];
-        if (size > 0) {
-            setPublisher(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        writeString(buf, headerIndex, IOMessageField.PREVIOUS_HASH, getPreviousHash());
+        if (!canonical) {
+            writeString(buf, headerIndex, IOMessageField.NONCE, getNonce());
         }
-
-        size = ByteUtils.bytesToShort(ByteUtils.copyOfRange(header, 11, 13));
-        if (size > 0) {
-            setAuthId(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        if (getDifficultyTarget() != 0) {
+            buf.writeInt(getDifficultyTarget());
+            setLength(buf, headerIndex, IOMessageField.DIFFICULTY_TARGET, Integer.BYTES);
         }
-
-        size = ByteUtils.bytesToShort(ByteUtils.copyOfRange(header, 13, 15));
-        if (size > 0) {
-            setAuthGroup(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        writeString(buf, headerIndex, IOMessageField.INFO_TYPE, getInfoType());
+        writeString(buf, headerIndex, IOMessageField.INFO_FORMAT, getInfoFormat());
+        if (getContextData() != null) {
+            buf.writeBytes(getContextData());
+            setLength(buf, headerIndex, IOMessageField.CONTEXT_DATA, getContextData().length);
         }
-
-        size = header[15];
-        if (size > 0) {
-            setChainPosition(ByteUtils.bytesToLong(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+        if (getContentDataLength() > 0) {
+            ByteBuf content = getContentDataAsByteBuf();
+            buf.writeBytes(content, content.readerIndex(), content.readableBytes());
+            setLength(buf, headerIndex, IOMessageField.CONTENT_DATA, content.readableBytes());
         }
+    }
 
-        size = ByteUtils.bytesToShort(ByteUtils.copyOfRange(header, 16, 18));
-        if (size > 0) {
-            setHash(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+    private static void writeString(ByteBuf buf, int headerIndex, IOMessageField field, String value){
+        if (value != null && !value.isEmpty()) {
+            setLength(buf, headerIndex, field, ByteUtils.writeUtf8(buf, value));
         }
+    }
 
-        size = ByteUtils.bytesToShort(ByteUtils.copyOfRange(header, 18, 20));
-        if (size > 0) {
-            setPreviousHash(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+    private static void setLength(ByteBuf buf, int headerIndex, IOMessageField field, int length){
+        int index = headerIndex + field.getHeaderOffset();
+        switch (field.getLengthSize()) {
+            case 1:
+                if (length > 0xff) {
+                    throw new IllegalArgumentException("Field " + field.getJsonName() + " is too long: " + length + " bytes.");
+                }
+                buf.setByte(index, length);
+                break;
+            case 2:
+                if (length > 0xffff) {
+                    throw new IllegalArgumentException("Field " + field.getJsonName() + " is too long: " + length + " bytes.");
+                }
+                buf.setShort(index, length);
+                break;
+            default:
+                buf.setInt(index, length);
         }
+    }
 
-        size = ByteUtils.bytesToShort(ByteUtils.copyOfRange(header, 20, 22));
-        if (size > 0) {
-            setNonce(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
-        }
+    @Override
+    public IOMessage retain() {
+        super.retain();
+        return this;
+    }
 
-        size = header[22];
-        if (size > 0) {
-            setDifficultyTarget(ByteUtils.bytesToInteger(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
-        }
+    @Override
+    public IOMessage retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
 
-        size = header[23];
-        if (size > 0) {
-            setInfoType(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
-        }
+    /**
+     * Releases the message (same as {@link #release()}).
+     * Pooled message is reset and returned to the pool as soon as no one retains it,
+     * so it must not be used after this call.
+     *
+     * @return true if message was deallocated
+     */
+    public boolean recycle() {
+        return release();
+    }
 
-        size = header[24];
-        if (size > 0) {
-            setInfoFormat(ByteUtils.bytesToString(ByteUtils.copyOfRange(data, pos, pos + size)));
-            pos += size;
+    @Override
+    protected void deallocate() {
+        if (buffer != null) {
+            buffer.release();
         }
-
-        size = ByteUtils.bytesToInteger(ByteUtils.copyOfRange(header, 25, 29));
-        if (size > 0) {
-            setContextData(ByteUtils.copyOfRange(data, pos, pos + size));
-            pos += size;
+        if (recyclerHandle != null) {
+            reset();
+            RECYCLER.recycle(this, recyclerHandle);
         }
+    }
 
-        size = ByteUtils.bytesToInteger(ByteUtils.copyOfRange(header, 29, 33));
-        if (size > 0) {
-            setContentData(ByteUtils.copyOfRange(data, pos, pos + size));
+    private void reset() {
+        id = "";
+        tag = "";
+        groupId = "";
+        sequenceNumber = 0;
+        sequenceTotal = 0;
+        priority = 0;
+        timestamp = 0;
+        publisher = "";
+        authId = "";
+        authGroup = "";
+        version = VERSION;
+        chainPosition = 0;
+        hash = "";
+        previousHash = "";
+        nonce = "";
+        difficultyTarget = 0;
+        infoType = "";
+        infoFormat = "";
+        contextData = null;
+        contentData = null;
+        contentInBuffer = false;
+        if (contentBuffer != null && contentBuffer.capacity() > MAX_POOLED_CONTENT_CAPACITY) {
+            contentBuffer = null;
         }
+        buffer = null;
+        view = false;
+        decodedFields = 0;
     }
 
     @Override
@@ -583,26 +818,26 @@ public class IOMessage {
     
     public JsonObject toJson() {
 		return Json.createObjectBuilder()
-				.add("id", id == null ? "" : id)
-				.add("tag", tag == null ? "" : tag)
-				.add("groupid", groupId == null ? "" : groupId)
-				.add("sequencenumber", sequenceNumber)
-				.add("sequencetotal", sequenceTotal)
-				.add("priority", priority)
-				.add("timestamp", timestamp)
-				.add("publisher", publisher == null ? "" : publisher)
-				.add("authid", authId == null ? "" : authId)
-				.add("authgroup", authGroup == null ? "" : authGroup)
+				.add("id", getId() == null ? "" : getId())
+				.add("tag", getTag() == null ? "" : getTag())
+				.add("groupid", getGroupId() == null ? "" : getGroupId())
+				.add("sequencenumber", getSequenceNumber())
+				.add("sequencetotal", getSequenceTotal())
+				.add("priority", getPriority())
+				.add("timestamp", getTimestamp())
+				.add("publisher", getPublisher() == null ? "" : getPublisher())
+				.add("authid", getAuthId() == null ? "" : getAuthId())
+				.add("authgroup", getAuthGroup() == null ? "" : getAuthGroup())
 				.add("version", version)
-				.add("chainposition", chainPosition)
-				.add("hash", hash == null ? "" : hash)
-				.add("previoushash", previousHash == null ? "" : previousHash)
-				.add("nonce", nonce == null ? "" : nonce)
-				.add("difficultytarget", difficultyTarget)
-				.add("infotype", infoType == null ? "" : infoType)
-				.add("infoformat", infoFormat == null ? "" : infoFormat)
-				.add("contextdata", contextData == null ? "" : new String(contextData))
-				.add("contentdata", contentData == null ? "" : new String(contentData))
+				.add("chainposition", getChainPosition())
+				.add("hash", getHash() == null ? "" : getHash())
+				.add("previoushash", getPreviousHash() == null ? "" : getPreviousHash())
+				.add("nonce", getNonce() == null ? "" : getNonce())
+				.add("difficultytarget", getDifficultyTarget())
+				.add("infotype", getInfoType() == null ? "" : getInfoType())
+				.add("infoformat", getInfoFormat() == null ? "" : getInfoFormat())
+				.add("contextdata", getContextData() == null ? "" : new String(getContextData()))
+				.add("contentdata", getContentData() == null ? "" : new String(getContentData()))
 				.build();
 	}
 
@@ -0,0 +1,377 @@
+package com.iotracks.elements;
+
+import com.iotracks.utils.ByteUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar (structure of arrays) form of received messages for analytics workloads.
+ * Every message is a row: timestamps and priorities are kept in primitive arrays, publishers and info types
+ * are dictionary encoded into int codes and contents of all messages are stored one after another
+ * in a single heap buffer with an offsets array. Rows are appended straight from encoded messages,
+ * so no {@link IOMessage} objects are built.
+ *
+ * Backing arrays are exposed for tight loops, they are valid up to {@link #size()}:
+ * <pre>
+ *     long[] timestamps = batch.getTimestamps();
+ *     for (int i = 0; i < batch.size(); i++) { ... timestamps[i] ... }
+ * </pre>
+ *
+ * Batch passed to listener is valid only during the call, call {@link #retain()} to keep it longer
+ * and {@link #release()} when it's done.
+ */
+public class IOMessageBatch extends AbstractReferenceCounted {
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int ESTIMATED_CONTENT_SIZE = 128;
+    private static final byte[] COMPRESSION_MARKER = IOMessageCompressor.FORMAT_MARKER.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FRAGMENT_PREFIX = IOMessageFragmenter.GROUP_ID_PREFIX.getBytes(StandardCharsets.UTF_8);
+
+    private final IOMessageHeader header = new IOMessageHeader();
+    private final Dictionary publisherDictionary = new Dictionary();
+    private final Dictionary infoTypeDictionary = new Dictionary();
+    private final ByteBuf content;
+    private int size;
+    private long[] timestamps;
+    private byte[] priorities;
+    private int[] publishers;
+    private int[] infoTypes;
+    private int[] contentOffsets;
+
+    public IOMessageBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity - expected number of messages
+     */
+    public IOMessageBatch(int capacity) {
+        this(capacity, Math.max(1, capacity) * ESTIMATED_CONTENT_SIZE);
+    }
+
+    /**
+     * @param capacity - expected number of messages
+     * @param contentCapacity - expected total size of contents of messages
+     */
+    public IOMessageBatch(int capacity, int contentCapacity) {
+        capacity = Math.max(1, capacity);
+        timestamps = new long[capacity];
+        priorities = new byte[capacity];
+        publishers = new int[capacity];
+        infoTypes = new int[capacity];
+        contentOffsets = new int[capacity + 1];
+        content = Unpooled.buffer(Math.max(0, contentCapacity));
+    }
+
+    /**
+     * Method appends message encoded in binary format (as sent via Message WebSocket).
+     * Message is not appended if it has to be fully decoded first:
+     * if it's of unsupported version, it's compressed or it's a fragment.
+     *
+     * @param buf - buffer with encoded message
+     * @param index - index of the message in the buffer
+     * @param length - length of the message
+     *
+     * @return true if message was appended
+     */
+    public boolean add(ByteBuf buf, int index, int length) {
+        if (!header.parse(buf, index, buf, index + IOMessageHeader.HEADER_SIZE)) {
+            return false;
+        }
+        if (header.getEnd() > index + length) {
+            throw new IllegalArgumentException("IOMessage data is longer than message.");
+        }
+        ByteBuf data = header.getData();
+        int groupIdLength = header.getLength(IOMessageField.GROUP_ID);
+        if (ByteUtils.lastIndexOf(data, header.getOffset(IOMessageField.INFO_FORMAT),
+                header.getLength(IOMessageField.INFO_FORMAT), COMPRESSION_MARKER) >= 0
+                || (groupIdLength >= FRAGMENT_PREFIX.length
+                && ByteUtils.equals(data, header.getOffset(IOMessageField.GROUP_ID), FRAGMENT_PREFIX.length, FRAGMENT_PREFIX))) {
+            return false;
+        }
+        beginRow().writeBytes(data, header.getOffset(IOMessageField.CONTENT_DATA), header.getLength(IOMessageField.CONTENT_DATA));
+        endRow(header.getNumber(IOMessageField.TIMESTAMP), (byte) header.getNumber(IOMessageField.PRIORITY),
+                publisherDictionary.code(data, header.getOffset(IOMessageField.PUBLISHER), header.getLength(IOMessageField.PUBLISHER)),
+                infoTypeDictionary.code(data, header.getOffset(IOMessageField.INFO_TYPE), header.getLength(IOMessageField.INFO_TYPE)));
+        return true;
+    }
+
+    /**
+     * Method appends decoded message, its content is copied.
+     *
+     * @param message - message to append
+     */
+    public void add(IOMessage message) {
+        ByteBuf messageContent = message.getContentDataAsByteBuf();
+        beginRow().writeBytes(messageContent, messageContent.readerIndex(), messageContent.readableBytes());
+        endRow(message.getTimestamp(), message.getPriority(), message.getPublisher(), message.getInfoType());
+    }
+
+    /**
+     * Method appends message that couldn't be appended straight from its encoded form.
+     * Fragments are passed to reassembler and the joined message is appended once all parts are received,
+     * compressed content is decompressed.
+     *
+     * @param message - fully decoded message, might be released after the call
+     * @param reassembler - reassembler of fragments, null to append fragments as they are
+     */
+    public void add(IOMessage message, IOMessageReassembler reassembler) {
+        if (reassembler != null && IOMessageFragmenter.isFragment(message)) {
+            message = reassembler.add(message);
+            if (message == null) {
+                return;
+            }
+        }
+        add(IOMessageCompressor.decompressIfNeeded(message));
+    }
+
+    /**
+     * Method starts a new row, its content should be written to the returned buffer.
+     *
+     * @return content buffer
+     */
+    ByteBuf beginRow() {
+        if (size == timestamps.length) {
+            int capacity = size << 1;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            publishers = Arrays.copyOf(publishers, capacity);
+            infoTypes = Arrays.copyOf(infoTypes, capacity);
+            contentOffsets = Arrays.copyOf(contentOffsets, capacity + 1);
+        }
+        return content;
+    }
+
+    void endRow(long timestamp, byte priority, String publisher, String infoType) {
+        endRow(timestamp, priority, publisherDictionary.code(publisher), infoTypeDictionary.code(infoType));
+    }
+
+    private void endRow(long timestamp, byte priority, int publisherCode, int infoTypeCode) {
+        timestamps[size] = timestamp;
+        priorities[size] = priority;
+        publishers[size] = publisherCode;
+        infoTypes[size] = infoTypeCode;
+        contentOffsets[++size] = content.writerIndex();
+    }
+
+    /**
+     * Method discards the row started by {@link #beginRow()}.
+     */
+    void cancelRow() {
+        content.writerIndex(contentOffsets[size]);
+    }
+
+    /**
+     * @return number of messages
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return timestamps of messages (backing array, valid up to {@link #size()})
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return priorities of messages (backing array, valid up to {@link #size()})
+     */
+    public byte[] getPriorities() {
+        return priorities;
+    }
+
+    /**
+     * @return codes of publishers in {@link #getPublisherDictionary()} (backing array, valid up to {@link #size()})
+     */
+    public int[] getPublisherCodes() {
+        return publishers;
+    }
+
+    /**
+     * @return codes of info types in {@link #getInfoTypeDictionary()} (backing array, valid up to {@link #size()})
+     */
+    public int[] getInfoTypeCodes() {
+        return infoTypes;
+    }
+
+    /**
+     * @return offsets of contents in {@link #getContent()}, content of row i ends where content of row i + 1 starts
+     * (backing array, valid up to {@link #size()} inclusive)
+     */
+    public int[] getContentOffsets() {
+        return contentOffsets;
+    }
+
+    /**
+     * @return buffer with contents of all messages, valid until batch is released
+     */
+    public ByteBuf getContent() {
+        return content;
+    }
+
+    public List<String> getPublisherDictionary() {
+        return publisherDictionary.unmodifiableValues;
+    }
+
+    public List<String> getInfoTypeDictionary() {
+        return infoTypeDictionary.unmodifiableValues;
+    }
+
+    /**
+     * @param publisher - publisher
+     *
+     * @return code of publisher or -1 if batch has no messages of this publisher
+     */
+    public int getPublisherCode(String publisher) {
+        return publisherDictionary.find(publisher);
+    }
+
+    /**
+     * @param infoType - info type
+     *
+     * @return code of info type or -1 if batch has no messages of this info type
+     */
+    public int getInfoTypeCode(String infoType) {
+        return infoTypeDictionary.find(infoType);
+    }
+
+    public long getTimestamp(int row) {
+        return timestamps[checkRow(row)];
+    }
+
+    public byte getPriority(int row) {
+        return priorities[checkRow(row)];
+    }
+
+    public String getPublisher(int row) {
+        return publisherDictionary.values.get(publishers[checkRow(row)]);
+    }
+
+    public String getInfoType(int row) {
+        return infoTypeDictionary.values.get(infoTypes[checkRow(row)]);
+    }
+
+    public int getContentLength(int row) {
+        checkRow(row);
+        return contentOffsets[row + 1] - contentOffsets[row];
+    }
+
+    /**
+     * @param row - index of message
+     *
+     * @return content of message as a slice of {@link #getContent()} (no copy)
+     */
+    public ByteBuf getContent(int row) {
+        checkRow(row);
+        return content.slice(contentOffsets[row], contentOffsets[row + 1] - contentOffsets[row]);
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+        }
+        return row;
+    }
+
+    @Override
+    public IOMessageBatch retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public IOMessageBatch retain(int increment) {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    protected void deallocate() {
+        content.release();
+    }
+
+    /**
+     * Dictionary of strings, encoded values are looked up by their bytes, so no strings are built for known values.
+     */
+    private static final class Dictionary {
+        private final List<String> values = new ArrayList<>();
+        private final List<String> unmodifiableValues = Collections.unmodifiableList(values);
+        private final Map<String, Integer> codes = new HashMap<>();
+        private byte[][] keys = new byte[16][];
+        private int[] keyHashes = new int[16];
+        private int[] keyCodes = new int[16];
+
+        int code(ByteBuf buf, int index, int length) {
+            int hash = ByteUtils.hash(buf, index, length);
+            int mask = keys.length - 1;
+            for (int slot = hash & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (keyHashes[slot] == hash && ByteUtils.equals(buf, index, length, keys[slot])) {
+                    return keyCodes[slot];
+                }
+            }
+            return code(buf.toString(index, length, StandardCharsets.UTF_8));
+        }
+
+        int code(String value) {
+            if (value == null) {
+                value = "";
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+                if (values.size() * 2 > keys.length) {
+                    rehash(keys.length << 1);
+                }
+                put(value.getBytes(StandardCharsets.UTF_8), code);
+            }
+            return code;
+        }
+
+        int find(String value) {
+            Integer code = codes.get(value == null ? "" : value);
+            return code == null ? -1 : code;
+        }
+
+        private void put(byte[] key, int code) {
+            int hash = ByteUtils.hash(key);
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            keyHashes[slot] = hash;
+            keyCodes[slot] = code;
+        }
+
+        private void rehash(int capacity) {
+            byte[][] oldKeys = keys;
+            int[] oldCodes = keyCodes;
+            keys = new byte[capacity][];
+            keyHashes = new int[capacity];
+            keyCodes = new int[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldCodes[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.iotracks.elements;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Links messages into a hash chain and verifies received chains.
+ *
+ * Hash of message is hex SHA-256 of body digest followed by UTF-8 nonce, where body digest is SHA-256
+ * of canonical binary form of message (without id, timestamp, hash and nonce).
+ * So the nonce search hashes 32 bytes + nonce per attempt regardless of message size.
+ * Message is valid if its hash matches, the hash has at least difficultyTarget leading zero bits,
+ * its previousHash is the hash of the previous message and its chainPosition follows previous one.
+ *
+ * Nonce search and verification run in the given {@link ForkJoinPool}. A target of n bits takes 2^n attempts on average,
+ * so targets are limited to {@link #MAX_DIFFICULTY_TARGET} bits and the search gives up after max nonce attempts.
+ */
+public class IOMessageChain {
+
+    public static final int MAX_DIFFICULTY_TARGET = 32;
+    public static final long DEFAULT_MAX_NONCE_ATTEMPTS = 1L << 36;
+
+    private static final int NONCE_BATCH = 4096;
+    private static final long SEARCH_ROUND = 1L << 22;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    });
+
+    private final ForkJoinPool pool;
+    private volatile long maxNonceAttempts = DEFAULT_MAX_NONCE_ATTEMPTS;
+    private String lastHash;
+    private long lastPosition;
+
+    public IOMessageChain() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool - pool for nonce search and verification
+     */
+    public IOMessageChain(ForkJoinPool pool) {
+        this(pool, "", 0);
+    }
+
+    /**
+     * Creates chain that continues existing one.
+     *
+     * @param pool - pool for nonce search and verification
+     * @param lastHash - hash of the last message of the chain
+     * @param lastPosition - chainPosition of the last message of the chain
+     */
+    public IOMessageChain(ForkJoinPool pool, String lastHash, long lastPosition) {
+        this.pool = pool;
+        this.lastHash = lastHash;
+        this.lastPosition = lastPosition;
+    }
+
+    /**
+     * Method sets max number of nonces tried for a message before sealing it fails.
+     *
+     * @param maxNonceAttempts - max attempts ({@link #DEFAULT_MAX_NONCE_ATTEMPTS} by default, 16 times the average
+     *                         for {@link #MAX_DIFFICULTY_TARGET})
+     */
+    public void setMaxNonceAttempts(long maxNonceAttempts) {
+        if (maxNonceAttempts <= 0) {
+            throw new IllegalArgumentException("Max nonce attempts should be positive.");
+        }
+        this.maxNonceAttempts = maxNonceAttempts;
+    }
+
+    public long getMaxNonceAttempts() {
+        return maxNonceAttempts;
+    }
+
+    /**
+     * Method appends message to the chain: sets chainPosition and previousHash,
+     * finds nonce meeting message's difficultyTarget and sets hash.
+     * Chain is left as it was if sealing fails.
+     *
+     * @param message - message to append
+     *
+     * @return message
+     *
+     * @throws IllegalArgumentException if difficultyTarget isn't between 0 and {@link #MAX_DIFFICULTY_TARGET}
+     * @throws IllegalStateException if no nonce meets difficultyTarget within max nonce attempts
+     */
+    public synchronized IOMessage link(IOMessage message) {
+        message.setChainPosition(lastPosition + 1);
+        message.setPreviousHash(lastHash);
+        seal(message);
+        lastHash = message.getHash();
+        lastPosition = message.getChainPosition();
+        return message;
+    }
+
+    /**
+     * Method finds nonce meeting message's difficultyTarget and sets nonce and hash of message.
+     *
+     * @param message - message to seal
+     *
+     * @return message
+     *
+     * @throws IllegalArgumentException if difficultyTarget isn't between 0 and {@link #MAX_DIFFICULTY_TARGET}
+     * @throws IllegalStateException if no nonce meets difficultyTarget within max nonce attempts
+     */
+    public IOMessage seal(IOMessage message) {
+        int target = message.getDifficultyTarget();
+        if (target < 0 || target > MAX_DIFFICULTY_TARGET) {
+            throw new IllegalArgumentException("Difficulty target should be between 0 and " + MAX_DIFFICULTY_TARGET + ": " + target);
+        }
+        byte[] bodyDigest = bodyDigest(message);
+        long maxAttempts = maxNonceAttempts;
+        long nonce = -1;
+        for (long start = 0; nonce < 0; start += SEARCH_ROUND) {
+            if (start >= maxAttempts) {
+                throw new IllegalStateException("No nonce meets difficulty target " + target + " within " + maxAttempts + " attempts.");
+            }
+            nonce = findNonce(bodyDigest, target, start, Math.min(SEARCH_ROUND, maxAttempts - start));
+        }
+        String nonceString = Long.toHexString(nonce);
+        message.setNonce(nonceString);
+        message.setHash(toHex(hash(bodyDigest, nonceString)));
+        return message;
+    }
+
+    /**
+     * Method searches the smallest nonce from the range, that makes hash meet the target.
+     * Nonces are tried as lowercase hex strings.
+     *
+     * @param bodyDigest - body digest of message (see {@link #bodyDigest(IOMessage)})
+     * @param difficultyTarget - required number of leading zero bits of hash
+     * @param start - the first nonce to try
+     * @param count - number of nonces to try
+     *
+     * @return nonce or -1 if there is no such nonce in the range
+     */
+    public long findNonce(byte[] bodyDigest, int difficultyTarget, long start, long count) {
+        AtomicLong found = new AtomicLong(Long.MAX_VALUE);
+        pool.invoke(new NonceSearch(bodyDigest, difficultyTarget, start, start + count, found));
+        return found.get() == Long.MAX_VALUE ? -1 : found.get();
+    }
+
+    /**
+     * Method verifies chain of messages: hashes, difficulty targets and links between messages.
+     * Hashes are checked in parallel.
+     *
+     * @param messages - chain of messages
+     * @param previousHash - hash of the message preceding the first one, null to skip this check
+     *
+     * @return index of the first broken message or -1 if chain is valid
+     */
+    public int verify(List<IOMessage> messages, String previousHash) {
+        int brokenLink = -1;
+        for (int i = 0; i < messages.size() && brokenLink < 0; i++) {
+            IOMessage message = messages.get(i);
+            String expected = i > 0 ? messages.get(i - 1).getHash() : previousHash;
+            boolean linked = expected == null || expected.equals(message.getPreviousHash());
+            boolean ordered = i == 0 || message.getChainPosition() == messages.get(i - 1).getChainPosition() + 1;
+            if (!linked || !ordered) {
+                brokenLink = i;
+            }
+        }
+        AtomicInteger broken = new AtomicInteger(brokenLink < 0 ? Integer.MAX_VALUE : brokenLink);
+        pool.invoke(new Verification(messages, 0, brokenLink < 0 ? messages.size() : brokenLink, broken));
+        return broken.get() == Integer.MAX_VALUE ? -1 : broken.get();
+    }
+
+    /**
+     * Method checks hash and difficulty target of a single message.
+     *
+     * @param message - message to check
+     *
+     * @return true if message's hash is valid
+     */
+    public static boolean isValid(IOMessage message) {
+        String nonce = message.getNonce();
+        byte[] hash = hash(bodyDigest(message), nonce == null ? "" : nonce);
+        return toHex(hash).equals(message.getHash()) && meetsTarget(hash, message.getDifficultyTarget());
+    }
+
+    /**
+     * Method computes hash of message with its current nonce.
+     *
+     * @param message - message
+     *
+     * @return hex hash
+     */
+    public static String computeHash(IOMessage message) {
+        String nonce = message.getNonce();
+        return toHex(hash(bodyDigest(message), nonce == null ? "" : nonce));
+    }
+
+    /**
+     * Method computes SHA-256 of canonical binary form of message.
+     *
+     * @param message - message
+     *
+     * @return digest
+     */
+    public static byte[] bodyDigest(IOMessage message) {
+        ByteBuf buf = Unpooled.buffer(message.getEncodedLength());
+        try {
+            message.encodeTo(buf, true);
+            MessageDigest digest = digests.get();
+            digest.reset();
+            digest.update(buf.array(), buf.arrayOffset() + buf.readerIndex(), buf.readableBytes());
+            return digest.digest();
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static byte[] hash(byte[] bodyDigest, String nonce) {
+        MessageDigest digest = digests.get();
+        digest.reset();
+        digest.update(bodyDigest);
+        digest.update(nonce.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    /**
+     * @param hash - hash bytes
+     * @param difficultyTarget - required number of leading zero bits
+     *
+     * @return true if hash has enough leading zero bits
+     */
+    public static boolean meetsTarget(byte[] hash, int difficultyTarget) {
+        int bits = 0;
+        for (byte b : hash) {
+            if (b != 0) {
+                bits += Integer.numberOfLeadingZeros(b & 0xFF) - 24;
+                break;
+            }
+            bits += 8;
+        }
+        return bits >= difficultyTarget;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[2 * i + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static final class NonceSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] bodyDigest;
+        private final int target;
+        private final long from;
+        private final long to;
+        private final AtomicLong found;
+
+        NonceSearch(byte[] bodyDigest, int target, long from, long to, AtomicLong found) {
+            this.bodyDigest = bodyDigest;
+            this.target = target;
+            this.from = from;
+            this.to = to;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= found.get()) {
+                return;
+            }
+            if (to - from > NONCE_BATCH) {
+                long middle = from + (to - from) / 2;
+                invokeAll(new NonceSearch(bodyDigest, target, from, middle, found),
+                        new NonceSearch(bodyDigest, target, middle, to, found));
+                return;
+            }
+            MessageDigest digest = digests.get();
+            byte[] nonce = new byte[16];
+            byte[] hash = new byte[32];
+            try {
+                for (long n = from; n < to && n < found.get(); n++) {
+                    int length = writeHex(nonce, n);
+                    digest.update(bodyDigest);
+                    digest.update(nonce, nonce.length - length, length);
+                    digest.digest(hash, 0, hash.length);
+                    if (meetsTarget(hash, target)) {
+                        found.accumulateAndGet(n, Math::min);
+                        return;
+                    }
+                }
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static int writeHex(byte[] dst, long value) {
+            int i = dst.length;
+            do {
+                dst[--i] = (byte) HEX[(int) (value & 0x0F)];
+                value >>>= 4;
+            } while (value != 0);
+            return dst.length - i;
+        }
+    }
+
+    private static final class Verification extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int BATCH = 64;
+
+        private final List<IOMessage> messages;
+        private final int from;
+        private final int to;
+        private final AtomicInteger broken;
+
+        Verification(List<IOMessage> messages, int from, int to, AtomicInteger broken) {
+            this.messages = messages;
+            this.from = from;
+            this.to = to;
+            this.broken = broken;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= broken.get()) {
+                return;
+            }
+            if (to - from > BATCH) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Verification(messages, from, middle, broken),
+                        new Verification(messages, middle, to, broken));
+                return;
+            }
+            for (int i = from; i < to && i < broken.get(); i++) {
+                if (!isValid(messages.get(i))) {
+                    broken.accumulateAndGet(i, Math::min);
+                    return;
+                }
+            }
+        }
+    }
+}
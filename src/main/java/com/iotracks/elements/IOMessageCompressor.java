@@ -0,0 +1,339 @@
+package com.iotracks.elements;
+
+import com.iotracks.utils.LZCompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses content and context data of messages.
+ * Codec is recorded as a suffix of infoFormat ({@link #FORMAT_MARKER} + codec name [+ ":" + dictionary id]),
+ * for example "text/csv+z:deflate:telemetry", and removed when message is decompressed.
+ * Data of both fields starts with varint length of uncompressed data.
+ *
+ * Deflate may use a preset dictionary (see {@link #trainDictionary(Collection, int)}) that has to be registered
+ * with the same id on both sides by {@link #registerDictionary(String, byte[])}.
+ */
+public class IOMessageCompressor {
+
+    private static final Logger log = Logger.getLogger(IOMessageCompressor.class.getName());
+
+    public static final String FORMAT_MARKER = "+z:";
+    public static final int DEFAULT_THRESHOLD = 256;
+    public static final int DEFAULT_MAX_DECOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+    // deflate can't decode to more than 1032 bytes per compressed byte
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static volatile int maxDecompressedLength = DEFAULT_MAX_DECOMPRESSED_LENGTH;
+
+    private static final Map<String, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Supported compression codecs.
+     */
+    public enum Codec {
+        /** deflate, better ratio, supports preset dictionaries */
+        DEFLATE ("deflate"),
+        /** LZ77 (see {@link LZCompressor}), faster, lower ratio */
+        LZ ("lz");
+
+        private final String name;
+
+        Codec(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        static Codec forName(String name) {
+            for (Codec codec : values()) {
+                if (codec.name.equals(name)) {
+                    return codec;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Codec codec;
+    private final int threshold;
+    private final String dictionaryId;
+
+    /**
+     * @param codec - compression codec
+     */
+    public IOMessageCompressor(Codec codec) {
+        this(codec, DEFAULT_THRESHOLD, null);
+    }
+
+    /**
+     * @param codec - compression codec
+     * @param threshold - min content size of compressed message
+     * @param dictionaryId - id of registered dictionary (deflate only), may be null
+     */
+    public IOMessageCompressor(Codec codec, int threshold, String dictionaryId) {
+        if (dictionaryId != null) {
+            if (codec != Codec.DEFLATE) {
+                throw new IllegalArgumentException("Dictionaries are supported by deflate codec only.");
+            }
+            if (!dictionaries.containsKey(dictionaryId)) {
+                throw new IllegalArgumentException("Dictionary is not registered: " + dictionaryId);
+            }
+        }
+        this.codec = codec;
+        this.threshold = threshold;
+        this.dictionaryId = dictionaryId;
+    }
+
+    /**
+     * Method registers preset dictionary for deflate codec.
+     *
+     * @param id - dictionary's id recorded in messages, should not contain "+" or ":"
+     * @param dictionary - dictionary's bytes
+     */
+    public static void registerDictionary(String id, byte[] dictionary) {
+        if (id == null || id.isEmpty() || id.indexOf('+') >= 0 || id.indexOf(':') >= 0) {
+            throw new IllegalArgumentException("Invalid dictionary id: " + id);
+        }
+        dictionaries.put(id, dictionary.clone());
+    }
+
+    /**
+     * Method sets max length of decompressed content or context data.
+     * Compressed data declaring a bigger length is rejected before anything is allocated.
+     *
+     * @param maxLength - max length in bytes ({@link #DEFAULT_MAX_DECOMPRESSED_LENGTH} by default)
+     */
+    public static void setMaxDecompressedLength(int maxLength) {
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("Max decompressed length should not be negative.");
+        }
+        maxDecompressedLength = maxLength;
+    }
+
+    public static int getMaxDecompressedLength() {
+        return maxDecompressedLength;
+    }
+
+    /**
+     * Method builds preset dictionary from sample payloads.
+     * Dictionary consists of substrings repeating in most samples, the most frequent are put to the end
+     * since deflate encodes closer matches with fewer bits.
+     *
+     * @param samples - typical payloads
+     * @param maxSize - max dictionary size (deflate uses up to 32K)
+     *
+     * @return dictionary
+     */
+    public static byte[] trainDictionary(Collection<byte[]> samples, int maxSize) {
+        final int gram = 8;
+        Map<String, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            Map<String, Boolean> seen = new HashMap<>();
+            for (int i = 0; i + gram <= sample.length; i++) {
+                String key = new String(sample, i, gram, StandardCharsets.ISO_8859_1);
+                if (seen.put(key, Boolean.TRUE) == null) {
+                    counts.merge(key, 1, Integer::sum);
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> grams = new ArrayList<>(counts.entrySet());
+        grams.removeIf(entry -> entry.getValue() < 2);
+        grams.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+        List<String> selected = new ArrayList<>();
+        StringBuilder joined = new StringBuilder();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : grams) {
+            if (size + gram > maxSize) {
+                break;
+            }
+            if (joined.indexOf(entry.getKey()) < 0) {
+                selected.add(entry.getKey());
+                joined.append(entry.getKey());
+                size += gram;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            byte[] bytes = selected.get(i).getBytes(StandardCharsets.ISO_8859_1);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Method compresses message if its content isn't smaller than the threshold.
+     * Original message isn't changed.
+     *
+     * @param message - message to compress
+     *
+     * @return compressed copy of message or message itself if it's not compressed (or compression doesn't reduce its size)
+     */
+    public IOMessage compress(IOMessage message) {
+        if (message.getContentDataLength() < threshold || isCompressed(message)) {
+            return message;
+        }
+        byte[] content = compress(message.getContentData());
+        if (content.length >= message.getContentDataLength()) {
+            return message;
+        }
+        IOMessage compressed = new IOMessage();
+        IOMessageFragmenter.copyHeader(message, compressed);
+        compressed.setGroupId(message.getGroupId());
+        compressed.setSequenceNumber(message.getSequenceNumber());
+        compressed.setSequenceTotal(message.getSequenceTotal());
+        String infoFormat = message.getInfoFormat() == null ? "" : message.getInfoFormat();
+        compressed.setInfoFormat(infoFormat + FORMAT_MARKER + codec.getName() + (dictionaryId == null ? "" : ":" + dictionaryId));
+        compressed.setContentData(content);
+        byte[] contextData = message.getContextData();
+        if (contextData != null && contextData.length > 0) {
+            compressed.setContextData(compress(contextData));
+        }
+        return compressed;
+    }
+
+    private byte[] compress(byte[] data) {
+        if (codec == Codec.LZ) {
+            return LZCompressor.compress(data, 0, data.length);
+        }
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionaryId != null) {
+            deflater.setDictionary(dictionaries.get(dictionaryId));
+        }
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] out = new byte[5 + data.length + data.length / 1000 + 64];
+        int length = LZCompressor.writeVarInt(out, 0, data.length);
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                byte[] bigger = new byte[out.length * 2];
+                System.arraycopy(out, 0, bigger, 0, length);
+                out = bigger;
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(out, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * @param message - message to check
+     *
+     * @return true if infoFormat has compression marker
+     */
+    public static boolean isCompressed(IOMessage message) {
+        String infoFormat = message.getInfoFormat();
+        return infoFormat != null && infoFormat.contains(FORMAT_MARKER);
+    }
+
+    /**
+     * Method decompresses content and context data of message in place and removes marker from infoFormat.
+     *
+     * @param message - compressed message
+     *
+     * @throws IllegalArgumentException if codec or dictionary is unknown, data is malformed
+     *                                  or its declared length exceeds {@link #getMaxDecompressedLength()}
+     */
+    public static void decompress(IOMessage message) {
+        String infoFormat = message.getInfoFormat();
+        int markerIndex = infoFormat.lastIndexOf(FORMAT_MARKER);
+        String[] spec = infoFormat.substring(markerIndex + FORMAT_MARKER.length()).split(":", 2);
+        Codec codec = Codec.forName(spec[0]);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown compression codec: " + spec[0]);
+        }
+        byte[] dictionary = null;
+        if (spec.length > 1) {
+            dictionary = dictionaries.get(spec[1]);
+            if (dictionary == null) {
+                throw new IllegalArgumentException("Compression dictionary is not registered: " + spec[1]);
+            }
+        }
+        byte[] content = decompress(codec, dictionary, message.getContentData());
+        byte[] contextData = message.getContextData();
+        if (contextData != null && contextData.length > 0) {
+            message.setContextData(decompress(codec, dictionary, contextData));
+        }
+        message.setContentData(content);
+        message.setInfoFormat(infoFormat.substring(0, markerIndex));
+    }
+
+    /**
+     * Method decompresses message if it's compressed, errors are logged and message is left as is.
+     * Fragments are skipped, they are decompressed when joined.
+     *
+     * @param message - received message
+     *
+     * @return message
+     */
+    public static IOMessage decompressIfNeeded(IOMessage message) {
+        if (isCompressed(message) && !IOMessageFragmenter.isFragment(message)) {
+            try {
+                decompress(message);
+            } catch (IllegalArgumentException e) {
+                log.warning("Error decompressing message: " + e.getMessage());
+            }
+        }
+        return message;
+    }
+
+    private static byte[] decompress(Codec codec, byte[] dictionary, byte[] data) {
+        if (data == null || data.length == 0) {
+            return data;
+        }
+        if (codec == Codec.LZ) {
+            return LZCompressor.decompress(data, maxDecompressedLength);
+        }
+        int[] pos = new int[1];
+        int declaredLength = LZCompressor.readVarInt(data, pos);
+        if (declaredLength > maxDecompressedLength || declaredLength > (long) (data.length - pos[0]) * MAX_DEFLATE_RATIO) {
+            throw new IllegalArgumentException("Declared length of decompressed data is too big: " + declaredLength + " bytes.");
+        }
+        byte[] out = new byte[declaredLength];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, pos[0], data.length - pos[0]);
+        try {
+            int length = 0;
+            while (length < out.length) {
+                int n = inflater.inflate(out, length, out.length - length);
+                if (n == 0) {
+                    if (inflater.needsDictionary() && dictionary != null) {
+                        inflater.setDictionary(dictionary);
+                        dictionary = null;
+                    } else {
+                        throw new IllegalArgumentException("Malformed compressed data.");
+                    }
+                }
+                length += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Malformed compressed data.", e);
+        }
+        return out;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+}
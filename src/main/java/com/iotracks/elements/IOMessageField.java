@@ -0,0 +1,93 @@
+package com.iotracks.elements;
+
+import java.util.Set;
+
+/**
+ * Enum for all fields of {@link IOMessage} in the order they are laid out in the binary (v4) format.
+ * Every field has a length slot in the 33-byte header; its value (if any) follows in the data section.
+ */
+public enum IOMessageField {
+
+    ID (IOMessage.ID_FIELD_NAME, 1, false),
+    TAG (IOMessage.TAG_FIELD_NAME, 2, true),
+    GROUP_ID (IOMessage.GROUP_ID_FIELD_NAME, 1, false),
+    SEQUENCE_NUMBER (IOMessage.SEQUENCE_NUMBER_FIELD_NAME, 1, false),
+    SEQUENCE_TOTAL (IOMessage.SEQUENCE_TOTAL_FIELD_NAME, 1, false),
+    PRIORITY (IOMessage.PRIORITY_FIELD_NAME, 1, false),
+    TIMESTAMP (IOMessage.TIMESTAMP_FIELD_NAME, 1, false),
+    PUBLISHER (IOMessage.PUBLISHER_FIELD_NAME, 1, true),
+    AUTH_ID (IOMessage.AUTH_ID_FIELD_NAME, 2, false),
+    AUTH_GROUP (IOMessage.AUTH_GROUP_FIELD_NAME, 2, true),
+    CHAIN_POSITION (IOMessage.CHAIN_POSITION_FIELD_NAME, 1, false),
+    HASH (IOMessage.HASH_FIELD_NAME, 2, false),
+    PREVIOUS_HASH (IOMessage.PREVIOUS_HASH_FIELD_NAME, 2, false),
+    NONCE (IOMessage.NONCE_FIELD_NAME, 2, false),
+    DIFFICULTY_TARGET (IOMessage.DIFFICULTY_TARGET_FIELD_NAME, 1, false),
+    INFO_TYPE (IOMessage.INFO_TYPE_FIELD_NAME, 1, true),
+    INFO_FORMAT (IOMessage.INFO_FORMAT_FIELD_NAME, 1, true),
+    CONTEXT_DATA (IOMessage.CONTEXT_DATA_FIELD_NAME, 4, false),
+    CONTENT_DATA (IOMessage.CONTENT_DATA_FIELD_NAME, 4, false);
+
+    private String jsonName;
+    private int lengthSize;
+    private boolean interned;
+    private int headerOffset;
+
+    IOMessageField(String jsonName, int lengthSize, boolean interned){
+        this.jsonName = jsonName;
+        this.lengthSize = lengthSize;
+        this.interned = interned;
+    }
+
+    static final int ALL_MASK = (1 << values().length) - 1;
+
+    static {
+        int offset = IOMessageHeader.VERSION_SIZE;
+        for (IOMessageField field : values()) {
+            field.headerOffset = offset;
+            offset += field.lengthSize;
+        }
+    }
+
+    /**
+     * @param fields - set of fields
+     *
+     * @return bit mask with bits set at ordinals of the fields
+     */
+    static int mask(Set<IOMessageField> fields){
+        int mask = 0;
+        for (IOMessageField field : fields) {
+            mask |= 1 << field.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * @return field's name in JSON representation of message
+     */
+    public String getJsonName(){
+        return jsonName;
+    }
+
+    /**
+     * @return number of bytes the field's length occupies in the header
+     */
+    public int getLengthSize(){
+        return lengthSize;
+    }
+
+    /**
+     * @return true if field has few distinct values and decoders take them from {@link com.iotracks.utils.StringInternCache}
+     */
+    public boolean isInterned(){
+        return interned;
+    }
+
+    /**
+     * @return position of the field's length inside the header
+     */
+    public int getHeaderOffset(){
+        return headerOffset;
+    }
+
+}
@@ -0,0 +1,300 @@
+package com.iotracks.elements;
+
+import com.iotracks.utils.ByteUtils;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Predicate on header fields of messages evaluated against encoded message bytes,
+ * so rejected messages are never decoded.
+ * Conditions on different fields are combined with AND, values of the same field with OR.
+ * Allowed values are compiled to UTF-8 bytes in small hash tables, matching doesn't allocate.
+ * Compression marker (see {@link IOMessageCompressor}) is ignored when infoFormat is matched.
+ */
+public class IOMessageFilter {
+
+    private static final byte[] COMPRESSION_MARKER = IOMessageCompressor.FORMAT_MARKER.getBytes(StandardCharsets.UTF_8);
+    private static final ThreadLocal<IOMessageHeader> headers = ThreadLocal.withInitial(IOMessageHeader::new);
+
+    private ByteSet publishers;
+    private ByteSet tags;
+    private ByteSet infoTypes;
+    private ByteSet infoFormats;
+    private int minPriority = Integer.MIN_VALUE;
+    private int maxPriority = Integer.MAX_VALUE;
+    private long fromTimestamp = Long.MIN_VALUE;
+    private long toTimestamp = Long.MAX_VALUE;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param publishers - accepted publishers
+     *
+     * @return filter
+     */
+    public IOMessageFilter publishers(String... publishers) {
+        this.publishers = new ByteSet(publishers);
+        return this;
+    }
+
+    /**
+     * @param tags - accepted tags
+     *
+     * @return filter
+     */
+    public IOMessageFilter tags(String... tags) {
+        this.tags = new ByteSet(tags);
+        return this;
+    }
+
+    /**
+     * @param infoTypes - accepted info types
+     *
+     * @return filter
+     */
+    public IOMessageFilter infoTypes(String... infoTypes) {
+        this.infoTypes = new ByteSet(infoTypes);
+        return this;
+    }
+
+    /**
+     * @param infoFormats - accepted info formats
+     *
+     * @return filter
+     */
+    public IOMessageFilter infoFormats(String... infoFormats) {
+        this.infoFormats = new ByteSet(infoFormats);
+        return this;
+    }
+
+    /**
+     * @param min - min accepted priority
+     * @param max - max accepted priority
+     *
+     * @return filter
+     */
+    public IOMessageFilter priority(int min, int max) {
+        this.minPriority = min;
+        this.maxPriority = max;
+        return this;
+    }
+
+    /**
+     * @param from - min accepted timestamp
+     * @param to - max accepted timestamp
+     *
+     * @return filter
+     */
+    public IOMessageFilter timestamp(long from, long to) {
+        this.fromTimestamp = from;
+        this.toTimestamp = to;
+        return this;
+    }
+
+    /**
+     * Method evaluates filter against encoded message and counts the result.
+     * Messages of unsupported version are accepted.
+     *
+     * @param buf - buffer with encoded message
+     * @param index - index of the message in the buffer
+     *
+     * @return true if message is accepted
+     */
+    public boolean matches(ByteBuf buf, int index) {
+        IOMessageHeader header = headers.get();
+        try {
+            if (!header.parse(buf, index, buf, index + IOMessageHeader.HEADER_SIZE)) {
+                count(true);
+                return true;
+            }
+            return matches(header);
+        } finally {
+            header.clear();
+        }
+    }
+
+    /**
+     * Method evaluates filter against parsed header of encoded message and counts the result.
+     *
+     * @param header - parsed header
+     *
+     * @return true if message is accepted
+     */
+    public boolean matches(IOMessageHeader header) {
+        ByteBuf data = header.getData();
+        boolean accepted = matches(publishers, data, header, IOMessageField.PUBLISHER)
+                && matches(tags, data, header, IOMessageField.TAG)
+                && matches(infoTypes, data, header, IOMessageField.INFO_TYPE)
+                && matchesInfoFormat(data, header)
+                && inRange((byte) header.getNumber(IOMessageField.PRIORITY), minPriority, maxPriority)
+                && inRange(header.getNumber(IOMessageField.TIMESTAMP), fromTimestamp, toTimestamp);
+        count(accepted);
+        return accepted;
+    }
+
+    /**
+     * Method evaluates filter against decoded message and counts the result.
+     *
+     * @param message - message
+     *
+     * @return true if message is accepted
+     */
+    public boolean matches(IOMessage message) {
+        return matches(message.getPublisher(), message.getTag(), message.getInfoType(), message.getInfoFormat(),
+                message.getPriority(), message.getTimestamp());
+    }
+
+    /**
+     * Method evaluates filter against decoded header fields and counts the result.
+     *
+     * @param publisher - publisher
+     * @param tag - tag
+     * @param infoType - info type
+     * @param infoFormat - info format
+     * @param priority - priority
+     * @param timestamp - timestamp
+     *
+     * @return true if message is accepted
+     */
+    public boolean matches(String publisher, String tag, String infoType, String infoFormat, int priority, long timestamp) {
+        boolean accepted = matches(publishers, publisher)
+                && matches(tags, tag)
+                && matches(infoTypes, infoType)
+                && matchesInfoFormat(infoFormat)
+                && inRange(priority, minPriority, maxPriority)
+                && inRange(timestamp, fromTimestamp, toTimestamp);
+        count(accepted);
+        return accepted;
+    }
+
+    private void count(boolean accepted) {
+        if (accepted) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    private static boolean matches(ByteSet set, ByteBuf data, IOMessageHeader header, IOMessageField field) {
+        return set == null || set.contains(data, header.getOffset(field), header.getLength(field));
+    }
+
+    private static boolean matches(ByteSet set, String value) {
+        return set == null || (value == null ? set.contains("", 0) : set.contains(value, value.length()));
+    }
+
+    private boolean matchesInfoFormat(String infoFormat) {
+        if (infoFormats == null || infoFormat == null) {
+            return matches(infoFormats, infoFormat);
+        }
+        int marker = infoFormat.lastIndexOf(IOMessageCompressor.FORMAT_MARKER);
+        return infoFormats.contains(infoFormat, marker < 0 ? infoFormat.length() : marker);
+    }
+
+    private boolean matchesInfoFormat(ByteBuf data, IOMessageHeader header) {
+        if (infoFormats == null) {
+            return true;
+        }
+        int offset = header.getOffset(IOMessageField.INFO_FORMAT);
+        int length = header.getLength(IOMessageField.INFO_FORMAT);
+        int marker = ByteUtils.lastIndexOf(data, offset, length, COMPRESSION_MARKER);
+        return infoFormats.contains(data, offset, marker < 0 ? length : marker);
+    }
+
+    private static boolean inRange(long value, long min, long max) {
+        return value >= min && value <= max;
+    }
+
+    /**
+     * @return number of accepted messages
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of rejected messages
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Open addressing hash set of strings, matched by their UTF-8 bytes in encoded messages
+     * and by their chars in decoded ones.
+     */
+    private static final class ByteSet {
+        private final byte[][] values;
+        private final int[] hashes;
+        private final String[] strings;
+        private final int[] stringHashes;
+        private final int mask;
+
+        ByteSet(String... strings) {
+            int size = Integer.highestOneBit(Math.max(1, strings.length * 2 - 1)) << 1;
+            values = new byte[size][];
+            hashes = new int[size];
+            this.strings = new String[size];
+            stringHashes = new int[size];
+            mask = size - 1;
+            for (String string : strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                int hash = ByteUtils.hash(bytes);
+                int slot = hash & mask;
+                while (values[slot] != null && !Arrays.equals(values[slot], bytes)) {
+                    slot = (slot + 1) & mask;
+                }
+                values[slot] = bytes;
+                hashes[slot] = hash;
+
+                hash = string.hashCode();
+                slot = hash & mask;
+                while (this.strings[slot] != null && !this.strings[slot].equals(string)) {
+                    slot = (slot + 1) & mask;
+                }
+                this.strings[slot] = string;
+                stringHashes[slot] = hash;
+            }
+        }
+
+        boolean contains(ByteBuf buf, int index, int length) {
+            int hash = ByteUtils.hash(buf, index, length);
+            for (int slot = hash & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && ByteUtils.equals(buf, index, length, values[slot])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @param value - string
+         * @param length - number of leading chars of the string to match
+         *
+         * @return true if the set contains the leading chars of the string
+         */
+        boolean contains(String value, int length) {
+            // same as String.hashCode() of the prefix
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + value.charAt(i);
+            }
+            for (int slot = hash & mask; strings[slot] != null; slot = (slot + 1) & mask) {
+                if (stringHashes[slot] == hash && strings[slot].length() == length
+                        && strings[slot].regionMatches(0, value, 0, length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
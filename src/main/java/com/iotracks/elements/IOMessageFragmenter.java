@@ -0,0 +1,91 @@
+package com.iotracks.elements;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Splits messages with big content into parts that can be sent separately
+ * and joined back by {@link IOMessageReassembler}.
+ * All parts share generated groupId (with {@link #GROUP_ID_PREFIX}), have sequenceNumber from 1 to sequenceTotal
+ * and carry header fields of the original message; context data is carried only by the first part.
+ */
+public final class IOMessageFragmenter {
+
+    public static final String GROUP_ID_PREFIX = "fragment:";
+
+    private IOMessageFragmenter() { }
+
+    /**
+     * Splits message's content into parts not bigger than maxContentSize.
+     * Message is returned as is if its content fits or if it already belongs to a group.
+     *
+     * @param message - message to split
+     * @param maxContentSize - max size of part's content
+     *
+     * @return list of parts
+     */
+    public static List<IOMessage> split(IOMessage message, int maxContentSize) {
+        if (maxContentSize <= 0) {
+            throw new IllegalArgumentException("Max content size should be positive.");
+        }
+        int length = message.getContentDataLength();
+        if (length <= maxContentSize || !isNullOrEmpty(message.getGroupId())) {
+            return Collections.singletonList(message);
+        }
+        int total = (length + maxContentSize - 1) / maxContentSize;
+        String groupId = GROUP_ID_PREFIX + UUID.randomUUID().toString();
+        ByteBuf content = message.getContentDataAsByteBuf();
+        List<IOMessage> parts = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            int offset = i * maxContentSize;
+            byte[] partContent = new byte[Math.min(maxContentSize, length - offset)];
+            content.getBytes(content.readerIndex() + offset, partContent);
+            IOMessage part = new IOMessage();
+            copyHeader(message, part);
+            part.setGroupId(groupId);
+            part.setSequenceNumber(i + 1);
+            part.setSequenceTotal(total);
+            if (i == 0) {
+                part.setContextData(message.getContextData());
+            }
+            part.setContentData(partContent);
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    /**
+     * @param message - received message
+     *
+     * @return true if message is a part created by {@link #split(IOMessage, int)}
+     */
+    public static boolean isFragment(IOMessage message) {
+        String groupId = message.getGroupId();
+        return groupId != null && groupId.startsWith(GROUP_ID_PREFIX);
+    }
+
+    static void copyHeader(IOMessage from, IOMessage to) {
+        to.setId(from.getId());
+        to.setTag(from.getTag());
+        to.setPriority(from.getPriority());
+        to.setTimestamp(from.getTimestamp());
+        to.setPublisher(from.getPublisher());
+        to.setAuthId(from.getAuthId());
+        to.setAuthGroup(from.getAuthGroup());
+        to.setChainPosition(from.getChainPosition());
+        to.setHash(from.getHash());
+        to.setPreviousHash(from.getPreviousHash());
+        to.setNonce(from.getNonce());
+        to.setDifficultyTarget(from.getDifficultyTarget());
+        to.setInfoType(from.getInfoType());
+        to.setInfoFormat(from.getInfoFormat());
+    }
+
+    private static boolean isNullOrEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,156 @@
+package com.iotracks.elements;
+
+import com.iotracks.utils.ByteUtils;
+import com.iotracks.utils.StringInternCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Offset table of an encoded {@link IOMessage}.
+ * Parses the 33-byte header once and remembers where each field's value lives in the data section,
+ * so fields can be decoded one by one straight from the buffer without intermediate copies.
+ */
+public final class IOMessageHeader {
+
+    public static final int VERSION_SIZE = 2;
+    public static final int HEADER_SIZE = 33;
+
+    private static final IOMessageField[] FIELDS = IOMessageField.values();
+
+    private final int[] offsets = new int[FIELDS.length];
+    private final int[] lengths = new int[FIELDS.length];
+    private ByteBuf data;
+    private short version;
+    private int end;
+
+    /**
+     * Parses header and computes offsets of all fields.
+     *
+     * @param header - buffer containing the header
+     * @param headerIndex - index of the header in the buffer
+     * @param data - buffer containing fields' values (might be the same buffer as header)
+     * @param dataIndex - index of the first value in data buffer
+     *
+     * @return true if message is of supported version and offsets were computed
+     */
+    public boolean parse(ByteBuf header, int headerIndex, ByteBuf data, int dataIndex){
+        if (header.writerIndex() - headerIndex < HEADER_SIZE) {
+            throw new IllegalArgumentException("IOMessage header is too short.");
+        }
+        this.data = data;
+        version = header.getShort(headerIndex);
+        if (version != IOMessage.VERSION) {
+            return false;
+        }
+        int pos = dataIndex;
+        for (IOMessageField field : FIELDS) {
+            int length = readLength(header, headerIndex + field.getHeaderOffset(), field.getLengthSize());
+            offsets[field.ordinal()] = pos;
+            lengths[field.ordinal()] = length;
+            pos += length;
+        }
+        if (pos > data.writerIndex()) {
+            throw new IllegalArgumentException("IOMessage data is shorter than declared in header.");
+        }
+        end = pos;
+        return true;
+    }
+
+    /**
+     * Reads declared length of content data without parsing the whole header.
+     *
+     * @param header - buffer containing the header
+     * @param headerIndex - index of the header in the buffer
+     *
+     * @return length of content data or -1 if message is of unsupported version
+     */
+    public static int readContentLength(ByteBuf header, int headerIndex){
+        if (header.getShort(headerIndex) != IOMessage.VERSION) {
+            return -1;
+        }
+        return header.getInt(headerIndex + IOMessageField.CONTENT_DATA.getHeaderOffset());
+    }
+
+    private static int readLength(ByteBuf header, int index, int size){
+        switch (size) {
+            case 1:
+                return header.getUnsignedByte(index);
+            case 2:
+                return header.getUnsignedShort(index);
+            default:
+                int length = header.getInt(index);
+                if (length < 0) {
+                    throw new IllegalArgumentException("Invalid IOMessage field length: " + length);
+                }
+                return length;
+        }
+    }
+
+    public short getVersion() {
+        return version;
+    }
+
+    public ByteBuf getData() {
+        return data;
+    }
+
+    /**
+     * @return index right after the last value of the message in data buffer
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    public int getOffset(IOMessageField field) {
+        return offsets[field.ordinal()];
+    }
+
+    public int getLength(IOMessageField field) {
+        return lengths[field.ordinal()];
+    }
+
+    public String getString(IOMessageField field) {
+        int length = lengths[field.ordinal()];
+        if (length == 0) {
+            return "";
+        }
+        if (field.isInterned()) {
+            return StringInternCache.getDefault().intern(data, offsets[field.ordinal()], length);
+        }
+        return data.toString(offsets[field.ordinal()], length, CharsetUtil.UTF_8);
+    }
+
+    public long getNumber(IOMessageField field) {
+        return ByteUtils.bytesToLong(data, offsets[field.ordinal()], lengths[field.ordinal()]);
+    }
+
+    /**
+     * @return copy of field's value or null if field is empty
+     */
+    public byte[] getBytes(IOMessageField field) {
+        int length = lengths[field.ordinal()];
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        data.getBytes(offsets[field.ordinal()], bytes);
+        return bytes;
+    }
+
+    /**
+     * Method drops reference to data buffer, so a reused header doesn't keep a released buffer reachable.
+     */
+    public void clear() {
+        data = null;
+    }
+
+    /**
+     * @return field's value as a slice of data buffer (no copy)
+     */
+    public ByteBuf slice(IOMessageField field) {
+        int length = lengths[field.ordinal()];
+        return length == 0 ? Unpooled.EMPTY_BUFFER : data.slice(offsets[field.ordinal()], length);
+    }
+
+}
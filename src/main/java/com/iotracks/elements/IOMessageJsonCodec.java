@@ -0,0 +1,307 @@
+package com.iotracks.elements;
+
+import com.iotracks.utils.ByteBufJsonReader;
+import com.iotracks.utils.ByteUtils;
+import com.iotracks.utils.IOMessageUtils;
+import com.iotracks.utils.StringInternCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Streaming JSON codec for {@link IOMessage} as it's transferred via REST calls to ioFog.
+ * Writes and reads fields straight to and from {@link ByteBuf}, context and content data are
+ * base64 encoded and decoded in place, so no JSON tree or intermediate strings are built.
+ */
+public final class IOMessageJsonCodec {
+
+    private static final IOMessageField[] FIELDS = IOMessageField.values();
+    private static final byte[][] FIELD_NAMES;
+    private static final byte[] VERSION_NAME = ("\"" + IOMessage.VERSION_FIELD_NAME + "\":").getBytes(StandardCharsets.UTF_8);
+    private static final byte[][] FIELD_PREFIXES;
+
+    static {
+        String[] names = new String[FIELDS.length];
+        FIELD_PREFIXES = new byte[FIELDS.length][];
+        for (IOMessageField field : FIELDS) {
+            names[field.ordinal()] = field.getJsonName();
+            FIELD_PREFIXES[field.ordinal()] = ("\"" + field.getJsonName() + "\":").getBytes(StandardCharsets.UTF_8);
+        }
+        FIELD_NAMES = ByteBufJsonReader.names(names);
+    }
+
+    private IOMessageJsonCodec(){ }
+
+    /**
+     * Estimates size of JSON representation of message, exact for messages with ASCII strings.
+     *
+     * @param message - message to estimate
+     *
+     * @return int
+     */
+    public static int estimateLength(IOMessage message) {
+        int strings = message.getEncodedLength() - IOMessageHeader.HEADER_SIZE
+                - (message.getContextData() == null ? 0 : message.getContextData().length)
+                - message.getContentDataLength();
+        return 384 + strings
+                + IOMessageUtils.getBase64Length(message.getContextData() == null ? 0 : message.getContextData().length)
+                + IOMessageUtils.getBase64Length(message.getContentDataLength());
+    }
+
+    /**
+     * Writes JSON representation of message with base64 encoded context and content data.
+     * Produces the same document as {@link IOMessage#getJson(boolean)} with encoded flag set.
+     *
+     * @param message - message to write
+     * @param out - destination buffer
+     */
+    public static void encode(IOMessage message, ByteBuf out) {
+        out.writeByte('{');
+        writeString(out, IOMessageField.ID, message.getId());
+        out.writeByte(',');
+        writeString(out, IOMessageField.TAG, message.getTag());
+        out.writeByte(',');
+        writeString(out, IOMessageField.GROUP_ID, message.getGroupId());
+        out.writeByte(',');
+        writeNumber(out, IOMessageField.SEQUENCE_NUMBER, message.getSequenceNumber());
+        out.writeByte(',');
+        writeNumber(out, IOMessageField.SEQUENCE_TOTAL, message.getSequenceTotal());
+        out.writeByte(',');
+        writeNumber(out, IOMessageField.PRIORITY, message.getPriority());
+        out.writeByte(',');
+        writeNumber(out, IOMessageField.TIMESTAMP, message.getTimestamp());
+        out.writeByte(',');
+        writeString(out, IOMessageField.PUBLISHER, message.getPublisher());
+        out.writeByte(',');
+        writeString(out, IOMessageField.AUTH_ID, message.getAuthId());
+        out.writeByte(',');
+        writeString(out, IOMessageField.AUTH_GROUP, message.getAuthGroup());
+        out.writeByte(',');
+        out.writeBytes(VERSION_NAME);
+        writeDecimal(out, message.getVersion());
+        out.writeByte(',');
+        writeNumber(out, IOMessageField.CHAIN_POSITION, message.getChainPosition());
+        out.writeByte(',');
+        writeString(out, IOMessageField.HASH, message.getHash());
+        out.writeByte(',');
+        writeString(out, IOMessageField.PREVIOUS_HASH, message.getPreviousHash());
+        out.writeByte(',');
+        writeString(out, IOMessageField.NONCE, message.getNonce());
+        out.writeByte(',');
+        writeNumber(out, IOMessageField.DIFFICULTY_TARGET, message.getDifficultyTarget());
+        out.writeByte(',');
+        writeString(out, IOMessageField.INFO_TYPE, message.getInfoType());
+        out.writeByte(',');
+        writeString(out, IOMessageField.INFO_FORMAT, message.getInfoFormat());
+        out.writeByte(',');
+        out.writeBytes(FIELD_PREFIXES[IOMessageField.CONTEXT_DATA.ordinal()]);
+        out.writeByte('"');
+        byte[] contextData = message.getContextData();
+        if (contextData != null) {
+            ByteBuf context = Unpooled.wrappedBuffer(contextData);
+            IOMessageUtils.encodeBase64(context, 0, contextData.length, out);
+        }
+        out.writeByte('"');
+        out.writeByte(',');
+        out.writeBytes(FIELD_PREFIXES[IOMessageField.CONTENT_DATA.ordinal()]);
+        out.writeByte('"');
+        ByteBuf content = message.getContentDataAsByteBuf();
+        IOMessageUtils.encodeBase64(content, content.readerIndex(), content.readableBytes(), out);
+        out.writeByte('"');
+        out.writeByte('}');
+    }
+
+    /**
+     * Reads message from JSON object (as sent by ioFog) with base64 encoded context and content data.
+     * Unknown keys are skipped.
+     *
+     * @param reader - reader positioned at the beginning of the object
+     *
+     * @return IOMessage
+     */
+    public static IOMessage decode(ByteBufJsonReader reader) {
+        return decode(reader, new IOMessage());
+    }
+
+    /**
+     * Reads message from JSON object (as sent by ioFog) into provided message.
+     * Content of pooled message is decoded into its reusable content buffer.
+     *
+     * @param reader - reader positioned at the beginning of the object
+     * @param message - empty message to fill
+     *
+     * @return message
+     */
+    public static IOMessage decode(ByteBufJsonReader reader, IOMessage message) {
+        return decode(reader, message, IOMessageField.ALL_MASK);
+    }
+
+    /**
+     * Reads only given fields of message from JSON object into provided message,
+     * values of other fields are skipped without decoding.
+     *
+     * @param reader - reader positioned at the beginning of the object
+     * @param message - empty message to fill
+     * @param fields - fields to decode
+     *
+     * @return message
+     */
+    public static IOMessage decode(ByteBufJsonReader reader, IOMessage message, Set<IOMessageField> fields) {
+        return decode(reader, message, IOMessageField.mask(fields));
+    }
+
+    private static IOMessage decode(ByteBufJsonReader reader, IOMessage message, int mask) {
+        StringInternCache cache = StringInternCache.getDefault();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = reader.nextName(FIELD_NAMES);
+            if (field < 0 || (mask & (1 << FIELDS[field].ordinal())) == 0) {
+                reader.skipValue();
+                continue;
+            }
+            if (reader.nextNull()) {
+                continue;
+            }
+            switch (FIELDS[field]) {
+                case ID: message.setId(reader.nextString()); break;
+                case TAG: message.setTag(reader.nextString(cache)); break;
+                case GROUP_ID: message.setGroupId(reader.nextString()); break;
+                case SEQUENCE_NUMBER: message.setSequenceNumber(reader.nextInt()); break;
+                case SEQUENCE_TOTAL: message.setSequenceTotal(reader.nextInt()); break;
+                case PRIORITY: message.setPriority((byte) reader.nextInt()); break;
+                case TIMESTAMP: message.setTimestamp(reader.nextLong()); break;
+                case PUBLISHER: message.setPublisher(reader.nextString(cache)); break;
+                case AUTH_ID: message.setAuthId(reader.nextString()); break;
+                case AUTH_GROUP: message.setAuthGroup(reader.nextString(cache)); break;
+                case CHAIN_POSITION: message.setChainPosition(reader.nextLong()); break;
+                case HASH: message.setHash(reader.nextString()); break;
+                case PREVIOUS_HASH: message.setPreviousHash(reader.nextString()); break;
+                case NONCE: message.setNonce(reader.nextString()); break;
+                case DIFFICULTY_TARGET: message.setDifficultyTarget(reader.nextInt()); break;
+                case INFO_TYPE: message.setInfoType(reader.nextString(cache)); break;
+                case INFO_FORMAT: message.setInfoFormat(reader.nextString(cache)); break;
+                case CONTEXT_DATA: message.setContextData(reader.nextBase64()); break;
+                case CONTENT_DATA:
+                    if (message.isPooled()) {
+                        reader.nextBase64(message.resetContentBuffer());
+                    } else {
+                        message.setContentData(reader.nextBase64());
+                    }
+                    break;
+            }
+        }
+        reader.endObject();
+        return message;
+    }
+
+    /**
+     * Reads message from JSON object straight into a row of columnar batch, no {@link IOMessage} is built.
+     * Compressed messages and fragments can't be appended this way, reader is then moved back to the beginning
+     * of the object, so it can be fully decoded with {@link #decode(ByteBufJsonReader, IOMessage)}.
+     *
+     * @param reader - reader positioned at the beginning of the object
+     * @param batch - batch to append message to
+     * @param filter - filter of messages, rejected messages are not appended, null to accept all
+     *
+     * @return false if message has to be fully decoded
+     */
+    public static boolean decode(ByteBufJsonReader reader, IOMessageBatch batch, IOMessageFilter filter) {
+        StringInternCache cache = StringInternCache.getDefault();
+        int start = reader.getIndex();
+        ByteBuf content = batch.beginRow();
+        String tag = null, groupId = null, publisher = null, infoType = null, infoFormat = null;
+        long timestamp = 0;
+        byte priority = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int field = reader.nextName(FIELD_NAMES);
+            if (field < 0) {
+                reader.skipValue();
+                continue;
+            }
+            if (reader.nextNull()) {
+                continue;
+            }
+            switch (FIELDS[field]) {
+                case TAG: tag = reader.nextString(cache); break;
+                case GROUP_ID: groupId = reader.nextString(); break;
+                case PRIORITY: priority = (byte) reader.nextInt(); break;
+                case TIMESTAMP: timestamp = reader.nextLong(); break;
+                case PUBLISHER: publisher = reader.nextString(cache); break;
+                case INFO_TYPE: infoType = reader.nextString(cache); break;
+                case INFO_FORMAT: infoFormat = reader.nextString(cache); break;
+                case CONTENT_DATA: reader.nextBase64(content); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if ((groupId != null && groupId.startsWith(IOMessageFragmenter.GROUP_ID_PREFIX))
+                || (infoFormat != null && infoFormat.contains(IOMessageCompressor.FORMAT_MARKER))) {
+            batch.cancelRow();
+            reader.reset(start);
+            return false;
+        }
+        if (filter != null && !filter.matches(publisher, tag, infoType, infoFormat, priority, timestamp)) {
+            batch.cancelRow();
+            return true;
+        }
+        batch.endRow(timestamp, priority, publisher, infoType);
+        return true;
+    }
+
+    private static void writeString(ByteBuf out, IOMessageField field, String value) {
+        out.writeBytes(FIELD_PREFIXES[field.ordinal()]);
+        out.writeByte('"');
+        if (value != null) {
+            int from = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\' || c < 0x20) {
+                    ByteUtils.writeUtf8(out, value, from, i);
+                    out.writeByte('\\');
+                    switch (c) {
+                        case '"': out.writeByte('"'); break;
+                        case '\\': out.writeByte('\\'); break;
+                        case '\n': out.writeByte('n'); break;
+                        case '\r': out.writeByte('r'); break;
+                        case '\t': out.writeByte('t'); break;
+                        default:
+                            out.writeByte('u');
+                            out.writeByte('0');
+                            out.writeByte('0');
+                            out.writeByte(Character.forDigit(c >> 4, 16));
+                            out.writeByte(Character.forDigit(c & 0xf, 16));
+                    }
+                    from = i + 1;
+                }
+            }
+            ByteUtils.writeUtf8(out, value, from, value.length());
+        }
+        out.writeByte('"');
+    }
+
+    private static void writeNumber(ByteBuf out, IOMessageField field, long value) {
+        out.writeBytes(FIELD_PREFIXES[field.ordinal()]);
+        writeDecimal(out, value);
+    }
+
+    private static void writeDecimal(ByteBuf out, long value) {
+        if (value == Long.MIN_VALUE) {
+            ByteUtils.writeUtf8(out, Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            out.writeByte('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.writeByte((int) ('0' + value / divisor % 10));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.iotracks.elements;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Joins parts created by {@link IOMessageFragmenter} back into original messages.
+ * Parts may arrive in any order and duplicates are ignored.
+ * Memory is bounded: when buffered content exceeds the limit the oldest incomplete groups are dropped,
+ * groups that weren't completed within the timeout are dropped as well.
+ */
+public class IOMessageReassembler {
+
+    private static final Logger log = Logger.getLogger(IOMessageReassembler.class.getName());
+
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_GROUP_TIMEOUT = 60000;
+    public static final int MAX_PARTS = 65536;
+
+    private final long maxBufferedBytes;
+    private final long groupTimeout;
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private long bufferedBytes = 0;
+    private final LongAdder droppedGroups = new LongAdder();
+
+    public IOMessageReassembler() {
+        this(DEFAULT_MAX_BUFFERED_BYTES, DEFAULT_GROUP_TIMEOUT);
+    }
+
+    /**
+     * @param maxBufferedBytes - max size of content of incomplete groups kept in memory
+     * @param groupTimeout - time in milliseconds to wait for all parts of a group
+     */
+    public IOMessageReassembler(long maxBufferedBytes, long groupTimeout) {
+        if (maxBufferedBytes <= 0 || groupTimeout <= 0) {
+            throw new IllegalArgumentException("Buffer limit and timeout should be positive.");
+        }
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.groupTimeout = groupTimeout;
+    }
+
+    /**
+     * Adds received part. Part's content is copied, so part can be released after the call.
+     *
+     * @param part - message that is a fragment (see {@link IOMessageFragmenter#isFragment(IOMessage)})
+     *
+     * @return complete message if it was the last missing part, otherwise null
+     */
+    public synchronized IOMessage add(IOMessage part) {
+        long now = System.currentTimeMillis();
+        purgeExpired(now);
+        Integer number = part.getSequenceNumber();
+        Integer total = part.getSequenceTotal();
+        int length = part.getContentDataLength();
+        if (number == null || total == null || number < 1 || number > total || total > MAX_PARTS) {
+            log.warning("Fragment with invalid sequence number is dropped: " + part.getGroupId());
+            return null;
+        }
+        if (length > maxBufferedBytes) {
+            log.warning("Fragment exceeds reassembly buffer and is dropped: " + part.getGroupId());
+            return null;
+        }
+        Group group = groups.get(part.getGroupId());
+        if (group == null) {
+            group = new Group(total, now);
+            groups.put(part.getGroupId(), group);
+        } else if (group.parts.length != total) {
+            log.warning("Fragment doesn't match its group and is dropped: " + part.getGroupId());
+            return null;
+        }
+        if (group.parts[number - 1] != null) {
+            return null;
+        }
+        while (bufferedBytes + length > maxBufferedBytes) {
+            if (!dropOldest(group)) {
+                log.warning("Reassembly buffer is full, incomplete message group is dropped: " + part.getGroupId());
+                groups.remove(part.getGroupId());
+                bufferedBytes -= group.length;
+                droppedGroups.increment();
+                return null;
+            }
+        }
+
+        byte[] content = new byte[length];
+        ByteBuf contentBuf = part.getContentDataAsByteBuf();
+        contentBuf.getBytes(contentBuf.readerIndex(), content);
+        group.parts[number - 1] = content;
+        group.received++;
+        group.length += length;
+        bufferedBytes += length;
+        if (number == 1) {
+            group.first = new IOMessage();
+            IOMessageFragmenter.copyHeader(part, group.first);
+            group.first.setContextData(part.getContextData());
+        }
+        if (group.received < total) {
+            return null;
+        }
+
+        groups.remove(part.getGroupId());
+        bufferedBytes -= group.length;
+        byte[] data = new byte[(int) group.length];
+        int pos = 0;
+        for (byte[] p : group.parts) {
+            System.arraycopy(p, 0, data, pos, p.length);
+            pos += p.length;
+        }
+        IOMessage message = group.first;
+        message.setContentData(data);
+        return message;
+    }
+
+    /**
+     * Drops incomplete groups that are waiting longer than the timeout.
+     */
+    public synchronized void purgeExpired() {
+        purgeExpired(System.currentTimeMillis());
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Map.Entry<String, Group>> it = groups.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Group> entry = it.next();
+            if (now - entry.getValue().created < groupTimeout) {
+                break;
+            }
+            log.warning("Incomplete message group timed out: " + entry.getKey());
+            drop(it, entry.getValue());
+        }
+    }
+
+    private boolean dropOldest(Group current) {
+        Iterator<Map.Entry<String, Group>> it = groups.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Group> entry = it.next();
+            if (entry.getValue() != current) {
+                log.warning("Reassembly buffer is full, incomplete message group is dropped: " + entry.getKey());
+                drop(it, entry.getValue());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drop(Iterator<Map.Entry<String, Group>> it, Group group) {
+        it.remove();
+        bufferedBytes -= group.length;
+        droppedGroups.increment();
+    }
+
+    /**
+     * @return number of incomplete groups waiting for parts
+     */
+    public synchronized int getPendingGroups() {
+        return groups.size();
+    }
+
+    /**
+     * @return size of buffered content of incomplete groups
+     */
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * @return number of groups dropped because of timeout or buffer limit
+     */
+    public long getDroppedGroups() {
+        return droppedGroups.sum();
+    }
+
+    private static final class Group {
+        private final byte[][] parts;
+        private final long created;
+        private int received;
+        private long length;
+        private IOMessage first;
+
+        Group(int total, long created) {
+            this.parts = new byte[total][];
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.iotracks.elements;
+
+/**
+ * Receipt of a message posted to ioFog: ID and timestamp ioFog assigned to the message.
+ */
+public final class IOMessageReceipt {
+
+    private final String messageId;
+    private final long timestamp;
+
+    /**
+     * @param messageId - generated id of sent message
+     * @param timestamp - timestamp generated when message was received by ioFog
+     */
+    public IOMessageReceipt(String messageId, long timestamp) {
+        this.messageId = messageId;
+        this.timestamp = timestamp;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "IOMessageReceipt{messageId='" + messageId + "', timestamp=" + timestamp + "}";
+    }
+}
@@ -0,0 +1,20 @@
+package com.iotracks.server;
+
+import com.iotracks.elements.IOMessage;
+
+import java.util.List;
+
+/**
+ * Listener's Interface for {@link IOFogStandInServer}.
+ */
+public interface IOFogServerListener {
+
+    /**
+     * Method is triggered when server receives messages from Containers.
+     * Messages have id and timestamp assigned and are valid only during this call,
+     * call {@link IOMessage#retain()} to keep a message longer and {@link IOMessage#release()} when it's done.
+     *
+     * @param messages - list of received messages
+     */
+    void onMessages(List<IOMessage> messages);
+}
@@ -0,0 +1,273 @@
+package com.iotracks.server;
+
+import com.iotracks.api.client.IOFogTransport;
+import com.iotracks.elements.IOMessage;
+import com.iotracks.ws.manager.WebSocketManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Local ioFog simulator for load tests of Containers without ioFog: {@link IOFogStandInServer} serving REST calls
+ * and WebSockets of Local API that also emits synthetic message streams ({@link IOFogSyntheticStream})
+ * to Containers and fires control signals on a schedule.
+ *
+ * Streams are generated by a single thread with a tick of 1 ms: every tick each stream emits the messages
+ * due by its current rate, so bursts and rates of hundreds of thousands messages per second keep their shape.
+ * Messages are taken from the pool of {@link IOMessage} and contents are slices of a random buffer,
+ * so generation doesn't allocate per message.
+ *
+ * Can be run standalone (see {@link #main(String[])}) or embedded in tests:
+ * <pre>
+ *     IOFogSimulator simulator = new IOFogSimulator();
+ *     simulator.addStream(new IOFogSyntheticStream("container-id").rate(50000).payloadSize(64, 1024));
+ *     simulator.scheduleControlSignals("container-id", 30000, () -> newConfig());
+ *     int port = simulator.start(0);
+ * </pre>
+ * Simulator can't be started again after it's stopped.
+ */
+public class IOFogSimulator extends IOFogStandInServer {
+
+    private static final Logger log = Logger.getLogger(IOFogSimulator.class.getName());
+
+    private static final long TICK_MICROS = 1000;
+    private static final long MAX_LAG_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int PAYLOADS_SIZE = 4 << 20;
+
+    private final List<IOFogSyntheticStream> streams = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "iofog-simulator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LongAdder controlSignals = new LongAdder();
+    private final ByteBuf payloads;
+    private ScheduledFuture<?> ticks;
+    private long sequence;
+
+    public IOFogSimulator() {
+        this(messages -> { });
+    }
+
+    /**
+     * @param listener - listener for messages received from Containers
+     */
+    public IOFogSimulator(IOFogServerListener listener) {
+        super(listener);
+        byte[] random = new byte[PAYLOADS_SIZE];
+        new Random(PAYLOADS_SIZE).nextBytes(random);
+        payloads = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(random));
+    }
+
+    /**
+     * Method adds synthetic stream, it starts emitting messages on the next tick.
+     *
+     * @param stream - stream to add
+     *
+     * @return this simulator
+     */
+    public IOFogSimulator addStream(IOFogSyntheticStream stream) {
+        streams.add(stream);
+        return this;
+    }
+
+    public void removeStream(IOFogSyntheticStream stream) {
+        streams.remove(stream);
+    }
+
+    public List<IOFogSyntheticStream> getStreams() {
+        return new ArrayList<>(streams);
+    }
+
+    /**
+     * Method sends new configuration signals to Container periodically.
+     *
+     * @param containerId - Container's ID
+     * @param periodMillis - time between signals
+     *
+     * @return future to cancel signals
+     */
+    public ScheduledFuture<?> scheduleControlSignals(String containerId, long periodMillis) {
+        return scheduleControlSignals(containerId, periodMillis, null);
+    }
+
+    /**
+     * Method changes Container's configuration periodically and notifies Container with new configuration signal,
+     * so it fetches the new configuration via REST call.
+     *
+     * @param containerId - Container's ID
+     * @param periodMillis - time between signals
+     * @param configs - supplier of new configuration, null to send signals only
+     *
+     * @return future to cancel signals
+     */
+    public ScheduledFuture<?> scheduleControlSignals(String containerId, long periodMillis, Supplier<JsonObject> configs) {
+        return scheduler.scheduleAtFixedRate(() -> {
+            try {
+                if (configs != null) {
+                    setConfig(containerId, configs.get());
+                }
+                sendControlSignal(containerId);
+                controlSignals.increment();
+            } catch (RuntimeException e) {
+                log.warning("Error sending control signal to " + containerId + ": " + e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of fired control signals
+     */
+    public long getControlSignalCount() {
+        return controlSignals.sum();
+    }
+
+    @Override
+    public int start(IOFogTransport transport) throws InterruptedException {
+        int actualPort = super.start(transport);
+        ticks = scheduler.scheduleAtFixedRate(this::tick, TICK_MICROS, TICK_MICROS, TimeUnit.MICROSECONDS);
+        return actualPort;
+    }
+
+    @Override
+    public void stop() {
+        if (ticks != null) {
+            ticks.cancel(false);
+        }
+        scheduler.shutdownNow();
+        super.stop();
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (IOFogSyntheticStream stream : streams) {
+            try {
+                emit(stream, stream.due(now, MAX_LAG_NANOS));
+            } catch (RuntimeException e) {
+                log.warning("Error emitting synthetic messages to " + stream.getContainerId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void emit(IOFogSyntheticStream stream, int count) {
+        String containerId = stream.getContainerId();
+        WebSocketManager wsManager = getWebSocketManager();
+        while (count > 0) {
+            int batch = Math.min(count, stream.getBatchSize());
+            count -= batch;
+            boolean rest = stream.getDelivery() == IOFogSyntheticStream.Delivery.REST;
+            if (rest ? getUnreadCount(containerId) + batch > stream.getMaxUnread()
+                    : !wsManager.isMessageSocketWritable(containerId)) {
+                stream.onDropped(batch);
+                continue;
+            }
+            List<IOMessage> messages = new ArrayList<>(batch);
+            try {
+                for (int i = 0; i < batch; i++) {
+                    IOMessage message = IOMessage.obtain();
+                    messages.add(message);
+                    stream.fill(message, payloads, sequence++);
+                }
+                if (rest) {
+                    messages.forEach(message -> queueMessage(containerId, message));
+                } else if (batch == 1) {
+                    wsManager.sendMessage(containerId, messages.get(0));
+                } else {
+                    wsManager.sendMessages(containerId, messages);
+                }
+                stream.onSent(batch);
+            } finally {
+                messages.forEach(IOMessage::release);
+            }
+        }
+    }
+
+    /**
+     * Runs simulator until the process is killed, prints statistics every 10 seconds.
+     * <pre>
+     * java -cp container-java-sdk.jar:... com.iotracks.server.IOFogSimulator --port 54321 --container my-element
+     *      --rate 20000 --payload 64-1024 --publishers 4 --burst 10:200:5000 --control 60000
+     * </pre>
+     * Options: --host listening address (127.0.0.1), --port (54321), --container comma separated Containers' IDs,
+     * --rate messages per second per Container, --payload size or min-max, --publishers number of publishers,
+     * --burst factor:durationMillis:periodMillis, --batch messages per frame, --delivery ws|rest,
+     * --control period of control signals in milliseconds, --config file with configuration JSON.
+     *
+     * @param args - options
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        LongAdder received = new LongAdder();
+        IOFogSimulator simulator = new IOFogSimulator(messages -> received.add(messages.size()));
+        JsonObject config = null;
+        if (options.containsKey("config")) {
+            try (JsonReader reader = Json.createReader(new FileReader(options.get("config")))) {
+                config = reader.readObject();
+            }
+        }
+        String[] publishers = new String[Integer.parseInt(options.getOrDefault("publishers", "1"))];
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = "simulator-publisher-" + i;
+        }
+        for (String containerId : options.getOrDefault("container", "NOT_DEFINED").split(",")) {
+            IOFogSyntheticStream stream = new IOFogSyntheticStream(containerId.trim())
+                    .rate(Double.parseDouble(options.getOrDefault("rate", "100")))
+                    .publishers(publishers)
+                    .batchSize(Integer.parseInt(options.getOrDefault("batch", "1")))
+                    .delivery("rest".equals(options.get("delivery")) ? IOFogSyntheticStream.Delivery.REST
+                            : IOFogSyntheticStream.Delivery.WEBSOCKET);
+            String[] payload = options.getOrDefault("payload", "128").split("-");
+            if (payload.length == 2) {
+                stream.payloadSize(Integer.parseInt(payload[0]), Integer.parseInt(payload[1]));
+            } else {
+                stream.payloadSize(Integer.parseInt(payload[0]));
+            }
+            if (options.containsKey("burst")) {
+                String[] burst = options.get("burst").split(":");
+                stream.burst(Double.parseDouble(burst[0]), Long.parseLong(burst[1]), Long.parseLong(burst[2]));
+            }
+            if (config != null) {
+                simulator.setConfig(stream.getContainerId(), config);
+            }
+            if (options.containsKey("control")) {
+                simulator.scheduleControlSignals(stream.getContainerId(), Long.parseLong(options.get("control")));
+            }
+            simulator.addStream(stream);
+        }
+        int port = simulator.start(options.getOrDefault("host", "127.0.0.1"),
+                Integer.parseInt(options.getOrDefault("port", "54321")));
+        log.info("ioFog simulator is listening on port " + port);
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::stop));
+        while (true) {
+            Thread.sleep(10000);
+            for (IOFogSyntheticStream stream : simulator.getStreams()) {
+                log.info(stream.getContainerId() + ": sent " + stream.getSentCount() + ", dropped " + stream.getDroppedCount());
+            }
+            log.info("received " + received.sum() + ", control signals " + simulator.getControlSignalCount());
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.iotracks.server;
+
+import com.iotracks.api.client.IOFogTransport;
+import com.iotracks.elements.IOMessage;
+import com.iotracks.ws.manager.WebSocketFlushConsolidationHandler;
+import com.iotracks.ws.manager.WebSocketManager;
+import com.iotracks.ws.manager.listener.ServerWSManagerListener;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+
+import javax.json.JsonObject;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for ioFog's Local API to run and test Containers without ioFog.
+ * Accepts Message and Control WebSocket connections, assigns ids and timestamps to received messages
+ * and sends receipts for them, can push messages and new configuration signals to connected Containers.
+ * REST calls are served as well: new messages, next unread messages queued for Container,
+ * query of recently received messages and Container's configuration.
+ */
+public class IOFogStandInServer {
+
+    private static final int DEFAULT_HISTORY_SIZE = 1000;
+    private static final int MAX_TRACKED_SESSIONS = 10000;
+
+    private final IOFogServerListener listener;
+    private final WebSocketManager wsManager;
+    private final Map<String, JsonObject> configs = new ConcurrentHashMap<>();
+    private final Map<String, Queue<IOMessage>> unreadMessages = new ConcurrentHashMap<>();
+    private final Deque<IOMessage> history = new ArrayDeque<>();
+    private volatile int historySize = DEFAULT_HISTORY_SIZE;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+    private File socketFile;
+    private volatile SslContext sslContext;
+    private volatile WebSocketFlushConsolidationHandler.Mode flushMode = WebSocketFlushConsolidationHandler.Mode.ADAPTIVE;
+    private volatile long flushMaxDelayMicros = WebSocketFlushConsolidationHandler.DEFAULT_MAX_DELAY_MICROS;
+    private final Set<String> sessionIds = ConcurrentHashMap.newKeySet();
+    private final LongAdder handshakes = new LongAdder();
+    private final LongAdder resumedSessions = new LongAdder();
+
+    /**
+     * @param listener - listener for messages received from Containers
+     */
+    public IOFogStandInServer(IOFogServerListener listener) {
+        this.listener = listener;
+        this.wsManager = new WebSocketManager(new ServerWSManagerListener(messages -> {
+            addToHistory(messages);
+            listener.onMessages(messages);
+        }));
+    }
+
+    /**
+     * Method starts server on local address.
+     *
+     * @param port - the listening port, 0 to choose a free one
+     *
+     * @return actual listening port
+     */
+    public int start(int port) throws InterruptedException {
+        return start("127.0.0.1", port);
+    }
+
+    /**
+     * Method starts server on given address, e.g. "0.0.0.0" to accept Containers running in other hosts or Docker networks.
+     *
+     * @param host - the listening address
+     * @param port - the listening port, 0 to choose a free one
+     *
+     * @return actual listening port
+     */
+    public int start(String host, int port) throws InterruptedException {
+        return start(IOFogTransport.tcp(host, port));
+    }
+
+    /**
+     * Method starts server accepting connections of given transport, e.g. on Unix domain socket
+     * ({@link IOFogTransport#domainSocket(String, String, int)}), an existing socket file is replaced.
+     *
+     * @param transport - transport to accept connections of
+     *
+     * @return actual listening port, 0 for domain socket
+     */
+    public int start(IOFogTransport transport) throws InterruptedException {
+        bossGroup = transport.newEventLoopGroup(1, "iofog-stand-in-boss");
+        workerGroup = transport.newEventLoopGroup(0, "iofog-stand-in");
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        SslContext context = sslContext;
+                        if (context != null) {
+                            SslHandler sslHandler = context.newHandler(channel.alloc());
+                            sslHandler.handshakeFuture().addListener(future -> {
+                                if (future.isSuccess()) {
+                                    onHandshake(sslHandler);
+                                }
+                            });
+                            channel.pipeline().addLast(sslHandler);
+                        }
+                        channel.pipeline().addLast(new HttpServerCodec());
+                        channel.pipeline().addLast(new HttpObjectAggregator(Integer.MAX_VALUE));
+                        if (flushMode != null) {
+                            channel.pipeline().addLast(new WebSocketFlushConsolidationHandler(flushMode, flushMaxDelayMicros));
+                        }
+                        channel.pipeline().addLast(newHandler());
+                    }
+                });
+        transport.configure(bootstrap);
+        if (transport.getType() == IOFogTransport.Type.DOMAIN_SOCKET) {
+            socketFile = new File(transport.getSocketPath());
+            socketFile.delete();
+        }
+        serverChannel = bootstrap.bind(transport.getAddress()).sync().channel();
+        SocketAddress address = serverChannel.localAddress();
+        return address instanceof InetSocketAddress ? ((InetSocketAddress) address).getPort() : 0;
+    }
+
+    /**
+     * Method enables TLS on connections accepted after it's called, e.g. to test Containers run with "ssl" property.
+     *
+     * @param sslContext - server context, null to accept plain connections
+     */
+    public void setSslContext(SslContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Method sets how flushes of connections accepted afterwards are consolidated (see {@link WebSocketFlushConsolidationHandler}).
+     *
+     * @param mode - how long flushes can wait for more frames, null to flush every frame right away
+     * @param maxDelayMicros - max time flush is delayed by
+     */
+    public void setFlushConsolidation(WebSocketFlushConsolidationHandler.Mode mode, long maxDelayMicros) {
+        this.flushMode = mode;
+        this.flushMaxDelayMicros = maxDelayMicros;
+    }
+
+    /**
+     * @return number of completed TLS handshakes
+     */
+    public long getHandshakeCount() {
+        return handshakes.sum();
+    }
+
+    /**
+     * @return number of TLS handshakes that resumed a session established by an earlier one
+     */
+    public long getResumedSessionCount() {
+        return resumedSessions.sum();
+    }
+
+    private void onHandshake(SslHandler sslHandler) {
+        handshakes.increment();
+        String sessionId = Base64.getEncoder().encodeToString(sslHandler.engine().getSession().getId());
+        if (!sessionIds.add(sessionId)) {
+            resumedSessions.increment();
+        } else if (sessionIds.size() > MAX_TRACKED_SESSIONS) {
+            sessionIds.clear();
+        }
+    }
+
+    /**
+     * Creates handler for accepted connection.
+     *
+     * @return handler
+     */
+    protected IOFogStandInServerHandler newHandler() {
+        return new IOFogStandInServerHandler(wsManager, this);
+    }
+
+    /**
+     * Method sends message to Container via its Message WebSocket.
+     *
+     * @param containerId - Container's ID
+     * @param message - message to send
+     */
+    public void sendMessage(String containerId, IOMessage message) {
+        wsManager.sendMessage(containerId, message);
+    }
+
+    /**
+     * Method sends messages to Container in a single batch frame.
+     *
+     * @param containerId - Container's ID
+     * @param messages - messages to send
+     */
+    public void sendMessages(String containerId, List<IOMessage> messages) {
+        wsManager.sendMessages(containerId, messages);
+    }
+
+    /**
+     * Method sends new configuration signal to Container via its Control WebSocket.
+     *
+     * @param containerId - Container's ID
+     */
+    public void sendControlSignal(String containerId) {
+        wsManager.sendControl(containerId);
+    }
+
+    /**
+     * Method sets max payload of WebSocket frames received from Containers connected afterwards
+     * (see {@link WebSocketManager#setMaxFramePayloadLength(int)}).
+     *
+     * @param maxFramePayloadLength - max length in bytes
+     */
+    public void setMaxFramePayloadLength(int maxFramePayloadLength) {
+        wsManager.setMaxFramePayloadLength(maxFramePayloadLength);
+    }
+
+    /**
+     * Method sets configuration returned to Container by config REST call.
+     *
+     * @param containerId - Container's ID
+     * @param config - configuration, null to remove it
+     */
+    public void setConfig(String containerId, JsonObject config) {
+        if (config == null) {
+            configs.remove(containerId);
+        } else {
+            configs.put(containerId, config);
+        }
+    }
+
+    /**
+     * Method queues message for Container, it's returned by the next REST call for unread messages.
+     * Message is retained until it's sent.
+     *
+     * @param containerId - Container's ID
+     * @param message - message to queue
+     */
+    public void queueMessage(String containerId, IOMessage message) {
+        unreadMessages.computeIfAbsent(containerId, id -> new LinkedBlockingQueue<>()).add(message.retain());
+    }
+
+    /**
+     * @param containerId - Container's ID
+     *
+     * @return number of messages queued for Container and not fetched yet
+     */
+    public int getUnreadCount(String containerId) {
+        Queue<IOMessage> queue = unreadMessages.get(containerId);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Method sets how many of the most recently received messages are kept for query REST calls.
+     *
+     * @param historySize - number of kept messages, 0 to keep none
+     */
+    public void setHistorySize(int historySize) {
+        if (historySize < 0) {
+            throw new IllegalArgumentException("History size can't be negative: " + historySize);
+        }
+        this.historySize = historySize;
+        synchronized (history) {
+            trimHistory();
+        }
+    }
+
+    /**
+     * Method assigns id and timestamp to message received via REST call and passes it to listener.
+     *
+     * @param message - received message
+     */
+    void receiveMessage(IOMessage message) {
+        message.setId(UUID.randomUUID().toString().replace("-", ""));
+        message.setTimestamp(System.currentTimeMillis());
+        List<IOMessage> messages = Collections.singletonList(message);
+        addToHistory(messages);
+        listener.onMessages(messages);
+    }
+
+    /**
+     * Method takes all messages queued for Container, caller has to release them.
+     *
+     * @param containerId - Container's ID
+     *
+     * @return list of messages
+     */
+    List<IOMessage> pollMessages(String containerId) {
+        Queue<IOMessage> queue = unreadMessages.get(containerId);
+        List<IOMessage> messages = new ArrayList<>();
+        IOMessage message;
+        while (queue != null && (message = queue.poll()) != null) {
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Method finds kept messages for period and publishers, caller has to release them.
+     *
+     * @param start - start of period (inclusive)
+     * @param end - end of period (inclusive)
+     * @param publishers - publishers of messages, empty for all publishers
+     *
+     * @return list of messages
+     */
+    List<IOMessage> queryMessages(long start, long end, Collection<String> publishers) {
+        List<IOMessage> messages = new ArrayList<>();
+        synchronized (history) {
+            for (IOMessage message : history) {
+                if (message.getTimestamp() >= start && message.getTimestamp() <= end
+                        && (publishers.isEmpty() || publishers.contains(message.getPublisher()))) {
+                    messages.add(message.retain());
+                }
+            }
+        }
+        return messages;
+    }
+
+    JsonObject getConfig(String containerId) {
+        return configs.get(containerId);
+    }
+
+    private void addToHistory(List<IOMessage> messages) {
+        if (historySize == 0) {
+            return;
+        }
+        synchronized (history) {
+            for (IOMessage message : messages) {
+                // received messages are views over request buffers, kept ones have to own their data
+                history.addLast(new IOMessage(message.getBytes()));
+            }
+            trimHistory();
+        }
+    }
+
+    private void trimHistory() {
+        while (history.size() > historySize) {
+            history.removeFirst().release();
+        }
+    }
+
+    protected IOFogServerListener getListener() {
+        return listener;
+    }
+
+    protected WebSocketManager getWebSocketManager() {
+        return wsManager;
+    }
+
+    /**
+     * Method stops server and closes all connections.
+     */
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close().syncUninterruptibly();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+            bossGroup.shutdownGracefully();
+        }
+        if (socketFile != null) {
+            socketFile.delete();
+        }
+        synchronized (history) {
+            history.forEach(IOMessage::release);
+            history.clear();
+        }
+        unreadMessages.values().forEach(queue -> queue.forEach(IOMessage::release));
+        unreadMessages.clear();
+    }
+}
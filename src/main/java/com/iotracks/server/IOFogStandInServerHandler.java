@@ -0,0 +1,246 @@
+package com.iotracks.server;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageJsonCodec;
+import com.iotracks.utils.ByteBufJsonReader;
+import com.iotracks.utils.IOFogLocalAPIURL;
+import com.iotracks.utils.IOFogResponseUtils;
+import com.iotracks.ws.manager.WebSocketManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.CharsetUtil;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Handler of {@link IOFogStandInServer}: upgrades requests to ioFog's WebSocket URLs,
+ * passes WebSocket frames to WebSocket manager and serves REST calls of Local API.
+ */
+public class IOFogStandInServerHandler extends SimpleChannelInboundHandler<Object> {
+
+    private static final Logger log = Logger.getLogger(IOFogStandInServerHandler.class.getName());
+
+    private static final String STATUS_OKAY = "okay";
+    private static final String STATUS_FAILED = "failed";
+    private static final String PUBLISHERS_PARAM_NAME = "publishers";
+
+    private final WebSocketManager wsManager;
+    private final IOFogStandInServer server;
+    private boolean keepAlive;
+
+    public IOFogStandInServerHandler(WebSocketManager wsManager) {
+        this(wsManager, null);
+    }
+
+    /**
+     * @param wsManager - WebSocket manager of the server
+     * @param server - server to serve REST calls for, null to serve WebSockets only
+     */
+    public IOFogStandInServerHandler(WebSocketManager wsManager, IOFogStandInServer server) {
+        this.wsManager = wsManager;
+        this.server = server;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof FullHttpRequest) {
+            handleHttpRequest(ctx, (FullHttpRequest) msg);
+        } else if (msg instanceof WebSocketFrame) {
+            wsManager.eatFrame(ctx, (WebSocketFrame) msg);
+        }
+    }
+
+    private void handleHttpRequest(ChannelHandlerContext ctx, FullHttpRequest request) {
+        String uri = request.getUri();
+        keepAlive = HttpHeaders.isKeepAlive(request);
+        String path = new QueryStringDecoder(uri).path();
+        String messageSocketUrl = IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API.getURL();
+        String controlSocketUrl = IOFogLocalAPIURL.GET_CONTROL_WEB_SOCKET_LOCAL_API.getURL();
+        if (uri.startsWith(messageSocketUrl)) {
+            wsManager.initMessageSocket(ctx, uri.substring(messageSocketUrl.length()), false, uri, request);
+        } else if (uri.startsWith(controlSocketUrl)) {
+            wsManager.initControlSocket(ctx, uri.substring(controlSocketUrl.length()), false, uri, request);
+        } else if (server != null && request.getMethod() == HttpMethod.POST && isRestUrl(path)) {
+            try {
+                handleRestRequest(ctx, path, request.content());
+            } catch (JsonException | IllegalArgumentException | IndexOutOfBoundsException | ClassCastException e) {
+                sendError(ctx, HttpResponseStatus.BAD_REQUEST, "Malformed request: " + e.getMessage());
+            }
+        } else {
+            sendResponse(ctx, HttpResponseStatus.NOT_FOUND, "{\"error\":\"Unknown request: " + uri + "\"}");
+        }
+    }
+
+    private static boolean isRestUrl(String path) {
+        return path.equals(IOFogLocalAPIURL.POST_MSG_REST_LOCAL_API.getURL())
+                || path.equals(IOFogLocalAPIURL.GET_NEXT_MSG_REST_LOCAL_API.getURL())
+                || path.equals(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API.getURL())
+                || path.equals(IOFogLocalAPIURL.GET_CONFIG_REST_LOCAL_API.getURL());
+    }
+
+    private void handleRestRequest(ChannelHandlerContext ctx, String path, ByteBuf content) {
+        if (path.equals(IOFogLocalAPIURL.POST_MSG_REST_LOCAL_API.getURL())) {
+            IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(content));
+            server.receiveMessage(message);
+            sendResponse(ctx, HttpResponseStatus.OK, Json.createObjectBuilder()
+                    .add(IOFogResponseUtils.STATUS_FIELD_NAME, STATUS_OKAY)
+                    .add(IOFogResponseUtils.ID_FIELD_NAME, message.getId())
+                    .add(IOFogResponseUtils.TIMESTAMP_FIELD_NAME, message.getTimestamp())
+                    .build().toString());
+            return;
+        }
+        JsonObject json;
+        try (JsonReader reader = Json.createReader(new StringReader(content.toString(CharsetUtil.UTF_8)))) {
+            json = reader.readObject();
+        }
+        String containerId = json.getString(IOFogResponseUtils.ID_FIELD_NAME, null);
+        if (containerId == null) {
+            sendError(ctx, HttpResponseStatus.BAD_REQUEST, "Missing Container's ID");
+        } else if (path.equals(IOFogLocalAPIURL.GET_NEXT_MSG_REST_LOCAL_API.getURL())) {
+            sendMessages(ctx, server.pollMessages(containerId), null);
+        } else if (path.equals(IOFogLocalAPIURL.GET_MSGS_QUERY_REST_LOCAL_API.getURL())) {
+            JsonNumber start = json.getJsonNumber(IOFogResponseUtils.TIMEFRAME_START_FIELD_NAME);
+            JsonNumber end = json.getJsonNumber(IOFogResponseUtils.TIMEFRAME_END_FIELD_NAME);
+            if (start == null || end == null) {
+                sendError(ctx, HttpResponseStatus.BAD_REQUEST, "Missing time frame");
+                return;
+            }
+            Collection<String> publishers = getPublishers(json.get(PUBLISHERS_PARAM_NAME));
+            sendMessages(ctx, server.queryMessages(start.longValue(), end.longValue(), publishers),
+                    new long[] { start.longValue(), end.longValue() });
+        } else {
+            JsonObject config = server.getConfig(containerId);
+            sendResponse(ctx, HttpResponseStatus.OK, Json.createObjectBuilder()
+                    .add(IOFogResponseUtils.STATUS_FIELD_NAME, STATUS_OKAY)
+                    .add(IOFogResponseUtils.CONFIG_FIELD_NAME, config == null ? "{}" : config.toString())
+                    .build().toString());
+        }
+    }
+
+    /**
+     * Method reads publishers of query request, they are sent either as JSON array or as a string "[id1, id2]".
+     *
+     * @param value - value of publishers parameter
+     *
+     * @return publishers, empty for all publishers
+     */
+    private static Collection<String> getPublishers(JsonValue value) {
+        List<String> publishers = new ArrayList<>();
+        if (value instanceof JsonArray) {
+            for (JsonString publisher : ((JsonArray) value).getValuesAs(JsonString.class)) {
+                publishers.add(publisher.getString());
+            }
+        } else if (value instanceof JsonString) {
+            String list = ((JsonString) value).getString().trim();
+            if (list.startsWith("[") && list.endsWith("]")) {
+                list = list.substring(1, list.length() - 1);
+            }
+            for (String publisher : list.split(",")) {
+                if (!publisher.trim().isEmpty()) {
+                    publishers.add(publisher.trim());
+                }
+            }
+        }
+        return publishers;
+    }
+
+    /**
+     * Method sends messages with streaming JSON codec and releases them.
+     *
+     * @param ctx - channel handler context
+     * @param messages - messages to send
+     * @param timeFrame - start and end of queried period, null for unread messages
+     */
+    private void sendMessages(ChannelHandlerContext ctx, List<IOMessage> messages, long[] timeFrame) {
+        ByteBuf content = null;
+        try {
+            int length = 128;
+            for (IOMessage message : messages) {
+                length += IOMessageJsonCodec.estimateLength(message) + 1;
+            }
+            content = ctx.alloc().buffer(length);
+            ByteBufUtil.writeAscii(content, "{\"" + IOFogResponseUtils.STATUS_FIELD_NAME + "\":\"" + STATUS_OKAY + "\",\""
+                    + IOFogResponseUtils.COUNT_FIELD_NAME + "\":" + messages.size() + ",");
+            if (timeFrame != null) {
+                ByteBufUtil.writeAscii(content, "\"" + IOFogResponseUtils.TIMEFRAME_START_FIELD_NAME + "\":" + timeFrame[0]
+                        + ",\"" + IOFogResponseUtils.TIMEFRAME_END_FIELD_NAME + "\":" + timeFrame[1] + ",");
+            }
+            ByteBufUtil.writeAscii(content, "\"" + IOFogResponseUtils.MESSAGES_FIELD_NAME + "\":[");
+            for (int i = 0; i < messages.size(); i++) {
+                if (i > 0) {
+                    content.writeByte(',');
+                }
+                IOMessageJsonCodec.encode(messages.get(i), content);
+            }
+            content.writeByte(']').writeByte('}');
+            sendResponse(ctx, HttpResponseStatus.OK, content);
+            content = null;
+        } finally {
+            if (content != null) {
+                content.release();
+            }
+            messages.forEach(IOMessage::release);
+        }
+    }
+
+    private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status, String error) {
+        sendResponse(ctx, status, Json.createObjectBuilder()
+                .add(IOFogResponseUtils.STATUS_FIELD_NAME, STATUS_FAILED)
+                .add("error", error)
+                .build().toString());
+    }
+
+    /**
+     * Method sends JSON response, connection is closed unless client asked to keep it alive.
+     *
+     * @param ctx - channel handler context
+     * @param status - response status
+     * @param content - JSON content
+     */
+    protected void sendResponse(ChannelHandlerContext ctx, HttpResponseStatus status, String content) {
+        sendResponse(ctx, status, Unpooled.copiedBuffer(content, CharsetUtil.UTF_8));
+    }
+
+    /**
+     * Method sends JSON response, connection is closed unless client asked to keep it alive.
+     *
+     * @param ctx - channel handler context
+     * @param status - response status
+     * @param content - JSON content, released after it's sent
+     */
+    protected void sendResponse(ChannelHandlerContext ctx, HttpResponseStatus status, ByteBuf content) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "application/json");
+        response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, response.content().readableBytes());
+        if (keepAlive) {
+            response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.warning("Stand-in server error: " + cause.getMessage());
+        ctx.close();
+    }
+}
@@ -0,0 +1,267 @@
+package com.iotracks.server;
+
+import com.iotracks.elements.IOMessage;
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Configuration and state of a synthetic message stream {@link IOFogSimulator} emits to a Container:
+ * rate, distribution of payload sizes, publishers, info type and format, periodic bursts and delivery.
+ * Setters return the stream, so it can be configured in one expression:
+ * <pre>
+ *     new IOFogSyntheticStream("container-id").rate(20000).payloadSize(64, 4096).publishers("p1", "p2")
+ *                                             .burst(10, 200, 5000);
+ * </pre>
+ */
+public class IOFogSyntheticStream {
+
+    /**
+     * How messages reach Container.
+     */
+    public enum Delivery {
+        /** messages are pushed via Message WebSocket, they are dropped while Container isn't connected or can't keep up */
+        WEBSOCKET,
+        /** messages are queued for next unread messages REST call, they are dropped while the queue is full */
+        REST
+    }
+
+    private final String containerId;
+    private volatile double rate = 100;
+    private volatile IntSupplier payloadSize = () -> 128;
+    private volatile String[] publishers = { "simulator" };
+    private volatile String infoType = "simulator/synthetic";
+    private volatile String infoFormat = "application/octet-stream";
+    private volatile double burstFactor = 1;
+    private volatile long burstDurationNanos;
+    private volatile long burstPeriodNanos;
+    private volatile int batchSize = 1;
+    private volatile Delivery delivery = Delivery.WEBSOCKET;
+    private volatile int maxUnread = 10000;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    // generator state, accessed by simulator thread only
+    private long startTime = -1;
+    private long lastTime;
+    private double due;
+    private long publisherIndex;
+
+    /**
+     * @param containerId - Container's ID messages are sent to
+     */
+    public IOFogSyntheticStream(String containerId) {
+        this.containerId = containerId;
+    }
+
+    /**
+     * @param messagesPerSecond - average rate of messages outside of bursts
+     *
+     * @return this stream
+     */
+    public IOFogSyntheticStream rate(double messagesPerSecond) {
+        if (messagesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate can't be negative: " + messagesPerSecond);
+        }
+        this.rate = messagesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param size - size of content of every message
+     *
+     * @return this stream
+     */
+    public IOFogSyntheticStream payloadSize(int size) {
+        checkSize(size);
+        return payloadSize(() -> size);
+    }
+
+    /**
+     * @param min - min size of content (inclusive)
+     * @param max - max size of content (inclusive)
+     *
+     * @return this stream with sizes of content uniformly distributed between min and max
+     */
+    public IOFogSyntheticStream payloadSize(int min, int max) {
+        checkSize(min);
+        if (max < min) {
+            throw new IllegalArgumentException("Max payload size " + max + " is less than min " + min);
+        }
+        return payloadSize(() -> ThreadLocalRandom.current().nextInt(min, max + 1));
+    }
+
+    /**
+     * @param sizes - supplier of content sizes for any other distribution, it's called for every message
+     *
+     * @return this stream
+     */
+    public IOFogSyntheticStream payloadSize(IntSupplier sizes) {
+        this.payloadSize = sizes;
+        return this;
+    }
+
+    /**
+     * @param publishers - publishers of messages, used in turn
+     *
+     * @return this stream
+     */
+    public IOFogSyntheticStream publishers(String... publishers) {
+        if (publishers.length == 0) {
+            throw new IllegalArgumentException("At least one publisher is required.");
+        }
+        this.publishers = publishers.clone();
+        return this;
+    }
+
+    public IOFogSyntheticStream infoType(String infoType) {
+        this.infoType = infoType;
+        return this;
+    }
+
+    public IOFogSyntheticStream infoFormat(String infoFormat) {
+        this.infoFormat = infoFormat;
+        return this;
+    }
+
+    /**
+     * Makes stream emit messages faster for a while periodically, the first burst starts after one period.
+     *
+     * @param factor - rate during burst is rate of the stream multiplied by factor
+     * @param durationMillis - duration of burst
+     * @param periodMillis - time between starts of bursts
+     *
+     * @return this stream
+     */
+    public IOFogSyntheticStream burst(double factor, long durationMillis, long periodMillis) {
+        if (factor < 0 || durationMillis < 0 || periodMillis <= durationMillis) {
+            throw new IllegalArgumentException("Burst should have non-negative factor and duration shorter than period.");
+        }
+        this.burstFactor = factor;
+        this.burstDurationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        this.burstPeriodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        return this;
+    }
+
+    /**
+     * @param batchSize - max number of messages sent in one WebSocket frame, 1 to send every message in its own frame
+     *
+     * @return this stream
+     */
+    public IOFogSyntheticStream batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size should be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public IOFogSyntheticStream delivery(Delivery delivery) {
+        this.delivery = delivery;
+        return this;
+    }
+
+    /**
+     * @param maxUnread - max number of messages queued for REST delivery
+     *
+     * @return this stream
+     */
+    public IOFogSyntheticStream maxUnread(int maxUnread) {
+        this.maxUnread = maxUnread;
+        return this;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    /**
+     * @return number of messages delivered to Container or queued for it
+     */
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    /**
+     * @return number of messages dropped because Container wasn't connected or didn't keep up
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    Delivery getDelivery() {
+        return delivery;
+    }
+
+    int getMaxUnread() {
+        return maxUnread;
+    }
+
+    void onSent(int count) {
+        sent.add(count);
+    }
+
+    void onDropped(int count) {
+        dropped.add(count);
+    }
+
+    /**
+     * Method computes how many messages are due since the previous call.
+     *
+     * @param now - current time in nanoseconds
+     * @param maxLagNanos - max time messages are caught up for after the simulator was delayed
+     *
+     * @return number of messages to emit
+     */
+    int due(long now, long maxLagNanos) {
+        if (startTime < 0) {
+            startTime = now;
+            lastTime = now;
+            return 0;
+        }
+        long elapsed = Math.min(now - lastTime, maxLagNanos);
+        lastTime = now;
+        double currentRate = rate;
+        if (burstPeriodNanos > 0) {
+            long sinceStart = now - startTime;
+            if (sinceStart >= burstPeriodNanos && sinceStart % burstPeriodNanos < burstDurationNanos) {
+                currentRate *= burstFactor;
+            }
+        }
+        due += currentRate * elapsed / TimeUnit.SECONDS.toNanos(1);
+        int count = (int) due;
+        due -= count;
+        return count;
+    }
+
+    /**
+     * Method fills pooled message with the next synthetic message.
+     *
+     * @param message - message to fill
+     * @param payloads - random bytes content is taken from
+     * @param sequence - sequence number of message across the simulator
+     */
+    void fill(IOMessage message, ByteBuf payloads, long sequence) {
+        String[] messagePublishers = publishers;
+        int size = Math.max(0, Math.min(payloadSize.getAsInt(), payloads.capacity()));
+        message.setId(Long.toHexString(sequence));
+        message.setTimestamp(System.currentTimeMillis());
+        message.setPublisher(messagePublishers[(int) (publisherIndex++ % messagePublishers.length)]);
+        message.setInfoType(infoType);
+        message.setInfoFormat(infoFormat);
+        message.setContentData(payloads.slice((int) (sequence % (payloads.capacity() - size + 1)), size));
+    }
+
+    private static void checkSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Payload size can't be negative: " + size);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.iotracks.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Incremental scanner for JSON document that arrives in chunks.
+ * Finds objects inside the array stored under specified top-level key (e.g. "messages")
+ * and hands each of them over as soon as it's complete. Only bytes of the object in progress are kept,
+ * so memory usage doesn't depend on the size of the whole document.
+ */
+public final class ByteBufJsonArrayScanner {
+
+    private final byte[] arrayKey;
+    private final ByteBuf cumulation;
+    private int scanIndex;
+    private int depth;
+    private boolean inString;
+    private boolean escaped;
+    private int stringStart = -1;
+    private boolean keyMatched;
+    private boolean inArray;
+    private int objectStart = -1;
+
+    /**
+     * @param arrayKey - top-level key of the array to scan
+     * @param alloc - allocator for the buffer of incomplete data
+     */
+    public ByteBufJsonArrayScanner(String arrayKey, ByteBufAllocator alloc) {
+        this.arrayKey = arrayKey.getBytes(StandardCharsets.UTF_8);
+        this.cumulation = alloc.buffer();
+    }
+
+    /**
+     * Scans next chunk of the document.
+     *
+     * @param chunk - next chunk of data, isn't retained
+     * @param consumer - called for every complete object of the array with the reader positioned at the object,
+     *                 reader is valid only during the call
+     */
+    public void feed(ByteBuf chunk, Consumer<ByteBufJsonReader> consumer) {
+        cumulation.writeBytes(chunk, chunk.readerIndex(), chunk.readableBytes());
+        int end = cumulation.writerIndex();
+        for (; scanIndex < end; scanIndex++) {
+            byte b = cumulation.getByte(scanIndex);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                    if (stringStart >= 0) {
+                        keyMatched = matchesKey(stringStart, scanIndex);
+                        stringStart = -1;
+                    }
+                }
+                continue;
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    if (depth == 1) {
+                        stringStart = scanIndex + 1;
+                    }
+                    break;
+                case '[':
+                    if (++depth == 2 && keyMatched) {
+                        inArray = true;
+                    }
+                    break;
+                case '{':
+                    if (++depth == 3 && inArray) {
+                        objectStart = scanIndex;
+                    }
+                    break;
+                case '}':
+                    if (--depth == 2 && objectStart >= 0) {
+                        consumer.accept(new ByteBufJsonReader(cumulation, objectStart, scanIndex + 1));
+                        objectStart = -1;
+                    }
+                    break;
+                case ']':
+                    if (--depth == 1) {
+                        inArray = false;
+                    }
+                    break;
+                case ',':
+                    if (depth == 1) {
+                        keyMatched = false;
+                    }
+                    break;
+            }
+        }
+        discard();
+    }
+
+    private boolean matchesKey(int start, int stop) {
+        if (stop - start != arrayKey.length) {
+            return false;
+        }
+        for (int i = 0; i < arrayKey.length; i++) {
+            if (cumulation.getByte(start + i) != arrayKey[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void discard() {
+        int keep = objectStart >= 0 ? objectStart : stringStart >= 0 ? stringStart : scanIndex;
+        if (keep == 0) {
+            return;
+        }
+        cumulation.readerIndex(keep);
+        cumulation.discardReadBytes();
+        scanIndex -= keep;
+        if (objectStart >= 0) {
+            objectStart -= keep;
+        }
+        if (stringStart >= 0) {
+            stringStart -= keep;
+        }
+    }
+
+    /**
+     * Releases buffer of incomplete data.
+     */
+    public void release() {
+        cumulation.release();
+    }
+}
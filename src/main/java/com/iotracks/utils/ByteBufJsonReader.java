@@ -0,0 +1,377 @@
+package com.iotracks.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal pull reader for UTF-8 JSON stored in a {@link ByteBuf}.
+ * Reads values straight from the buffer without building a tree or intermediate strings,
+ * object keys are matched against pre-encoded names.
+ */
+public final class ByteBufJsonReader {
+
+    private final ByteBuf buf;
+    private final int end;
+    private int index;
+    private int valueStart;
+    private int valueEnd;
+    private boolean valueEscaped;
+
+    public ByteBufJsonReader(ByteBuf buf) {
+        this(buf, buf.readerIndex(), buf.writerIndex());
+    }
+
+    /**
+     * @param buf - buffer with JSON
+     * @param index - index of the first byte to read
+     * @param end - index right after the last byte to read
+     */
+    public ByteBufJsonReader(ByteBuf buf, int index, int end) {
+        this.buf = buf;
+        this.index = index;
+        this.end = end;
+    }
+
+    /**
+     * Encodes names to be matched by {@link #nextName(byte[][])}.
+     *
+     * @param names - JSON keys
+     *
+     * @return byte[][]
+     */
+    public static byte[][] names(String... names) {
+        byte[][] result = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            result[i] = names[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    /**
+     * @return index of the next byte to read
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Moves reader back to the index returned by {@link #getIndex()} earlier.
+     *
+     * @param index - index of the next byte to read
+     */
+    public void reset(int index) {
+        this.index = index;
+    }
+
+    public void beginObject() {
+        expect('{');
+    }
+
+    public void endObject() {
+        expect('}');
+    }
+
+    public void beginArray() {
+        expect('[');
+    }
+
+    public void endArray() {
+        expect(']');
+    }
+
+    /**
+     * @return true if current object or array has more members
+     */
+    public boolean hasNext() {
+        int c = peek();
+        if (c == ',') {
+            index++;
+            c = peek();
+        }
+        return c != '}' && c != ']';
+    }
+
+    /**
+     * @return true if next value is an object
+     */
+    public boolean isObject() {
+        return peek() == '{';
+    }
+
+    /**
+     * Reads object's key and following colon.
+     *
+     * @param names - expected keys encoded with {@link #names(String...)}
+     *
+     * @return index of the key in names or -1 for unknown key
+     */
+    public int nextName(byte[][] names) {
+        readString();
+        expect(':');
+        if (!valueEscaped) {
+            int length = valueEnd - valueStart;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].length == length && equals(names[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean equals(byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (buf.getByte(valueStart + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consumes null value if it's next.
+     *
+     * @return true if null was consumed
+     */
+    public boolean nextNull() {
+        if (peek() == 'n') {
+            expectLiteral("null");
+            return true;
+        }
+        return false;
+    }
+
+    public String nextString() {
+        if (peek() != '"') {
+            return nextLiteral();
+        }
+        readString();
+        if (!valueEscaped) {
+            return buf.toString(valueStart, valueEnd - valueStart, CharsetUtil.UTF_8);
+        }
+        return unescape(valueStart, valueEnd);
+    }
+
+    /**
+     * Reads string value, takes it from the cache if it has no escaped characters.
+     *
+     * @param cache - cache of canonical strings
+     *
+     * @return String
+     */
+    public String nextString(StringInternCache cache) {
+        if (peek() != '"') {
+            return nextLiteral();
+        }
+        readString();
+        if (!valueEscaped) {
+            return cache.intern(buf, valueStart, valueEnd - valueStart);
+        }
+        return unescape(valueStart, valueEnd);
+    }
+
+    /**
+     * Reads string value and decodes it from base64 format without building intermediate strings.
+     *
+     * @return byte[]
+     */
+    public byte[] nextBase64() {
+        readString();
+        return IOMessageUtils.decodeBase64(buf, valueStart, valueEnd - valueStart);
+    }
+
+    /**
+     * Reads string value and decodes it from base64 format straight to the buffer.
+     *
+     * @param dst - buffer decoded bytes are written to
+     */
+    public void nextBase64(ByteBuf dst) {
+        readString();
+        IOMessageUtils.decodeBase64(buf, valueStart, valueEnd - valueStart, dst);
+    }
+
+    /**
+     * Reads numeric value. Numbers in strings (e.g. "1466598744000") are accepted as well.
+     *
+     * @return long
+     */
+    public long nextLong() {
+        int start, stop;
+        if (peek() == '"') {
+            readString();
+            start = valueStart;
+            stop = valueEnd;
+        } else {
+            start = index;
+            while (index < end && isLiteralChar(buf.getByte(index))) {
+                index++;
+            }
+            stop = index;
+        }
+        boolean negative = start < stop && buf.getByte(start) == '-';
+        long result = 0;
+        for (int i = negative ? start + 1 : start; i < stop; i++) {
+            byte b = buf.getByte(i);
+            if (b < '0' || b > '9') {
+                return (long) Double.parseDouble(buf.toString(start, stop - start, CharsetUtil.US_ASCII));
+            }
+            result = result * 10 + (b - '0');
+        }
+        if (start == stop) {
+            throw malformed("number expected");
+        }
+        return negative ? -result : result;
+    }
+
+    public int nextInt() {
+        return (int) nextLong();
+    }
+
+    /**
+     * Skips next value of any type including nested objects and arrays.
+     */
+    public void skipValue() {
+        int c = peek();
+        if (c == '"') {
+            readString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    readString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                index++;
+            } while (depth > 0);
+        } else {
+            nextLiteral();
+        }
+    }
+
+    private String nextLiteral() {
+        int start = index;
+        while (index < end && isLiteralChar(buf.getByte(index))) {
+            index++;
+        }
+        if (start == index) {
+            throw malformed("value expected");
+        }
+        return buf.toString(start, index - start, CharsetUtil.US_ASCII);
+    }
+
+    private static boolean isLiteralChar(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '-' || b == '+' || b == '.';
+    }
+
+    private void readString() {
+        expect('"');
+        valueStart = index;
+        valueEscaped = false;
+        if (buf.hasArray()) {
+            readString(buf.array(), buf.arrayOffset());
+            return;
+        }
+        while (index < end) {
+            byte b = buf.getByte(index);
+            if (b == '"') {
+                valueEnd = index++;
+                return;
+            }
+            if (b == '\\') {
+                valueEscaped = true;
+                index++;
+            }
+            index++;
+        }
+        throw malformed("unterminated string");
+    }
+
+    private void readString(byte[] array, int offset) {
+        int i = offset + index;
+        int stop = offset + end;
+        while (i < stop) {
+            byte b = array[i];
+            if (b == '"') {
+                valueEnd = i - offset;
+                index = valueEnd + 1;
+                return;
+            }
+            if (b == '\\') {
+                valueEscaped = true;
+                i++;
+            }
+            i++;
+        }
+        index = end;
+        throw malformed("unterminated string");
+    }
+
+    private String unescape(int start, int stop) {
+        StringBuilder result = new StringBuilder(stop - start);
+        int segment = start;
+        for (int i = start; i < stop; i++) {
+            if (buf.getByte(i) != '\\') {
+                continue;
+            }
+            if (i > segment) {
+                result.append(buf.toString(segment, i - segment, CharsetUtil.UTF_8));
+            }
+            byte c = buf.getByte(++i);
+            switch (c) {
+                case 'b': result.append('\b'); break;
+                case 'f': result.append('\f'); break;
+                case 'n': result.append('\n'); break;
+                case 'r': result.append('\r'); break;
+                case 't': result.append('\t'); break;
+                case 'u':
+                    result.append((char) Integer.parseInt(buf.toString(i + 1, 4, CharsetUtil.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default: result.append((char) c);
+            }
+            segment = i + 1;
+        }
+        if (stop > segment) {
+            result.append(buf.toString(segment, stop - segment, CharsetUtil.UTF_8));
+        }
+        return result.toString();
+    }
+
+    private int peek() {
+        while (index < end) {
+            byte b = buf.getByte(index);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b;
+            }
+            index++;
+        }
+        throw malformed("unexpected end of data");
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw malformed("'" + c + "' expected");
+        }
+        index++;
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (index >= end || buf.getByte(index++) != literal.charAt(i)) {
+                throw malformed(literal + " expected");
+            }
+        }
+    }
+
+    private IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException("Malformed JSON at " + index + ": " + reason);
+    }
+}
@@ -1,8 +1,11 @@
 package com.iotracks.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Utils class for convenient byte transformations.
@@ -11,15 +14,7 @@ import java.nio.ByteBuffer;
 public class ByteUtils {
 
     public static byte[] copyOfRange(byte[] src, int from, int to) {
-        byte[] tmp = new byte[from];
-        byte[] result = new byte[to - from];
-        ByteArrayInputStream input = new ByteArrayInputStream(src);
-        input.read(tmp, 0, tmp.length);
-        input.read(result, 0, result.length);
-        try {
-            input.close();
-        } catch (IOException e) {}
-        return result;
+        return Arrays.copyOfRange(src, from, to);
     }
 
     public static byte[] longToBytes(long x) {
@@ -38,6 +33,21 @@ public class ByteUtils {
         return result;
     }
 
+    public static long bytesToLong(ByteBuf buf, int index, int length) {
+        switch (length) {
+            case 8:
+                return buf.getLong(index);
+            case 4:
+                return buf.getUnsignedInt(index);
+            default:
+                long result = 0;
+                for (int i = index; i < index + length; i++) {
+                    result = (result << 8) + buf.getUnsignedByte(i);
+                }
+                return result;
+        }
+    }
+
     public static byte[] integerToBytes(int x) {
         byte[] b = new byte[4];
         for (int i = 0; i < 4; ++i) {
@@ -74,11 +84,76 @@ public class ByteUtils {
         if (s == null)
             return new byte[] {};
         else
-            return s.getBytes();
+            return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes UTF-8 representation of char sequence to buffer without intermediate arrays.
+     * Unlike {@link io.netty.buffer.ByteBufUtil#writeUtf8} never reserves more space than it writes,
+     * so pre-sized buffers are not reallocated.
+     *
+     * @return number of written bytes
+     */
+    public static int writeUtf8(ByteBuf buf, CharSequence s) {
+        return writeUtf8(buf, s, 0, s.length());
+    }
+
+    /**
+     * Writes UTF-8 representation of chars from start (inclusive) to end (exclusive) of the sequence.
+     *
+     * @return number of written bytes
+     */
+    public static int writeUtf8(ByteBuf buf, CharSequence s, int from, int to) {
+        int start = buf.writerIndex();
+        int len = to;
+        for (int i = from; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf.writeByte(c);
+            } else if (c < 0x800) {
+                buf.writeByte(0xc0 | (c >> 6));
+                buf.writeByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buf.writeByte(0xf0 | (codePoint >> 18));
+                buf.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                buf.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                buf.writeByte(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buf.writeByte('?');
+            } else {
+                buf.writeByte(0xe0 | (c >> 12));
+                buf.writeByte(0x80 | ((c >> 6) & 0x3f));
+                buf.writeByte(0x80 | (c & 0x3f));
+            }
+        }
+        return buf.writerIndex() - start;
+    }
+
+    /**
+     * @return number of bytes in UTF-8 representation of char sequence
+     */
+    public static int utf8Length(CharSequence s) {
+        int len = s.length();
+        int result = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    result += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    result += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    result += 2;
+                }
+            }
+        }
+        return result;
     }
 
     public static String bytesToString(byte[] bytes) {
-        return new String(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     public static String byteArrayToString(byte[] bytes) {
@@ -100,6 +175,93 @@ public class ByteUtils {
     }
 
     public static int getLength(String s){
-        return s!=null ? s.length() : 0;
+        return s!=null ? utf8Length(s) : 0;
+    }
+
+    /**
+     * Computes FNV-1a hash of bytes in the buffer without copying them.
+     *
+     * @param buf - buffer with bytes
+     * @param index - index of the first byte
+     * @param length - number of bytes
+     *
+     * @return hash
+     */
+    public static int hash(ByteBuf buf, int index, int length) {
+        int hash = 0x811c9dc5;
+        if (buf.hasArray()) {
+            byte[] array = buf.array();
+            int offset = buf.arrayOffset() + index;
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ array[i]) * 0x01000193;
+            }
+        } else {
+            for (int i = index; i < index + length; i++) {
+                hash = (hash ^ buf.getByte(i)) * 0x01000193;
+            }
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Computes hash of bytes the same way as {@link #hash(ByteBuf, int, int)}.
+     *
+     * @param bytes - bytes
+     *
+     * @return hash
+     */
+    public static int hash(byte[] bytes) {
+        return hash(Unpooled.wrappedBuffer(bytes), 0, bytes.length);
+    }
+
+    /**
+     * Compares bytes in the buffer with array without copying them.
+     *
+     * @param buf - buffer with bytes
+     * @param index - index of the first byte
+     * @param length - number of bytes
+     * @param bytes - array to compare with
+     *
+     * @return true if bytes are equal
+     */
+    public static boolean equals(ByteBuf buf, int index, int length, byte[] bytes) {
+        if (bytes.length != length) {
+            return false;
+        }
+        if (buf.hasArray()) {
+            byte[] array = buf.array();
+            int offset = buf.arrayOffset() + index;
+            for (int i = 0; i < length; i++) {
+                if (array[offset + i] != bytes[i]) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (buf.getByte(index + i) != bytes[i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Searches the last occurrence of array in the buffer's range without copying bytes.
+     *
+     * @param buf - buffer with bytes
+     * @param index - index of the first byte of the range
+     * @param length - length of the range
+     * @param bytes - array to search
+     *
+     * @return position of the occurrence relative to index or -1 if there is no such occurrence
+     */
+    public static int lastIndexOf(ByteBuf buf, int index, int length, byte[] bytes) {
+        for (int i = length - bytes.length; i >= 0; i--) {
+            if (equals(buf, index + i, bytes.length, bytes)) {
+                return i;
+            }
+        }
+        return -1;
     }
 }
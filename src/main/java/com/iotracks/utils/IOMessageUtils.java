@@ -1,5 +1,9 @@
 package com.iotracks.utils;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -44,4 +48,234 @@ public class IOMessageUtils {
             return null;
         }
     }
+
+    private static final byte[] BASE64_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+    private static final int[] BASE64_VALUES = new int[256];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+        }
+    }
+
+    /**
+     * Method to encode bytes to base64 format straight into destination buffer.
+     *
+     * @param src - buffer with bytes to be encoded
+     * @param index - index of the first byte to encode
+     * @param length - number of bytes to encode
+     * @param dst - buffer encoded bytes are written to
+     */
+    public static void encodeBase64(ByteBuf src, int index, int length, ByteBuf dst) {
+        dst.ensureWritable(getBase64Length(length));
+        if (src.hasArray() && dst.hasArray()) {
+            encodeBase64(src.array(), src.arrayOffset() + index, length, dst);
+            return;
+        }
+        int end = index + length - length % 3;
+        int i = index;
+        for (; i < end; i += 3) {
+            int bits = src.getUnsignedByte(i) << 16 | src.getUnsignedByte(i + 1) << 8 | src.getUnsignedByte(i + 2);
+            dst.writeByte(BASE64_ALPHABET[bits >>> 18]);
+            dst.writeByte(BASE64_ALPHABET[(bits >>> 12) & 0x3f]);
+            dst.writeByte(BASE64_ALPHABET[(bits >>> 6) & 0x3f]);
+            dst.writeByte(BASE64_ALPHABET[bits & 0x3f]);
+        }
+        int remaining = index + length - i;
+        if (remaining > 0) {
+            int bits = src.getUnsignedByte(i) << 16 | (remaining == 2 ? src.getUnsignedByte(i + 1) << 8 : 0);
+            dst.writeByte(BASE64_ALPHABET[bits >>> 18]);
+            dst.writeByte(BASE64_ALPHABET[(bits >>> 12) & 0x3f]);
+            dst.writeByte(remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : '=');
+            dst.writeByte('=');
+        }
+    }
+
+    private static void encodeBase64(byte[] src, int index, int length, ByteBuf dst) {
+        byte[] out = dst.array();
+        int pos = dst.arrayOffset() + dst.writerIndex();
+        int start = pos;
+        int end = index + length - length % 3;
+        int i = index;
+        for (; i < end; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            out[pos++] = BASE64_ALPHABET[bits >>> 18];
+            out[pos++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            out[pos++] = BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+            out[pos++] = BASE64_ALPHABET[bits & 0x3f];
+        }
+        int remaining = index + length - i;
+        if (remaining > 0) {
+            int bits = (src[i] & 0xff) << 16 | (remaining == 2 ? (src[i + 1] & 0xff) << 8 : 0);
+            out[pos++] = BASE64_ALPHABET[bits >>> 18];
+            out[pos++] = BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+            out[pos++] = remaining == 2 ? BASE64_ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+            out[pos++] = '=';
+        }
+        dst.writerIndex(dst.writerIndex() + pos - start);
+    }
+
+    /**
+     * Method to decode bytes from base64 format straight from the buffer.
+     * Backslashes are ignored, so value of JSON string with escaped slashes ("\/") can be passed as is.
+     *
+     * @param src - buffer with bytes to be decoded
+     * @param index - index of the first byte to decode
+     * @param length - number of bytes to decode
+     *
+     * @return byte[]
+     *
+     * @throws IllegalArgumentException if data is not in base64 format
+     */
+    public static byte[] decodeBase64(ByteBuf src, int index, int length) {
+        byte[] result = new byte[getMaxDecodedBase64Length(src, index, length)];
+        ByteBuf dst = Unpooled.wrappedBuffer(result).clear();
+        decodeBase64(src, index, length, dst);
+        return dst.writerIndex() == result.length ? result : Arrays.copyOf(result, dst.writerIndex());
+    }
+
+    /**
+     * Method to decode bytes from base64 format straight from the source buffer to destination buffer.
+     * Backslashes are ignored, so value of JSON string with escaped slashes ("\/") can be passed as is.
+     *
+     * @param src - buffer with bytes to be decoded
+     * @param index - index of the first byte to decode
+     * @param length - number of bytes to decode
+     * @param dst - buffer decoded bytes are written to
+     *
+     * @throws IllegalArgumentException if data is not in base64 format
+     */
+    public static void decodeBase64(ByteBuf src, int index, int length, ByteBuf dst) {
+        if (src.hasArray() && dst.hasArray()) {
+            int max = getMaxDecodedBase64Length(src, index, length);
+            dst.ensureWritable(max);
+            decodeBase64(src.array(), src.arrayOffset() + index, length, max, dst);
+            return;
+        }
+        int remaining = getDecodedBase64Length(src, index, length);
+        dst.ensureWritable(remaining);
+        int bits = 0;
+        int count = 0;
+        for (int i = index; i < index + length && remaining > 0; i++) {
+            byte b = src.getByte(i);
+            if (b == '\\') {
+                continue;
+            }
+            if (b == '=') {
+                break;
+            }
+            int value = BASE64_VALUES[b & 0xff];
+            if (value < 0) {
+                throw new IllegalArgumentException("Illegal base64 character: " + (char) b);
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                remaining -= writeBits(dst, bits, Math.min(remaining, 3));
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count > 0 && remaining > 0) {
+            writeBits(dst, bits << 6 * (4 - count), Math.min(remaining, 2));
+        }
+    }
+
+    private static void decodeBase64(byte[] src, int index, int length, int remaining, ByteBuf dst) {
+        byte[] out = dst.array();
+        int pos = dst.arrayOffset() + dst.writerIndex();
+        int limit = pos + remaining;
+        int end = index + length;
+        int i = index;
+        while (limit - pos >= 3 && end - i >= 4) {
+            int bits = value(src[i]) << 18 | value(src[i + 1]) << 12 | value(src[i + 2]) << 6 | value(src[i + 3]);
+            if (bits < 0) {
+                break;
+            }
+            out[pos++] = (byte) (bits >> 16);
+            out[pos++] = (byte) (bits >> 8);
+            out[pos++] = (byte) bits;
+            i += 4;
+        }
+        int bits = 0;
+        int count = 0;
+        for (; i < end && pos < limit; i++) {
+            byte b = src[i];
+            if (b == '\\') {
+                continue;
+            }
+            if (b == '=') {
+                break;
+            }
+            int value = value(b);
+            if (value < 0) {
+                throw new IllegalArgumentException("Illegal base64 character: " + (char) b);
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                for (int k = 0; k < 3 && pos < limit; k++) {
+                    out[pos++] = (byte) (bits >> (16 - 8 * k));
+                }
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            bits <<= 6 * (4 - count);
+            for (int k = 0; k < count - 1 && pos < limit; k++) {
+                out[pos++] = (byte) (bits >> (16 - 8 * k));
+            }
+        }
+        dst.writerIndex(pos - dst.arrayOffset());
+    }
+
+    private static int value(byte b) {
+        return BASE64_VALUES[b & 0xff];
+    }
+
+    private static int writeBits(ByteBuf dst, int bits, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            dst.writeByte(bits >> (16 - 8 * i));
+        }
+        return bytes;
+    }
+
+    /**
+     * @return length of decoded data assuming there are no backslashes, so it's exact for unescaped data
+     */
+    private static int getMaxDecodedBase64Length(ByteBuf src, int index, int length) {
+        int padding = 0;
+        while (padding < length && src.getByte(index + length - 1 - padding) == '=') {
+            padding++;
+        }
+        if (padding > 2) {
+            throw new IllegalArgumentException("Illegal base64 padding.");
+        }
+        return (length - padding) * 3 / 4;
+    }
+
+    private static int getDecodedBase64Length(ByteBuf src, int index, int length) {
+        int symbols = 0;
+        int padding = 0;
+        for (int i = index; i < index + length; i++) {
+            byte b = src.getByte(i);
+            if (b == '=') {
+                padding++;
+            } else if (b != '\\') {
+                symbols++;
+            }
+        }
+        if (padding > 2) {
+            throw new IllegalArgumentException("Illegal base64 padding.");
+        }
+        return symbols * 3 / 4;
+    }
+
+    /**
+     * @return number of bytes base64 representation of data of specified length takes
+     */
+    public static int getBase64Length(int length) {
+        return (length + 2) / 3 * 4;
+    }
 }
@@ -0,0 +1,225 @@
+package com.iotracks.utils;
+
+/**
+ * Fast LZ77 compressor in LZ4 block layout: each sequence is a token
+ * (literals length in high 4 bits, match length - 4 in low 4 bits), extra length bytes, literals,
+ * 2-byte little-endian match offset and extra match length bytes. Last sequence has literals only.
+ * Compressed block starts with varint length of uncompressed data.
+ */
+public final class LZCompressor {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    // a sequence can't decode to more than 255 bytes per compressed byte
+    private static final int MAX_RATIO = 255;
+
+    private LZCompressor() { }
+
+    /**
+     * @param length - length of uncompressed data
+     *
+     * @return max length of compressed data
+     */
+    public static int maxCompressedLength(int length) {
+        return 5 + length + length / 255 + 16;
+    }
+
+    /**
+     * Method compresses data.
+     *
+     * @param src - array with data
+     * @param offset - index of the first byte
+     * @param length - number of bytes
+     *
+     * @return compressed data
+     */
+    public static byte[] compress(byte[] src, int offset, int length) {
+        byte[] dst = new byte[maxCompressedLength(length)];
+        int d = writeVarInt(dst, 0, length);
+        int end = offset + length;
+        int limit = end - MATCH_LIMIT;
+        int anchor = offset;
+        int[] table = new int[1 << HASH_BITS];
+        int i = offset;
+        while (i < limit) {
+            int seq = readInt(src, i);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h] - 1;
+            table[h] = i + 1;
+            if (ref < offset || i - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (i + matchLength < end - LAST_LITERALS && src[ref + matchLength] == src[i + matchLength]) {
+                matchLength++;
+            }
+            d = writeSequence(src, anchor, i - anchor, dst, d, i - ref, matchLength);
+            i += matchLength;
+            anchor = i;
+        }
+        d = writeSequence(src, anchor, end - anchor, dst, d, 0, 0);
+        byte[] result = new byte[d];
+        System.arraycopy(dst, 0, result, 0, d);
+        return result;
+    }
+
+    /**
+     * Method decompresses data created by {@link #compress(byte[], int, int)}.
+     *
+     * @param src - compressed data
+     *
+     * @return decompressed data
+     */
+    public static byte[] decompress(byte[] src) {
+        return decompress(src, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Method decompresses data created by {@link #compress(byte[], int, int)}.
+     * Declared length of decompressed data is checked before it's allocated.
+     *
+     * @param src - compressed data
+     * @param maxLength - max length of decompressed data
+     *
+     * @return decompressed data
+     *
+     * @throws IllegalArgumentException if data is malformed or its declared length is bigger than maxLength
+     *                                  or than compressed data could hold
+     */
+    public static byte[] decompress(byte[] src, int maxLength) {
+        int[] pos = new int[1];
+        int length = readVarInt(src, pos);
+        if (length > maxLength || length > (long) (src.length - pos[0]) * MAX_RATIO) {
+            throw new IllegalArgumentException("Declared length of decompressed data is too big: " + length + " bytes.");
+        }
+        byte[] dst = new byte[length];
+        int s = pos[0];
+        int d = 0;
+        try {
+            while (s < src.length) {
+                int token = src[s++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, s, dst, d, literals);
+                s += literals;
+                d += literals;
+                if (s == src.length) {
+                    break;
+                }
+                int matchOffset = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+                s += 2;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                int ref = d - matchOffset;
+                if (matchOffset == 0 || ref < 0 || d + matchLength > length) {
+                    throw new IllegalArgumentException("Malformed compressed data.");
+                }
+                for (int k = 0; k < matchLength; k++) {
+                    dst[d++] = dst[ref + k];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Malformed compressed data.", e);
+        }
+        if (d != length) {
+            throw new IllegalArgumentException("Malformed compressed data.");
+        }
+        return dst;
+    }
+
+    private static int writeSequence(byte[] src, int literalsStart, int literals, byte[] dst, int d,
+                                     int matchOffset, int matchLength) {
+        int tokenIndex = d++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) {
+            d = writeLength(dst, d, literals - 15);
+        }
+        System.arraycopy(src, literalsStart, dst, d, literals);
+        d += literals;
+        if (matchLength > 0) {
+            dst[d++] = (byte) matchOffset;
+            dst[d++] = (byte) (matchOffset >>> 8);
+            int extra = matchLength - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) {
+                d = writeLength(dst, d, extra - 15);
+            }
+        }
+        dst[tokenIndex] = (byte) token;
+        return d;
+    }
+
+    private static int writeLength(byte[] dst, int d, int length) {
+        while (length >= 255) {
+            dst[d++] = (byte) 255;
+            length -= 255;
+        }
+        dst[d++] = (byte) length;
+        return d;
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF) << 16 | src[i + 3] << 24;
+    }
+
+    /**
+     * Method writes non-negative int in varint format (7 bits per byte).
+     *
+     * @param dst - target array
+     * @param d - index to write at
+     * @param value - value to write
+     *
+     * @return index after written bytes
+     */
+    public static int writeVarInt(byte[] dst, int d, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst[d++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[d++] = (byte) value;
+        return d;
+    }
+
+    /**
+     * Method reads int written by {@link #writeVarInt(byte[], int, int)}.
+     *
+     * @param src - source array
+     * @param pos - single element array with index to read at, updated to index after read bytes
+     *
+     * @return value
+     */
+    public static int readVarInt(byte[] src, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (pos[0] >= src.length) {
+                break;
+            }
+            byte b = src[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed compressed data.");
+    }
+}
@@ -0,0 +1,132 @@
+package com.iotracks.utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded lock-free cache of Strings decoded from UTF-8 bytes.
+ * Bytes are hashed and compared straight in the buffer, so a hit doesn't allocate anything
+ * and returns the canonical String instance. The table is direct-mapped: a colliding entry simply
+ * replaces the previous one, so memory usage never exceeds the capacity.
+ *
+ * Decoders of {@link com.iotracks.elements.IOMessage} use the {@link #getDefault() default} cache
+ * for fields with few distinct values (publisher, tag, infoType, infoFormat, authGroup).
+ * Its capacity can be set with "iotracks.intern.capacity" system property (0 disables it).
+ */
+public final class StringInternCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int MAX_LENGTH = 128;
+
+    private static volatile StringInternCache defaultCache =
+            new StringInternCache(Integer.getInteger("iotracks.intern.capacity", DEFAULT_CAPACITY));
+
+    private final AtomicReferenceArray<Entry> table;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity - max number of cached Strings, rounded up to power of two (0 disables caching)
+     */
+    public StringInternCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity should not be negative.");
+        }
+        int size = capacity == 0 ? 0 : Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        table = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    public static StringInternCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Replaces the cache used by message decoders.
+     *
+     * @param cache - new default cache
+     */
+    public static void setDefault(StringInternCache cache) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache should not be null.");
+        }
+        defaultCache = cache;
+    }
+
+    /**
+     * Returns canonical String for UTF-8 bytes of the buffer.
+     *
+     * @param buf - buffer with bytes
+     * @param index - index of the first byte
+     * @param length - number of bytes
+     *
+     * @return String
+     */
+    public String intern(ByteBuf buf, int index, int length) {
+        if (length == 0) {
+            return "";
+        }
+        if (mask < 0 || length > MAX_LENGTH) {
+            return buf.toString(index, length, CharsetUtil.UTF_8);
+        }
+        int hash = ByteUtils.hash(buf, index, length);
+        int slot = hash & mask;
+        Entry entry = table.get(slot);
+        if (entry != null && entry.hash == hash && entry.matches(buf, index, length)) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        byte[] bytes = new byte[length];
+        buf.getBytes(index, bytes);
+        String value = new String(bytes, CharsetUtil.UTF_8);
+        table.lazySet(slot, new Entry(hash, bytes, value));
+        return value;
+    }
+
+    public int getCapacity() {
+        return table.length();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return share of lookups answered from the cache (0 if there were no lookups)
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+    }
+
+    private static final class Entry {
+        private final int hash;
+        private final byte[] bytes;
+        private final String value;
+
+        Entry(int hash, byte[] bytes, String value) {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.value = value;
+        }
+
+        boolean matches(ByteBuf buf, int index, int length) {
+            return ByteUtils.equals(buf, index, length, bytes);
+        }
+    }
+}
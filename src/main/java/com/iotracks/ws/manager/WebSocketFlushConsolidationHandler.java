@@ -0,0 +1,178 @@
+package com.iotracks.ws.manager;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consolidates flushes of WebSocket connection, so small frames (messages, ACKs, receipts, pings) written one by one
+ * reach the socket in one write syscall instead of one each. Frames are only written to the socket later, never reordered.
+ *
+ * Flushes requested while a read is in progress (e.g. ACK or receipt for received frame) are done once the read completes.
+ * Other flushes are done once the event loop finishes tasks queued so far (frames written in the same tick),
+ * or after up to max delay, depending on mode:
+ * <ul>
+ *     <li>LATENCY - flushes aren't delayed beyond the current tick</li>
+ *     <li>THROUGHPUT - flushes are delayed by max delay, so frames written in the meantime go with them</li>
+ *     <li>ADAPTIVE - flushes are delayed only while they're requested more often than max delay on average,
+ *     that is while waiting saves syscalls, low rates get latency of LATENCY mode</li>
+ * </ul>
+ * Pending flush is done right away once {@link #MAX_PENDING_FLUSHES} flushes were requested, when the connection
+ * becomes unwritable and before it's closed.
+ */
+public class WebSocketFlushConsolidationHandler extends ChannelDuplexHandler {
+
+    public static final long DEFAULT_MAX_DELAY_MICROS = 50;
+    public static final int MAX_PENDING_FLUSHES = 256;
+
+    /**
+     * How long flushes can wait for more frames.
+     */
+    public enum Mode {
+        LATENCY,
+        THROUGHPUT,
+        ADAPTIVE
+    }
+
+    private static final int AVERAGE_WEIGHT_SHIFT = 3;
+
+    private final Mode mode;
+    private final long maxDelayNanos;
+    private ChannelHandlerContext ctx;
+    private boolean readInProgress;
+    private boolean flushScheduled;
+    private int pendingFlushes;
+    private ScheduledFuture<?> delayedFlush;
+    private long lastFlushRequest;
+    private long averageInterval = Long.MAX_VALUE;
+    private final Runnable flushTask = () -> {
+        flushScheduled = false;
+        delayedFlush = null;
+        if (pendingFlushes > 0 && !readInProgress) {
+            flushNow();
+        }
+    };
+
+    public WebSocketFlushConsolidationHandler() {
+        this(Mode.ADAPTIVE, DEFAULT_MAX_DELAY_MICROS);
+    }
+
+    /**
+     * @param mode - how long flushes can wait for more frames
+     * @param maxDelayMicros - max time flush is delayed by in THROUGHPUT and ADAPTIVE modes
+     */
+    public WebSocketFlushConsolidationHandler(Mode mode, long maxDelayMicros) {
+        if (mode == null || maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Mode should be set and max delay can't be negative.");
+        }
+        this.mode = mode;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (pendingFlushes > 0) {
+            flushNow();
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        long now = System.nanoTime();
+        if (lastFlushRequest != 0) {
+            long interval = now - lastFlushRequest;
+            averageInterval = averageInterval == Long.MAX_VALUE ? interval
+                    : averageInterval + ((interval - averageInterval) >> AVERAGE_WEIGHT_SHIFT);
+        }
+        lastFlushRequest = now;
+        if (++pendingFlushes >= MAX_PENDING_FLUSHES || !ctx.channel().isWritable()) {
+            flushNow();
+            return;
+        }
+        if (readInProgress || flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        if (isDelayed()) {
+            delayedFlush = ctx.executor().schedule(flushTask, maxDelayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            ctx.executor().execute(flushTask);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        readInProgress = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        readInProgress = false;
+        if (pendingFlushes > 0) {
+            flushNow();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        if (!ctx.channel().isWritable() && pendingFlushes > 0) {
+            flushNow();
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (pendingFlushes > 0) {
+            flushNow();
+        }
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        if (pendingFlushes > 0) {
+            flushNow();
+        }
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        if (pendingFlushes > 0) {
+            flushNow();
+        }
+        ctx.close(promise);
+    }
+
+    private boolean isDelayed() {
+        switch (mode) {
+            case THROUGHPUT:
+                return maxDelayNanos > 0;
+            case ADAPTIVE:
+                return maxDelayNanos > 0 && averageInterval < maxDelayNanos;
+            default:
+                return false;
+        }
+    }
+
+    private void flushNow() {
+        if (delayedFlush != null) {
+            delayedFlush.cancel(false);
+            delayedFlush = null;
+            flushScheduled = false;
+        }
+        pendingFlushes = 0;
+        ctx.flush();
+    }
+}
@@ -1,14 +1,23 @@
 package com.iotracks.ws.manager;
 
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageBatch;
+import com.iotracks.elements.IOMessageFilter;
+import com.iotracks.elements.IOMessageHeader;
+import com.iotracks.elements.IOMessageReassembler;
 import com.iotracks.utils.ByteUtils;
 import com.iotracks.ws.manager.listener.WebSocketManagerListener;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.websocketx.*;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -27,6 +36,16 @@ public class WebSocketManager {
     public static final Byte OPCODE_CONTROL_SIGNAL = 0xC;
     public static final Byte OPCODE_MSG = 0xD;
     public static final Byte OPCODE_RECEIPT = 0xE;
+    public static final Byte OPCODE_MSG_BATCH = 0xF;
+
+    private static final int MSG_PREFIX_SIZE = 5;
+    private static final int BATCH_ENTRY_PREFIX_SIZE = 4;
+    /**
+     * Default max payload of frames received on accepted connections: batches written by
+     * {@link com.iotracks.api.client.IOFogOutboundQueue} with its default high water mark and some more.
+     * Bigger messages should be split by {@link com.iotracks.elements.IOMessageFragmenter}.
+     */
+    public static final int DEFAULT_MAX_FRAME_PAYLOAD_LENGTH = 16 << 20;
 
     private Map<String, ChannelHandlerContext> mControlWebsocketMap;
     private Map<String, ChannelHandlerContext> mMessageWebsocketMap;
@@ -35,6 +54,7 @@ public class WebSocketManager {
     private Set<ChannelHandlerContext> mPingSendMap;
 
     private WebSocketManagerListener wsListener;
+    private volatile int maxFramePayloadLength = DEFAULT_MAX_FRAME_PAYLOAD_LENGTH;
 
     public WebSocketManager(WebSocketManagerListener wsListener){
         mControlWebsocketMap = new ConcurrentHashMap<>();
@@ -55,31 +75,270 @@ public class WebSocketManager {
         }
     }
 
+    public void sendMessage(String publisherId, IOMessage pMessage){
+        ChannelHandlerContext ctx = mMessageWebsocketMap.get(publisherId);
+        if (ctx != null){
+            sendMessage(ctx, pMessage);
+        }else{
+            new IllegalArgumentException("Context not found.");
+        }
+    }
+
     public void sendMessage(ChannelHandlerContext pCtx, byte[] pData){
-        byte[] header = new byte[5];
-        byte[] bLenArr = ByteUtils.integerToBytes(pData.length);
-        header[0] = OPCODE_MSG;
-        header[1] = bLenArr[0];
-        header[2] = bLenArr[1];
-        header[3] = bLenArr[2];
-        header[4] = bLenArr[3];
-
-        byte[] msg = new byte[header.length + pData.length];
-        int i = 0;
-        for(byte b : header){
-            msg[i] = b;
-            i++;
-        }
-        for(byte b : pData){
-            msg[i] = b;
-            i++;
-        }
-        sendBinaryFrame(pCtx, msg);
+        ByteBuf buffer1 = pCtx.alloc().directBuffer(MSG_PREFIX_SIZE + pData.length);
+        buffer1.writeByte(OPCODE_MSG);
+        buffer1.writeInt(pData.length);
+        buffer1.writeBytes(pData);
+        sendBinaryFrame(pCtx, buffer1);
+        if (!mMessageSendContextMap.containsKey(pCtx)) {
+            // decoded only if its receipt is asked for
+            mMessageSendContextMap.putIfAbsent(pCtx, new AckMarker(pData));
+        }
+    }
 
-        AckMarker marker = mMessageSendContextMap.get(pCtx);
-        if(marker == null){
-            marker = new AckMarker(10, pData);
-            mMessageSendContextMap.put(pCtx, marker);
+    /**
+     * Encodes message straight into a single pre-sized pooled buffer (opcode, length and message)
+     * and sends it as a binary frame.
+     *
+     * @param pCtx - message socket context
+     * @param pMessage - message to send
+     */
+    public void sendMessage(ChannelHandlerContext pCtx, IOMessage pMessage){
+        sendBinaryFrame(pCtx, encodeMessage(pCtx.alloc(), pMessage));
+        markSent(pCtx, Collections.singletonList(pMessage));
+    }
+
+    /**
+     * Encodes message into a single pre-sized pooled buffer: opcode, length and message.
+     *
+     * @param alloc - allocator of the buffer
+     * @param pMessage - message to encode
+     *
+     * @return content of message frame
+     */
+    public static ByteBuf encodeMessage(ByteBufAllocator alloc, IOMessage pMessage){
+        int length = pMessage.getEncodedLength();
+        ByteBuf buffer1 = alloc.directBuffer(MSG_PREFIX_SIZE + length);
+        try {
+            buffer1.writeByte(OPCODE_MSG);
+            buffer1.writeInt(length);
+            pMessage.encodeTo(buffer1);
+        } catch (RuntimeException e) {
+            buffer1.release();
+            throw e;
+        }
+        return buffer1;
+    }
+
+    /**
+     * Writes message frame encoded by {@link #encodeMessage} or {@link #encodeMessages} without flushing it.
+     * Unlike send methods it doesn't mark the message as awaiting ACK, the caller tracks its receipts
+     * (see {@link com.iotracks.api.client.IOFogOutboundQueue}).
+     *
+     * @param pCtx - message socket context
+     * @param pContent - content of the frame
+     *
+     * @return future of the write
+     */
+    public ChannelFuture writeMessageFrame(ChannelHandlerContext pCtx, ByteBuf pContent){
+        return pCtx.channel().write(new BinaryWebSocketFrame(pContent));
+    }
+
+    public void sendMessages(String publisherId, List<IOMessage> pMessages){
+        ChannelHandlerContext ctx = mMessageWebsocketMap.get(publisherId);
+        if (ctx != null){
+            sendMessages(ctx, pMessages);
+        }else{
+            new IllegalArgumentException("Context not found.");
+        }
+    }
+
+    /**
+     * Encodes messages into a single batch frame: opcode, number of messages,
+     * then length and encoded message for each of them. Whole batch is acknowledged with a single ACK,
+     * receipts of its messages are matched to them in order (see {@link #onReceipt}).
+     *
+     * @param pCtx - message socket context
+     * @param pMessages - messages to send
+     */
+    public void sendMessages(ChannelHandlerContext pCtx, List<IOMessage> pMessages){
+        if (pMessages.isEmpty()) {
+            return;
+        }
+        sendBinaryFrame(pCtx, encodeMessages(pCtx.alloc(), pMessages));
+        markSent(pCtx, pMessages);
+    }
+
+    /**
+     * Encodes messages into a single pre-sized pooled buffer: opcode, number of messages,
+     * then length and encoded message for each of them.
+     *
+     * @param alloc - allocator of the buffer
+     * @param pMessages - messages to encode
+     *
+     * @return content of batch frame
+     */
+    public static ByteBuf encodeMessages(ByteBufAllocator alloc, List<IOMessage> pMessages){
+        int[] lengths = new int[pMessages.size()];
+        long total = MSG_PREFIX_SIZE;
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = pMessages.get(i).getEncodedLength();
+            total += BATCH_ENTRY_PREFIX_SIZE + lengths[i];
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Batch is too big to be sent in one frame.");
+        }
+        ByteBuf buffer1 = alloc.directBuffer((int) total);
+        try {
+            buffer1.writeByte(OPCODE_MSG_BATCH);
+            buffer1.writeInt(lengths.length);
+            for (int i = 0; i < lengths.length; i++) {
+                buffer1.writeInt(lengths[i]);
+                pMessages.get(i).encodeTo(buffer1);
+            }
+        } catch (RuntimeException e) {
+            buffer1.release();
+            throw e;
+        }
+        return buffer1;
+    }
+
+    /**
+     * Method creates views over messages of the batch frame (opcode, number of messages, then length and message for each).
+     *
+     * @param content - content of the frame
+     * @param pooledMessages - if messages should be taken from the pool of {@link IOMessage}
+     *
+     * @return list of messages, they should be released when processed
+     */
+    public static List<IOMessage> readBatch(ByteBuf content, boolean pooledMessages) {
+        return readBatch(content, pooledMessages, null);
+    }
+
+    /**
+     * Method creates views over messages of the batch frame accepted by the filter.
+     *
+     * @param content - content of the frame
+     * @param pooledMessages - if messages should be taken from the pool of {@link IOMessage}
+     * @param filter - filter of messages, rejected messages are skipped without decoding, null to accept all
+     *
+     * @return list of messages, they should be released when processed
+     */
+    public static List<IOMessage> readBatch(ByteBuf content, boolean pooledMessages, IOMessageFilter filter) {
+        int pos = content.readerIndex() + 1;
+        int count = content.getInt(pos);
+        pos += 4;
+        if (count < 0 || count > (content.writerIndex() - pos) / 4) {
+            throw new IllegalArgumentException("Malformed message batch.");
+        }
+        List<IOMessage> messages = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                int length = content.getInt(pos);
+                pos += 4;
+                if (length < 0 || length > content.writerIndex() - pos) {
+                    throw new IllegalArgumentException("Malformed message batch.");
+                }
+                if (filter != null && !filter.matches(content, pos)) {
+                    pos += length;
+                    continue;
+                }
+                ByteBuf messageBuf = content.slice(pos, length);
+                pos += length;
+                IOMessage message = pooledMessages ? IOMessage.obtain(messageBuf) : new IOMessage(messageBuf);
+                messages.add(message);
+            }
+        } catch (RuntimeException e) {
+            messages.forEach(IOMessage::release);
+            throw e;
+        }
+        return messages;
+    }
+
+    /**
+     * Method reads messages of the batch frame accepted by the filter into columnar batch.
+     * Batch is sized for contents of all messages of the frame, so it doesn't grow while it's filled.
+     *
+     * @param content - content of the frame
+     * @param filter - filter of messages, rejected messages are skipped without decoding, null to accept all
+     * @param reassembler - reassembler of fragments, null to append fragments as they are
+     *
+     * @return batch, it should be released when processed
+     */
+    public static IOMessageBatch readBatch(ByteBuf content, IOMessageFilter filter, IOMessageReassembler reassembler) {
+        int start = content.readerIndex() + 5;
+        int count = content.getInt(start - 4);
+        if (count < 0 || count > (content.writerIndex() - start) / 4) {
+            throw new IllegalArgumentException("Malformed message batch.");
+        }
+        int contentLength = 0;
+        for (int i = 0, pos = start; i < count && pos + 4 <= content.writerIndex(); i++) {
+            int length = content.getInt(pos);
+            pos += 4;
+            if (length >= IOMessageHeader.HEADER_SIZE && pos + length <= content.writerIndex()) {
+                int contentDataLength = IOMessageHeader.readContentLength(content, pos);
+                contentLength += contentDataLength >= 0 && contentDataLength <= length ? contentDataLength : 0;
+            }
+            pos += Math.max(0, length);
+        }
+        IOMessageBatch batch = new IOMessageBatch(count, contentLength);
+        try {
+            readBatch(content, start, count, batch, filter, reassembler);
+        } catch (RuntimeException e) {
+            batch.release();
+            throw e;
+        }
+        return batch;
+    }
+
+    private static void readBatch(ByteBuf content, int pos, int count, IOMessageBatch batch,
+                                  IOMessageFilter filter, IOMessageReassembler reassembler) {
+        for (int i = 0; i < count; i++) {
+            int length = content.getInt(pos);
+            pos += 4;
+            if (length < 0 || length > content.writerIndex() - pos) {
+                throw new IllegalArgumentException("Malformed message batch.");
+            }
+            readMessage(content, pos, length, batch, filter, reassembler);
+            pos += length;
+        }
+    }
+
+    /**
+     * Method appends encoded message accepted by the filter to columnar batch.
+     * Messages that can't be appended straight from encoded form are fully decoded first.
+     *
+     * @param content - buffer with encoded message
+     * @param index - index of the message in the buffer
+     * @param length - length of the message
+     * @param batch - batch to append message to
+     * @param filter - filter of messages, rejected message is skipped without decoding, null to accept all
+     * @param reassembler - reassembler of fragments, null to append fragments as they are
+     */
+    public static void readMessage(ByteBuf content, int index, int length, IOMessageBatch batch,
+                                   IOMessageFilter filter, IOMessageReassembler reassembler) {
+        if ((filter != null && !filter.matches(content, index)) || batch.add(content, index, length)) {
+            return;
+        }
+        IOMessage message = new IOMessage(content.slice(index, length));
+        try {
+            batch.add(message, reassembler);
+        } finally {
+            message.release();
+        }
+    }
+
+    private void markSent(ChannelHandlerContext pCtx, List<IOMessage> pMessages){
+        if (mMessageSendContextMap.containsKey(pCtx)) {
+            return;
+        }
+        List<IOMessage> retained = new ArrayList<>(pMessages.size());
+        for (IOMessage message : pMessages) {
+            retained.add(message.retain());
+        }
+        AckMarker marker = new AckMarker(retained);
+        if (mMessageSendContextMap.putIfAbsent(pCtx, marker) != null) {
+            marker.release();
         }
     }
 
@@ -106,6 +365,23 @@ public class WebSocketManager {
     }
 
     public void sendReceipt(ChannelHandlerContext pCtx, String pMessageId, Long pMessageTimestamp){
+        pCtx.channel().writeAndFlush(receiptFrame(pCtx, pMessageId, pMessageTimestamp));
+    }
+
+    /**
+     * Sends receipts for all messages (with their ids and timestamps) and flushes them at once.
+     *
+     * @param pCtx - message socket context
+     * @param pMessages - received messages
+     */
+    public void sendReceipts(ChannelHandlerContext pCtx, List<IOMessage> pMessages){
+        for (IOMessage message : pMessages) {
+            pCtx.channel().write(receiptFrame(pCtx, message.getId(), message.getTimestamp()));
+        }
+        pCtx.channel().flush();
+    }
+
+    private BinaryWebSocketFrame receiptFrame(ChannelHandlerContext pCtx, String pMessageId, Long pMessageTimestamp){
         ByteBuf buffer1 = pCtx.alloc().buffer();
         buffer1.writeByte(OPCODE_RECEIPT.intValue());
         //send Length
@@ -116,7 +392,7 @@ public class WebSocketManager {
         //Send opcode, id and timestamp
         buffer1.writeBytes(pMessageId.getBytes());
         buffer1.writeBytes(ByteUtils.longToBytes(pMessageTimestamp));
-        pCtx.channel().writeAndFlush(new BinaryWebSocketFrame(buffer1));
+        return new BinaryWebSocketFrame(buffer1);
     }
 
     public void sendAck(ChannelHandlerContext pCtx) {
@@ -131,13 +407,11 @@ public class WebSocketManager {
         pCtx.channel().writeAndFlush(new PingWebSocketFrame(buffer1));
     }
 
-    private void sendBinaryFrame(ChannelHandlerContext pCtx, byte[] pData){
+    private void sendBinaryFrame(ChannelHandlerContext pCtx, ByteBuf pData){
         if(!isCtxActual(pCtx)){
             new IllegalArgumentException("Context not found.");
         }
-        ByteBuf buffer1 = pCtx.alloc().buffer();
-        buffer1.writeBytes(pData);
-        pCtx.channel().writeAndFlush(new BinaryWebSocketFrame(buffer1));
+        pCtx.channel().writeAndFlush(new BinaryWebSocketFrame(pData));
     }
 
     public void sendFrame(ChannelHandlerContext pCtx,WebSocketFrame pFrame){
@@ -234,7 +508,10 @@ public class WebSocketManager {
 
     private void invalidateAck(ChannelHandlerContext pCtx){
         mControlWebsocketMap.remove(pCtx);
-        mMessageSendContextMap.remove(pCtx);
+        AckMarker marker = mMessageSendContextMap.remove(pCtx);
+        if (marker != null) {
+            marker.release();
+        }
     }
 
     private void invalidateCtx(ChannelHandlerContext pCtx){
@@ -246,7 +523,7 @@ public class WebSocketManager {
 
         for(String id : pCtxMap.keySet()){
             ChannelHandlerContext curCtx = pCtxMap.get(id);
-            if(curCtx.equals(pCtxMap)){
+            if(curCtx.equals(pCtx)){
                 pCtxMap.remove(id);
             }
         }
@@ -269,11 +546,28 @@ public class WebSocketManager {
     }
 
     public void initMessageSocket(ChannelHandlerContext pCtx, String pContainerId, boolean pSsl, String pUrl, FullHttpRequest pReq){
-        initSocket(pCtx, pContainerId, pSsl, pUrl, pReq, mMessageWebsocketMap);
+        initSocket(pCtx, pContainerId, pSsl, pUrl, pReq, mMessageWebsocketMap, maxFramePayloadLength);
     }
 
     public void initControlSocket(ChannelHandlerContext pCtx, String pContainerId, boolean pSsl, String pUrl, FullHttpRequest pReq){
-        initSocket(pCtx, pContainerId, pSsl, pUrl, pReq, mControlWebsocketMap);
+        initSocket(pCtx, pContainerId, pSsl, pUrl, pReq, mControlWebsocketMap, maxFramePayloadLength);
+    }
+
+    /**
+     * Method sets max payload of frames received on connections accepted afterwards,
+     * connection receiving a bigger frame is closed.
+     *
+     * @param maxFramePayloadLength - max length in bytes ({@link #DEFAULT_MAX_FRAME_PAYLOAD_LENGTH} by default)
+     */
+    public void setMaxFramePayloadLength(int maxFramePayloadLength) {
+        if (maxFramePayloadLength <= 0) {
+            throw new IllegalArgumentException("Max frame payload length should be positive.");
+        }
+        this.maxFramePayloadLength = maxFramePayloadLength;
+    }
+
+    public int getMaxFramePayloadLength() {
+        return maxFramePayloadLength;
     }
 
     public void addControlContext(ChannelHandlerContext pCtx, String containerId) {
@@ -284,12 +578,52 @@ public class WebSocketManager {
         mMessageWebsocketMap.put(containerId, pCtx);
     }
 
-    public byte[] getMessage(ChannelHandlerContext pCtx) {
-        return mMessageSendContextMap.get(pCtx).getData();
+    /**
+     * Checks if Container's Message WebSocket is connected and can take more frames
+     * without growing its outbound buffer over the high water mark.
+     *
+     * @param containerId - Container's ID
+     *
+     * @return true if messages can be sent
+     */
+    public boolean isMessageSocketWritable(String containerId) {
+        ChannelHandlerContext ctx = mMessageWebsocketMap.get(containerId);
+        return ctx != null && ctx.channel().isWritable();
+    }
+
+    /**
+     * Method returns message sent directly that awaits the next receipt.
+     *
+     * @param pCtx - message socket context
+     *
+     * @return message or null if no message awaits receipt
+     */
+    public IOMessage getMessage(ChannelHandlerContext pCtx) {
+        AckMarker marker = mMessageSendContextMap.get(pCtx);
+        return marker != null ? marker.getData() : null;
+    }
+
+    /**
+     * Method matches receipt to the message sent directly that awaits it. ioFog sends one receipt per message
+     * in order they were received, so receipts of a batch are matched to its messages in order.
+     *
+     * @param pCtx - message socket context
+     *
+     * @return message the receipt belongs to or null if no message awaits receipt
+     */
+    public IOMessage onReceipt(ChannelHandlerContext pCtx) {
+        AckMarker marker = mMessageSendContextMap.get(pCtx);
+        if (marker == null) {
+            return null;
+        }
+        IOMessage message = marker.getData();
+        marker.confirm();
+        return message;
     }
 
-    private static void initSocket(ChannelHandlerContext pCtx, String pContainerId, boolean pSsl, String pUrl, FullHttpRequest pReq, Map<String, ChannelHandlerContext> pSocketMap){
-        WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(buildWebSocketLocation(pSsl, pUrl, pReq), null, true);
+    private static void initSocket(ChannelHandlerContext pCtx, String pContainerId, boolean pSsl, String pUrl, FullHttpRequest pReq,
+                                   Map<String, ChannelHandlerContext> pSocketMap, int pMaxFramePayloadLength){
+        WebSocketServerHandshakerFactory wsFactory = new WebSocketServerHandshakerFactory(buildWebSocketLocation(pSsl, pUrl, pReq), null, true, pMaxFramePayloadLength);
         WebSocketServerHandshaker handshaker = wsFactory.newHandshaker(pReq);
         if (handshaker == null) {
             WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(pCtx.channel());
@@ -310,25 +644,46 @@ public class WebSocketManager {
         }
     }
 
+    /**
+     * Messages of a send made directly awaiting ACK, messages sent via outbound queue are tracked by the queue.
+     * Message sent as raw bytes is kept as they are until it's asked for.
+     */
     private static class AckMarker{
-        private int mSendCnt;
-        private byte[] mData;
+        private final List<IOMessage> mData;
+        private byte[] mRawData;
+        private int mReceipts;
 
-        public AckMarker(int pSendCnt, byte[] pData){
-            mSendCnt = pSendCnt;
+        public AckMarker(List<IOMessage> pData){
             mData = pData;
         }
 
-        public int getSendCnt(){
-            return mSendCnt;
+        public AckMarker(byte[] pRawData){
+            mData = new ArrayList<>(1);
+            mRawData = pRawData;
+        }
+
+        /**
+         * @return message awaiting the next receipt, null if all of them got receipts
+         *         or message was sent as raw bytes that aren't a valid message
+         */
+        public IOMessage getData(){
+            if (mRawData != null) {
+                try {
+                    mData.add(new IOMessage(mRawData));
+                } catch (IllegalArgumentException e) {
+                    // not a message, nothing to set receipt on
+                }
+                mRawData = null;
+            }
+            return mReceipts < mData.size() ? mData.get(mReceipts) : null;
         }
 
-        public byte[] getData(){
-            return mData;
+        public void confirm(){
+            mReceipts++;
         }
 
-        public void trying(){
-            mSendCnt--;
+        public void release(){
+            mData.forEach(IOMessage::release);
         }
     }
 }
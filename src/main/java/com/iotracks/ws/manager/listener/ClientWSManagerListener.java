@@ -1,16 +1,26 @@
 package com.iotracks.ws.manager.listener;
 
+import com.iotracks.api.client.IOFogOutboundQueue;
 import com.iotracks.api.listener.IOFogAPIListener;
+import com.iotracks.api.listener.IOFogMessageBatchListener;
 import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageBatch;
+import com.iotracks.elements.IOMessageCompressor;
+import com.iotracks.elements.IOMessageField;
+import com.iotracks.elements.IOMessageFilter;
+import com.iotracks.elements.IOMessageReassembler;
 import com.iotracks.utils.ByteUtils;
 import com.iotracks.utils.IOFogLocalAPIURL;
 import com.iotracks.ws.manager.WebSocketManager;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.util.CharsetUtil;
 
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -20,6 +30,8 @@ import java.util.logging.Logger;
  *    - In case of receiving NEW_CONFIGURATION_SIGNAL from ioFog, Container responds with ACKNOWLEDGE response.
  * 2. If Message WebSocket Connection is handled ->
  *    - In case of receiving MESSAGE from ioFog, Container responds with ACKNOWLEDGE response.
+ *    - In case of receiving MESSAGE_BATCH from ioFog, Container passes all messages to listener at once
+ *      and responds with single ACKNOWLEDGE response.
  *    - In case of receiving MESSAGE_RECEIPT from ioFog, Container responds with ACKNOWLEDGE response.
  *
  * @author ilaryionava
@@ -30,10 +42,63 @@ public class ClientWSManagerListener implements WebSocketManagerListener {
 
     private IOFogAPIListener wsListener;
     private IOFogLocalAPIURL wsType;
+    private boolean pooledMessages;
+    private Set<IOMessageField> fields;
+    private IOMessageFilter filter;
+    private IOFogMessageBatchListener batchListener;
+    private IOMessageReassembler reassembler;
+    private IOFogOutboundQueue outboundQueue;
 
     public ClientWSManagerListener(IOFogAPIListener listener, IOFogLocalAPIURL wsType){
+        this(listener, wsType, false);
+    }
+
+    public ClientWSManagerListener(IOFogAPIListener listener, IOFogLocalAPIURL wsType, boolean pooledMessages){
+        this(listener, wsType, pooledMessages, null);
+    }
+
+    /**
+     * @param listener - listener for communication with ioFog
+     * @param wsType - type of handled WebSocket
+     * @param pooledMessages - if received messages should be taken from the pool of {@link IOMessage}
+     * @param fields - fields of received messages to decode, null to decode all of them
+     */
+    public ClientWSManagerListener(IOFogAPIListener listener, IOFogLocalAPIURL wsType, boolean pooledMessages,
+                                   Set<IOMessageField> fields){
         this.wsListener = listener;
         this.wsType = wsType;
+        this.pooledMessages = pooledMessages;
+        this.fields = fields;
+    }
+
+    /**
+     * Sets filter of received messages. Rejected messages are acknowledged and dropped without decoding.
+     *
+     * @param filter - filter of messages, null to accept all
+     */
+    public void setMessageFilter(IOMessageFilter filter){
+        this.filter = filter;
+    }
+
+    /**
+     * Sets listener for received messages in columnar form, messages are then passed to it instead of
+     * {@link IOFogAPIListener#onMessages(List)}. Every frame is delivered as one {@link IOMessageBatch}.
+     *
+     * @param batchListener - listener for columnar batches, null to receive {@link IOMessage} objects
+     * @param reassembler - reassembler of fragments, null to pass fragments as they are
+     */
+    public void setBatchListener(IOFogMessageBatchListener batchListener, IOMessageReassembler reassembler){
+        this.batchListener = batchListener;
+        this.reassembler = reassembler;
+    }
+
+    /**
+     * Sets queue of sent messages, receipts are matched to its in-flight messages.
+     *
+     * @param outboundQueue - queue of Message WebSocket, null to match receipts to the message sent directly
+     */
+    public void setOutboundQueue(IOFogOutboundQueue outboundQueue){
+        this.outboundQueue = outboundQueue;
     }
 
     /**
@@ -43,40 +108,117 @@ public class ClientWSManagerListener implements WebSocketManagerListener {
     public void handle(WebSocketManager wsManager, BinaryWebSocketFrame frame, ChannelHandlerContext ctx) {
         ByteBuf content = frame.content();
         if(content.isReadable()){
-            byte[] byteArray = new byte[content.readableBytes()];
             int readerIndex = content.readerIndex();
-            content.getBytes(readerIndex, byteArray);
-            byte opcode = byteArray[0];
+            byte opcode = content.getByte(readerIndex);
             if (opcode == WebSocketManager.OPCODE_CONTROL_SIGNAL.intValue() && wsType == IOFogLocalAPIURL.GET_CONTROL_WEB_SOCKET_LOCAL_API
-                /*&& byteArray.length == 1*/) {
+                /*&& content.readableBytes() == 1*/) {
                 wsListener.onNewConfigSignal();
                 wsManager.sendAck(ctx);
             } else if (opcode == WebSocketManager.OPCODE_MSG.intValue() && wsType == IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API) {
-                int totalMsgLength = ByteUtils.bytesToInteger(Arrays.copyOfRange(byteArray, 1, 5));
-                int msgLength = totalMsgLength + 5;
-                IOMessage message = new IOMessage(Arrays.copyOfRange(byteArray, 5, msgLength));
-                wsListener.onMessages(Collections.singletonList(message));
+                int totalMsgLength = content.getInt(readerIndex + 1);
+                if (batchListener != null) {
+                    IOMessageBatch batch = new IOMessageBatch(1, totalMsgLength);
+                    WebSocketManager.readMessage(content, readerIndex + 5, totalMsgLength, batch, filter, reassembler);
+                    deliver(batch);
+                    wsManager.sendAck(ctx);
+                    return;
+                }
+                if (filter != null && !filter.matches(content, readerIndex + 5)) {
+                    wsManager.sendAck(ctx);
+                    return;
+                }
+                IOMessage message;
+                if (pooledMessages) {
+                    message = IOMessage.obtain(content.slice(readerIndex + 5, totalMsgLength));
+                } else {
+                    byte[] bytes = new byte[totalMsgLength];
+                    content.getBytes(readerIndex + 5, bytes);
+                    message = new IOMessage(bytes);
+                }
+                try {
+                    project(message);
+                    IOMessageCompressor.decompressIfNeeded(message);
+                    wsListener.onMessages(Collections.singletonList(message));
+                } finally {
+                    if (pooledMessages) {
+                        message.release();
+                    }
+                }
+                wsManager.sendAck(ctx);
+            } else if (opcode == WebSocketManager.OPCODE_MSG_BATCH.intValue() && wsType == IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API) {
+                if (batchListener != null) {
+                    deliver(WebSocketManager.readBatch(content, filter, reassembler));
+                    wsManager.sendAck(ctx);
+                    return;
+                }
+                List<IOMessage> messages = pooledMessages ? WebSocketManager.readBatch(content, true, filter) : readBatchCopy(content);
+                if (messages.isEmpty()) {
+                    wsManager.sendAck(ctx);
+                    return;
+                }
+                try {
+                    for (IOMessage message : messages) {
+                        IOMessageCompressor.decompressIfNeeded(project(message));
+                    }
+                    wsListener.onMessages(messages);
+                } finally {
+                    if (pooledMessages) {
+                        messages.forEach(IOMessage::release);
+                    }
+                }
                 wsManager.sendAck(ctx);
             } else if (opcode == WebSocketManager.OPCODE_RECEIPT.intValue() && wsType == IOFogLocalAPIURL.GET_MSG_WEB_SOCKET_LOCAL_API) {
-                int size = byteArray[1];
-                int pos = 3;
+                int size = content.getUnsignedByte(readerIndex + 1);
+                int pos = readerIndex + 3;
                 String messageId = "";
                 if (size > 0) {
-                    messageId = ByteUtils.bytesToString(Arrays.copyOfRange(byteArray, pos, pos + size));
+                    messageId = content.toString(pos, size, CharsetUtil.UTF_8);
                     pos += size;
                 }
-                size = byteArray[2];
+                size = content.getUnsignedByte(readerIndex + 2);
                 long timestamp = 0L;
                 if (size > 0) {
-                    timestamp = ByteUtils.bytesToLong(Arrays.copyOfRange(byteArray, pos, pos + size));
+                    timestamp = ByteUtils.bytesToLong(content, pos, size);
+                }
+                if (outboundQueue == null || !outboundQueue.onReceipt(ctx, messageId, timestamp)) {
+                    IOMessage message = wsManager.onReceipt(ctx);
+                    if (message != null) {
+                        message.setId(messageId);
+                        message.setTimestamp(timestamp);
+                    }
                 }
-                IOMessage message = new IOMessage(wsManager.getMessage(ctx));
-                message.setId(messageId);
-                message.setTimestamp(timestamp);
                 wsListener.onMessageReceipt(messageId, timestamp);
                 wsManager.sendAck(ctx);
             }
         }
     }
 
+    private void deliver(IOMessageBatch batch) {
+        try {
+            if (!batch.isEmpty()) {
+                batchListener.onMessageBatch(batch);
+            }
+        } finally {
+            batch.release();
+        }
+    }
+
+    /**
+     * Method reads messages of the batch frame as views over a heap copy of the frame,
+     * so they stay valid after the frame is released and belong to the listener.
+     */
+    private List<IOMessage> readBatchCopy(ByteBuf content) {
+        ByteBuf copy = Unpooled.wrappedBuffer(new byte[content.readableBytes()]);
+        copy.setBytes(0, content, content.readerIndex(), content.readableBytes());
+        try {
+            return WebSocketManager.readBatch(copy, false, filter);
+        } finally {
+            copy.release();
+        }
+    }
+
+    private IOMessage project(IOMessage message) {
+        return fields != null ? message.project(fields) : message;
+    }
+
 }
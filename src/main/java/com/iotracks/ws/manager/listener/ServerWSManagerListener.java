@@ -0,0 +1,59 @@
+package com.iotracks.ws.manager.listener;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.server.IOFogServerListener;
+import com.iotracks.ws.manager.WebSocketManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Server side implementation of {@link WebSocketManagerListener} (ioFog's side of Message WebSocket).
+ * In case of receiving MESSAGE or MESSAGE_BATCH from Container, server assigns id and timestamp to each message,
+ * passes messages to listener and responds with MESSAGE_RECEIPT for each of them.
+ */
+public class ServerWSManagerListener implements WebSocketManagerListener {
+
+    private IOFogServerListener serverListener;
+
+    public ServerWSManagerListener(IOFogServerListener listener){
+        this.serverListener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handle(WebSocketManager wsManager, BinaryWebSocketFrame frame, ChannelHandlerContext ctx) {
+        ByteBuf content = frame.content();
+        if (!content.isReadable()) {
+            return;
+        }
+        int readerIndex = content.readerIndex();
+        byte opcode = content.getByte(readerIndex);
+        List<IOMessage> messages;
+        if (opcode == WebSocketManager.OPCODE_MSG.intValue()) {
+            int totalMsgLength = content.getInt(readerIndex + 1);
+            messages = Collections.singletonList(new IOMessage(content.slice(readerIndex + 5, totalMsgLength)));
+        } else if (opcode == WebSocketManager.OPCODE_MSG_BATCH.intValue()) {
+            messages = WebSocketManager.readBatch(content, false);
+        } else {
+            return;
+        }
+        try {
+            long timestamp = System.currentTimeMillis();
+            for (IOMessage message : messages) {
+                message.setId(UUID.randomUUID().toString().replace("-", ""));
+                message.setTimestamp(timestamp);
+            }
+            serverListener.onMessages(messages);
+            wsManager.sendReceipts(ctx, messages);
+        } finally {
+            messages.forEach(IOMessage::release);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.iotracks.api.client;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.ws.manager.WebSocketManager;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.util.concurrent.FastThreadLocalThread;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IOFogOutboundQueueTest {
+
+    private static final long FRAME_SIZE = frameSize();
+
+    @Test
+    public void offerIsRejectedWhenFull() throws InterruptedException {
+        IOFogOutboundQueue queue = fullQueue();
+        IOMessage message = message("m3");
+
+        assertFalse(queue.send(Collections.singletonList(message), false, 0, TimeUnit.MILLISECONDS));
+        CompletableFuture<Void> future = queue.sendAsync(Collections.singletonList(message), false);
+        try {
+            future.get();
+            fail("RejectedExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(2, queue.getRejectedCount());
+        assertEquals(3, queue.getDepth());
+        assertEquals(1, message.refCnt());
+    }
+
+    @Test
+    public void timedSendGivesUp() {
+        IOFogOutboundQueue queue = fullQueue();
+        long start = System.nanoTime();
+        assertFalse(queue.send(Collections.singletonList(message("m3")), false, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    public void blockingSendWaitsForSpace() throws InterruptedException {
+        IOFogOutboundQueue queue = fullQueue();
+        AtomicBoolean sent = new AtomicBoolean();
+        Thread sender = new Thread(() -> sent.set(queue.send(Collections.singletonList(message("m3")), false,
+                Long.MAX_VALUE, TimeUnit.NANOSECONDS)));
+        sender.start();
+        awaitWaiting(sender);
+
+        EmbeddedChannel channel = channel();
+        queue.attach(channel.pipeline().firstContext(), new WebSocketManager(null));
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        assertTrue(sent.get());
+        assertEquals(Arrays.asList("m0", "m1", "m2", "m3"), written(channel));
+    }
+
+    @Test
+    public void neverWaitsOnEventLoopThread() throws InterruptedException {
+        IOFogOutboundQueue queue = fullQueue();
+        AtomicBoolean sent = new AtomicBoolean(true);
+        Thread sender = new FastThreadLocalThread(() -> sent.set(queue.send(Collections.singletonList(message("m3")), false,
+                Long.MAX_VALUE, TimeUnit.NANOSECONDS)));
+        sender.start();
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        assertFalse(sent.get());
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    public void sendersResumeAtLowWaterMark() {
+        IOFogOutboundQueue queue = fullQueue();
+        queue.setInFlightWindow(1, IOFogOutboundQueue.DEFAULT_RECEIPT_TIMEOUT_MILLIS, IOFogOutboundQueue.DEFAULT_MAX_SENDS);
+        EmbeddedChannel channel = channel();
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        assertFalse(queue.send(Collections.singletonList(message("m3")), false, 0, TimeUnit.MILLISECONDS));
+
+        queue.attach(ctx, new WebSocketManager(null));
+        assertEquals(2 * FRAME_SIZE, queue.getQueuedBytes());
+        // queue drained under high water mark but not yet to low one
+        assertFalse(queue.send(Collections.singletonList(message("m3")), false, 0, TimeUnit.MILLISECONDS));
+
+        assertTrue(queue.onReceipt(ctx, "id0", 1L));
+        assertEquals(FRAME_SIZE, queue.getQueuedBytes());
+        assertTrue(queue.send(Collections.singletonList(message("m4")), false, 0, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList("m0", "m1"), written(channel));
+    }
+
+    @Test
+    public void inFlightMessagesAreSentAgainInOrderAfterDetach() {
+        IOFogOutboundQueue queue = new IOFogOutboundQueue();
+        EmbeddedChannel first = channel();
+        ChannelHandlerContext ctx = first.pipeline().firstContext();
+        queue.attach(ctx, new WebSocketManager(null));
+        IOMessage m0 = message("m0");
+        IOMessage m1 = message("m1");
+        IOMessage m2 = message("m2");
+        queue.send(Collections.singletonList(m0), false, 0, TimeUnit.MILLISECONDS);
+        queue.send(Arrays.asList(m1, m2), true, 0, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("m0", "m1", "m2"), written(first));
+        assertEquals(3, queue.getInFlight());
+
+        assertTrue(queue.onReceipt(ctx, "id0", 10L));
+        assertEquals("id0", m0.getId());
+        assertEquals(1, m0.refCnt());
+
+        queue.detach(ctx);
+        assertFalse(queue.isAttached());
+        assertEquals(0, queue.getInFlight());
+        assertEquals(2, queue.getDepth());
+        queue.send(Collections.singletonList(message("m3")), false, 0, TimeUnit.MILLISECONDS);
+
+        EmbeddedChannel second = channel();
+        ChannelHandlerContext ctx2 = second.pipeline().firstContext();
+        queue.attach(ctx2, new WebSocketManager(null));
+        assertEquals(Arrays.asList("m1", "m2", "m3"), written(second));
+        assertEquals(1, queue.getRetransmittedCount());
+        // receipts of the closed connection are not matched
+        assertFalse(queue.onReceipt(ctx, "stale", 0L));
+        assertTrue(queue.onReceipt(ctx2, "id1", 11L));
+        assertTrue(queue.onReceipt(ctx2, "id2", 12L));
+        assertEquals("id1", m1.getId());
+        assertEquals(12L, m2.getTimestamp());
+        assertEquals(1, m2.refCnt());
+    }
+
+    @Test
+    public void receiptTimeoutReopensConnectionAndDropsAfterMaxSends() throws InterruptedException {
+        IOFogOutboundQueue queue = new IOFogOutboundQueue();
+        queue.setInFlightWindow(16, 1, 2);
+        IOMessage message = message("m0");
+        CompletableFuture<Void> future = queue.sendAsync(Collections.singletonList(message), false);
+
+        EmbeddedChannel first = channel();
+        queue.attach(first.pipeline().firstContext(), new WebSocketManager(null));
+        assertEquals(Collections.singletonList("m0"), written(first));
+        timeOut(first);
+        assertFalse(first.isOpen());
+        queue.detach(first.pipeline().firstContext());
+        assertEquals(1, queue.getDepth());
+
+        EmbeddedChannel second = channel();
+        queue.attach(second.pipeline().firstContext(), new WebSocketManager(null));
+        assertEquals(Collections.singletonList("m0"), written(second));
+        assertEquals(1, queue.getRetransmittedCount());
+        timeOut(second);
+        assertFalse(second.isOpen());
+        queue.detach(second.pipeline().firstContext());
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.getQueuedBytes());
+        assertEquals(1, message.refCnt());
+        try {
+            future.get();
+            fail("IOException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void confirmedMessagesDontTimeOut() throws InterruptedException {
+        IOFogOutboundQueue queue = new IOFogOutboundQueue();
+        queue.setInFlightWindow(16, 1, 2);
+        EmbeddedChannel channel = channel();
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        queue.attach(ctx, new WebSocketManager(null));
+        queue.send(Collections.singletonList(message("m0")), false, 0, TimeUnit.MILLISECONDS);
+        assertTrue(queue.onReceipt(ctx, "id0", 1L));
+
+        timeOut(channel);
+        assertTrue(channel.isOpen());
+        assertEquals(0, queue.getRetransmittedCount());
+        releaseOutbound(channel);
+    }
+
+    /**
+     * Method lets receipt timeout of 1 ms pass and runs the scheduled check.
+     */
+    private static void timeOut(EmbeddedChannel channel) throws InterruptedException {
+        Thread.sleep(5);
+        channel.runScheduledPendingTasks();
+    }
+
+    private static void releaseOutbound(EmbeddedChannel channel) {
+        Object frame;
+        while ((frame = channel.readOutbound()) != null) {
+            ((BinaryWebSocketFrame) frame).release();
+        }
+    }
+
+    /**
+     * Detached queue holding 3 frames with high water mark of 3 frames and low water mark of 1 frame.
+     */
+    private static IOFogOutboundQueue fullQueue() {
+        IOFogOutboundQueue queue = new IOFogOutboundQueue(3 * FRAME_SIZE, FRAME_SIZE);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.send(Collections.singletonList(message("m" + i)), false, 0, TimeUnit.MILLISECONDS));
+        }
+        return queue;
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    static EmbeddedChannel channel() {
+        return new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    }
+
+    /**
+     * @return tags of messages written to the channel, in order
+     */
+    static List<String> written(EmbeddedChannel channel) {
+        List<String> tags = new ArrayList<>();
+        Object frame;
+        while ((frame = channel.readOutbound()) != null) {
+            ByteBuf content = ((BinaryWebSocketFrame) frame).content();
+            try {
+                int pos = content.readerIndex() + 1;
+                if (content.getByte(content.readerIndex()) == WebSocketManager.OPCODE_MSG) {
+                    tags.add(new IOMessage(content.slice(pos + 4, content.getInt(pos))).getTag());
+                } else {
+                    for (IOMessage message : WebSocketManager.readBatch(content, false)) {
+                        tags.add(message.getTag());
+                        message.release();
+                    }
+                }
+            } finally {
+                ((BinaryWebSocketFrame) frame).release();
+            }
+        }
+        return tags;
+    }
+
+    static IOMessage message(String tag) {
+        IOMessage message = new IOMessage();
+        message.setTag(tag);
+        message.setContentData(new byte[100]);
+        return message;
+    }
+
+    private static long frameSize() {
+        ByteBuf frame = WebSocketManager.encodeMessage(ByteBufAllocator.DEFAULT, message("m0"));
+        try {
+            return frame.readableBytes();
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.iotracks.api.client;
+
+import com.iotracks.elements.IOMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IOFogSpoolTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsRecordsInOrder() throws IOException {
+        File directory = folder.newFolder();
+        try (IOFogSpool spool = new IOFogSpool(directory, SEGMENT_SIZE, 1 << 20)) {
+            appendAll(spool, 100);
+            assertEquals(100, spool.getPendingCount());
+            assertTrue(spool.getSegmentCount() > 1);
+
+            IOFogSpool.Record record = spool.next();
+            IOMessage message = record.getMessage();
+            assertEquals("m0", message.getTag());
+            assertArrayEquals(content(0), message.getContentData());
+            assertEquals(Arrays.asList(tags(1, 100)), readTags(spool));
+            assertNull(spool.next());
+        }
+    }
+
+    @Test
+    public void rewindReadsRecordAgain() throws IOException {
+        File directory = folder.newFolder();
+        try (IOFogSpool spool = new IOFogSpool(directory, SEGMENT_SIZE, 1 << 20)) {
+            appendAll(spool, 10);
+            IOFogSpool.Record first = spool.next();
+            IOFogSpool.Record second = spool.next();
+            IOFogSpool.Record third = spool.next();
+            spool.ack(first);
+            spool.ack(third);
+            spool.rewind(second);
+
+            // done records are skipped
+            List<String> tags = readTags(spool);
+            assertEquals("m1", tags.get(0));
+            assertEquals(Arrays.asList(tags(3, 10)), tags.subList(1, tags.size()));
+            assertEquals(8, spool.getPendingCount());
+        }
+    }
+
+    @Test
+    public void deletesSegmentsOnceAllRecordsAreDone() throws IOException {
+        File directory = folder.newFolder();
+        try (IOFogSpool spool = new IOFogSpool(directory, SEGMENT_SIZE, 1 << 20)) {
+            appendAll(spool, 100);
+            int segments = spool.getSegmentCount();
+            IOFogSpool.Record record;
+            while ((record = spool.next()) != null) {
+                spool.ack(record);
+            }
+            assertEquals(0, spool.getPendingCount());
+            // tail segment is kept for next appends
+            assertEquals(1, spool.getSegmentCount());
+            assertEquals(1, directory.listFiles().length);
+            assertTrue(segments > 1);
+        }
+    }
+
+    @Test
+    public void rejectsAppendsAboveCap() throws IOException {
+        File directory = folder.newFolder();
+        try (IOFogSpool spool = new IOFogSpool(directory, SEGMENT_SIZE, 2 * SEGMENT_SIZE)) {
+            int appended = 0;
+            while (spool.append(message(appended)) >= 0) {
+                appended++;
+            }
+            assertEquals(1, spool.getRejectedCount());
+            assertTrue(spool.getSpooledBytes() <= 2 * SEGMENT_SIZE);
+            assertFalse(spool.append(Arrays.asList(message(appended), message(appended + 1))));
+            assertEquals(appended, spool.getPendingCount());
+        }
+    }
+
+    @Test
+    public void recoversPendingRecordsWhenReopened() throws IOException {
+        File directory = folder.newFolder();
+        try (IOFogSpool spool = new IOFogSpool(directory, SEGMENT_SIZE, 1 << 20)) {
+            appendAll(spool, 100);
+            for (int i = 0; i < 40; i++) {
+                spool.ack(spool.next());
+            }
+        }
+        try (IOFogSpool spool = new IOFogSpool(directory, SEGMENT_SIZE, 1 << 20)) {
+            assertEquals(60, spool.getPendingCount());
+            assertEquals(Arrays.asList(tags(40, 100)), readTags(spool));
+        }
+    }
+
+    @Test
+    public void recoversRecordsAfterCrash() throws IOException {
+        File directory = folder.newFolder();
+        // spool isn't closed, as if the process died
+        IOFogSpool crashed = new IOFogSpool(directory, SEGMENT_SIZE, 1 << 20);
+        appendAll(crashed, 50);
+        crashed.ack(crashed.next());
+
+        try (IOFogSpool spool = new IOFogSpool(directory, SEGMENT_SIZE, 1 << 20)) {
+            assertEquals(49, spool.getPendingCount());
+            assertEquals(Arrays.asList(tags(1, 50)), readTags(spool));
+        }
+    }
+
+    @Test
+    public void truncatesTornRecord() throws IOException {
+        File directory = folder.newFolder();
+        try (IOFogSpool spool = new IOFogSpool(directory, 1 << 16, 1 << 20)) {
+            appendAll(spool, 8);
+        }
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            // corrupt content of the last record, as if the process died while writing it
+            long position = 0;
+            for (int i = 0; i < 7; i++) {
+                file.seek(position);
+                position += 9 + file.readInt();
+            }
+            file.seek(position + 9 + 40);
+            int b = file.read();
+            file.seek(position + 9 + 40);
+            file.write(b ^ 0xFF);
+        }
+
+        try (IOFogSpool spool = new IOFogSpool(directory, 1 << 16, 1 << 20)) {
+            assertEquals(7, spool.getPendingCount());
+            // appends continue from the torn record
+            spool.append(message(100));
+            assertEquals(8, spool.getPendingCount());
+            List<String> expected = new ArrayList<>(Arrays.asList(tags(0, 7)));
+            expected.add("m100");
+            assertEquals(expected, readTags(spool));
+        }
+        try (IOFogSpool spool = new IOFogSpool(directory, 1 << 16, 1 << 20)) {
+            assertEquals(8, spool.getPendingCount());
+        }
+    }
+
+    private static void appendAll(IOFogSpool spool, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            assertTrue(spool.append(message(i)) >= 0);
+        }
+    }
+
+    private static List<String> readTags(IOFogSpool spool) {
+        List<String> tags = new ArrayList<>();
+        IOFogSpool.Record record;
+        while ((record = spool.next()) != null) {
+            tags.add(record.getMessage().getTag());
+        }
+        return tags;
+    }
+
+    private static String[] tags(int from, int to) {
+        String[] tags = new String[to - from];
+        for (int i = from; i < to; i++) {
+            tags[i - from] = "m" + i;
+        }
+        return tags;
+    }
+
+    private static IOMessage message(int i) {
+        IOMessage message = new IOMessage();
+        message.setTag("m" + i);
+        message.setPublisher("publisher");
+        message.setContentData(content(i));
+        return message;
+    }
+
+    private static byte[] content(int i) {
+        byte[] content = new byte[200];
+        Arrays.fill(content, (byte) i);
+        return content;
+    }
+}
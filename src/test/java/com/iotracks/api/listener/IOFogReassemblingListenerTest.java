@@ -0,0 +1,91 @@
+package com.iotracks.api.listener;
+
+import com.iotracks.elements.IOMessage;
+import com.iotracks.elements.IOMessageFragmenter;
+import com.iotracks.elements.IOMessageReassembler;
+import org.junit.Test;
+
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IOFogReassemblingListenerTest {
+
+    @Test
+    public void passesCompleteMessagesInOrder() {
+        RecordingListener recorded = new RecordingListener();
+        IOFogReassemblingListener listener = new IOFogReassemblingListener(recorded, new IOMessageReassembler());
+        List<IOMessage> parts = IOMessageFragmenter.split(message("big", 3000), 1000);
+
+        listener.onMessages(Arrays.asList(message("a", 10), parts.get(2), parts.get(0)));
+        listener.onMessages(Arrays.asList(parts.get(1), message("b", 10)));
+
+        assertEquals(2, recorded.calls.size());
+        assertEquals(Collections.singletonList("a"), tags(recorded.calls.get(0)));
+        assertEquals(Arrays.asList("big", "b"), tags(recorded.calls.get(1)));
+        assertEquals(3000, recorded.calls.get(1).get(0).getContentDataLength());
+    }
+
+    @Test
+    public void passesEmptyLists() {
+        RecordingListener recorded = new RecordingListener();
+        IOFogReassemblingListener listener = new IOFogReassemblingListener(recorded, new IOMessageReassembler());
+        List<IOMessage> parts = IOMessageFragmenter.split(message("big", 2000), 1000);
+
+        listener.onMessages(Collections.emptyList());
+        listener.onMessages(Collections.singletonList(parts.get(0)));
+
+        assertEquals(2, recorded.calls.size());
+        assertTrue(recorded.calls.get(0).isEmpty());
+        assertTrue(recorded.calls.get(1).isEmpty());
+    }
+
+    private static List<String> tags(List<IOMessage> messages) {
+        List<String> tags = new ArrayList<>();
+        for (IOMessage message : messages) {
+            tags.add(message.getTag());
+        }
+        return tags;
+    }
+
+    private static IOMessage message(String tag, int contentLength) {
+        IOMessage message = new IOMessage();
+        message.setTag(tag);
+        message.setContentData(new byte[contentLength]);
+        return message;
+    }
+
+    private static class RecordingListener implements IOFogAPIListener {
+        private final List<List<IOMessage>> calls = new ArrayList<>();
+
+        @Override
+        public void onMessages(List<IOMessage> messages) {
+            calls.add(new ArrayList<>(messages));
+        }
+
+        @Override
+        public void onMessagesQuery(long timeframestart, long timeframeend, List<IOMessage> messages) {
+            calls.add(new ArrayList<>(messages));
+        }
+
+        @Override
+        public void onError(Throwable cause) { }
+
+        @Override
+        public void onBadRequest(String error) { }
+
+        @Override
+        public void onMessageReceipt(String messageId, long timestamp) { }
+
+        @Override
+        public void onNewConfig(JsonObject config) { }
+
+        @Override
+        public void onNewConfigSignal() { }
+    }
+}
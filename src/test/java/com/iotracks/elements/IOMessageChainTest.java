@@ -0,0 +1,70 @@
+package com.iotracks.elements;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IOMessageChainTest {
+
+    @Test
+    public void linkedMessagesAreVerified() {
+        IOMessageChain chain = new IOMessageChain(new ForkJoinPool(2));
+        List<IOMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            IOMessage message = message(8);
+            chain.link(message);
+            assertTrue(IOMessageChain.isValid(message));
+            assertTrue(message.getHash().startsWith("00"));
+            messages.add(message);
+        }
+        assertEquals(1, messages.get(0).getChainPosition());
+        assertEquals("", messages.get(0).getPreviousHash());
+        assertEquals(-1, chain.verify(messages, ""));
+
+        messages.get(3).setContentData(new byte[] {2});
+        assertEquals(3, chain.verify(messages, ""));
+    }
+
+    @Test
+    public void rejectsTargetAboveMax() {
+        IOMessageChain chain = new IOMessageChain();
+        for (int target : new int[] {-1, IOMessageChain.MAX_DIFFICULTY_TARGET + 1, 256}) {
+            try {
+                chain.seal(message(target));
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void givesUpAfterMaxNonceAttempts() {
+        IOMessageChain chain = new IOMessageChain(new ForkJoinPool(2));
+        chain.setMaxNonceAttempts(10000);
+        try {
+            chain.link(message(IOMessageChain.MAX_DIFFICULTY_TARGET));
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // chain isn't advanced by failed link
+        IOMessage next = chain.link(message(0));
+        assertEquals(1, next.getChainPosition());
+        assertEquals("", next.getPreviousHash());
+    }
+
+    private static IOMessage message(int difficultyTarget) {
+        IOMessage message = new IOMessage();
+        message.setPublisher("publisher");
+        message.setDifficultyTarget(difficultyTarget);
+        message.setContentData(new byte[] {1});
+        return message;
+    }
+}
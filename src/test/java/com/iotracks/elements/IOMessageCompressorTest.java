@@ -0,0 +1,129 @@
+package com.iotracks.elements;
+
+import com.iotracks.utils.LZCompressor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IOMessageCompressorTest {
+
+    @After
+    public void resetMaxDecompressedLength() {
+        IOMessageCompressor.setMaxDecompressedLength(IOMessageCompressor.DEFAULT_MAX_DECOMPRESSED_LENGTH);
+    }
+
+    @Test
+    public void roundTripsWithEveryCodec() {
+        for (IOMessageCompressor.Codec codec : IOMessageCompressor.Codec.values()) {
+            IOMessage message = message(payload(0));
+            message.setContextData(payload(1));
+            IOMessage compressed = new IOMessageCompressor(codec).compress(message);
+
+            assertNotSame(message, compressed);
+            assertTrue(IOMessageCompressor.isCompressed(compressed));
+            assertEquals("text/csv+z:" + codec.getName(), compressed.getInfoFormat());
+            assertTrue(compressed.getContentDataLength() < message.getContentDataLength());
+
+            // as it's received
+            IOMessage received = IOMessageCompressor.decompressIfNeeded(new IOMessage(compressed.getBytes()));
+            assertFalse(IOMessageCompressor.isCompressed(received));
+            assertEquals("text/csv", received.getInfoFormat());
+            assertEquals("telemetry", received.getTag());
+            assertArrayEquals(message.getContentData(), received.getContentData());
+            assertArrayEquals(message.getContextData(), received.getContextData());
+        }
+    }
+
+    @Test
+    public void roundTripsWithDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            samples.add(payload(i));
+        }
+        IOMessageCompressor.registerDictionary("test-telemetry", IOMessageCompressor.trainDictionary(samples, 4096));
+        IOMessageCompressor compressor = new IOMessageCompressor(IOMessageCompressor.Codec.DEFLATE, 16, "test-telemetry");
+        IOMessage message = message(payload(100));
+
+        IOMessage compressed = compressor.compress(message);
+        assertEquals("text/csv+z:deflate:test-telemetry", compressed.getInfoFormat());
+        IOMessageCompressor.decompress(compressed);
+        assertArrayEquals(message.getContentData(), compressed.getContentData());
+    }
+
+    @Test
+    public void leavesSmallMessageAsIs() {
+        IOMessage message = message("small".getBytes(StandardCharsets.UTF_8));
+        assertSame(message, new IOMessageCompressor(IOMessageCompressor.Codec.LZ).compress(message));
+    }
+
+    @Test
+    public void rejectsDeclaredLengthAboveMax() {
+        for (IOMessageCompressor.Codec codec : IOMessageCompressor.Codec.values()) {
+            IOMessage compressed = new IOMessageCompressor(codec).compress(message(new byte[100000]));
+
+            IOMessageCompressor.setMaxDecompressedLength(99999);
+            try {
+                IOMessageCompressor.decompress(compressed);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            IOMessageCompressor.setMaxDecompressedLength(100000);
+            IOMessageCompressor.decompress(compressed);
+            assertEquals(100000, compressed.getContentDataLength());
+        }
+    }
+
+    @Test
+    public void leavesMessageWithOversizedDeclaredLengthCompressed() {
+        // 5-byte payload declaring 2 GB of decompressed data
+        byte[] content = new byte[5];
+        LZCompressor.writeVarInt(content, 0, Integer.MAX_VALUE);
+        for (IOMessageCompressor.Codec codec : IOMessageCompressor.Codec.values()) {
+            IOMessage message = message(content);
+            message.setInfoFormat("text/csv+z:" + codec.getName());
+
+            assertSame(message, IOMessageCompressor.decompressIfNeeded(message));
+            assertTrue(IOMessageCompressor.isCompressed(message));
+            assertArrayEquals(content, message.getContentData());
+        }
+    }
+
+    @Test
+    public void skipsFragments() {
+        IOMessage compressed = new IOMessageCompressor(IOMessageCompressor.Codec.LZ).compress(message(payload(0)));
+        List<IOMessage> parts = IOMessageFragmenter.split(compressed, 100);
+        assertTrue(parts.size() > 1);
+
+        IOMessage part = IOMessageCompressor.decompressIfNeeded(parts.get(0));
+        assertTrue(IOMessageCompressor.isCompressed(part));
+    }
+
+    private static IOMessage message(byte[] content) {
+        IOMessage message = new IOMessage();
+        message.setTag("telemetry");
+        message.setInfoType("sensor");
+        message.setInfoFormat("text/csv");
+        message.setContentData(content);
+        return message;
+    }
+
+    private static byte[] payload(int seed) {
+        StringBuilder payload = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            payload.append("sensor-").append(seed % 7).append(',').append(i).append(',').append((seed + i) % 13).append('\n');
+        }
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,132 @@
+package com.iotracks.elements;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IOMessageFilterTest {
+
+    @Test
+    public void matchesPublishers() {
+        IOMessageFilter filter = new IOMessageFilter().publishers("pub-1", "pub-2");
+        assertAccepted(filter, message("pub-2", "tag", "type", "fmt", 1, 10));
+        assertRejected(filter, message("pub-3", "tag", "type", "fmt", 1, 10));
+        assertRejected(filter, message("pub-", "tag", "type", "fmt", 1, 10));
+        assertRejected(filter, message("", "tag", "type", "fmt", 1, 10));
+    }
+
+    @Test
+    public void matchesTags() {
+        IOMessageFilter filter = new IOMessageFilter().tags("t\u00e9l\u00e9m\u00e9trie", "");
+        assertAccepted(filter, message("pub", "t\u00e9l\u00e9m\u00e9trie", "type", "fmt", 1, 10));
+        assertAccepted(filter, message("pub", "", "type", "fmt", 1, 10));
+        assertRejected(filter, message("pub", "telemetrie", "type", "fmt", 1, 10));
+    }
+
+    @Test
+    public void matchesInfoTypes() {
+        IOMessageFilter filter = new IOMessageFilter().infoTypes("sensor");
+        assertAccepted(filter, message("pub", "tag", "sensor", "fmt", 1, 10));
+        assertRejected(filter, message("pub", "tag", "sensors", "fmt", 1, 10));
+    }
+
+    @Test
+    public void matchesInfoFormats() {
+        IOMessageFilter filter = new IOMessageFilter().infoFormats("text/csv", "application/json");
+        assertAccepted(filter, message("pub", "tag", "type", "application/json", 1, 10));
+        assertRejected(filter, message("pub", "tag", "type", "text/plain", 1, 10));
+        assertRejected(filter, message("pub", "tag", "type", "text/cs", 1, 10));
+    }
+
+    @Test
+    public void ignoresCompressionMarkerOfInfoFormat() {
+        IOMessageFilter filter = new IOMessageFilter().infoFormats("text/csv");
+        assertAccepted(filter, message("pub", "tag", "type", "text/csv" + IOMessageCompressor.FORMAT_MARKER + "lz", 1, 10));
+        assertAccepted(filter, message("pub", "tag", "type", "text/csv" + IOMessageCompressor.FORMAT_MARKER + "deflate:dict", 1, 10));
+        assertRejected(filter, message("pub", "tag", "type", "text/plain" + IOMessageCompressor.FORMAT_MARKER + "lz", 1, 10));
+        assertRejected(filter, message("pub", "tag", "type", "text/csv" + IOMessageCompressor.FORMAT_MARKER.substring(1), 1, 10));
+
+        IOMessage compressed = new IOMessageCompressor(IOMessageCompressor.Codec.LZ).compress(message("pub", "tag", "type", "text/csv", 1, 10));
+        assertTrue(IOMessageCompressor.isCompressed(compressed));
+        assertAccepted(filter, compressed);
+    }
+
+    @Test
+    public void matchesPriorityRange() {
+        IOMessageFilter filter = new IOMessageFilter().priority(2, 5);
+        assertAccepted(filter, message("pub", "tag", "type", "fmt", 2, 10));
+        assertAccepted(filter, message("pub", "tag", "type", "fmt", 5, 10));
+        assertRejected(filter, message("pub", "tag", "type", "fmt", 1, 10));
+        assertRejected(filter, message("pub", "tag", "type", "fmt", 6, 10));
+    }
+
+    @Test
+    public void matchesTimestampRange() {
+        IOMessageFilter filter = new IOMessageFilter().timestamp(1000, 2000);
+        assertAccepted(filter, message("pub", "tag", "type", "fmt", 1, 1500));
+        assertRejected(filter, message("pub", "tag", "type", "fmt", 1, 999));
+        assertRejected(filter, message("pub", "tag", "type", "fmt", 1, 2001));
+    }
+
+    @Test
+    public void combinesFieldsWithAnd() {
+        IOMessageFilter filter = new IOMessageFilter().publishers("pub").tags("a", "b");
+        assertAccepted(filter, message("pub", "b", "type", "fmt", 1, 10));
+        assertRejected(filter, message("other", "b", "type", "fmt", 1, 10));
+        assertRejected(filter, message("pub", "c", "type", "fmt", 1, 10));
+    }
+
+    @Test
+    public void acceptsUnsupportedVersion() {
+        IOMessageFilter filter = new IOMessageFilter().publishers("nobody");
+        byte[] bytes = message("pub", "tag", "type", "fmt", 1, 10).getBytes();
+        bytes[1] = 3;
+        assertTrue(filter.matches(Unpooled.wrappedBuffer(bytes), 0));
+    }
+
+    @Test
+    public void countsResults() {
+        IOMessageFilter filter = new IOMessageFilter().publishers("pub");
+        filter.matches(message("pub", "tag", "type", "fmt", 1, 10));
+        filter.matches(message("other", "tag", "type", "fmt", 1, 10));
+        filter.matches(message("other", "tag", "type", "fmt", 1, 10));
+        assertEquals(1, filter.getHits());
+        assertEquals(2, filter.getMisses());
+        filter.resetCounters();
+        assertEquals(0, filter.getHits() + filter.getMisses());
+    }
+
+    private static void assertAccepted(IOMessageFilter filter, IOMessage message) {
+        assertTrue(filter.matches(message));
+        assertTrue(filter.matches(encoded(message), 3));
+    }
+
+    private static void assertRejected(IOMessageFilter filter, IOMessage message) {
+        assertFalse(filter.matches(message));
+        assertFalse(filter.matches(encoded(message), 3));
+    }
+
+    /**
+     * Message encoded at index 3 of the buffer, as in a batch frame.
+     */
+    private static ByteBuf encoded(IOMessage message) {
+        byte[] bytes = message.getBytes();
+        return Unpooled.buffer(bytes.length + 3).writeZero(3).writeBytes(bytes);
+    }
+
+    private static IOMessage message(String publisher, String tag, String infoType, String infoFormat, int priority, long timestamp) {
+        IOMessage message = new IOMessage();
+        message.setPublisher(publisher);
+        message.setTag(tag);
+        message.setInfoType(infoType);
+        message.setInfoFormat(infoFormat);
+        message.setPriority((byte) priority);
+        message.setTimestamp(timestamp);
+        message.setContentData(new byte[2000]);
+        return message;
+    }
+}
@@ -0,0 +1,162 @@
+package com.iotracks.elements;
+
+import com.iotracks.utils.ByteBufJsonReader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import javax.json.Json;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IOMessageJsonCodecTest {
+
+    @Test
+    public void encodesSameDocumentAsGetJson() {
+        IOMessage message = message();
+        String json = encode(message);
+        assertEquals(message.getJson(true).toString(), json);
+        assertTrue(json.length() <= IOMessageJsonCodec.estimateLength(message));
+        assertEquals(message.getJson(true), Json.createReader(new StringReader(json)).readObject());
+    }
+
+    @Test
+    public void encodesEmptyMessageAsGetJson() {
+        IOMessage message = new IOMessage();
+        assertEquals(message.getJson(true).toString(), encode(message));
+    }
+
+    @Test
+    public void decodesEncodedMessage() {
+        IOMessage message = message();
+        for (ByteBuf buf : new ByteBuf[] {heap(encode(message)), direct(encode(message))}) {
+            IOMessage decoded = IOMessageJsonCodec.decode(new ByteBufJsonReader(buf));
+            assertEquals(message.getId(), decoded.getId());
+            assertEquals(message.getTag(), decoded.getTag());
+            assertEquals(message.getPublisher(), decoded.getPublisher());
+            assertEquals(message.getInfoType(), decoded.getInfoType());
+            assertEquals(message.getTimestamp(), decoded.getTimestamp());
+            assertEquals(message.getChainPosition(), decoded.getChainPosition());
+            assertEquals(message.getPriority(), decoded.getPriority());
+            assertArrayEquals(message.getContextData(), decoded.getContextData());
+            assertArrayEquals(message.getContentData(), decoded.getContentData());
+            assertArrayEquals(message.getBytes(), decoded.getBytes());
+        }
+    }
+
+    @Test
+    public void decodesEscapedStrings() {
+        String json = "{\"tag\":\"a\\\"b\\\\c\\/d\",\"publisher\":\"line\\nnext\\ttab\\r\","
+                + "\"infotype\":\"\\u00e9t\\u00e9 \\ud83d\\ude00\",\"infoformat\":\"\u65e5\u672c\"}";
+        for (ByteBuf buf : new ByteBuf[] {heap(json), direct(json)}) {
+            IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(buf));
+            assertEquals("a\"b\\c/d", message.getTag());
+            assertEquals("line\nnext\ttab\r", message.getPublisher());
+            assertEquals("\u00e9t\u00e9 \ud83d\ude00", message.getInfoType());
+            assertEquals("\u65e5\u672c", message.getInfoFormat());
+        }
+    }
+
+    @Test
+    public void decodesBase64WithEscapedSlashes() {
+        byte[] data = {(byte) 0xff, (byte) 0xff, (byte) 0xfe, (byte) 0xfb, (byte) 0xef, 0x3f, 1};
+        assertEquals("///+++8/AQ==", new String(Base64.getEncoder().encode(data), StandardCharsets.US_ASCII));
+        String json = "{\"contextdata\":\"\\/\\/\\/+++8\\/AQ==\",\"contentdata\":\"\\/\\/\\/+++8\\/AQ==\"}";
+        for (ByteBuf buf : new ByteBuf[] {heap(json), direct(json)}) {
+            IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(buf));
+            assertArrayEquals(data, message.getContextData());
+            assertArrayEquals(data, message.getContentData());
+
+            buf.readerIndex(0);
+            IOMessage pooled = IOMessageJsonCodec.decode(new ByteBufJsonReader(buf), IOMessage.obtain());
+            try {
+                assertArrayEquals(data, pooled.getContentData());
+            } finally {
+                pooled.release();
+            }
+        }
+    }
+
+    @Test
+    public void skipsUnknownFields() {
+        String json = "{\"unknown\":{\"tag\":\"inner\",\"list\":[1,{\"a\":\"}\"},[]],\"s\":\"]\"},"
+                + "\"tag\":\"outer\",\"flag\":true,\"nothing\":null,\"number\":-1.5e3,"
+                + "\"t\\u0061g\":\"escaped key\",\"groupid\":null,"
+                + "\"timestamp\":\"1466598744000\",\"priority\":7}";
+        IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(heap(json)));
+        assertEquals("outer", message.getTag());
+        assertEquals("", message.getGroupId());
+        assertEquals(1466598744000L, message.getTimestamp());
+        assertEquals(7, message.getPriority());
+    }
+
+    @Test
+    public void decodesOnlyRequestedFields() {
+        IOMessage message = IOMessageJsonCodec.decode(new ByteBufJsonReader(heap(encode(message()))), new IOMessage(),
+                EnumSet.of(IOMessageField.TAG, IOMessageField.CONTENT_DATA));
+        assertEquals("quoted \"tag\"", message.getTag());
+        assertEquals("", message.getPublisher());
+        assertNull(message.getContextData());
+        assertArrayEquals(message().getContentData(), message.getContentData());
+    }
+
+    @Test
+    public void readsArrayOfMessages() {
+        String json = "[" + encode(message()) + " , " + encode(new IOMessage()) + "]";
+        ByteBufJsonReader reader = new ByteBufJsonReader(heap(json));
+        reader.beginArray();
+        assertTrue(reader.hasNext());
+        assertEquals("quoted \"tag\"", IOMessageJsonCodec.decode(reader).getTag());
+        assertTrue(reader.hasNext());
+        assertEquals("", IOMessageJsonCodec.decode(reader).getTag());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+    }
+
+    private static IOMessage message() {
+        IOMessage message = new IOMessage();
+        message.setId("id-1");
+        message.setTag("quoted \"tag\"");
+        message.setGroupId("back\\slash");
+        message.setSequenceNumber(1);
+        message.setSequenceTotal(2);
+        message.setPriority((byte) 3);
+        message.setTimestamp(1466598744000L);
+        message.setPublisher("line\nbreak\ttab\r\u0001");
+        message.setAuthId("auth");
+        message.setAuthGroup("group/with/slashes");
+        message.setChainPosition(-5L);
+        message.setHash("hash");
+        message.setPreviousHash("");
+        message.setNonce("n");
+        message.setDifficultyTarget(10);
+        message.setInfoType("\u00e9t\u00e9 \u65e5\u672c \ud83d\ude00");
+        message.setInfoFormat("text/plain");
+        message.setContextData(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, 0});
+        message.setContentData("content with \"quotes\"".getBytes(StandardCharsets.UTF_8));
+        return message;
+    }
+
+    private static String encode(IOMessage message) {
+        ByteBuf out = Unpooled.buffer();
+        IOMessageJsonCodec.encode(message, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuf heap(String json) {
+        return Unpooled.wrappedBuffer(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuf direct(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return Unpooled.directBuffer(bytes.length).writeBytes(bytes);
+    }
+}
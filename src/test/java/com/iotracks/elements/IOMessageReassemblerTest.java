@@ -0,0 +1,136 @@
+package com.iotracks.elements;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IOMessageReassemblerTest {
+
+    @Test
+    public void joinsPartsReceivedOutOfOrder() {
+        IOMessage message = message("big", 10000);
+        message.setContextData(new byte[] {1, 2, 3});
+        List<IOMessage> parts = received(IOMessageFragmenter.split(message, 1000));
+        assertEquals(10, parts.size());
+        Collections.shuffle(parts, new Random(7));
+
+        IOMessageReassembler reassembler = new IOMessageReassembler();
+        IOMessage joined = null;
+        for (int i = 0; i < parts.size(); i++) {
+            assertTrue(IOMessageFragmenter.isFragment(parts.get(i)));
+            joined = reassembler.add(parts.get(i));
+            if (i < parts.size() - 1) {
+                assertNull(joined);
+            }
+        }
+        assertNotNull(joined);
+        assertEquals("big", joined.getTag());
+        assertEquals("publisher", joined.getPublisher());
+        assertArrayEquals(message.getContentData(), joined.getContentData());
+        assertArrayEquals(message.getContextData(), joined.getContextData());
+        assertEquals(0, reassembler.getPendingGroups());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    public void interleavedGroupsAreJoinedSeparately() {
+        List<IOMessage> first = received(IOMessageFragmenter.split(message("first", 3000), 1000));
+        List<IOMessage> second = received(IOMessageFragmenter.split(message("second", 3000), 1000));
+        IOMessageReassembler reassembler = new IOMessageReassembler();
+
+        assertNull(reassembler.add(second.get(2)));
+        assertNull(reassembler.add(first.get(1)));
+        assertNull(reassembler.add(second.get(0)));
+        assertNull(reassembler.add(first.get(2)));
+        assertEquals(2, reassembler.getPendingGroups());
+        assertEquals("second", reassembler.add(second.get(1)).getTag());
+        assertEquals("first", reassembler.add(first.get(0)).getTag());
+    }
+
+    @Test
+    public void duplicatePartIsIgnored() {
+        List<IOMessage> parts = received(IOMessageFragmenter.split(message("dup", 2000), 1000));
+        IOMessageReassembler reassembler = new IOMessageReassembler();
+
+        assertNull(reassembler.add(parts.get(1)));
+        assertNull(reassembler.add(parts.get(1)));
+        assertEquals(1000, reassembler.getBufferedBytes());
+        assertEquals(2000, reassembler.add(parts.get(0)).getContentDataLength());
+    }
+
+    @Test
+    public void oldestGroupIsEvictedWhenBufferIsFull() {
+        List<IOMessage> first = received(IOMessageFragmenter.split(message("first", 3000), 1000));
+        List<IOMessage> second = received(IOMessageFragmenter.split(message("second", 3000), 1000));
+        IOMessageReassembler reassembler = new IOMessageReassembler(3500, IOMessageReassembler.DEFAULT_GROUP_TIMEOUT);
+
+        assertNull(reassembler.add(first.get(2)));
+        assertNull(reassembler.add(first.get(0)));
+        assertNull(reassembler.add(second.get(1)));
+        assertEquals(2, reassembler.getPendingGroups());
+        assertEquals(3000, reassembler.getBufferedBytes());
+
+        assertNull(reassembler.add(second.get(2)));
+        assertEquals(1, reassembler.getPendingGroups());
+        assertEquals(2000, reassembler.getBufferedBytes());
+        assertEquals(1, reassembler.getDroppedGroups());
+        assertEquals("second", reassembler.add(second.get(0)).getTag());
+        // remaining part of evicted group starts it again and never completes it
+        assertNull(reassembler.add(first.get(1)));
+        assertEquals(1, reassembler.getPendingGroups());
+    }
+
+    @Test
+    public void incompleteGroupExpires() throws InterruptedException {
+        List<IOMessage> parts = received(IOMessageFragmenter.split(message("late", 2000), 1000));
+        IOMessageReassembler reassembler = new IOMessageReassembler(IOMessageReassembler.DEFAULT_MAX_BUFFERED_BYTES, 20);
+
+        assertNull(reassembler.add(parts.get(0)));
+        Thread.sleep(50);
+        reassembler.purgeExpired();
+        assertEquals(0, reassembler.getPendingGroups());
+        assertEquals(0, reassembler.getBufferedBytes());
+        assertEquals(1, reassembler.getDroppedGroups());
+        assertNull(reassembler.add(parts.get(1)));
+    }
+
+    @Test
+    public void partBiggerThanBufferIsDropped() {
+        List<IOMessage> parts = received(IOMessageFragmenter.split(message("huge", 4000), 2000));
+        IOMessageReassembler reassembler = new IOMessageReassembler(1000, IOMessageReassembler.DEFAULT_GROUP_TIMEOUT);
+
+        assertNull(reassembler.add(parts.get(0)));
+        assertEquals(0, reassembler.getPendingGroups());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    /**
+     * Parts as they are received: decoded from binary form.
+     */
+    private static List<IOMessage> received(List<IOMessage> parts) {
+        List<IOMessage> received = new ArrayList<>(parts.size());
+        for (IOMessage part : parts) {
+            received.add(new IOMessage(part.getBytes()));
+        }
+        return received;
+    }
+
+    private static IOMessage message(String tag, int contentLength) {
+        IOMessage message = new IOMessage();
+        message.setTag(tag);
+        message.setPublisher("publisher");
+        byte[] content = new byte[contentLength];
+        new Random(contentLength).nextBytes(content);
+        message.setContentData(content);
+        return message;
+    }
+}
@@ -0,0 +1,217 @@
+package com.iotracks.elements;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IOMessageTest {
+
+    // encoded by the SDK before messages were decoded lazily
+    private static final byte[] FULL = hex("00040300030304040108030004000208000400040002040403000000030000000769643174616767727000000003000002bc"
+            + "050000015d3ef7980070756261757468616700000000075bcd1568617368707265766e300000000c74797065666d74010203636f6e74656e74");
+    private static final byte[] SPARSE = hex("0004000000000000000001000000000000000000000000000000000000000000017009");
+    // lengths of strings are their UTF-8 lengths
+    private static final byte[] NON_ASCII = hex("000400000600000000000500000000000000000000000006000000000000000001"
+            + "d182d0b5d0b3c3bc6ec3afe697a5e69cac07");
+
+    @Test
+    public void decodesFullMessage() {
+        IOMessage message = new IOMessage(FULL);
+        assertEquals(4, message.getVersion());
+        assertEquals("id1", message.getId());
+        assertEquals("tag", message.getTag());
+        assertEquals("grp", message.getGroupId());
+        assertEquals(3, (int) message.getSequenceNumber());
+        assertEquals(700, (int) message.getSequenceTotal());
+        assertEquals(5, message.getPriority());
+        assertEquals(1500000000000L, message.getTimestamp());
+        assertEquals("pub", message.getPublisher());
+        assertEquals("auth", message.getAuthId());
+        assertEquals("ag", message.getAuthGroup());
+        assertEquals(123456789L, message.getChainPosition());
+        assertEquals("hash", message.getHash());
+        assertEquals("prev", message.getPreviousHash());
+        assertEquals("n0", message.getNonce());
+        assertEquals(12, message.getDifficultyTarget());
+        assertEquals("type", message.getInfoType());
+        assertEquals("fmt", message.getInfoFormat());
+        assertArrayEquals(new byte[] {1, 2, 3}, message.getContextData());
+        assertArrayEquals("content".getBytes(StandardCharsets.US_ASCII), message.getContentData());
+    }
+
+    @Test
+    public void encodesFullMessage() {
+        IOMessage message = new IOMessage();
+        message.setId("id1");
+        message.setTag("tag");
+        message.setGroupId("grp");
+        message.setSequenceNumber(3);
+        message.setSequenceTotal(700);
+        message.setPriority((byte) 5);
+        message.setTimestamp(1500000000000L);
+        message.setPublisher("pub");
+        message.setAuthId("auth");
+        message.setAuthGroup("ag");
+        message.setChainPosition(123456789L);
+        message.setHash("hash");
+        message.setPreviousHash("prev");
+        message.setNonce("n0");
+        message.setDifficultyTarget(12);
+        message.setInfoType("type");
+        message.setInfoFormat("fmt");
+        message.setContextData(new byte[] {1, 2, 3});
+        message.setContentData("content".getBytes(StandardCharsets.US_ASCII));
+        assertArrayEquals(FULL, message.getBytes());
+        assertEquals(FULL.length, message.getEncodedLength());
+    }
+
+    @Test
+    public void roundTripsFixedMessages() {
+        for (byte[] bytes : new byte[][] {FULL, SPARSE, NON_ASCII}) {
+            assertArrayEquals(bytes, new IOMessage(bytes).getBytes());
+            // fields read before encoding
+            IOMessage message = new IOMessage(bytes);
+            message.getTag();
+            message.getContentData();
+            assertArrayEquals(bytes, message.getBytes());
+        }
+    }
+
+    @Test
+    public void roundTripsSparseMessage() {
+        IOMessage message = new IOMessage();
+        message.setPublisher("p");
+        message.setContentData(new byte[] {9});
+        assertArrayEquals(SPARSE, message.getBytes());
+
+        IOMessage decoded = new IOMessage(SPARSE);
+        assertEquals("", decoded.getId());
+        assertEquals("", decoded.getTag());
+        assertEquals(0, (int) decoded.getSequenceNumber());
+        assertEquals(0L, decoded.getTimestamp());
+        assertEquals("p", decoded.getPublisher());
+        assertNull(decoded.getContextData());
+        assertArrayEquals(new byte[] {9}, decoded.getContentData());
+    }
+
+    @Test
+    public void roundTripsNonAsciiStrings() {
+        IOMessage message = new IOMessage();
+        message.setTag("\u0442\u0435\u0433");
+        message.setPublisher("\u00fcn\u00ef");
+        message.setInfoType("\u65e5\u672c");
+        message.setContentData(new byte[] {7});
+        assertArrayEquals(NON_ASCII, message.getBytes());
+
+        IOMessage decoded = new IOMessage(NON_ASCII);
+        assertEquals("\u0442\u0435\u0433", decoded.getTag());
+        assertEquals("\u00fcn\u00ef", decoded.getPublisher());
+        assertEquals("\u65e5\u672c", decoded.getInfoType());
+    }
+
+    @Test
+    public void changedFieldIsEncoded() {
+        IOMessage message = new IOMessage(FULL);
+        message.setTag("\u00e9t\u00e9");
+        message.setContentData(new byte[0]);
+        IOMessage decoded = new IOMessage(message.getBytes());
+        assertEquals("\u00e9t\u00e9", decoded.getTag());
+        assertEquals("pub", decoded.getPublisher());
+        assertEquals(0, decoded.getContentDataLength());
+        assertArrayEquals(new byte[] {1, 2, 3}, decoded.getContextData());
+    }
+
+    @Test
+    public void projectedMessageSkipsOtherFields() {
+        IOMessage message = new IOMessage(FULL).project(EnumSet.of(IOMessageField.TAG, IOMessageField.CONTENT_DATA));
+        assertEquals("tag", message.getTag());
+        assertEquals("", message.getPublisher());
+        assertArrayEquals("content".getBytes(StandardCharsets.US_ASCII), message.getContentData());
+    }
+
+    @Test
+    public void viewRetainsBufferUntilReleased() {
+        ByteBuf buf = Unpooled.wrappedBuffer(FULL);
+        IOMessage message = new IOMessage(buf);
+        assertEquals(2, buf.refCnt());
+        assertEquals("tag", message.getTag());
+        assertTrue(message.release());
+        assertEquals(1, buf.refCnt());
+    }
+
+    @Test
+    public void rejectsTruncatedMessage() {
+        byte[] truncated = new byte[FULL.length - 1];
+        System.arraycopy(FULL, 0, truncated, 0, truncated.length);
+        ByteBuf buf = Unpooled.wrappedBuffer(truncated);
+        try {
+            new IOMessage(buf);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(1, buf.refCnt());
+        }
+    }
+
+    @Test
+    public void unsupportedVersionIsLeftEmpty() {
+        byte[] bytes = SPARSE.clone();
+        bytes[1] = 3;
+        IOMessage message = new IOMessage(bytes);
+        assertEquals(3, message.getVersion());
+        assertEquals("", message.getPublisher());
+        assertNull(message.getContentData());
+    }
+
+    @Test
+    public void pooledMessageIsResetWhenReleased() {
+        IOMessage message = IOMessage.obtain();
+        assertTrue(message.isPooled());
+        message.setTag("pooled");
+        message.setTimestamp(42L);
+        message.setContentData(new byte[] {1});
+        assertTrue(message.release());
+
+        IOMessage next = IOMessage.obtain();
+        assertEquals(1, next.refCnt());
+        assertEquals("", next.getTag());
+        assertEquals(0L, next.getTimestamp());
+        assertNull(next.getContentData());
+        next.release();
+    }
+
+    @Test
+    public void pooledViewReleasesBuffer() {
+        ByteBuf buf = Unpooled.wrappedBuffer(FULL);
+        IOMessage message = IOMessage.obtain(buf);
+        assertEquals(2, buf.refCnt());
+        assertEquals("pub", message.getPublisher());
+        message.retain();
+        assertFalse(message.release());
+        assertEquals(2, buf.refCnt());
+        assertTrue(message.release());
+        assertEquals(1, buf.refCnt());
+
+        IOMessage next = IOMessage.obtain();
+        assertEquals("", next.getPublisher());
+        assertEquals(4, next.getVersion());
+        next.release();
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
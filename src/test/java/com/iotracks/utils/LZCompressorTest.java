@@ -0,0 +1,88 @@
+package com.iotracks.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LZCompressorTest {
+
+    @Test
+    public void roundTrips() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append("{\"temperature\":").append(i % 40).append(",\"unit\":\"C\"}\n");
+        }
+        byte[] random = new byte[5000];
+        new Random(1).nextBytes(random);
+        byte[][] inputs = {
+                new byte[0],
+                "short".getBytes(StandardCharsets.UTF_8),
+                text.toString().getBytes(StandardCharsets.UTF_8),
+                new byte[100000],
+                random
+        };
+        for (byte[] input : inputs) {
+            byte[] compressed = LZCompressor.compress(input, 0, input.length);
+            assertTrue(compressed.length <= LZCompressor.maxCompressedLength(input.length));
+            assertArrayEquals(input, LZCompressor.decompress(compressed));
+        }
+    }
+
+    @Test
+    public void compressesRange() {
+        byte[] input = "xxxxabcabcabcabcabcabcabcabcyyyy".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = LZCompressor.compress(input, 4, input.length - 8);
+        assertEquals("abcabcabcabcabcabcabcabc", new String(LZCompressor.decompress(compressed), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void varIntRoundTrips() {
+        byte[] buf = new byte[5];
+        for (int value : new int[] {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE}) {
+            int end = LZCompressor.writeVarInt(buf, 0, value);
+            int[] pos = new int[1];
+            assertEquals(value, LZCompressor.readVarInt(buf, pos));
+            assertEquals(end, pos[0]);
+        }
+    }
+
+    @Test
+    public void rejectsDeclaredLengthBeyondCompressedSize() {
+        // 5-byte varint declaring 2 GB followed by nothing
+        byte[] data = new byte[5];
+        LZCompressor.writeVarInt(data, 0, Integer.MAX_VALUE);
+        expectIllegalArgument(data, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void rejectsDeclaredLengthAboveMax() {
+        byte[] input = new byte[10000];
+        byte[] compressed = LZCompressor.compress(input, 0, input.length);
+        assertEquals(10000, LZCompressor.decompress(compressed, 10000).length);
+        expectIllegalArgument(compressed, 9999);
+    }
+
+    @Test
+    public void rejectsMalformedData() {
+        byte[] input = "abcdefghabcdefghabcdefghabcdefgh".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = LZCompressor.compress(input, 0, input.length);
+        byte[] truncated = new byte[compressed.length - 3];
+        System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+        expectIllegalArgument(truncated, Integer.MAX_VALUE);
+    }
+
+    private static void expectIllegalArgument(byte[] data, int maxLength) {
+        try {
+            LZCompressor.decompress(data, maxLength);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
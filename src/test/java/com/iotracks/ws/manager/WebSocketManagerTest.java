@@ -0,0 +1,81 @@
+package com.iotracks.ws.manager;
+
+import com.iotracks.elements.IOMessage;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class WebSocketManagerTest {
+
+    @Test
+    public void receiptsOfBatchAreMatchedInOrder() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        WebSocketManager wsManager = new WebSocketManager(null);
+        IOMessage first = message("first");
+        IOMessage second = message("second");
+        IOMessage later = message("later");
+
+        wsManager.sendMessages(ctx, Arrays.asList(first, second));
+        wsManager.sendMessage(ctx, later);
+        assertEquals(2, first.refCnt());
+        assertEquals(1, later.refCnt());
+
+        assertSame(first, wsManager.getMessage(ctx));
+        assertSame(first, wsManager.onReceipt(ctx));
+        assertSame(second, wsManager.onReceipt(ctx));
+        assertNull(wsManager.onReceipt(ctx));
+
+        ack(wsManager, ctx);
+        assertEquals(1, first.refCnt());
+        assertEquals(1, second.refCnt());
+        assertNull(wsManager.getMessage(ctx));
+        releaseOutbound(channel);
+    }
+
+    @Test
+    public void rawMessageIsDecodedOnlyForReceipt() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        WebSocketManager wsManager = new WebSocketManager(null);
+
+        wsManager.sendMessage(ctx, new byte[] {1, 2, 3});
+        wsManager.sendMessage(ctx, message("second").getBytes());
+        assertNull(wsManager.onReceipt(ctx));
+        ack(wsManager, ctx);
+
+        wsManager.sendMessage(ctx, message("raw").getBytes());
+        assertEquals("raw", wsManager.onReceipt(ctx).getTag());
+        ack(wsManager, ctx);
+        releaseOutbound(channel);
+    }
+
+    private static void ack(WebSocketManager wsManager, ChannelHandlerContext ctx) {
+        BinaryWebSocketFrame frame = new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[] {WebSocketManager.OPCODE_ACK}));
+        wsManager.eatFrame(ctx, frame);
+        frame.release();
+    }
+
+    private static void releaseOutbound(EmbeddedChannel channel) {
+        Object frame;
+        while ((frame = channel.readOutbound()) != null) {
+            ((BinaryWebSocketFrame) frame).release();
+        }
+    }
+
+    private static IOMessage message(String tag) {
+        IOMessage message = new IOMessage();
+        message.setTag(tag);
+        message.setContentData(new byte[] {1});
+        return message;
+    }
+}